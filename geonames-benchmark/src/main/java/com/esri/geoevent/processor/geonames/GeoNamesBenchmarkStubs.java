@@ -0,0 +1,252 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.esri.core.geometry.Geometry;
+import com.esri.core.geometry.MapGeometry;
+import com.esri.core.geometry.Point;
+import com.esri.core.geometry.SpatialReference;
+import com.esri.ges.core.geoevent.GeoEvent;
+import com.esri.ges.core.geoevent.GeoEventDefinition;
+import com.esri.ges.messaging.EventDestination;
+import com.esri.ges.messaging.GeoEventCreator;
+import com.esri.ges.messaging.GeoEventProducer;
+import com.esri.ges.messaging.Messaging;
+
+/**
+ * Stand-ins for the GeoEvent Server messaging services, so the processors can run outside of the server.
+ * 
+ * The stubs are dynamic proxies so that they do not depend on the full SDK interfaces. Each created GeoEvent holds its
+ * fields in an Object[] like the server's own, and each proxy call allocates its argument array; both are the same for
+ * every run, so they cancel out when comparing results.
+ */
+public final class GeoNamesBenchmarkStubs
+{
+	private static final int										FIELD_COUNT	= 17;
+	private static final Constructor<?>				GEOEVENT_CONSTRUCTOR;
+
+	static
+	{
+		try
+		{
+			GEOEVENT_CONSTRUCTOR = Proxy.getProxyClass(GeoEvent.class.getClassLoader(), GeoEvent.class).getConstructor(InvocationHandler.class);
+		}
+		catch (NoSuchMethodException e)
+		{
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private GeoNamesBenchmarkStubs()
+	{
+	}
+
+	/**
+	 * Counts the GeoEvents sent by a processor.
+	 */
+	public static class SentCounter
+	{
+		private final AtomicLong	sent	= new AtomicLong();
+
+		public long get()
+		{
+			return sent.get();
+		}
+
+		void increment()
+		{
+			sent.incrementAndGet();
+		}
+	}
+
+	public static Messaging messaging(final SentCounter counter)
+	{
+		final GeoEventCreator creator = proxy(GeoEventCreator.class, new InvocationHandler()
+			{
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+				{
+					if (method.getName().equals("create"))
+						return geoEvent(new Object[FIELD_COUNT], null);
+					return defaultValue(method);
+				}
+			});
+		return proxy(Messaging.class, new InvocationHandler()
+			{
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+				{
+					if (method.getName().equals("createGeoEventCreator"))
+						return creator;
+					if (method.getName().equals("createGeoEventProducer"))
+						return producer((EventDestination) args[0], counter);
+					return defaultValue(method);
+				}
+			});
+	}
+
+	public static GeoEventProducer producer(final EventDestination destination, final SentCounter counter)
+	{
+		return proxy(GeoEventProducer.class, new InvocationHandler()
+			{
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+				{
+					String name = method.getName();
+					if (name.equals("send"))
+						counter.increment();
+					else if (name.equals("getEventDestination"))
+						return destination;
+					else if (name.equals("getEventDestinations"))
+						return Collections.singletonList(destination);
+					else if (name.equals("isConnected"))
+						return Boolean.TRUE;
+					else if (name.equals("getStatusDetails"))
+						return "";
+					return defaultValue(method);
+				}
+			});
+	}
+
+	/**
+	 * An incoming track GeoEvent at the given location.
+	 */
+	public static GeoEvent trackGeoEvent(String trackId, double lat, double lon)
+	{
+		return trackGeoEvent(trackId, new MapGeometry(new Point(lon, lat), SpatialReference.create(4326)));
+	}
+
+	/**
+	 * An incoming track GeoEvent with the given geometry, such as a route.
+	 */
+	public static GeoEvent trackGeoEvent(String trackId, Geometry geometry, SpatialReference spatialReference)
+	{
+		return trackGeoEvent(trackId, new MapGeometry(geometry, spatialReference));
+	}
+
+	private static GeoEvent trackGeoEvent(String trackId, MapGeometry geometry)
+	{
+		return geoEvent("track", trackId, geometry);
+	}
+
+	/**
+	 * An incoming GeoEvent of the incident GeoEvent definition, which the processors look up ahead of tracks by default.
+	 */
+	public static GeoEvent incidentGeoEvent(String trackId, double lat, double lon)
+	{
+		return geoEvent("incident", trackId, new MapGeometry(new Point(lon, lat), SpatialReference.create(4326)));
+	}
+
+	public static GeoEvent incidentGeoEvent(String trackId, Geometry geometry, SpatialReference spatialReference)
+	{
+		return geoEvent("incident", trackId, new MapGeometry(geometry, spatialReference));
+	}
+
+	private static GeoEvent geoEvent(final String definitionName, String trackId, MapGeometry geometry)
+	{
+		Object[] fields = new Object[] { trackId, new Date(), geometry };
+		final GeoEventDefinition definition = proxy(GeoEventDefinition.class, new InvocationHandler()
+			{
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+				{
+					if (method.getName().equals("getName"))
+						return definitionName;
+					return defaultValue(method);
+				}
+			});
+		return geoEvent(fields, definition);
+	}
+
+	private static GeoEvent geoEvent(final Object[] fields, final GeoEventDefinition definition)
+	{
+		InvocationHandler handler = new InvocationHandler()
+			{
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+				{
+					String name = method.getName();
+					if (name.equals("setField") && args[0] instanceof Integer)
+						fields[(Integer) args[0]] = args[1];
+					else if (name.equals("getField") && args[0] instanceof Integer)
+						return fields[(Integer) args[0]];
+					else if (name.equals("getTrackId"))
+						return fields[0];
+					else if (name.equals("getStartTime"))
+						return fields[1];
+					else if (name.equals("getGeometry"))
+						return fields[2];
+					else if (name.equals("getGeoEventDefinition"))
+						return definition;
+					else if (name.equals("createFieldGroup"))
+						return geoEvent(new Object[FIELD_COUNT], null);
+					return defaultValue(method);
+				}
+			};
+		try
+		{
+			return (GeoEvent) GEOEVENT_CONSTRUCTOR.newInstance(handler);
+		}
+		catch (Exception e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static <T> T proxy(Class<T> type, InvocationHandler handler)
+	{
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, handler));
+	}
+
+	private static Object defaultValue(Method method)
+	{
+		Class<?> type = method.getReturnType();
+		if (!type.isPrimitive() || type == void.class)
+			return null;
+		if (type == boolean.class)
+			return Boolean.FALSE;
+		if (type == char.class)
+			return Character.valueOf((char) 0);
+		if (type == long.class)
+			return Long.valueOf(0);
+		if (type == float.class)
+			return Float.valueOf(0);
+		if (type == double.class)
+			return Double.valueOf(0);
+		if (type == byte.class)
+			return Byte.valueOf((byte) 0);
+		if (type == short.class)
+			return Short.valueOf((short) 0);
+		return Integer.valueOf(0);
+	}
+}
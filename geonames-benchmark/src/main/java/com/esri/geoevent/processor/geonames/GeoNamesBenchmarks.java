@@ -0,0 +1,56 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the GeoNames benchmarks with the GC profiler, which adds the bytes allocated per operation
+ * (gc.alloc.rate.norm) to the results. Any JMH command line option is accepted, for example a benchmark name regex or
+ * <code>-p rows=2000</code>.
+ * 
+ * <pre>
+ * mvn install -Pbenchmark
+ * java -jar geonames-benchmark/target/benchmarks.jar [JMH options]
+ * </pre>
+ */
+public class GeoNamesBenchmarks
+{
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException
+	{
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+		OptionsBuilder options = new OptionsBuilder();
+		options.parent(commandLine);
+		if (commandLine.getIncludes().isEmpty())
+			options.include("com\\.esri\\.geoevent\\.processor\\.geonames\\.GeoNames.*Benchmark");
+		options.addProfiler(GCProfiler.class);
+		new Runner(options.build()).run();
+	}
+}
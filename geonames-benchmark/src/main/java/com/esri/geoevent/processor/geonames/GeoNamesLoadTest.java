@@ -0,0 +1,479 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.esri.core.geometry.Geometry;
+import com.esri.core.geometry.Point;
+import com.esri.core.geometry.Polyline;
+import com.esri.core.geometry.SpatialReference;
+import com.esri.ges.core.geoevent.GeoEvent;
+import com.esri.ges.core.property.Property;
+import com.esri.ges.core.property.PropertyDefinition;
+import com.esri.ges.core.property.PropertyException;
+import com.esri.ges.processor.GeoEventProcessorDefinition;
+
+/**
+ * Drives synthetic track GeoEvents through a GeoNames processor's process() method, against a
+ * {@link GeoNamesStubServer} or any other server given by baseUrl, and reports the sustained event rate and the p50,
+ * p99 and p999 latency of process() at each concurrency level.
+ * 
+ * In asynchronous execution mode process() only queues the lookup, so its latency is the time spent waiting for room
+ * in the queue. Lookups that fail are logged by the processor, not thrown, so failures only counts process() calls that
+ * threw.
+ * 
+ * With incidents set to a percentage, that share of the tracks report as incidents, whose latency is also reported on
+ * its own. With priorityEvents=incident as well, the processor looks them up ahead of the other tracks.
+ * 
+ * <pre>
+ * java -cp benchmarks.jar com.esri.geoevent.processor.geonames.GeoNamesLoadTest [service=wikipedia|osm|combined] [concurrency=1,4,16,64]
+ *     [duration=10] [warmup=3] [tracks=1000] [rows=50] [latency=50] [jitter=0] [slowRate=0] [slowLatency=1000] [httpErrors=0]
+ *     [statusErrors=0] [credits=0] [compression=true] [payloads=dir] [usernames=loadtest] [requestsPerSecond=0] [requestsPerHour=0] [accountSuspension=600] [connectTimeout=5000] [readTimeout=10000] [circuitBreakerFailures=5] [hedgePercentile=0]
+ *     [baseUrl=url] [cacheCapacity=10000] [cellPrecision=7] [tileSize=0] [tileMaxRows=500] [tileLevels=4] [anchored=false] [density=0] [diskCacheFile=path] [prewarmArea=minLon,minLat,maxLon,maxLat]
+ *     [prewarmMaxCells=1000] [prewarmRequestsPerSecond=0] [executionMode=Synchronous|Asynchronous] [workerThreads=4] [queueDepth=1000]
+ *     [trackSuppression=Off|Skip|Reuse] [trackMinDistance=50] [emissionMode=All|Added|Added_And_Removed]
+ *     [outputMode=One GeoEvent Per Result|One GeoEvent Per Input] [route=0] [geometryMaxLookups=100] [webMercator=false]
+ *     [incidents=0] [priorityEvents=] [priorityReserve=0]
+ * </pre>
+ * 
+ * With route set to a length in degrees, each GeoEvent is a polyline of that length heading east from the track's
+ * location instead of a point. With webMercator the geometries are sent in Web Mercator rather than WGS84.
+ */
+public class GeoNamesLoadTest
+{
+	private static final double	ORIGIN_LAT	= 34.0564;
+	private static final double	ORIGIN_LON	= -117.1956;
+	private static final double	SPREAD			= 1.0;
+	private static final double	STEP				= 0.0005;
+	private static final int		ROUTE_VERTICES	= 10;
+
+	/**
+	 * key=value command line arguments.
+	 */
+	static class Arguments
+	{
+		private final Map<String, String>	values	= new HashMap<String, String>();
+
+		Arguments(String[] args)
+		{
+			for (String arg : args)
+			{
+				int equals = arg.indexOf('=');
+				if (equals <= 0)
+					throw new IllegalArgumentException("Expected key=value but got " + arg);
+				values.put(arg.substring(0, equals), arg.substring(equals + 1));
+			}
+		}
+
+		String getString(String key, String defaultValue)
+		{
+			String value = values.get(key);
+			return (value != null) ? value : defaultValue;
+		}
+
+		int getInt(String key, int defaultValue)
+		{
+			String value = values.get(key);
+			return (value != null) ? Integer.parseInt(value) : defaultValue;
+		}
+
+		double getDouble(String key, double defaultValue)
+		{
+			String value = values.get(key);
+			return (value != null) ? Double.parseDouble(value) : defaultValue;
+		}
+
+		int[] getInts(String key, int[] defaultValue)
+		{
+			String value = values.get(key);
+			if (value == null)
+				return defaultValue;
+			String[] parts = value.split(",");
+			int[] ints = new int[parts.length];
+			for (int i = 0; i < parts.length; i++)
+				ints[i] = Integer.parseInt(parts[i].trim());
+			return ints;
+		}
+	}
+
+	/**
+	 * Latencies recorded by one driver thread, in nanoseconds.
+	 */
+	private static class Recorder
+	{
+		long[]	latencies	= new long[1 << 16];
+		int			count;
+		int			failures;
+
+		void record(long latency)
+		{
+			if (count == latencies.length)
+				latencies = Arrays.copyOf(latencies, count * 2);
+			latencies[count++] = latency;
+		}
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		Arguments arguments = new Arguments(args);
+		String service = arguments.getString("service", "wikipedia").toLowerCase(Locale.ROOT);
+		int[] concurrencyLevels = arguments.getInts("concurrency", new int[] { 1, 4, 16, 64 });
+		int warmupSeconds = arguments.getInt("warmup", 3);
+		int durationSeconds = arguments.getInt("duration", 10);
+		int tracks = arguments.getInt("tracks", 1000);
+
+		GeoNamesStubServer server = null;
+		String baseUrl = arguments.getString("baseUrl", null);
+		if (baseUrl == null)
+		{
+			String directory = arguments.getString("payloads", null);
+			server = new GeoNamesStubServer(0, arguments.getInt("rows", 50), directory != null ? new File(directory) : null, arguments.getDouble("latency", 50), arguments.getDouble("jitter", 0), arguments.getDouble("httpErrors", 0), arguments.getDouble("statusErrors", 0));
+			server.setSlowRequests(arguments.getDouble("slowRate", 0), arguments.getDouble("slowLatency", 1000));
+			server.setCredits(arguments.getInt("credits", 0));
+			server.setCompression(Boolean.parseBoolean(arguments.getString("compression", "true")));
+			server.setAnchored(Boolean.parseBoolean(arguments.getString("anchored", "false")));
+			server.setDensity(arguments.getDouble("density", 0));
+			server.start();
+			baseUrl = server.getBaseUrl();
+		}
+
+		Map<String, Object> properties = new HashMap<String, Object>();
+		properties.put(GeoNamesProcessorDefinitionBase.GEONAMES_USERNAME_PROPERTY, arguments.getString("usernames", "loadtest"));
+		properties.put(GeoNamesProcessorDefinitionBase.GEONAMES_BASE_URL_PROPERTY, baseUrl);
+		properties.put(GeoNamesProcessorDefinitionBase.GEONAMES_ACCOUNT_SUSPENSION_PROPERTY, arguments.getInt("accountSuspension", GeoNamesRateLimiter.DEFAULT_SUSPENSION_SECONDS));
+		properties.put(GeoNamesProcessorDefinitionBase.GEONAMES_REQUESTS_PER_SECOND_PROPERTY, arguments.getInt("requestsPerSecond", 0));
+		properties.put(GeoNamesProcessorDefinitionBase.GEONAMES_REQUESTS_PER_HOUR_PROPERTY, arguments.getInt("requestsPerHour", 0));
+		properties.put(GeoNamesProcessorDefinitionBase.GEONAMES_CONNECT_TIMEOUT_PROPERTY, arguments.getInt("connectTimeout", GeoNamesHttpClient.DEFAULT_CONNECT_TIMEOUT_MILLIS));
+		properties.put(GeoNamesProcessorDefinitionBase.GEONAMES_READ_TIMEOUT_PROPERTY, arguments.getInt("readTimeout", GeoNamesHttpClient.DEFAULT_READ_TIMEOUT_MILLIS));
+		properties.put(GeoNamesProcessorDefinitionBase.GEONAMES_CIRCUIT_BREAKER_FAILURES_PROPERTY, arguments.getInt("circuitBreakerFailures", GeoNamesCircuitBreaker.DEFAULT_FAILURE_THRESHOLD));
+		properties.put(GeoNamesProcessorDefinitionBase.GEONAMES_HEDGE_PERCENTILE_PROPERTY, arguments.getInt("hedgePercentile", 0));
+		properties.put(GeoNamesProcessorDefinitionBase.GEONAMES_CACHE_CAPACITY_PROPERTY, arguments.getInt("cacheCapacity", GeoNamesLookupCache.DEFAULT_CAPACITY));
+		properties.put(GeoNamesProcessorDefinitionBase.GEONAMES_CACHE_CELL_PRECISION_PROPERTY, arguments.getInt("cellPrecision", GeoNamesLookup.DEFAULT_CELL_PRECISION));
+		properties.put(GeoNamesProcessorDefinitionBase.GEONAMES_TILE_SIZE_PROPERTY, arguments.getDouble("tileSize", 0));
+		properties.put(GeoNamesProcessorDefinitionBase.GEONAMES_TILE_MAX_ROWS_PROPERTY, arguments.getInt("tileMaxRows", GeoNamesLookup.DEFAULT_TILE_MAX_ROWS));
+		properties.put(GeoNamesProcessorDefinitionBase.GEONAMES_TILE_LEVELS_PROPERTY, arguments.getInt("tileLevels", GeoNamesLookup.DEFAULT_TILE_LEVELS));
+		properties.put(GeoNamesProcessorDefinitionBase.GEONAMES_DISK_CACHE_FILE_PROPERTY, arguments.getString("diskCacheFile", ""));
+		properties.put(GeoNamesProcessorDefinitionBase.GEONAMES_PREWARM_AREA_PROPERTY, arguments.getString("prewarmArea", ""));
+		properties.put(GeoNamesProcessorDefinitionBase.GEONAMES_PREWARM_MAX_CELLS_PROPERTY, arguments.getInt("prewarmMaxCells", GeoNamesPrewarmer.DEFAULT_MAX_CELLS));
+		properties.put(GeoNamesProcessorDefinitionBase.GEONAMES_PREWARM_REQUESTS_PER_SECOND_PROPERTY, arguments.getInt("prewarmRequestsPerSecond", 0));
+		properties.put(GeoNamesProcessorDefinitionBase.GEONAMES_PREWARM_REQUESTS_PER_HOUR_PROPERTY, 0);
+		properties.put(GeoNamesProcessorDefinitionBase.GEONAMES_EXECUTION_MODE_PROPERTY, arguments.getString("executionMode", GeoNamesLookupExecutor.EXECUTION_MODE_SYNCHRONOUS));
+		properties.put(GeoNamesProcessorDefinitionBase.GEONAMES_WORKER_THREADS_PROPERTY, arguments.getInt("workerThreads", GeoNamesLookupExecutor.DEFAULT_WORKER_THREADS));
+		properties.put(GeoNamesProcessorDefinitionBase.GEONAMES_QUEUE_DEPTH_PROPERTY, arguments.getInt("queueDepth", GeoNamesLookupExecutor.DEFAULT_QUEUE_DEPTH));
+		properties.put(GeoNamesProcessorDefinitionBase.GEONAMES_MAX_CONNECTIONS_PER_HOST_PROPERTY, max(concurrencyLevels));
+		properties.put(GeoNamesProcessorDefinitionBase.GEONAMES_TRACK_SUPPRESSION_PROPERTY, arguments.getString("trackSuppression", GeoNamesTrackFilter.Mode.OFF.getLabel()));
+		properties.put(GeoNamesProcessorDefinitionBase.GEONAMES_TRACK_MIN_DISTANCE_PROPERTY, arguments.getDouble("trackMinDistance", GeoNamesTrackFilter.DEFAULT_MIN_DISTANCE_METERS));
+		properties.put(GeoNamesProcessorDefinitionBase.GEONAMES_EMISSION_MODE_PROPERTY, arguments.getString("emissionMode", GeoNamesDeltaFilter.Mode.ALL.getLabel()));
+		properties.put(GeoNamesProcessorDefinitionBase.GEONAMES_OUTPUT_MODE_PROPERTY, arguments.getString("outputMode", GeoNamesProcessorDefinitionBase.OUTPUT_MODE_PER_RESULT));
+		properties.put(GeoNamesProcessorDefinitionBase.GEONAMES_GEOMETRY_MAX_LOOKUPS_PROPERTY, arguments.getInt("geometryMaxLookups", GeoNamesGeometry.DEFAULT_MAX_SAMPLES));
+		final double route = arguments.getDouble("route", 0);
+		final boolean webMercator = Boolean.parseBoolean(arguments.getString("webMercator", "false"));
+		properties.put(GeoNamesProcessorDefinitionBase.GEONAMES_PRIORITY_EVENTS_PROPERTY, arguments.getString("priorityEvents", GeoNamesPriorityPolicy.DEFAULT_PRIORITY_EVENTS));
+		properties.put(GeoNamesProcessorDefinitionBase.GEONAMES_PRIORITY_RESERVE_PROPERTY, arguments.getInt("priorityReserve", GeoNamesPriorityPolicy.DEFAULT_RESERVE_PERCENT));
+		final int incidents = arguments.getInt("incidents", 0);
+
+		System.out.println("GeoNames " + service + " load test against " + baseUrl + ", " + tracks + " tracks, " + warmupSeconds + "s warmup, " + durationSeconds + "s measured");
+		System.out.println(String.format(Locale.ROOT, "%11s %12s %10s %10s %10s %10s %12s %12s %10s", "concurrency", "events/s", "p50 ms", "p99 ms", "p999 ms", "max ms", "requests/s", "sent/s", "failures"));
+		try
+		{
+			for (int concurrency : concurrencyLevels)
+				run(service, properties, concurrency, tracks, incidents, route, webMercator, warmupSeconds, durationSeconds, server);
+		}
+		finally
+		{
+			if (server != null)
+				server.stop();
+		}
+	}
+
+	private static void run(String service, final Map<String, Object> properties, final int concurrency, final int tracks, final int incidents, final double route, final boolean webMercator, int warmupSeconds, int durationSeconds, GeoNamesStubServer server) throws Exception
+	{
+		final GeoNamesBenchmarkStubs.SentCounter sent = new GeoNamesBenchmarkStubs.SentCounter();
+		final GeoNamesProcessorBase processor = createProcessor(service, properties, sent);
+		final long measureStart = System.nanoTime() + TimeUnit.SECONDS.toNanos(warmupSeconds);
+		final long measureEnd = measureStart + TimeUnit.SECONDS.toNanos(durationSeconds);
+		final Recorder[] recorders = new Recorder[concurrency];
+		final Recorder[] incidentRecorders = new Recorder[concurrency];
+		final CountDownLatch done = new CountDownLatch(concurrency);
+		final long[] requestsAtStart = new long[1];
+		final long[] sentAtStart = new long[1];
+		final long[] bytesAtStart = new long[1];
+
+		for (int t = 0; t < concurrency; t++)
+		{
+			final Recorder recorder = recorders[t] = new Recorder();
+			final Recorder incidentRecorder = incidentRecorders[t] = new Recorder();
+			final int thread = t;
+			Thread driver = new Thread(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						try
+						{
+							drive(processor, thread, concurrency, tracks, incidents, route, webMercator, measureStart, measureEnd, recorder, incidentRecorder);
+						}
+						finally
+						{
+							done.countDown();
+						}
+					}
+				}, "geonames-loadtest-" + t);
+			driver.setDaemon(true);
+			driver.start();
+		}
+
+		TimeUnit.NANOSECONDS.sleep(Math.max(0, measureStart - System.nanoTime()));
+		requestsAtStart[0] = (server != null) ? server.getRequestCount() : 0;
+		sentAtStart[0] = sent.get();
+		bytesAtStart[0] = (server != null) ? server.getBytesSent() : 0;
+		done.await();
+		long requests = (server != null) ? server.getRequestCount() - requestsAtStart[0] : 0;
+		long bytes = (server != null) ? server.getBytesSent() - bytesAtStart[0] : 0;
+		long events = sent.get() - sentAtStart[0];
+		String details = processor.getStatusDetails();
+		processor.shutdown();
+
+		int failures = 0;
+		for (Recorder recorder : recorders)
+			failures += recorder.failures;
+		long[] latencies = merge(recorders);
+		int total = latencies.length;
+		System.out.println(String.format(Locale.ROOT, "%11d %12.1f %10.3f %10.3f %10.3f %10.3f %12.1f %12.1f %10d", concurrency, (double) total / durationSeconds, percentile(latencies, 0.50), percentile(latencies, 0.99), percentile(latencies, 0.999), percentile(latencies, 1.0), (double) requests / durationSeconds, (double) events / durationSeconds, failures));
+		if (incidents > 0)
+		{
+			long[] incidentLatencies = merge(incidentRecorders);
+			System.out.println(String.format(Locale.ROOT, "%11s %12.1f %10.3f %10.3f %10.3f %10.3f", "incidents", (double) incidentLatencies.length / durationSeconds, percentile(incidentLatencies, 0.50), percentile(incidentLatencies, 0.99), percentile(incidentLatencies, 0.999), percentile(incidentLatencies, 1.0)));
+		}
+		System.out.println("            " + details);
+		if (requests > 0)
+			System.out.println(String.format(Locale.ROOT, "            bytes/response=%.0f %s", (double) bytes / requests, GeoNamesHttpClient.getInstance().getStatistics()));
+	}
+
+	/**
+	 * The latencies of all the recorders, sorted.
+	 */
+	private static long[] merge(Recorder[] recorders)
+	{
+		int total = 0;
+		for (Recorder recorder : recorders)
+			total += recorder.count;
+		long[] latencies = new long[total];
+		int offset = 0;
+		for (Recorder recorder : recorders)
+		{
+			System.arraycopy(recorder.latencies, 0, latencies, offset, recorder.count);
+			offset += recorder.count;
+		}
+		Arrays.sort(latencies);
+		return latencies;
+	}
+
+	/**
+	 * Moves this thread's share of the tracks a small random step at a time, processing one GeoEvent per step. The given
+	 * percentage of the tracks report as incidents, whose latencies are also recorded by the incident recorder.
+	 */
+	private static void drive(GeoNamesProcessorBase processor, int thread, int concurrency, int tracks, int incidents, double route, boolean webMercator, long measureStart, long measureEnd, Recorder recorder, Recorder incidentRecorder)
+	{
+		Random random = new Random(thread);
+		int owned = Math.max(1, (tracks - thread + concurrency - 1) / concurrency);
+		double[] lats = new double[owned];
+		double[] lons = new double[owned];
+		for (int i = 0; i < owned; i++)
+		{
+			lats[i] = ORIGIN_LAT + (random.nextDouble() - 0.5) * SPREAD;
+			lons[i] = ORIGIN_LON + (random.nextDouble() - 0.5) * SPREAD;
+		}
+		long now;
+		while ((now = System.nanoTime()) < measureEnd)
+		{
+			int i = random.nextInt(owned);
+			lats[i] += (random.nextDouble() - 0.5) * STEP;
+			lons[i] += (random.nextDouble() - 0.5) * STEP;
+			int track = i * concurrency + thread;
+			boolean incident = track % 100 < incidents;
+			GeoEvent geoEvent;
+			if (route > 0 || webMercator)
+			{
+				Geometry geometry = geometry(lats[i], lons[i], route, webMercator, random);
+				SpatialReference spatialReference = SpatialReference.create(webMercator ? 102100 : 4326);
+				geoEvent = incident ? GeoNamesBenchmarkStubs.incidentGeoEvent("track-" + track, geometry, spatialReference) : GeoNamesBenchmarkStubs.trackGeoEvent("track-" + track, geometry, spatialReference);
+			}
+			else
+				geoEvent = incident ? GeoNamesBenchmarkStubs.incidentGeoEvent("track-" + track, lats[i], lons[i]) : GeoNamesBenchmarkStubs.trackGeoEvent("track-" + track, lats[i], lons[i]);
+			boolean failed = false;
+			try
+			{
+				processor.process(geoEvent);
+			}
+			catch (Exception e)
+			{
+				failed = true;
+			}
+			if (now >= measureStart)
+			{
+				long latency = System.nanoTime() - now;
+				recorder.record(latency);
+				if (failed)
+					recorder.failures++;
+				if (incident)
+					incidentRecorder.record(latency);
+			}
+		}
+	}
+
+	/**
+	 * A point, or a route of the given length in degrees heading east from it, wandering north and south.
+	 */
+	private static Geometry geometry(double lat, double lon, double route, boolean webMercator, Random random)
+	{
+		if (route <= 0)
+			return new Point(x(lon, webMercator), y(lat, webMercator));
+		Polyline polyline = new Polyline();
+		polyline.startPath(x(lon, webMercator), y(lat, webMercator));
+		for (int i = 1; i < ROUTE_VERTICES; i++)
+		{
+			lat += (random.nextDouble() - 0.5) * route / ROUTE_VERTICES;
+			lon += route / (ROUTE_VERTICES - 1);
+			polyline.lineTo(x(lon, webMercator), y(lat, webMercator));
+		}
+		return polyline;
+	}
+
+	private static double x(double lon, boolean webMercator)
+	{
+		return webMercator ? Math.toRadians(lon) * 6378137.0 : lon;
+	}
+
+	private static double y(double lat, boolean webMercator)
+	{
+		return webMercator ? Math.log(Math.tan(Math.PI / 4 + Math.toRadians(lat) / 2)) * 6378137.0 : lat;
+	}
+
+	private static GeoNamesProcessorBase createProcessor(String service, final Map<String, Object> properties, GeoNamesBenchmarkStubs.SentCounter sent) throws Exception
+	{
+		GeoNamesProcessorBase processor;
+		if (service.equals("osm"))
+		{
+			final GeoEventProcessorDefinition definition = new GeoNamesOSMPOIProcessorDefinition();
+			processor = new GeoNamesOSMPOIProcessor(definition)
+				{
+					@Override
+					public boolean hasProperty(String name)
+					{
+						return definition.getPropertyDefinitions().containsKey(name);
+					}
+
+					@Override
+					public Property getProperty(String name)
+					{
+						return property(definition, properties, name);
+					}
+				};
+		}
+		else if (service.equals("combined"))
+		{
+			final GeoEventProcessorDefinition definition = new GeoNamesCombinedProcessorDefinition();
+			processor = new GeoNamesCombinedProcessor(definition)
+				{
+					@Override
+					public boolean hasProperty(String name)
+					{
+						return definition.getPropertyDefinitions().containsKey(name);
+					}
+
+					@Override
+					public Property getProperty(String name)
+					{
+						return property(definition, properties, name);
+					}
+				};
+		}
+		else
+		{
+			final GeoEventProcessorDefinition definition = new GeoNamesWikipediaProcessorDefinition();
+			processor = new GeoNamesWikipediaProcessor(definition)
+				{
+					@Override
+					public boolean hasProperty(String name)
+					{
+						return definition.getPropertyDefinitions().containsKey(name);
+					}
+
+					@Override
+					public Property getProperty(String name)
+					{
+						return property(definition, properties, name);
+					}
+				};
+		}
+		processor.setMessaging(GeoNamesBenchmarkStubs.messaging(sent));
+		processor.setId("loadtest");
+		processor.afterPropertiesSet();
+		return processor;
+	}
+
+	/**
+	 * The configured value of a property, or its default, as the server would provide it.
+	 */
+	private static Property property(GeoEventProcessorDefinition definition, Map<String, Object> properties, String name)
+	{
+		PropertyDefinition propertyDefinition = definition.getPropertyDefinitions().get(name);
+		if (propertyDefinition == null)
+			return null;
+		try
+		{
+			return new Property(propertyDefinition, properties.containsKey(name) ? properties.get(name) : propertyDefinition.getDefaultValue());
+		}
+		catch (PropertyException e)
+		{
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+	private static double percentile(long[] sortedLatencies, double percentile)
+	{
+		if (sortedLatencies.length == 0)
+			return Double.NaN;
+		int index = (int) Math.ceil(percentile * sortedLatencies.length) - 1;
+		return sortedLatencies[Math.max(0, Math.min(index, sortedLatencies.length - 1))] / 1e6;
+	}
+
+	private static int max(int[] values)
+	{
+		int max = 0;
+		for (int value : values)
+			max = Math.max(max, value);
+		return max;
+	}
+}
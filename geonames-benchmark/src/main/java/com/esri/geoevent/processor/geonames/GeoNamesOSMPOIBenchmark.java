@@ -0,0 +1,178 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.esri.ges.core.geoevent.GeoEvent;
+
+/**
+ * Measures the findNearbyPOIsOSMJSON hot path: decoding a response and turning each row into an output GeoEvent.
+ * 
+ * Scores are per response; the rows counter gives the per-row rate. Run with the GC profiler (see
+ * {@link GeoNamesBenchmarks}) for the allocation per response, and use {@link #createOSMPOIGeoEvent} for the allocation per
+ * event.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GeoNamesOSMPOIBenchmark
+{
+	private static final Charset											UTF8	= Charset.forName("UTF-8");
+	private static final double												LAT		= 34.0564;
+	private static final double												LON		= -117.1956;
+
+	@Param({ "10", "500", "2000" })
+	public int																				rows;
+
+	private byte[]																		payload;
+	private GeoEvent																	trackGeoEvent;
+	private GeoNamesRow																row;
+	private GeoNamesOSMPOIProcessor									processor;
+	private final GeoNamesBenchmarkStubs.SentCounter	sent	= new GeoNamesBenchmarkStubs.SentCounter();
+
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class RowCounter
+	{
+		public long	rows;
+
+		@Setup(Level.Iteration)
+		public void reset()
+		{
+			rows = 0;
+		}
+	}
+
+	@Setup
+	public void setup() throws Exception
+	{
+		payload = GeoNamesPayloads.osmPOIs(rows, LAT, LON);
+		trackGeoEvent = GeoNamesBenchmarkStubs.trackGeoEvent("bench-1", LAT, LON);
+		row = GeoNamesRow.parse(new String(payload, UTF8), GeoNamesService.OSM_POI.getResultArrayName()).get(0);
+		processor = new GeoNamesOSMPOIProcessor(new GeoNamesOSMPOIProcessorDefinition());
+		processor.setMessaging(GeoNamesBenchmarkStubs.messaging(sent));
+		processor.setId("benchmark");
+	}
+
+	/**
+	 * Decoding only, as done for a response streamed from the GeoNames web service.
+	 */
+	@Benchmark
+	public int parse(final Blackhole blackhole, final RowCounter counter) throws Exception
+	{
+		GeoNamesJsonReader reader = new GeoNamesJsonReader(new ByteArrayInputStream(payload), UTF8);
+		int count = reader.readRows(GeoNamesService.OSM_POI.getResultArrayName(), new GeoNamesRowHandler()
+			{
+				@Override
+				public void handleRow(GeoNamesRow row)
+				{
+					blackhole.consume(row);
+				}
+			});
+		counter.rows += count;
+		return count;
+	}
+
+	/**
+	 * Decoding and GeoEvent construction, row by row.
+	 */
+	@Benchmark
+	public long parseAndCreate(final RowCounter counter) throws Exception
+	{
+		GeoNamesJsonReader reader = new GeoNamesJsonReader(new ByteArrayInputStream(payload), UTF8);
+		counter.rows += reader.readRows(GeoNamesService.OSM_POI.getResultArrayName(), new GeoNamesRowHandler()
+			{
+				@Override
+				public void handleRow(GeoNamesRow row)
+				{
+					try
+					{
+						processor.getEnrichment().createGeoEvent(trackGeoEvent, row, null);
+					}
+					catch (Exception e)
+					{
+						throw new IllegalStateException(e);
+					}
+				}
+			});
+		return sent.get();
+	}
+
+	/**
+	 * Decoding and construction of a single aggregated GeoEvent holding all rows as groups.
+	 */
+	@Benchmark
+	public long parseAndCreateAggregated(final RowCounter counter) throws Exception
+	{
+		final List<GeoNamesRow> rows = new ArrayList<GeoNamesRow>();
+		final List<String> changeTypes = new ArrayList<String>();
+		GeoNamesJsonReader reader = new GeoNamesJsonReader(new ByteArrayInputStream(payload), UTF8);
+		counter.rows += reader.readRows(GeoNamesService.OSM_POI.getResultArrayName(), new GeoNamesRowHandler()
+			{
+				@Override
+				public void handleRow(GeoNamesRow row)
+				{
+					rows.add(row);
+					changeTypes.add(null);
+				}
+			});
+		processor.getEnrichment().createAggregatedGeoEvent(trackGeoEvent, rows, changeTypes);
+		return sent.get();
+	}
+
+	/**
+	 * Construction of a single GeoEvent from an already decoded row; independent of the payload size.
+	 */
+	@Benchmark
+	public long createOSMPOIGeoEvent(RowCounter counter) throws Exception
+	{
+		processor.getEnrichment().createGeoEvent(trackGeoEvent, row, null);
+		counter.rows++;
+		return sent.get();
+	}
+}
@@ -0,0 +1,141 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * GeoNames JSON payloads shaped like recorded findNearbyWikipediaJSON and findNearbyPOIsOSMJSON responses. The
+ * payloads are generated from a fixed seed, so every run of a benchmark parses the same bytes.
+ */
+public final class GeoNamesPayloads
+{
+	private static final Charset	UTF8						= Charset.forName("UTF-8");
+	private static final String[]	FEATURES				= { "city", "landmark", "edu", "railwaystation", "river", "mountain", "airport", "church" };
+	private static final String[]	COUNTRY_CODES		= { "US", "GB", "DE", "FR", "BR", "JP", "AU", "CA" };
+	private static final String[]	TYPE_CLASSES		= { "amenity", "shop", "tourism", "leisure" };
+	private static final String[]	TYPE_NAMES			= { "restaurant", "cafe", "bank", "pharmacy", "supermarket", "bakery", "hotel", "museum", "park", "fuel" };
+	private static final String[]	WORDS						= { "the", "city", "river", "located", "county", "history", "founded", "station", "north", "built", "century", "population", "national", "park", "museum", "caf\u00e9", "S\u00e3o", "Z\u00fcrich" };
+
+	private GeoNamesPayloads()
+	{
+	}
+
+	public static byte[] wikipedia(int rows, double lat, double lon)
+	{
+		return wikipedia(rows, lat, lon, 0.2);
+	}
+
+	/**
+	 * @param spread the width and height in degrees of the area around the location the rows are spread over.
+	 */
+	public static byte[] wikipedia(int rows, double lat, double lon, double spread)
+	{
+		Random random = new Random(rows);
+		StringBuilder json = new StringBuilder(rows * 600);
+		json.append("{\"geonames\":[");
+		for (int i = 0; i < rows; i++)
+		{
+			double rowLat = lat + (random.nextDouble() - 0.5) * spread;
+			double rowLon = lon + (random.nextDouble() - 0.5) * spread;
+			String title = title(random, i);
+			if (i > 0)
+				json.append(',');
+			json.append("{\"summary\":\"").append(summary(random)).append('"');
+			json.append(",\"elevation\":").append(random.nextInt(2000));
+			json.append(",\"geoNameId\":").append(1000000 + random.nextInt(9000000));
+			json.append(",\"feature\":\"").append(FEATURES[random.nextInt(FEATURES.length)]).append('"');
+			json.append(",\"lng\":").append(format(rowLon));
+			json.append(",\"countryCode\":\"").append(COUNTRY_CODES[random.nextInt(COUNTRY_CODES.length)]).append('"');
+			json.append(",\"rank\":").append(random.nextInt(100));
+			json.append(",\"thumbnailImg\":\"http://www.geonames.org/img/wikipedia/").append(random.nextInt(100000)).append("-100.jpg\"");
+			json.append(",\"lang\":\"en\"");
+			json.append(",\"title\":\"").append(title).append('"');
+			json.append(",\"lat\":").append(format(rowLat));
+			json.append(",\"wikipediaUrl\":\"en.wikipedia.org/wiki/").append(title.replace(' ', '_')).append('"');
+			json.append(",\"distance\":\"").append(format(GeoHash.distanceKm(lat, lon, rowLat, rowLon))).append('"');
+			json.append('}');
+		}
+		json.append("]}");
+		return json.toString().getBytes(UTF8);
+	}
+
+	public static byte[] osmPOIs(int rows, double lat, double lon)
+	{
+		return osmPOIs(rows, lat, lon, 0.02);
+	}
+
+	/**
+	 * @param spread the width and height in degrees of the area around the location the rows are spread over.
+	 */
+	public static byte[] osmPOIs(int rows, double lat, double lon, double spread)
+	{
+		Random random = new Random(rows);
+		StringBuilder json = new StringBuilder(rows * 160);
+		json.append("{\"poi\":[");
+		for (int i = 0; i < rows; i++)
+		{
+			double rowLat = lat + (random.nextDouble() - 0.5) * spread;
+			double rowLon = lon + (random.nextDouble() - 0.5) * spread;
+			if (i > 0)
+				json.append(',');
+			json.append("{\"typeName\":\"").append(TYPE_NAMES[random.nextInt(TYPE_NAMES.length)]).append('"');
+			json.append(",\"distance\":\"").append(format(GeoHash.distanceKm(lat, lon, rowLat, rowLon))).append('"');
+			json.append(",\"name\":\"").append(title(random, i)).append('"');
+			json.append(",\"lng\":\"").append(format(rowLon)).append('"');
+			json.append(",\"typeClass\":\"").append(TYPE_CLASSES[random.nextInt(TYPE_CLASSES.length)]).append('"');
+			json.append(",\"lat\":\"").append(format(rowLat)).append('"');
+			json.append('}');
+		}
+		json.append("]}");
+		return json.toString().getBytes(UTF8);
+	}
+
+	private static String title(Random random, int i)
+	{
+		String word = WORDS[random.nextInt(WORDS.length)];
+		return Character.toUpperCase(word.charAt(0)) + word.substring(1) + " " + WORDS[random.nextInt(WORDS.length)] + " " + i;
+	}
+
+	private static String summary(Random random)
+	{
+		StringBuilder summary = new StringBuilder(400);
+		int words = 40 + random.nextInt(30);
+		for (int i = 0; i < words; i++)
+		{
+			if (i > 0)
+				summary.append(' ');
+			summary.append(WORDS[random.nextInt(WORDS.length)]);
+		}
+		return summary.append(" (...)").toString();
+	}
+
+	private static String format(double value)
+	{
+		return String.format(Locale.ROOT, "%.7f", value);
+	}
+}
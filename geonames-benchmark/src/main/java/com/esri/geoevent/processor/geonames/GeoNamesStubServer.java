@@ -0,0 +1,382 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An embedded stand-in for the GeoNames web service, answering findNearbyWikipediaJSON and findNearbyPOIsOSMJSON
+ * requests with recorded or synthetic responses after a configurable latency. A configurable fraction of requests is
+ * slow, to produce a latency tail, and another fraction fails, either with an HTTP 503 or with a GeoNames status response (HTTP 200 with {"status":...}), which is how
+ * GeoNames reports exhausted credits. Each username can also be given a number of credits, after which its requests are
+ * answered with the hourly limit status. Responses are gzip compressed for clients that accept it, unless compression is
+ * turned off.
+ * 
+ * wikipediaBoundingBoxJSON requests are answered with synthetic rows spread over the requested box. The nearby requests
+ * can be answered the same way, around the requested location, instead of with the same payload for every location.
+ * The generated responses can hold a number of rows that grows with the area requested, up to its maxRows, to stand for
+ * areas of varying density.
+ * 
+ * Point the processors' GeoNames Base URL property at {@link #getBaseUrl()}. Run standalone with
+ * 
+ * <pre>
+ * java -cp benchmarks.jar com.esri.geoevent.processor.geonames.GeoNamesStubServer [port=8080] [rows=50] [latency=50] ...
+ * </pre>
+ */
+public class GeoNamesStubServer
+{
+	private static final Charset	UTF8				= Charset.forName("UTF-8");
+	private static final byte[]		STATUS_ERROR	= "{\"status\":{\"message\":\"the hourly limit of 1000 credits has been exceeded.\",\"value\":19}}".getBytes(UTF8);
+
+	private final HttpServer			server;
+	private final ExecutorService	executor;
+	private final byte[]					wikipediaPayload;
+	private final byte[]					osmPOIsPayload;
+	private final int							rows;
+	private final long						latencyMicros;
+	private final long						jitterMicros;
+	private final double					httpErrorRate;
+	private final double					statusErrorRate;
+	private volatile double				slowRate;
+	private volatile long					slowMicros;
+	private volatile long					credits;
+	private volatile boolean			compression	= true;
+	private volatile boolean			anchored;
+	private volatile double				density;
+	private final AtomicLong			bytesSent		= new AtomicLong();
+	private final ConcurrentMap<String, AtomicLong>	used	= new ConcurrentHashMap<String, AtomicLong>();
+	private final AtomicLong			requests		= new AtomicLong();
+	private final AtomicLong			errors			= new AtomicLong();
+
+	/**
+	 * @param port the port to listen on, or 0 for any free port.
+	 * @param rows the number of rows in the synthetic responses.
+	 * @param payloadDirectory a directory holding recorded responses named findNearbyWikipediaJSON.json and
+	 *          findNearbyPOIsOSMJSON.json, used instead of the synthetic ones when present; may be null.
+	 * @param latencyMillis the minimum time taken to answer a request.
+	 * @param jitterMillis the maximum random time added to the latency.
+	 * @param httpErrorRate the fraction of requests answered with HTTP 503.
+	 * @param statusErrorRate the fraction of requests answered with a GeoNames status error.
+	 */
+	public GeoNamesStubServer(int port, int rows, File payloadDirectory, double latencyMillis, double jitterMillis, double httpErrorRate, double statusErrorRate) throws IOException
+	{
+		this.wikipediaPayload = payload(payloadDirectory, GeoNamesService.WIKIPEDIA, GeoNamesPayloads.wikipedia(rows, 0, 0));
+		this.osmPOIsPayload = payload(payloadDirectory, GeoNamesService.OSM_POI, GeoNamesPayloads.osmPOIs(rows, 0, 0));
+		this.rows = rows;
+		this.latencyMicros = (long) (latencyMillis * 1000);
+		this.jitterMicros = (long) (jitterMillis * 1000);
+		this.httpErrorRate = httpErrorRate;
+		this.statusErrorRate = statusErrorRate;
+
+		// without it, Nagle's algorithm and delayed acknowledgements add about 40ms to every response
+		if (System.getProperty("sun.net.httpserver.nodelay") == null)
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 1024);
+		server.createContext("/" + GeoNamesService.WIKIPEDIA.getEndpoint(), new StubHandler(GeoNamesService.WIKIPEDIA, wikipediaPayload, false));
+		server.createContext("/" + GeoNamesService.OSM_POI.getEndpoint(), new StubHandler(GeoNamesService.OSM_POI, osmPOIsPayload, false));
+		server.createContext("/" + GeoNamesService.WIKIPEDIA.getBoundingBoxEndpoint(), new StubHandler(GeoNamesService.WIKIPEDIA, null, true));
+		// requests sleep through their latency, so every open connection gets a thread
+		executor = Executors.newCachedThreadPool();
+		server.setExecutor(executor);
+	}
+
+	/**
+	 * Makes a fraction of the requests take the given time instead of the latency and jitter.
+	 */
+	public void setSlowRequests(double slowRate, double slowMillis)
+	{
+		this.slowRate = slowRate;
+		this.slowMicros = (long) (slowMillis * 1000);
+	}
+
+	/**
+	 * Gives every username the number of credits, one per request, after which its requests are answered with the
+	 * hourly limit status. 0 means unlimited.
+	 */
+	public void setCredits(long credits)
+	{
+		this.credits = credits;
+	}
+
+	/**
+	 * The number of requests received with the username.
+	 */
+	public long getRequestCount(String username)
+	{
+		AtomicLong count = used.get(username);
+		return (count != null) ? count.get() : 0;
+	}
+
+	/**
+	 * Whether nearby requests are answered with rows around the requested location, generated for each request, instead
+	 * of the same payload for every location.
+	 */
+	public void setAnchored(boolean anchored)
+	{
+		this.anchored = anchored;
+	}
+
+	/**
+	 * The number of rows generated per square degree requested, up to the maxRows of the request, or 0 to always
+	 * generate the configured number of rows.
+	 */
+	public void setDensity(double rowsPerSquareDegree)
+	{
+		this.density = rowsPerSquareDegree;
+	}
+
+	/**
+	 * Whether responses are gzip compressed for clients that send Accept-Encoding: gzip.
+	 */
+	public void setCompression(boolean compression)
+	{
+		this.compression = compression;
+	}
+
+	/**
+	 * The number of response body bytes sent, after compression.
+	 */
+	public long getBytesSent()
+	{
+		return bytesSent.get();
+	}
+
+	public void start()
+	{
+		server.start();
+	}
+
+	public void stop()
+	{
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	public String getBaseUrl()
+	{
+		return "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	public long getRequestCount()
+	{
+		return requests.get();
+	}
+
+	public long getErrorCount()
+	{
+		return errors.get();
+	}
+
+	private static byte[] payload(File directory, GeoNamesService service, byte[] synthetic) throws IOException
+	{
+		if (directory != null)
+		{
+			File recorded = new File(directory, service.getEndpoint() + ".json");
+			if (recorded.isFile())
+				return Files.readAllBytes(recorded.toPath());
+		}
+		return synthetic;
+	}
+
+	private static byte[] gzip(byte[] body) throws IOException
+	{
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4);
+		GZIPOutputStream out = new GZIPOutputStream(compressed);
+		out.write(body);
+		out.close();
+		return compressed.toByteArray();
+	}
+
+	private static Map<String, String> parameters(HttpExchange exchange)
+	{
+		Map<String, String> parameters = new HashMap<String, String>();
+		String query = exchange.getRequestURI().getRawQuery();
+		for (String parameter : (query != null) ? query.split("&") : new String[0])
+		{
+			int equals = parameter.indexOf('=');
+			if (equals != -1)
+				parameters.put(parameter.substring(0, equals), parameter.substring(equals + 1));
+		}
+		return parameters;
+	}
+
+	private static double parameter(Map<String, String> parameters, String name)
+	{
+		String value = parameters.get(name);
+		return (value != null) ? Double.parseDouble(value) : 0;
+	}
+
+	private class StubHandler implements HttpHandler
+	{
+		private final GeoNamesService	service;
+		private final byte[]					payload;
+		private final byte[]					compressedPayload;
+		private final byte[]					compressedStatusError;
+		private final boolean					boundingBox;
+
+		/**
+		 * @param payload the body of every response, or null to generate one for each request.
+		 */
+		StubHandler(GeoNamesService service, byte[] payload, boolean boundingBox) throws IOException
+		{
+			this.service = service;
+			this.payload = payload;
+			this.compressedPayload = (payload != null) ? gzip(payload) : null;
+			this.compressedStatusError = gzip(STATUS_ERROR);
+			this.boundingBox = boundingBox;
+		}
+
+		private byte[] generate(Map<String, String> parameters)
+		{
+			double lat;
+			double lon;
+			double spread;
+			if (boundingBox)
+			{
+				lat = (parameter(parameters, "north") + parameter(parameters, "south")) / 2;
+				lon = (parameter(parameters, "east") + parameter(parameters, "west")) / 2;
+				spread = Math.max(parameter(parameters, "north") - parameter(parameters, "south"), parameter(parameters, "east") - parameter(parameters, "west"));
+			}
+			else
+			{
+				lat = parameter(parameters, "lat");
+				lon = parameter(parameters, "lng");
+				spread = 2 * Math.toDegrees(parameter(parameters, "radius") / GeoHash.EARTH_RADIUS_KM);
+			}
+			int count = rowCount(parameters, spread);
+			return (service == GeoNamesService.WIKIPEDIA) ? GeoNamesPayloads.wikipedia(count, lat, lon, spread) : GeoNamesPayloads.osmPOIs(count, lat, lon, spread);
+		}
+
+		private int rowCount(Map<String, String> parameters, double spread)
+		{
+			if (density <= 0)
+				return rows;
+			int maxRows = parameters.containsKey("maxRows") ? (int) parameter(parameters, "maxRows") : rows;
+			return (int) Math.min(maxRows, Math.round(density * spread * spread));
+		}
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException
+		{
+			requests.incrementAndGet();
+			try
+			{
+				InputStream in = exchange.getRequestBody();
+				while (in.read() != -1)
+					;
+				Random random = ThreadLocalRandom.current();
+				long delay = latencyMicros + (jitterMicros > 0 ? (long) (random.nextDouble() * jitterMicros) : 0);
+				if (slowRate > 0 && random.nextDouble() < slowRate)
+					delay = slowMicros;
+				if (delay > 0)
+					TimeUnit.MICROSECONDS.sleep(delay);
+
+				double dice = random.nextDouble();
+				exchange.getResponseHeaders().set("Content-Type", "application/json;charset=UTF-8");
+				if (dice < httpErrorRate)
+				{
+					errors.incrementAndGet();
+					exchange.sendResponseHeaders(503, -1);
+					return;
+				}
+				Map<String, String> parameters = parameters(exchange);
+				boolean failed = dice < httpErrorRate + statusErrorRate || !spendCredit(parameters);
+				if (failed)
+					errors.incrementAndGet();
+				boolean generated = !failed && (payload == null || anchored);
+				byte[] body = failed ? STATUS_ERROR : generated ? generate(parameters) : payload;
+				String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+				if (compression && acceptEncoding != null && acceptEncoding.contains("gzip"))
+				{
+					body = failed ? compressedStatusError : generated ? gzip(body) : compressedPayload;
+					exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+				}
+				bytesSent.addAndGet(body.length);
+				exchange.sendResponseHeaders(200, body.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(body);
+				out.flush();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			finally
+			{
+				exchange.close();
+			}
+		}
+	}
+
+	private boolean spendCredit(Map<String, String> parameters)
+	{
+		String username = parameters.containsKey("username") ? parameters.get("username") : "";
+		AtomicLong count = used.get(username);
+		if (count == null)
+		{
+			AtomicLong existing = used.putIfAbsent(username, count = new AtomicLong());
+			if (existing != null)
+				count = existing;
+		}
+		long spent = count.incrementAndGet();
+		return credits <= 0 || spent <= credits;
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		GeoNamesLoadTest.Arguments arguments = new GeoNamesLoadTest.Arguments(args);
+		String directory = arguments.getString("payloads", null);
+		GeoNamesStubServer server = new GeoNamesStubServer(arguments.getInt("port", 8080), arguments.getInt("rows", 50), directory != null ? new File(directory) : null, arguments.getDouble("latency", 50), arguments.getDouble("jitter", 0), arguments.getDouble("httpErrors", 0), arguments.getDouble("statusErrors", 0));
+		server.setSlowRequests(arguments.getDouble("slowRate", 0), arguments.getDouble("slowLatency", 1000));
+		server.setCredits(arguments.getInt("credits", 0));
+		server.setCompression(Boolean.parseBoolean(arguments.getString("compression", "true")));
+		server.setAnchored(Boolean.parseBoolean(arguments.getString("anchored", "false")));
+		server.setDensity(arguments.getDouble("density", 0));
+		server.start();
+		System.out.println("GeoNames stub server listening on " + server.getBaseUrl());
+	}
+}
@@ -0,0 +1,106 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+/**
+ * Geohash encoding and the great circle distance helper used to quantize and re-rank lookup locations.
+ */
+public final class GeoHash
+{
+	public static final int				MAX_PRECISION			= 12;
+	public static final double		EARTH_RADIUS_KM		= 6371.0088;
+
+	private static final char[]		BASE32						= "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+
+	private GeoHash()
+	{
+	}
+
+	public static String encode(double lat, double lon, int precision)
+	{
+		if (precision < 1)
+			precision = 1;
+		else if (precision > MAX_PRECISION)
+			precision = MAX_PRECISION;
+
+		double minLat = -90.0, maxLat = 90.0;
+		double minLon = -180.0, maxLon = 180.0;
+		char[] hash = new char[precision];
+		boolean even = true;
+		int bit = 0;
+		int ch = 0;
+		int length = 0;
+		while (length < precision)
+		{
+			if (even)
+			{
+				double mid = (minLon + maxLon) / 2;
+				if (lon >= mid)
+				{
+					ch = (ch << 1) | 1;
+					minLon = mid;
+				}
+				else
+				{
+					ch = ch << 1;
+					maxLon = mid;
+				}
+			}
+			else
+			{
+				double mid = (minLat + maxLat) / 2;
+				if (lat >= mid)
+				{
+					ch = (ch << 1) | 1;
+					minLat = mid;
+				}
+				else
+				{
+					ch = ch << 1;
+					maxLat = mid;
+				}
+			}
+			even = !even;
+			if (++bit == 5)
+			{
+				hash[length++] = BASE32[ch];
+				bit = 0;
+				ch = 0;
+			}
+		}
+		return new String(hash);
+	}
+
+	/**
+	 * Haversine distance in kilometers.
+	 */
+	public static double distanceKm(double lat1, double lon1, double lat2, double lon2)
+	{
+		double dLat = Math.toRadians(lat2 - lat1);
+		double dLon = Math.toRadians(lon2 - lon1);
+		double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+		return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1.0, Math.sqrt(a)));
+	}
+}
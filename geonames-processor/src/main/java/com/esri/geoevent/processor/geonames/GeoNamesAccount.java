@@ -0,0 +1,105 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+package com.esri.geoevent.processor.geonames;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+
+/**
+ * A GeoNames username together with the server its requests are sent to, for example a premium server. The rate
+ * limiter follows the credits of the username and the circuit breaker the health of the server, and both are shared
+ * with every other account using the same username or server.
+ */
+public class GeoNamesAccount
+{
+	public static final String						DEFAULT_USERNAME	= "krgorton";
+
+	private final String									username;
+	private final String									baseUrl;
+	private final GeoNamesRateLimiter			rateLimiter;
+	private final GeoNamesCircuitBreaker	circuitBreaker;
+
+	/**
+	 * @param baseUrl the address of the server; trailing slashes are removed, and null or blank means
+	 *          {@link GeoNamesQuery#DEFAULT_BASE_URL}.
+	 * @param circuitBreaker the breaker of the server, or null to always send the requests.
+	 */
+	public GeoNamesAccount(String username, String baseUrl, GeoNamesRateLimiter rateLimiter, GeoNamesCircuitBreaker circuitBreaker)
+	{
+		this.username = username;
+		this.baseUrl = normalizeBaseUrl(baseUrl);
+		this.rateLimiter = rateLimiter;
+		this.circuitBreaker = circuitBreaker;
+	}
+
+	public static String normalizeBaseUrl(String baseUrl)
+	{
+		baseUrl = (baseUrl != null) ? baseUrl.trim() : "";
+		while (baseUrl.endsWith("/"))
+			baseUrl = baseUrl.substring(0, baseUrl.length() - 1);
+		return baseUrl.isEmpty() ? GeoNamesQuery.DEFAULT_BASE_URL : baseUrl;
+	}
+
+	public String getUsername()
+	{
+		return username;
+	}
+
+	public String getBaseUrl()
+	{
+		return baseUrl;
+	}
+
+	public GeoNamesRateLimiter getRateLimiter()
+	{
+		return rateLimiter;
+	}
+
+	public GeoNamesCircuitBreaker getCircuitBreaker()
+	{
+		return circuitBreaker;
+	}
+
+	/**
+	 * Whether requests can be sent with the account right now: its credits have not run out and its server is not
+	 * failing.
+	 */
+	public boolean isUsable()
+	{
+		return !rateLimiter.isSuspended() && (circuitBreaker == null || !circuitBreaker.isOpen());
+	}
+
+	@Override
+	public String toString()
+	{
+		try
+		{
+			return username + "@" + new URL(baseUrl).getHost();
+		}
+		catch (MalformedURLException e)
+		{
+			return username + "@" + baseUrl;
+		}
+	}
+}
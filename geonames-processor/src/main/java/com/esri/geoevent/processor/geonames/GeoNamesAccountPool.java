@@ -0,0 +1,278 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+package com.esri.geoevent.processor.geonames;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.esri.ges.framework.i18n.BundleLogger;
+import com.esri.ges.framework.i18n.BundleLoggerFactory;
+
+/**
+ * The GeoNames accounts a processor spreads its requests over, so that its throughput is not capped by the credits of
+ * a single account. Each request goes to the usable account with the most credits left in its hourly budget,
+ * preferring those that can send at once; accounts with the same budget take turns. An account whose credits GeoNames
+ * reports as used up is suspended and its request is sent again with another account.
+ */
+public class GeoNamesAccountPool
+{
+	private static final BundleLogger		LOGGER					= BundleLoggerFactory.getLogger(GeoNamesAccountPool.class);
+
+	private final List<GeoNamesAccount>	accounts;
+	private final int										suspensionSeconds;
+	private final AtomicInteger					next						= new AtomicInteger();
+	private final AtomicLong						failoverCount		= new AtomicLong();
+	private final AtomicLong						exhaustedCount	= new AtomicLong();
+	private final AtomicLong						staleCount			= new AtomicLong();
+
+	/**
+	 * @param suspensionSeconds how long an account is first suspended when GeoNames reports its credits are used up.
+	 */
+	public GeoNamesAccountPool(List<GeoNamesAccount> accounts, int suspensionSeconds)
+	{
+		if (accounts.isEmpty())
+			throw new IllegalArgumentException("A GeoNames account pool needs at least one account");
+		this.accounts = Collections.unmodifiableList(new ArrayList<GeoNamesAccount>(accounts));
+		this.suspensionSeconds = suspensionSeconds;
+	}
+
+	/**
+	 * A pool of the single account given, without a circuit breaker.
+	 */
+	public static GeoNamesAccountPool of(String username, String baseUrl)
+	{
+		return new GeoNamesAccountPool(Collections.singletonList(new GeoNamesAccount(username, baseUrl, GeoNamesRateLimiter.forUsername(username), null)), GeoNamesRateLimiter.DEFAULT_SUSPENSION_SECONDS);
+	}
+
+	/**
+	 * Parses a comma separated list of accounts, each either a username, which sends its requests to the default base
+	 * URL, or username@baseUrl. An account whose base URL is not an http or https URL is logged and left out, since none
+	 * of its requests could be sent. A blank list, or one without a valid account, is the default account.
+	 * 
+	 * @return the username and base URL of each account, in the order listed and without duplicates.
+	 */
+	public static List<String[]> parse(String accounts, String defaultBaseUrl)
+	{
+		List<String[]> parsed = new ArrayList<String[]>();
+		List<String> seen = new ArrayList<String>();
+		for (String entry : ((accounts != null) ? accounts : "").split(","))
+		{
+			entry = entry.trim();
+			if (entry.isEmpty())
+				continue;
+			int at = entry.indexOf('@');
+			String username = (at != -1) ? entry.substring(0, at).trim() : entry;
+			String baseUrl = GeoNamesAccount.normalizeBaseUrl((at != -1) ? entry.substring(at + 1) : defaultBaseUrl);
+			if (username.isEmpty() || seen.contains(username + "@" + baseUrl))
+				continue;
+			if (!isValidBaseUrl(baseUrl))
+			{
+				LOGGER.error("ACCOUNT_INVALID", entry);
+				continue;
+			}
+			seen.add(username + "@" + baseUrl);
+			parsed.add(new String[] { username, baseUrl });
+		}
+		if (parsed.isEmpty())
+			parsed.add(new String[] { GeoNamesAccount.DEFAULT_USERNAME, GeoNamesAccount.normalizeBaseUrl(defaultBaseUrl) });
+		return parsed;
+	}
+
+	private static boolean isValidBaseUrl(String baseUrl)
+	{
+		try
+		{
+			URL url = new URL(baseUrl);
+			return ("http".equals(url.getProtocol()) || "https".equals(url.getProtocol())) && !url.getHost().isEmpty();
+		}
+		catch (MalformedURLException e)
+		{
+			return false;
+		}
+	}
+
+	public List<GeoNamesAccount> getAccounts()
+	{
+		return accounts;
+	}
+
+	public int size()
+	{
+		return accounts.size();
+	}
+
+	/**
+	 * Chooses an account for a request, waits for its rate limiter and then passes its circuit breaker. The breaker is
+	 * passed last, like in {@link #tryAcquire()}, since it may hand out its single trial request, which has to be sent
+	 * and reported; a request that waited for the limiter in vain would keep the breaker from closing.
+	 * 
+	 * @param priority false for a routine request, which may be shed to keep the account for priority requests.
+	 * @throws GeoNamesCircuitBreaker.OpenException if no account can be used right now, or the routine request was
+	 *           shed.
+	 */
+	public GeoNamesAccount acquire(boolean priority) throws IOException
+	{
+		GeoNamesAccount account = select();
+		GeoNamesRateLimiter rateLimiter = account.getRateLimiter();
+		rateLimiter.acquire(priority);
+		GeoNamesCircuitBreaker circuitBreaker = account.getCircuitBreaker();
+		if (circuitBreaker != null)
+		{
+			try
+			{
+				circuitBreaker.checkRequest();
+			}
+			catch (GeoNamesCircuitBreaker.OpenException e)
+			{
+				// nothing is sent, so the token is not spent
+				rateLimiter.release();
+				throw e;
+			}
+		}
+		return account;
+	}
+
+	/**
+	 * Chooses an account for a hedged request, if one can send at once.
+	 * 
+	 * @return the account, whose rate limiter token and circuit breaker have been taken, or null.
+	 */
+	public GeoNamesAccount tryAcquire()
+	{
+		GeoNamesAccount account = choose();
+		if (account == null || !account.getRateLimiter().tryAcquire())
+			return null;
+		GeoNamesCircuitBreaker circuitBreaker = account.getCircuitBreaker();
+		if (circuitBreaker != null && !circuitBreaker.allowRequest())
+		{
+			// nothing is sent, so the token is not spent
+			account.getRateLimiter().release();
+			return null;
+		}
+		return account;
+	}
+
+	private GeoNamesAccount select() throws GeoNamesCircuitBreaker.OpenException
+	{
+		GeoNamesAccount account = choose();
+		if (account == null)
+		{
+			exhaustedCount.incrementAndGet();
+			throw new GeoNamesCircuitBreaker.OpenException("Every GeoNames account has used up its credits or its server is failing, the request was not sent");
+		}
+		return account;
+	}
+
+	private GeoNamesAccount choose()
+	{
+		int size = accounts.size();
+		int start = (next.getAndIncrement() & Integer.MAX_VALUE) % size;
+		GeoNamesAccount best = null;
+		boolean bestAvailable = false;
+		long bestRemaining = -1;
+		for (int i = 0; i < size; i++)
+		{
+			GeoNamesAccount account = accounts.get((start + i) % size);
+			if (!account.isUsable())
+				continue;
+			GeoNamesRateLimiter rateLimiter = account.getRateLimiter();
+			boolean available = rateLimiter.isAvailable();
+			long remaining = rateLimiter.getRemaining();
+			if (best == null || (available && !bestAvailable) || (available == bestAvailable && remaining > bestRemaining))
+			{
+				best = account;
+				bestAvailable = available;
+				bestRemaining = remaining;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Handles a status response to a request sent with the account, suspending the account if its credits are used up.
+	 */
+	public void statusReceived(GeoNamesAccount account, GeoNamesStatusException status)
+	{
+		if (status.isAccountLimit())
+			account.getRateLimiter().limitReached(suspensionSeconds);
+		else
+			account.getRateLimiter().limitCleared();
+	}
+
+	/**
+	 * Handles a response with results to a request sent with the account, which ends a run of credit limits.
+	 */
+	public void answered(GeoNamesAccount account)
+	{
+		account.getRateLimiter().limitCleared();
+	}
+
+	/**
+	 * Counts a request sent again with another account after its account was suspended.
+	 */
+	public void failedOver()
+	{
+		failoverCount.incrementAndGet();
+	}
+
+	/**
+	 * Counts a lookup answered from stale cached results because no account could be used.
+	 */
+	public void staleServed()
+	{
+		staleCount.incrementAndGet();
+	}
+
+	public long getFailoverCount()
+	{
+		return failoverCount.get();
+	}
+
+	public long getExhaustedCount()
+	{
+		return exhaustedCount.get();
+	}
+
+	public long getStaleCount()
+	{
+		return staleCount.get();
+	}
+
+	public String getStatistics()
+	{
+		int usable = 0;
+		for (GeoNamesAccount account : accounts)
+		{
+			if (account.isUsable())
+				usable++;
+		}
+		return "accounts=" + accounts.size() + " usable=" + usable + " failovers=" + getFailoverCount() + " exhausted=" + getExhaustedCount() + " stale=" + getStaleCount();
+	}
+}
@@ -0,0 +1,221 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+package com.esri.geoevent.processor.geonames;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.esri.ges.framework.i18n.BundleLogger;
+import com.esri.ges.framework.i18n.BundleLoggerFactory;
+
+/**
+ * Stops sending requests to a GeoNames server that keeps failing. After a number of consecutive failed requests the
+ * breaker opens and requests fail at once with an {@link OpenException}, which lets the lookup answer from stale cached
+ * results instead, until the open time has passed. A single trial request is then let through: if it succeeds the
+ * breaker closes again, otherwise it stays open for another open time.
+ * 
+ * One breaker is shared by every processor using the same GeoNames base URL, since an outage affects all of them.
+ * Only failures to get a response count; a GeoNames status response, such as exhausted credits, means the server is
+ * answering.
+ */
+public class GeoNamesCircuitBreaker
+{
+	public static final int																		DEFAULT_FAILURE_THRESHOLD	= 5;
+	public static final int																		DEFAULT_OPEN_SECONDS			= 30;
+
+	private static final BundleLogger													LOGGER										= BundleLoggerFactory.getLogger(GeoNamesCircuitBreaker.class);
+	private static final ConcurrentMap<String, GeoNamesCircuitBreaker>	BREAKERS									= new ConcurrentHashMap<String, GeoNamesCircuitBreaker>();
+
+	public enum State
+	{
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	/**
+	 * Thrown instead of sending a request while GeoNames cannot be used: the breaker is open, or every account of a
+	 * {@link GeoNamesAccountPool} is suspended or has an open breaker.
+	 */
+	public static class OpenException extends IOException
+	{
+		private static final long	serialVersionUID	= 1L;
+
+		OpenException(String message)
+		{
+			super(message);
+		}
+	}
+
+	private final String																			endpoint;
+	private State																							state											= State.CLOSED;
+	private int																								consecutiveFailures;
+	private long																							openUntil;
+	private long																							probeStartedAt;
+	private boolean																						probing;
+	private volatile int																			failureThreshold					= DEFAULT_FAILURE_THRESHOLD;
+	private volatile long																			openNanos									= TimeUnit.SECONDS.toNanos(DEFAULT_OPEN_SECONDS);
+	private final AtomicLong																	openedCount								= new AtomicLong();
+	private final AtomicLong																	rejectedCount							= new AtomicLong();
+
+	GeoNamesCircuitBreaker(String endpoint)
+	{
+		this.endpoint = endpoint;
+	}
+
+	/**
+	 * Returns the breaker shared by all processors sending requests to the given base URL.
+	 */
+	public static GeoNamesCircuitBreaker forEndpoint(String baseUrl)
+	{
+		GeoNamesCircuitBreaker breaker = BREAKERS.get(baseUrl);
+		if (breaker == null)
+		{
+			GeoNamesCircuitBreaker newBreaker = new GeoNamesCircuitBreaker(baseUrl);
+			breaker = BREAKERS.putIfAbsent(baseUrl, newBreaker);
+			if (breaker == null)
+				breaker = newBreaker;
+		}
+		return breaker;
+	}
+
+	/**
+	 * Sets how many consecutive failures open the breaker, 0 or less to never open it, and how long it stays open. The
+	 * breaker is shared, so the last processor to configure it decides for the endpoint.
+	 */
+	public void configure(int failureThreshold, int openSeconds)
+	{
+		this.failureThreshold = failureThreshold;
+		this.openNanos = TimeUnit.SECONDS.toNanos(Math.max(1, openSeconds));
+	}
+
+	/**
+	 * Decides whether a request may be sent now. Every request that is allowed has to be followed by
+	 * {@link #recordSuccess()}, {@link #recordFailure()} or {@link #recordCancelled()}.
+	 */
+	public synchronized boolean allowRequest()
+	{
+		if (failureThreshold <= 0)
+			return true;
+		long now = System.nanoTime();
+		switch (state)
+		{
+			case OPEN:
+				if (now - openUntil < 0)
+					break;
+				state = State.HALF_OPEN;
+				// fall through to let the trial request pass
+			case HALF_OPEN:
+				// a trial request that never reported back does not keep the breaker half open forever
+				if (probing && now - probeStartedAt < openNanos)
+					break;
+				probing = true;
+				probeStartedAt = now;
+				return true;
+			default:
+				return true;
+		}
+		rejectedCount.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * Like {@link #allowRequest()}, but throws instead of returning false.
+	 */
+	public void checkRequest() throws OpenException
+	{
+		if (!allowRequest())
+			throw new OpenException("GeoNames at " + endpoint + " is failing, the request was not sent");
+	}
+
+	/**
+	 * Whether requests are being rejected right now, without claiming the trial request like {@link #allowRequest()}.
+	 */
+	public synchronized boolean isOpen()
+	{
+		return failureThreshold > 0 && state == State.OPEN && System.nanoTime() - openUntil < 0;
+	}
+
+	public synchronized void recordSuccess()
+	{
+		consecutiveFailures = 0;
+		probing = false;
+		if (state != State.CLOSED)
+		{
+			state = State.CLOSED;
+			LOGGER.info("CIRCUIT_BREAKER_CLOSED", endpoint);
+		}
+	}
+
+	/**
+	 * Reports that an allowed request was cancelled before it was answered, which says nothing about the server. If it
+	 * was the trial request, the next request becomes the trial.
+	 */
+	public synchronized void recordCancelled()
+	{
+		probing = false;
+	}
+
+	public synchronized void recordFailure()
+	{
+		consecutiveFailures++;
+		probing = false;
+		if (failureThreshold <= 0)
+			return;
+		if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold))
+		{
+			if (state == State.CLOSED)
+				LOGGER.warn("CIRCUIT_BREAKER_OPEN", endpoint, consecutiveFailures, TimeUnit.NANOSECONDS.toSeconds(openNanos));
+			state = State.OPEN;
+			openUntil = System.nanoTime() + openNanos;
+			openedCount.incrementAndGet();
+		}
+	}
+
+	public String getEndpoint()
+	{
+		return endpoint;
+	}
+
+	public synchronized State getState()
+	{
+		return state;
+	}
+
+	public long getOpenedCount()
+	{
+		return openedCount.get();
+	}
+
+	public long getRejectedCount()
+	{
+		return rejectedCount.get();
+	}
+
+	public String getStatistics()
+	{
+		return "state=" + getState().name().toLowerCase() + " opened=" + getOpenedCount() + " rejected=" + getRejectedCount();
+	}
+}
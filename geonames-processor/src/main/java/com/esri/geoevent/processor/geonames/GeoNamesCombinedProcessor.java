@@ -0,0 +1,122 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.esri.ges.core.component.ComponentException;
+import com.esri.ges.core.geoevent.GeoEvent;
+import com.esri.ges.framework.i18n.BundleLogger;
+import com.esri.ges.framework.i18n.BundleLoggerFactory;
+import com.esri.ges.processor.GeoEventProcessorDefinition;
+
+/**
+ * Looks up the Wikipedia articles and the OpenStreetmap Points of Interest near each GeoEvent at the same time, so
+ * that enriching a GeoEvent with both takes as long as the slower lookup rather than the sum of the two. Both lookups
+ * share the HTTP connections, the cache and the rate limit of the username.
+ */
+public class GeoNamesCombinedProcessor extends GeoNamesProcessorBase
+{
+	private static final BundleLogger						LOGGER					= BundleLoggerFactory.getLogger(GeoNamesCombinedProcessor.class);
+	// the most OSM POI lookups run beside the Wikipedia lookups of the calling threads; beyond them the calling thread
+	// runs both lookups itself
+	private static final int										FAN_OUT_THREADS	= 8;
+
+	private final GeoNamesWikipediaEnrichment		wikipediaEnrichment;
+	private final GeoNamesOSMPOIEnrichment			osmPOIEnrichment;
+	// runs the OSM POI lookup while the calling thread runs the Wikipedia lookup
+	private final ThreadPoolExecutor						fanOut;
+
+	protected GeoNamesCombinedProcessor(GeoEventProcessorDefinition definition) throws ComponentException
+	{
+		super(definition, "GeoNamesCombined");
+		wikipediaEnrichment = new GeoNamesWikipediaEnrichment(this, GeoNamesCombinedProcessorDefinition.GEONAMES_WIKIPEDIA_FIELD_MAPPING_PROPERTY);
+		osmPOIEnrichment = new GeoNamesOSMPOIEnrichment(this, GeoNamesCombinedProcessorDefinition.GEONAMES_OSMPOIs_FIELD_MAPPING_PROPERTY);
+		enrichments.add(wikipediaEnrichment);
+		enrichments.add(osmPOIEnrichment);
+		fanOut = new ThreadPoolExecutor(FAN_OUT_THREADS, FAN_OUT_THREADS, 60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new GeoNamesLookupExecutor.WorkerThreadFactory("GeoNamesCombined-fanout"), new RejectedExecutionHandler()
+			{
+				@Override
+				public void rejectedExecution(Runnable lookup, ThreadPoolExecutor executor)
+				{
+					// unlike CallerRunsPolicy this also runs the lookup once the pool is shut down, so the caller never
+					// waits on a Future that is never completed
+					lookup.run();
+				}
+			});
+		fanOut.allowCoreThreadTimeOut(true);
+	}
+
+	GeoNamesWikipediaEnrichment getWikipediaEnrichment()
+	{
+		return wikipediaEnrichment;
+	}
+
+	GeoNamesOSMPOIEnrichment getOSMPOIEnrichment()
+	{
+		return osmPOIEnrichment;
+	}
+
+	@Override
+	protected void enrich(final GeoEvent geoEvent)
+	{
+		Future<?> osmPOIs = fanOut.submit(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					osmPOIEnrichment.enrich(geoEvent);
+				}
+			});
+		wikipediaEnrichment.enrich(geoEvent);
+		try
+		{
+			osmPOIs.get();
+		}
+		catch (ExecutionException e)
+		{
+			metrics.lookupFailed();
+			LOGGER.error("GEONAMES_LOOKUP_FAILURE", e.getCause().getMessage());
+			LOGGER.debug(e.getCause().getMessage(), e.getCause());
+		}
+		catch (InterruptedException e)
+		{
+			// the OSM POI lookup carries on and sends its results on its own
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public void shutdown()
+	{
+		fanOut.shutdown();
+		super.shutdown();
+	}
+}
@@ -0,0 +1,94 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import com.esri.ges.core.ConfigurationException;
+import com.esri.ges.core.property.PropertyException;
+import com.esri.ges.framework.i18n.BundleLogger;
+import com.esri.ges.framework.i18n.BundleLoggerFactory;
+
+public class GeoNamesCombinedProcessorDefinition extends GeoNamesProcessorDefinitionBase
+{
+	private static final BundleLogger	LOGGER	= BundleLoggerFactory.getLogger(GeoNamesCombinedProcessorDefinition.class);
+
+	protected static final String	GEONAMES_WIKIPEDIA_FIELD_MAPPING_PROPERTY	= "geoNamesWikiFieldMapping";
+	protected static final String	GEONAMES_OSMPOIs_FIELD_MAPPING_PROPERTY		= "geoNamesOSMPOIsFieldMapping";
+
+	public GeoNamesCombinedProcessorDefinition()
+	{
+		try
+		{
+			addAccountPropertyDefinitions();
+			addWikipediaPropertyDefinitions();
+			addOSMPOIPropertyDefinitions();
+
+			addLookupPropertyDefinitions("articles and points of interest", "GeoNamesWikipedia or GeoNamesOSMPOI", "GeoNamesWikipediaAggregated and GeoNamesOSMPOIAggregated");
+			addFieldMappingPropertyDefinition(GEONAMES_WIKIPEDIA_FIELD_MAPPING_PROPERTY, "GeoNames Wikipedia Field Mapping", "title=name,summary= to fill title from name and leave summary empty");
+			addFieldMappingPropertyDefinition(GEONAMES_OSMPOIs_FIELD_MAPPING_PROPERTY, "GeoNames OpenStreetmap POI Field Mapping", "name=typeName to fill name from typeName");
+			addExecutionPropertyDefinitions();
+
+			addOutputGeoEventDefinitions("GeoNamesWikipedia", GeoNamesWikipediaProcessorDefinition.resultFieldDefinitions());
+			addOutputGeoEventDefinitions("GeoNamesOSMPOI", GeoNamesOSMPOIProcessorDefinition.resultFieldDefinitions());
+		}
+		catch (PropertyException ex)
+		{
+			;
+		}
+		catch (ConfigurationException e)
+		{
+			LOGGER.error("OUTPUT_DEFINITIONS_INVALID", e, getName(), e.getMessage());
+		}
+	}
+
+	@Override
+	public String getName()
+	{
+		return "GeoNamesCombinedProcessor";
+	}
+
+	@Override
+	public String getDomain()
+	{
+		return "geonames.combined.processor";
+	}
+
+	@Override
+	public String getVersion()
+	{
+		return "10.5.0";
+	}
+
+	@Override
+	public String getLabel()
+	{
+		return "GeoNames Wikipedia and OpenStreetmap POI Lookup";
+	}
+
+	@Override
+	public String getDescription()
+	{
+		return "Looks up the georeferenced Wikipedia articles and the OpenStreetmap Points of Interest near the GeoEvent at the same time, and sends a GeoEvent for each of them.";
+	}
+}
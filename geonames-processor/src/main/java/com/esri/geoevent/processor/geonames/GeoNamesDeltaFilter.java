@@ -0,0 +1,228 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers which features were last sent for each track and incident, so that a slow-moving track does not re-emit
+ * the same articles or POIs with every report. A feature is identified by {@link GeoNamesRow#identity()}, and each
+ * key's set is kept as a sorted long[] of identities; the rows themselves are only kept when removals are reported.
+ * 
+ * The number of keys remembered is bounded; the keys that reported least recently are forgotten first, after which
+ * their features count as new again.
+ */
+public class GeoNamesDeltaFilter
+{
+	public static final int	DEFAULT_CAPACITY	= 100000;
+
+	public static final String	CHANGE_ADDED		= "Added";
+	public static final String	CHANGE_REMOVED	= "Removed";
+
+	public enum Mode
+	{
+		ALL("All Results"), ADDED("New Results Only"), ADDED_AND_REMOVED("New and Removed Results");
+
+		private final String	label;
+
+		private Mode(String label)
+		{
+			this.label = label;
+		}
+
+		public String getLabel()
+		{
+			return label;
+		}
+
+		public static Mode fromLabel(String label)
+		{
+			for (Mode mode : values())
+			{
+				if (mode.label.equalsIgnoreCase(label) || mode.name().equalsIgnoreCase(label))
+					return mode;
+			}
+			return ALL;
+		}
+	}
+
+	private static final long[]					NO_IDS	= new long[0];
+
+	private final Mode									mode;
+	private final GeoNamesStripedMap<Sent>	sent;
+
+	private final AtomicLong						addedCount			= new AtomicLong();
+	private final AtomicLong						unchangedCount	= new AtomicLong();
+	private final AtomicLong						removedCount		= new AtomicLong();
+
+	/**
+	 * @param mode ADDED to only emit features that were not sent for the key last time, ADDED_AND_REMOVED to also emit
+	 *          the features that are no longer returned.
+	 * @param capacity the maximum number of keys to remember.
+	 */
+	public GeoNamesDeltaFilter(Mode mode, int capacity)
+	{
+		this.mode = mode;
+		this.sent = new GeoNamesStripedMap<Sent>(capacity);
+	}
+
+	public static String key(String trackId, String incidentId)
+	{
+		return trackId + '\u0000' + incidentId;
+	}
+
+	/**
+	 * Starts comparing one lookup's rows with what was last sent for the key.
+	 */
+	public Delta begin(String key)
+	{
+		Sent previous = sent.get(key);
+		return new Delta(key, (previous != null) ? previous : new Sent(NO_IDS, null));
+	}
+
+	public int size()
+	{
+		return sent.size();
+	}
+
+	public String getStatistics()
+	{
+		return "keys=" + size() + " added=" + addedCount.get() + " unchanged=" + unchangedCount.get() + " removed=" + removedCount.get() + " evictions=" + sent.getEvictionCount();
+	}
+
+	private static class Sent
+	{
+		final long[]				ids;
+		final GeoNamesRow[]	rows;
+
+		Sent(long[] ids, GeoNamesRow[] rows)
+		{
+			this.ids = ids;
+			this.rows = rows;
+		}
+	}
+
+	/**
+	 * The comparison of one lookup's rows with the previous set. Rows are added from the lookup's handler, and the
+	 * lookup is finished once all of its rows have been seen. A Delta is used by a single thread.
+	 */
+	public class Delta
+	{
+		private final String	key;
+		private final Sent		previous;
+		private long[]				ids		= new long[16];
+		private GeoNamesRow[]	rows	= (mode == Mode.ADDED_AND_REMOVED) ? new GeoNamesRow[16] : null;
+		private int						count;
+
+		private Delta(String key, Sent previous)
+		{
+			this.key = key;
+			this.previous = previous;
+		}
+
+		/**
+		 * Records a row of the current lookup.
+		 * 
+		 * @return true if the row was not sent for the key last time and should be emitted.
+		 */
+		public boolean add(GeoNamesRow row)
+		{
+			if (count == ids.length)
+			{
+				ids = Arrays.copyOf(ids, count * 2);
+				if (rows != null)
+					rows = Arrays.copyOf(rows, count * 2);
+			}
+			long id = row.identity();
+			ids[count] = id;
+			if (rows != null)
+				rows[count] = row;
+			count++;
+			if (Arrays.binarySearch(previous.ids, id) >= 0)
+			{
+				unchangedCount.incrementAndGet();
+				return false;
+			}
+			addedCount.incrementAndGet();
+			return true;
+		}
+
+		/**
+		 * Remembers the current lookup's rows as the set sent for the key. Must only be called once the lookup has
+		 * completed; a failed lookup leaves the previous set in place.
+		 * 
+		 * @return the rows that were sent last time and are no longer returned, if removals are reported; otherwise an
+		 *         empty list.
+		 */
+		public List<GeoNamesRow> finish()
+		{
+			long[] currentIds = Arrays.copyOf(ids, count);
+			GeoNamesRow[] currentRows = null;
+			if (rows != null)
+			{
+				// sort the rows along with their identities
+				Integer[] order = new Integer[count];
+				for (int i = 0; i < count; i++)
+					order[i] = i;
+				final long[] unsorted = currentIds.clone();
+				Arrays.sort(order, new Comparator<Integer>()
+					{
+						@Override
+						public int compare(Integer a, Integer b)
+						{
+							return Long.compare(unsorted[a], unsorted[b]);
+						}
+					});
+				currentRows = new GeoNamesRow[count];
+				for (int i = 0; i < count; i++)
+				{
+					currentIds[i] = unsorted[order[i]];
+					currentRows[i] = rows[order[i]];
+				}
+			}
+			else
+			{
+				Arrays.sort(currentIds);
+			}
+			sent.put(key, new Sent(currentIds, currentRows));
+
+			if (currentRows == null || previous.rows == null)
+				return Collections.emptyList();
+			List<GeoNamesRow> removed = new ArrayList<GeoNamesRow>();
+			for (int i = 0; i < previous.ids.length; i++)
+			{
+				if (Arrays.binarySearch(currentIds, previous.ids[i]) < 0)
+					removed.add(previous.rows[i]);
+			}
+			removedCount.addAndGet(removed.size());
+			return removed;
+		}
+	}
+}
@@ -0,0 +1,607 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.json.JSONObject;
+
+import com.esri.ges.framework.i18n.BundleLogger;
+import com.esri.ges.framework.i18n.BundleLoggerFactory;
+
+/**
+ * Persistent tier under {@link GeoNamesLookupCache}, so that the results looked up before a restart are reused
+ * without spending GeoNames credits. Results are appended to a log file keyed like the in-memory cache, and an
+ * in-memory index of the newest record of each key is rebuilt from the file the first time the cache is used, so
+ * opening it does not slow down processor initialization.
+ * 
+ * Layout (big endian):
+ * <ul>
+ * <li>header: magic and version (2 ints);</li>
+ * <li>records, each holding the length and CRC32 of its body (ints) and the body: the expiry time in milliseconds
+ * (long), the key, the row count (int) and for each row its value count (int) followed by name, type tag and value of
+ * each value.</li>
+ * </ul>
+ * Strings are an int byte length followed by their UTF-8 bytes. A record torn by a crash is detected by its CRC32 and
+ * cut off. Replaced and expired records are dropped by rewriting the file once they take up more room than the live
+ * ones, or once the file grows past its maximum size, in which case the records expiring first are dropped too.
+ */
+public class GeoNamesDiskCache
+{
+	public static final int															DEFAULT_TTL_SECONDS			= 86400;
+	public static final int															DEFAULT_MAX_SIZE_MB			= 256;
+
+	static final int																		MAGIC										= 0x474E4443;
+	static final int																		VERSION									= 1;
+	static final int																		HEADER_SIZE							= 8;
+	static final int																		RECORD_HEADER_SIZE			= 8;
+
+	private static final long														MIN_COMPACTION_BYTES		= 1024 * 1024;
+	private static final byte														NULL										= 0;
+	private static final byte														STRING									= 1;
+	private static final byte														INTEGER									= 2;
+	private static final byte														LONG										= 3;
+	private static final byte														DOUBLE									= 4;
+	private static final byte														BOOLEAN									= 5;
+	private static final Charset												UTF8										= Charset.forName("UTF-8");
+	private static final BundleLogger										LOGGER									= BundleLoggerFactory.getLogger(GeoNamesDiskCache.class);
+	private static final Map<String, GeoNamesDiskCache>	CACHES									= new HashMap<String, GeoNamesDiskCache>();
+
+	private final File																	file;
+	private final Object																lock										= new Object();
+	private final Map<String, Slot>											index										= new HashMap<String, Slot>();
+	private volatile long																maxBytes								= DEFAULT_MAX_SIZE_MB * 1024L * 1024L;
+	private FileChannel																	channel;
+	private long																				end;
+	private long																				liveBytes;
+	private boolean																			failed;
+
+	private long																				hitCount;
+	private long																				missCount;
+	private long																				writeCount;
+	private long																				compactionCount;
+
+	GeoNamesDiskCache(File file)
+	{
+		this.file = file;
+	}
+
+	/**
+	 * Returns the cache stored in the file. Processors configured with the same file share one cache. The file is only
+	 * opened, or created, when the cache is first used.
+	 */
+	public static GeoNamesDiskCache forFile(String path)
+	{
+		File file = new File(path).getAbsoluteFile();
+		synchronized (CACHES)
+		{
+			GeoNamesDiskCache cache = CACHES.get(file.getPath());
+			if (cache == null)
+			{
+				cache = new GeoNamesDiskCache(file);
+				CACHES.put(file.getPath(), cache);
+			}
+			return cache;
+		}
+	}
+
+	/**
+	 * Sets the size the file is compacted down to when it grows past it. The cache is shared, so the last processor to
+	 * configure it decides the size.
+	 */
+	public void setMaxSize(long maxBytes)
+	{
+		this.maxBytes = Math.max(MIN_COMPACTION_BYTES, maxBytes);
+	}
+
+	/**
+	 * Returns the rows stored for the key, or null if there are none, they have expired or the file cannot be read.
+	 */
+	public Entry get(String key)
+	{
+		ByteBuffer record;
+		synchronized (lock)
+		{
+			Slot slot = open() ? index.get(key) : null;
+			if (slot != null && slot.expiresAt <= System.currentTimeMillis())
+			{
+				index.remove(key);
+				liveBytes -= slot.length;
+				slot = null;
+			}
+			if (slot == null)
+			{
+				missCount++;
+				return null;
+			}
+			try
+			{
+				record = read(slot.offset, slot.length);
+			}
+			catch (IOException e)
+			{
+				fail(e);
+				return null;
+			}
+			if (!verify(record))
+			{
+				// damaged on disk; looked up again and rewritten
+				index.remove(key);
+				liveBytes -= slot.length;
+				missCount++;
+				return null;
+			}
+			hitCount++;
+		}
+		record.position(RECORD_HEADER_SIZE);
+		long expiresAt = record.getLong();
+		readString(record);
+		return new Entry(readRows(record), expiresAt);
+	}
+
+	/**
+	 * Appends the rows for the key, replacing those stored before.
+	 */
+	public void put(String key, List<GeoNamesRow> rows, long expiresAt)
+	{
+		byte[] record;
+		try
+		{
+			record = encode(key, rows, expiresAt);
+		}
+		catch (IOException e)
+		{
+			// a value that cannot be stored; the rows stay in the in-memory cache only
+			LOGGER.debug(e.getMessage(), e);
+			return;
+		}
+		synchronized (lock)
+		{
+			if (!open())
+				return;
+			try
+			{
+				write(ByteBuffer.wrap(record), end);
+				Slot previous = index.put(key, new Slot(end, record.length, expiresAt));
+				if (previous != null)
+					liveBytes -= previous.length;
+				liveBytes += record.length;
+				end += record.length;
+				writeCount++;
+				long deadBytes = end - HEADER_SIZE - liveBytes;
+				if ((deadBytes > liveBytes && deadBytes > MIN_COMPACTION_BYTES) || end > maxBytes)
+					compact();
+			}
+			catch (IOException e)
+			{
+				fail(e);
+			}
+		}
+	}
+
+	public int size()
+	{
+		synchronized (lock)
+		{
+			return index.size();
+		}
+	}
+
+	public String getStatistics()
+	{
+		synchronized (lock)
+		{
+			return "entries=" + index.size() + " bytes=" + end + " hits=" + hitCount + " misses=" + missCount + " writes=" + writeCount + " compactions=" + compactionCount + (failed ? " failed" : "");
+		}
+	}
+
+	/**
+	 * Closes the file; the next use opens it again.
+	 */
+	public void close()
+	{
+		synchronized (lock)
+		{
+			closeChannel();
+			index.clear();
+			failed = false;
+		}
+	}
+
+	/**
+	 * Opens the file and builds the index the first time the cache is used.
+	 * 
+	 * @return false if the file cannot be used.
+	 */
+	private boolean open()
+	{
+		if (channel != null)
+			return true;
+		if (failed)
+			return false;
+		try
+		{
+			File parent = file.getParentFile();
+			if (parent != null && !parent.isDirectory() && !parent.mkdirs())
+				throw new IOException("Cannot create the directory " + parent + ".");
+			channel = new RandomAccessFile(file, "rw").getChannel();
+			index.clear();
+			liveBytes = 0;
+			if (channel.size() < HEADER_SIZE)
+			{
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+				header.putInt(MAGIC).putInt(VERSION).flip();
+				channel.truncate(0);
+				write(header, 0);
+				end = HEADER_SIZE;
+				return true;
+			}
+			ByteBuffer header = read(0, HEADER_SIZE);
+			if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION)
+				throw new IOException(file + " is not a GeoNames disk cache file.");
+			scan();
+			return true;
+		}
+		catch (IOException e)
+		{
+			fail(e);
+			return false;
+		}
+	}
+
+	/**
+	 * Rebuilds the index from the record headers and keys, cutting off a record torn by a crash and anything after it.
+	 * Only the last record, the one a crash can tear, is checked against its CRC32 here; the others are checked when
+	 * they are read.
+	 */
+	private void scan() throws IOException
+	{
+		long now = System.currentTimeMillis();
+		long size = channel.size();
+		long position = HEADER_SIZE;
+		while (position + RECORD_HEADER_SIZE + 12 <= size)
+		{
+			ByteBuffer head = read(position, RECORD_HEADER_SIZE + 12);
+			int bodyLength = head.getInt(0);
+			int keyLength = head.getInt(RECORD_HEADER_SIZE + 8);
+			if (bodyLength < 16 || keyLength < 0 || keyLength > bodyLength - 16 || position + RECORD_HEADER_SIZE + bodyLength > size)
+				break;
+			int length = RECORD_HEADER_SIZE + bodyLength;
+			if (position + length == size && !verify(read(position, length)))
+				break;
+			long expiresAt = head.getLong(RECORD_HEADER_SIZE);
+			ByteBuffer key = read(position + RECORD_HEADER_SIZE + 12, keyLength);
+			String k = new String(key.array(), 0, keyLength, UTF8);
+			Slot previous = index.remove(k);
+			if (previous != null)
+				liveBytes -= previous.length;
+			if (expiresAt > now)
+			{
+				index.put(k, new Slot(position, length, expiresAt));
+				liveBytes += length;
+			}
+			position += length;
+		}
+		if (position < size)
+			channel.truncate(position);
+		end = position;
+	}
+
+	/**
+	 * @param record a whole record, header included.
+	 * @return whether the body matches the CRC32 in the header.
+	 */
+	private static boolean verify(ByteBuffer record)
+	{
+		CRC32 crc = new CRC32();
+		crc.update(record.array(), RECORD_HEADER_SIZE, record.limit() - RECORD_HEADER_SIZE);
+		return (int) crc.getValue() == record.getInt(4);
+	}
+
+	/**
+	 * Rewrites the live records to a new file and replaces the log with it. When the live records alone exceed three
+	 * quarters of the maximum size, the records expiring first are left out.
+	 */
+	private void compact() throws IOException
+	{
+		long now = System.currentTimeMillis();
+		List<Map.Entry<String, Slot>> live = new ArrayList<Map.Entry<String, Slot>>(index.size());
+		for (Iterator<Map.Entry<String, Slot>> i = index.entrySet().iterator(); i.hasNext();)
+		{
+			Map.Entry<String, Slot> entry = i.next();
+			if (entry.getValue().expiresAt > now)
+				live.add(entry);
+			else
+				i.remove();
+		}
+		Collections.sort(live, new Comparator<Map.Entry<String, Slot>>()
+			{
+				@Override
+				public int compare(Map.Entry<String, Slot> a, Map.Entry<String, Slot> b)
+				{
+					return Long.compare(b.getValue().expiresAt, a.getValue().expiresAt);
+				}
+			});
+		long budget = maxBytes / 4 * 3;
+		File compacted = new File(file.getPath() + ".compact");
+		FileChannel out = new RandomAccessFile(compacted, "rw").getChannel();
+		Map<String, Slot> newIndex = new HashMap<String, Slot>();
+		long position = HEADER_SIZE;
+		try
+		{
+			out.truncate(0);
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putInt(VERSION).flip();
+			while (header.hasRemaining())
+				out.write(header, header.position());
+			for (Map.Entry<String, Slot> entry : live)
+			{
+				Slot slot = entry.getValue();
+				if (position + slot.length > budget)
+					break;
+				ByteBuffer record = read(slot.offset, slot.length);
+				while (record.hasRemaining())
+					out.write(record, position + record.position());
+				newIndex.put(entry.getKey(), new Slot(position, slot.length, slot.expiresAt));
+				position += slot.length;
+			}
+			out.force(true);
+		}
+		finally
+		{
+			out.close();
+		}
+		closeChannel();
+		if (!compacted.renameTo(file))
+		{
+			// renaming over an existing file fails on some platforms
+			if (!file.delete() || !compacted.renameTo(file))
+				throw new IOException("Cannot replace " + file + " with its compacted copy.");
+		}
+		channel = new RandomAccessFile(file, "rw").getChannel();
+		index.clear();
+		index.putAll(newIndex);
+		end = position;
+		liveBytes = position - HEADER_SIZE;
+		compactionCount++;
+	}
+
+	private void fail(IOException e)
+	{
+		LOGGER.error("DISK_CACHE_FAILURE", file, e.getMessage());
+		LOGGER.debug(e.getMessage(), e);
+		closeChannel();
+		index.clear();
+		failed = true;
+	}
+
+	private void closeChannel()
+	{
+		if (channel != null)
+		{
+			try
+			{
+				channel.close();
+			}
+			catch (IOException e)
+			{
+				;
+			}
+			channel = null;
+		}
+	}
+
+	private ByteBuffer read(long position, int length) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining())
+		{
+			if (channel.read(buffer, position + buffer.position()) < 0)
+				throw new IOException(file + " is truncated.");
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	private void write(ByteBuffer buffer, long position) throws IOException
+	{
+		int start = buffer.position();
+		while (buffer.hasRemaining())
+			channel.write(buffer, position + buffer.position() - start);
+	}
+
+	static byte[] encode(String key, List<GeoNamesRow> rows, long expiresAt) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(256 + rows.size() * 256);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0); // body length
+		out.writeInt(0); // CRC32 of the body
+		out.writeLong(expiresAt);
+		writeString(out, key);
+		out.writeInt(rows.size());
+		for (GeoNamesRow row : rows)
+		{
+			int count = row.size();
+			out.writeInt(count);
+			for (int i = 0; i < count; i++)
+			{
+				writeString(out, row.getName(i));
+				writeValue(out, row.getValue(i));
+			}
+		}
+		out.flush();
+		byte[] record = bytes.toByteArray();
+		int bodyLength = record.length - RECORD_HEADER_SIZE;
+		CRC32 crc = new CRC32();
+		crc.update(record, RECORD_HEADER_SIZE, bodyLength);
+		ByteBuffer.wrap(record).putInt(bodyLength).putInt((int) crc.getValue());
+		return record;
+	}
+
+	private static void writeValue(DataOutputStream out, Object value) throws IOException
+	{
+		if (value == null || value == JSONObject.NULL)
+		{
+			out.writeByte(NULL);
+		}
+		else if (value instanceof String)
+		{
+			out.writeByte(STRING);
+			writeString(out, (String) value);
+		}
+		else if (value instanceof Integer)
+		{
+			out.writeByte(INTEGER);
+			out.writeInt((Integer) value);
+		}
+		else if (value instanceof Long)
+		{
+			out.writeByte(LONG);
+			out.writeLong((Long) value);
+		}
+		else if (value instanceof Double)
+		{
+			out.writeByte(DOUBLE);
+			out.writeDouble((Double) value);
+		}
+		else if (value instanceof Boolean)
+		{
+			out.writeByte(BOOLEAN);
+			out.writeBoolean((Boolean) value);
+		}
+		else
+		{
+			throw new IOException("Cannot store a " + value.getClass().getName() + " value in the disk cache.");
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException
+	{
+		byte[] bytes = s.getBytes(UTF8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static List<GeoNamesRow> readRows(ByteBuffer body)
+	{
+		int rowCount = body.getInt();
+		List<GeoNamesRow> rows = new ArrayList<GeoNamesRow>(rowCount);
+		for (int r = 0; r < rowCount; r++)
+		{
+			int count = body.getInt();
+			String[] names = new String[count];
+			Object[] values = new Object[count];
+			for (int i = 0; i < count; i++)
+			{
+				names[i] = readString(body);
+				values[i] = readValue(body);
+			}
+			rows.add(new GeoNamesRow(names, values));
+		}
+		return Collections.unmodifiableList(rows);
+	}
+
+	private static Object readValue(ByteBuffer body)
+	{
+		byte type = body.get();
+		switch (type)
+		{
+			case STRING:
+				return readString(body);
+			case INTEGER:
+				return body.getInt();
+			case LONG:
+				return body.getLong();
+			case DOUBLE:
+				return body.getDouble();
+			case BOOLEAN:
+				return body.get() != 0;
+			default:
+				return JSONObject.NULL;
+		}
+	}
+
+	private static String readString(ByteBuffer body)
+	{
+		int length = body.getInt();
+		String s = new String(body.array(), body.arrayOffset() + body.position(), length, UTF8);
+		body.position(body.position() + length);
+		return s;
+	}
+
+	/**
+	 * Rows read from the file, with the time they expire.
+	 */
+	public static class Entry
+	{
+		final List<GeoNamesRow>	rows;
+		final long							expiresAt;
+
+		Entry(List<GeoNamesRow> rows, long expiresAt)
+		{
+			this.rows = rows;
+			this.expiresAt = expiresAt;
+		}
+
+		public List<GeoNamesRow> getRows()
+		{
+			return rows;
+		}
+
+		public long getExpiresAt()
+		{
+			return expiresAt;
+		}
+	}
+
+	private static class Slot
+	{
+		final long	offset;
+		final int		length;
+		final long	expiresAt;
+
+		Slot(long offset, int length, long expiresAt)
+		{
+			this.offset = offset;
+			this.length = length;
+			this.expiresAt = expiresAt;
+		}
+	}
+}
@@ -0,0 +1,444 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONException;
+
+import com.esri.core.geometry.Geometry;
+import com.esri.core.geometry.MapGeometry;
+import com.esri.core.geometry.Point;
+import com.esri.ges.core.geoevent.FieldException;
+import com.esri.ges.core.geoevent.FieldGroup;
+import com.esri.ges.core.geoevent.GeoEvent;
+import com.esri.ges.framework.i18n.BundleLogger;
+import com.esri.ges.framework.i18n.BundleLoggerFactory;
+import com.esri.ges.messaging.MessagingException;
+
+/**
+ * Looks up one GeoNames service for the GeoEvents of a processor and sends a GeoEvent for each result, or one for each
+ * input GeoEvent in aggregated output mode. The processor configures the lookup; the subclasses build the query and
+ * read the properties of their service.
+ * 
+ * A point is looked up on its own. A route, an area or a set of points is sampled into the lookup locations covering
+ * it, which are looked up in parallel, and their results are merged and ranked by their distance to the geometry.
+ */
+abstract class GeoNamesEnrichment
+{
+	private static final BundleLogger				LOGGER							= BundleLoggerFactory.getLogger(GeoNamesEnrichment.class);
+
+	protected final GeoNamesProcessorBase		processor;
+	protected final GeoNamesLookup					lookup							= new GeoNamesLookup(GeoNamesHttpClient.getInstance());
+	private final String										name;
+	private final String										fieldMappingProperty;
+	private volatile boolean								aggregatedOutput;
+	private volatile GeoNamesDeltaFilter		deltaFilter;
+	private volatile GeoNamesFieldMapping		fieldMapping;
+	private volatile int										geometryMaxLookups	= GeoNamesGeometry.DEFAULT_MAX_SAMPLES;
+	private final AtomicLong								geometryCount				= new AtomicLong();
+	private final AtomicLong								geometryLookupCount	= new AtomicLong();
+
+	/**
+	 * @param name the name of the GeoEvent definition sent for each result; the aggregated one has an Aggregated suffix.
+	 * @param fieldMappingProperty the name of the property holding the field mapping of this service.
+	 */
+	protected GeoNamesEnrichment(GeoNamesProcessorBase processor, String name, String fieldMappingProperty)
+	{
+		this.processor = processor;
+		this.name = name;
+		this.fieldMappingProperty = fieldMappingProperty;
+		this.fieldMapping = compileFieldMapping(null);
+	}
+
+	/**
+	 * The service name used in status details and log messages, for example Wikipedia.
+	 */
+	public abstract String getLabel();
+
+	protected abstract GeoNamesQuery createQuery(double lat, double lon);
+
+	/**
+	 * @throws IllegalArgumentException if the specification is invalid.
+	 */
+	protected abstract GeoNamesFieldMapping compileFieldMapping(String specification);
+
+	/**
+	 * Reads the properties of the service, such as the search radius and the local index. Called by the processor
+	 * while it holds its property lock.
+	 */
+	protected abstract void configureService();
+
+	public GeoNamesLookup getLookup()
+	{
+		return lookup;
+	}
+
+	public GeoNamesDeltaFilter getDeltaFilter()
+	{
+		return deltaFilter;
+	}
+
+	/**
+	 * @param geometryMaxLookups the most locations a route, an area or a set of points is looked up from.
+	 */
+	void configure(GeoNamesDeltaFilter deltaFilter, boolean aggregatedOutput, int geometryMaxLookups)
+	{
+		this.deltaFilter = deltaFilter;
+		this.aggregatedOutput = aggregatedOutput;
+		this.geometryMaxLookups = geometryMaxLookups;
+		String geoNamesFieldMapping = "";
+		if (processor.hasProperty(fieldMappingProperty))
+		{
+			geoNamesFieldMapping = processor.getProperty(fieldMappingProperty).getValueAsString();
+		}
+		try
+		{
+			fieldMapping = compileFieldMapping(geoNamesFieldMapping);
+		}
+		catch (IllegalArgumentException e)
+		{
+			LOGGER.error("FIELD_MAPPING_INVALID", geoNamesFieldMapping, e.getMessage());
+			fieldMapping = compileFieldMapping(null);
+		}
+		configureService();
+	}
+
+	void enrich(final GeoEvent geoEvent)
+	{
+		GeoNamesMetrics metrics = processor.getMetrics();
+		try
+		{
+			MapGeometry mapGeometry = geoEvent.getGeometry();
+			GeoNamesProjection projection = GeoNamesProjection.forSpatialReference(mapGeometry.getSpatialReference());
+			if (projection == null)
+			{
+				// logged once for each spatial reference
+				metrics.lookupFailed();
+				return;
+			}
+			// in aggregated output mode the rows are collected and sent as one GeoEvent once the lookup is complete
+			final List<GeoNamesRow> results = aggregatedOutput ? new ArrayList<GeoNamesRow>() : null;
+			final List<String> changeTypes = aggregatedOutput ? new ArrayList<String>() : null;
+			final GeoNamesDeltaFilter deltaFilter = this.deltaFilter;
+			final GeoNamesDeltaFilter.Delta delta = (deltaFilter != null) ? deltaFilter.begin(GeoNamesDeltaFilter.key(geoEvent.getTrackId(), incidentIdOf(geoEvent))) : null;
+			GeoNamesRowHandler handler = new GeoNamesRowHandler()
+				{
+					@Override
+					public void handleRow(GeoNamesRow row)
+					{
+						if (delta == null || delta.add(row))
+							emit(geoEvent, row, (delta != null) ? GeoNamesDeltaFilter.CHANGE_ADDED : null, results, changeTypes);
+					}
+				};
+			metrics.lookup();
+			boolean priority = processor.isPriority(geoEvent);
+			boolean complete = true;
+			Geometry geometry = mapGeometry.getGeometry();
+			if (geometry instanceof Point)
+			{
+				Point point = (Point) geometry;
+				complete = lookup.lookup(createQuery(projection.toLat(point.getY()), projection.toLon(point.getX())).withPriority(priority), geoEvent.getTrackId(), handler);
+			}
+			else
+			{
+				for (GeoNamesRow row : lookup(GeoNamesGeometry.of(geometry, projection), priority))
+					handler.handleRow(row);
+			}
+			if (delta != null && complete)
+			{
+				for (GeoNamesRow removed : delta.finish())
+					emit(geoEvent, removed, GeoNamesDeltaFilter.CHANGE_REMOVED, results, changeTypes);
+			}
+			if (results != null && complete && (delta == null || !results.isEmpty()))
+				createAggregatedGeoEvent(geoEvent, results, changeTypes);
+		}
+		catch (GeoNamesCircuitBreaker.OpenException e)
+		{
+			// logged once by the circuit breaker when it opened, or by the rate limiter when the credits were used up;
+			// routine lookups shed for priority ones are counted by the rate limiter
+			metrics.lookupFailed();
+			LOGGER.debug(e.getMessage(), e);
+		}
+		catch (IOException e)
+		{
+			metrics.lookupFailed();
+			LOGGER.error("GEONAMES_REQUEST_FAILURE", e.getMessage());
+			LOGGER.debug(e.getMessage(), e);
+		}
+		catch (JSONException e)
+		{
+			// a GeoNames status response, such as exhausted credits, or a malformed body
+			metrics.lookupFailed();
+			LOGGER.error("GEONAMES_REQUEST_FAILURE", e.getMessage());
+			LOGGER.debug(e.getMessage(), e);
+		}
+		catch (IllegalArgumentException e)
+		{
+			// a type of geometry that cannot be looked up
+			metrics.lookupFailed();
+			LOGGER.error("GEOMETRY_UNSUPPORTED", e.getMessage());
+		}
+	}
+
+	/**
+	 * Looks up a route, an area or a set of points. Each location is looked up with a search radius half again as wide,
+	 * up to the most the service accepts, and placed so that every point of the geometry is within the difference of
+	 * the two radii of one of them; the results within the search radius of the geometry are then all found, unless the
+	 * geometry needed more than the maximum number of lookups.
+	 * 
+	 * @param priority whether the lookups are sent ahead of routine ones.
+	 * @return the results nearest to the geometry first, up to the maximum rows, with their distance to it.
+	 */
+	private List<GeoNamesRow> lookup(final GeoNamesGeometry geometry, boolean priority) throws IOException, JSONException
+	{
+		GeoNamesQuery template = createQuery(0, 0);
+		double lookupRadius = Math.min(template.getService().getMaxRadius(), 1.5 * template.getRadius());
+		// near the maximum radius of the service the corridor narrows instead of the lookups getting denser
+		double coverKm = Math.max(lookupRadius - template.getRadius(), template.getRadius() / 4);
+		double corridorKm = lookupRadius - coverKm;
+		List<double[]> samples = geometry.getSamples(coverKm, lookup.getCellPrecision(), geometryMaxLookups);
+		geometryCount.incrementAndGet();
+		geometryLookupCount.addAndGet(samples.size());
+
+		// the first location is looked up on the calling thread while the others are looked up by the processor's pool
+		ExecutorService executor = processor.getGeometryExecutor();
+		List<Future<List<GeoNamesRow>>> futures = new ArrayList<Future<List<GeoNamesRow>>>(samples.size());
+		for (int i = 1; i < samples.size(); i++)
+		{
+			final GeoNamesQuery query = new GeoNamesQuery(template.getService(), samples.get(i)[0], samples.get(i)[1], lookupRadius, template.getMaxRows(), template.getLang()).withPriority(priority);
+			futures.add(executor.submit(new Callable<List<GeoNamesRow>>()
+				{
+					@Override
+					public List<GeoNamesRow> call() throws IOException, JSONException
+					{
+						return lookup.lookup(query);
+					}
+				}));
+		}
+		List<List<GeoNamesRow>> found = new ArrayList<List<GeoNamesRow>>(samples.size());
+		try
+		{
+			if (!samples.isEmpty())
+				found.add(lookup.lookup(new GeoNamesQuery(template.getService(), samples.get(0)[0], samples.get(0)[1], lookupRadius, template.getMaxRows(), template.getLang()).withPriority(priority)));
+			for (Future<List<GeoNamesRow>> future : futures)
+				found.add(get(future));
+		}
+		finally
+		{
+			// once one location failed the geometry fails, so the lookups not started yet are not sent; those already
+			// sent are left to finish and cache their results
+			for (Future<List<GeoNamesRow>> future : futures)
+				future.cancel(false);
+		}
+
+		// neighbouring locations find many of the same results
+		Set<Long> seen = new HashSet<Long>();
+		List<GeoNamesRow> candidates = new ArrayList<GeoNamesRow>();
+		GeoNamesNearest nearest = new GeoNamesNearest(template.getMaxRows());
+		for (List<GeoNamesRow> rows : found)
+		{
+			for (GeoNamesRow row : rows)
+			{
+				if (!seen.add(row.identity()))
+					continue;
+				double distance = geometry.distanceKm(row.optDouble("lat"), row.optDouble("lng"));
+				if (distance <= corridorKm && distance < nearest.getThreshold())
+				{
+					nearest.offer(candidates.size(), distance);
+					candidates.add(row);
+				}
+			}
+		}
+		int n = nearest.size();
+		double[] distances = new double[n];
+		long[] ids = nearest.drainSorted(distances);
+		List<GeoNamesRow> ranked = new ArrayList<GeoNamesRow>(n);
+		for (int i = 0; i < n; i++)
+			ranked.add(candidates.get((int) ids[i]).with("distance", distances[i]));
+		return ranked;
+	}
+
+	private static List<GeoNamesRow> get(Future<List<GeoNamesRow>> future) throws IOException, JSONException
+	{
+		try
+		{
+			return future.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while looking up a geometry");
+		}
+		catch (ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof JSONException)
+				throw (JSONException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new IOException(cause);
+		}
+	}
+
+	public long getGeometryCount()
+	{
+		return geometryCount.get();
+	}
+
+	public long getGeometryLookupCount()
+	{
+		return geometryLookupCount.get();
+	}
+
+	private void emit(GeoEvent geoEvent, GeoNamesRow row, String changeType, List<GeoNamesRow> results, List<String> changeTypes)
+	{
+		if (results == null)
+		{
+			createGeoEvent(geoEvent, row, changeType);
+			return;
+		}
+		results.add(row);
+		changeTypes.add(changeType);
+	}
+
+	static String incidentIdOf(GeoEvent geoEvent)
+	{
+		if (geoEvent.getGeoEventDefinition().getName().equals("incident"))
+			return (String) geoEvent.getField("id");
+		return "none";
+	}
+
+	void createGeoEvent(GeoEvent geoEvent, GeoNamesRow geoname, String changeType)
+	{
+		long start = System.nanoTime();
+		GeoNamesFieldMapping fieldMapping = this.fieldMapping;
+		GeoEvent geonameGeoEvent = null;
+		try
+		{
+			geonameGeoEvent = processor.createGeoEvent(name);
+			if (geonameGeoEvent != null)
+			{
+				geonameGeoEvent.setField(0, geoEvent.getTrackId());
+				geonameGeoEvent.setField(1, geoEvent.getStartTime());
+				geonameGeoEvent.setField(2, incidentIdOf(geoEvent));
+				processor.getMetrics().fieldFailed(fieldMapping.apply(geoname, geonameGeoEvent, 3, geonameGeoEvent));
+				// the result fields are followed by the geometry and the change type
+				geonameGeoEvent.setField(3 + fieldMapping.getOutputCount() + 1, changeType);
+			}
+		}
+		catch (FieldException error)
+		{
+			geonameGeoEvent = null;
+			LOGGER.error("GEOEVENT_CREATION_ERROR", error.getMessage());
+			LOGGER.info(error.getMessage(), error);
+		}
+		catch (MessagingException e)
+		{
+			geonameGeoEvent = null;
+			LOGGER.error("GEOEVENT_CREATION_ERROR", e.getMessage());
+			LOGGER.info(e.getMessage(), e);
+		}
+		processor.sendCreated(geonameGeoEvent, start, getLabel());
+	}
+
+	void createAggregatedGeoEvent(GeoEvent geoEvent, List<GeoNamesRow> rows, List<String> changeTypes)
+	{
+		long start = System.nanoTime();
+		GeoNamesFieldMapping fieldMapping = this.fieldMapping;
+		GeoEvent aggregatedGeoEvent = null;
+		try
+		{
+			aggregatedGeoEvent = processor.createGeoEvent(name + "Aggregated");
+			if (aggregatedGeoEvent != null)
+			{
+				aggregatedGeoEvent.setField(0, geoEvent.getTrackId());
+				aggregatedGeoEvent.setField(1, geoEvent.getStartTime());
+				aggregatedGeoEvent.setField(2, incidentIdOf(geoEvent));
+				aggregatedGeoEvent.setField(3, rows.size());
+				aggregatedGeoEvent.setGeometry(geoEvent.getGeometry());
+				List<FieldGroup> results = new ArrayList<FieldGroup>(rows.size());
+				for (int i = 0; i < rows.size(); i++)
+				{
+					FieldGroup result = aggregatedGeoEvent.createFieldGroup("results");
+					processor.getMetrics().fieldFailed(fieldMapping.apply(rows.get(i), result, 0));
+					result.setField(fieldMapping.getOutputCount(), changeTypes.get(i));
+					results.add(result);
+				}
+				aggregatedGeoEvent.setField(5, results);
+			}
+		}
+		catch (FieldException error)
+		{
+			aggregatedGeoEvent = null;
+			LOGGER.error("GEOEVENT_CREATION_ERROR", error.getMessage());
+			LOGGER.info(error.getMessage(), error);
+		}
+		catch (MessagingException e)
+		{
+			aggregatedGeoEvent = null;
+			LOGGER.error("GEOEVENT_CREATION_ERROR", e.getMessage());
+			LOGGER.info(e.getMessage(), e);
+		}
+		processor.sendCreated(aggregatedGeoEvent, start, getLabel());
+	}
+
+	/**
+	 * Appends the statistics of the lookup and delta filter of this service to the status details.
+	 * 
+	 * @param suffix appended to each statistic name, so that the services of a combined processor can be told apart.
+	 */
+	String appendStatusDetails(String details, String suffix)
+	{
+		GeoNamesTrackFilter trackFilter = lookup.getTrackFilter();
+		if (trackFilter != null)
+			details = GeoNamesProcessorBase.appendStatusDetails(details, "Tracks" + suffix + ": " + trackFilter.getStatistics());
+		GeoNamesDeltaFilter deltaFilter = this.deltaFilter;
+		if (deltaFilter != null)
+			details = GeoNamesProcessorBase.appendStatusDetails(details, "Delta" + suffix + ": " + deltaFilter.getStatistics());
+		if (lookup.getTileSize() > 0 && lookup.getCache() != null)
+			details = GeoNamesProcessorBase.appendStatusDetails(details, "Tiles" + suffix + ": " + lookup.getTileStatistics());
+		if (getGeometryCount() > 0)
+			details = GeoNamesProcessorBase.appendStatusDetails(details, "Geometries" + suffix + ": geometries=" + getGeometryCount() + " lookups=" + getGeometryLookupCount() + " maxLookups=" + geometryMaxLookups);
+		GeoNamesHedger hedger = lookup.getHedger();
+		if (hedger != null)
+			details = GeoNamesProcessorBase.appendStatusDetails(details, "Hedging" + suffix + ": " + hedger.getStatistics());
+		if (lookup.isCoalescing())
+			details = GeoNamesProcessorBase.appendStatusDetails(details, "Coalescing" + suffix + ": " + lookup.getSingleFlight().getStatistics());
+		return details;
+	}
+}
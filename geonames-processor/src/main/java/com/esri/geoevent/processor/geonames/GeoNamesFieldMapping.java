@@ -0,0 +1,288 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONObject;
+
+import com.esri.core.geometry.MapGeometry;
+import com.esri.core.geometry.Point;
+import com.esri.core.geometry.SpatialReference;
+import com.esri.ges.core.geoevent.FieldDefinition;
+import com.esri.ges.core.geoevent.FieldException;
+import com.esri.ges.core.geoevent.FieldGroup;
+import com.esri.ges.core.geoevent.FieldType;
+import com.esri.ges.core.geoevent.GeoEvent;
+
+/**
+ * Copies the values of a GeoNames result row into GeoEvent fields. The mapping is compiled once from the output field
+ * definitions: each output field is resolved up front to the response field that fills it, its index and its type.
+ * Applying it to a row is then a presence check and at most one conversion per value, and a missing value is counted
+ * rather than thrown.
+ * 
+ * By default each output field is filled from the response field of the same name. The mapping specification
+ * overrides this as a comma separated list of outputField=responseField pairs; an empty response field leaves the
+ * output field empty.
+ */
+public class GeoNamesFieldMapping
+{
+	public static final String							UNAVAILABLE	= "unavailable";
+
+	private static final SpatialReference	WGS84				= SpatialReference.create(4326);
+
+	private final String[]									sources;
+	private final FieldType[]								types;
+	private final int												outputCount;
+	private final boolean										fillMissing;
+	private final int												xSlot;
+	private final int												ySlot;
+	private final int												zSlot;
+
+	private GeoNamesFieldMapping(String[] sources, FieldType[] types, int outputCount, boolean fillMissing, int xSlot, int ySlot, int zSlot)
+	{
+		this.sources = sources;
+		this.types = types;
+		this.outputCount = outputCount;
+		this.fillMissing = fillMissing;
+		this.xSlot = xSlot;
+		this.ySlot = ySlot;
+		this.zSlot = zSlot;
+	}
+
+	/**
+	 * @param fields the output fields, filled in order starting at the index given to {@link #apply}.
+	 * @param specification the outputField=responseField overrides, or null or empty for none.
+	 * @param fillMissing whether missing values are set to "unavailable" or NaN rather than left empty.
+	 * @param xSource the response field holding the longitude of the geometry.
+	 * @param ySource the response field holding the latitude of the geometry.
+	 * @param zSource the response field holding the elevation of the geometry, or null for 2D geometries.
+	 * @throws IllegalArgumentException if the specification is malformed or names an unknown output field.
+	 */
+	public static GeoNamesFieldMapping compile(List<FieldDefinition> fields, String specification, boolean fillMissing, String xSource, String ySource, String zSource)
+	{
+		Map<String, String> overrides = parse(specification);
+		List<String> sources = new ArrayList<String>();
+		List<FieldType> types = new ArrayList<FieldType>();
+		for (FieldDefinition field : fields)
+		{
+			String name = field.getName();
+			String source = overrides.containsKey(name) ? overrides.remove(name) : name;
+			sources.add(source);
+			types.add(field.getType());
+		}
+		if (!overrides.isEmpty())
+			throw new IllegalArgumentException("Unknown output field(s) " + overrides.keySet());
+
+		// coordinates reuse the value of an output field filled from the same response field, so they are parsed once
+		int outputCount = sources.size();
+		int xSlot = slotOf(xSource, sources, types);
+		int ySlot = slotOf(ySource, sources, types);
+		int zSlot = (zSource != null) ? slotOf(zSource, sources, types) : -1;
+		return new GeoNamesFieldMapping(sources.toArray(new String[sources.size()]), types.toArray(new FieldType[types.size()]), outputCount, fillMissing, xSlot, ySlot, zSlot);
+	}
+
+	private static Map<String, String> parse(String specification)
+	{
+		Map<String, String> overrides = new HashMap<String, String>();
+		if (specification == null)
+			return overrides;
+		for (String pair : specification.split(","))
+		{
+			if (pair.trim().isEmpty())
+				continue;
+			int equals = pair.indexOf('=');
+			if (equals <= 0)
+				throw new IllegalArgumentException("Expected outputField=responseField but found \"" + pair.trim() + "\"");
+			String output = pair.substring(0, equals).trim();
+			String source = pair.substring(equals + 1).trim();
+			overrides.put(output, source.isEmpty() ? null : source);
+		}
+		return overrides;
+	}
+
+	private static int slotOf(String source, List<String> sources, List<FieldType> types)
+	{
+		for (int i = 0; i < sources.size(); i++)
+		{
+			if (source.equals(sources.get(i)) && types.get(i) == FieldType.Double)
+				return i;
+		}
+		sources.add(source);
+		types.add(FieldType.Double);
+		return sources.size() - 1;
+	}
+
+	/**
+	 * @return the number of output fields set by {@link #apply}.
+	 */
+	public int getOutputCount()
+	{
+		return outputCount;
+	}
+
+	/**
+	 * Sets the output fields of the row, starting at the given field index.
+	 * 
+	 * @return the number of values that were missing or could not be converted.
+	 */
+	public int apply(GeoNamesRow row, FieldGroup target, int first) throws FieldException
+	{
+		return apply(row, target, first, null);
+	}
+
+	/**
+	 * Sets the output fields of the row, starting at the given field index, and the point geometry of the GeoEvent if
+	 * one is given.
+	 * 
+	 * @return the number of values that were missing or could not be converted, counting a missing geometry as one.
+	 */
+	public int apply(GeoNamesRow row, FieldGroup target, int first, GeoEvent geometryTarget) throws FieldException
+	{
+		int missing = 0;
+		double x = Double.NaN;
+		double y = Double.NaN;
+		double z = Double.NaN;
+		for (int i = 0; i < sources.length; i++)
+		{
+			if (sources[i] == null)
+				continue;
+			Object value = convert(row.opt(sources[i]), types[i]);
+			if (i < outputCount)
+			{
+				if (value == null)
+				{
+					missing++;
+					if (fillMissing)
+						value = missingValue(types[i]);
+				}
+				target.setField(first + i, value);
+			}
+			if (value instanceof Double)
+			{
+				if (i == xSlot)
+					x = (Double) value;
+				else if (i == ySlot)
+					y = (Double) value;
+				else if (i == zSlot)
+					z = (Double) value;
+			}
+		}
+		if (geometryTarget != null)
+		{
+			if (Double.isNaN(x) || Double.isNaN(y))
+				return missing + 1;
+			Point point = Double.isNaN(z) ? new Point(x, y) : new Point(x, y, z);
+			geometryTarget.setGeometry(new MapGeometry(point, WGS84));
+		}
+		return missing;
+	}
+
+	private static Object convert(Object value, FieldType type)
+	{
+		if (value == null || value == JSONObject.NULL)
+			return null;
+		switch (type)
+		{
+			case String:
+				return value.toString();
+			case Double:
+				if (value instanceof Double)
+					return value;
+				if (value instanceof Number)
+					return ((Number) value).doubleValue();
+				return parseDouble(value.toString());
+			case Float:
+				if (value instanceof Number)
+					return ((Number) value).floatValue();
+				Double f = parseDouble(value.toString());
+				return (f != null) ? f.floatValue() : null;
+			case Integer:
+				if (value instanceof Number)
+					return ((Number) value).intValue();
+				Double i = parseDouble(value.toString());
+				return (i != null) ? i.intValue() : null;
+			case Long:
+				if (value instanceof Number)
+					return ((Number) value).longValue();
+				Double l = parseDouble(value.toString());
+				return (l != null) ? l.longValue() : null;
+			case Short:
+				if (value instanceof Number)
+					return ((Number) value).shortValue();
+				Double s = parseDouble(value.toString());
+				return (s != null) ? s.shortValue() : null;
+			case Boolean:
+				if (value instanceof Boolean)
+					return value;
+				return Boolean.valueOf(value.toString());
+			default:
+				return value;
+		}
+	}
+
+	/**
+	 * Parses a decimal number, returning null rather than throwing for text that is not one.
+	 */
+	private static Double parseDouble(String text)
+	{
+		int length = text.length();
+		if (length == 0)
+			return null;
+		// reject what Double.parseDouble would, without the cost of its exception
+		for (int i = 0; i < length; i++)
+		{
+			char c = text.charAt(i);
+			if (!((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E'))
+				return null;
+		}
+		try
+		{
+			return Double.parseDouble(text);
+		}
+		catch (NumberFormatException e)
+		{
+			return null;
+		}
+	}
+
+	private static Object missingValue(FieldType type)
+	{
+		switch (type)
+		{
+			case String:
+				return UNAVAILABLE;
+			case Double:
+				return Double.NaN;
+			case Float:
+				return Float.NaN;
+			default:
+				return null;
+		}
+	}
+}
@@ -0,0 +1,296 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+package com.esri.geoevent.processor.geonames;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.esri.core.geometry.Envelope;
+import com.esri.core.geometry.Geometry;
+import com.esri.core.geometry.MultiPath;
+import com.esri.core.geometry.MultiPoint;
+import com.esri.core.geometry.Point;
+import com.esri.core.geometry.Point2D;
+import com.esri.core.geometry.Polygon;
+
+/**
+ * A GeoEvent geometry converted to WGS84, for looking up the results near a route, an area or a set of points rather
+ * than a single location. The geometry is sampled into the fewest lookup locations whose search radius covers it, each
+ * at the center of its cache cell so that the same route or area is looked up from the same cells every time; the
+ * results are ranked by their distance to the geometry itself.
+ */
+public class GeoNamesGeometry
+{
+	public static final int				DEFAULT_MAX_SAMPLES	= 100;
+
+	private static final double		KM_PER_DEGREE				= Math.toRadians(GeoHash.EARTH_RADIUS_KM);
+
+	// the vertices of each point, path or ring
+	private final double[][]			lons;
+	private final double[][]			lats;
+	private final boolean					polygon;
+	private final double					minLon, minLat, maxLon, maxLat;
+
+	private GeoNamesGeometry(double[][] lons, double[][] lats, boolean polygon)
+	{
+		this.lons = lons;
+		this.lats = lats;
+		this.polygon = polygon;
+		double minLon = Double.MAX_VALUE, minLat = Double.MAX_VALUE, maxLon = -Double.MAX_VALUE, maxLat = -Double.MAX_VALUE;
+		for (int part = 0; part < lons.length; part++)
+		{
+			for (int i = 0; i < lons[part].length; i++)
+			{
+				minLon = Math.min(minLon, lons[part][i]);
+				maxLon = Math.max(maxLon, lons[part][i]);
+				minLat = Math.min(minLat, lats[part][i]);
+				maxLat = Math.max(maxLat, lats[part][i]);
+			}
+		}
+		this.minLon = minLon;
+		this.minLat = minLat;
+		this.maxLon = maxLon;
+		this.maxLat = maxLat;
+	}
+
+	/**
+	 * Converts a point, multipoint, polyline, polygon or envelope.
+	 * 
+	 * @throws IllegalArgumentException for other types of geometry.
+	 */
+	public static GeoNamesGeometry of(Geometry geometry, GeoNamesProjection projection)
+	{
+		if (geometry instanceof Point)
+		{
+			Point point = (Point) geometry;
+			return new GeoNamesGeometry(new double[][] { { projection.toLon(point.getX()) } }, new double[][] { { projection.toLat(point.getY()) } }, false);
+		}
+		if (geometry instanceof Envelope)
+		{
+			Envelope envelope = (Envelope) geometry;
+			double west = projection.toLon(envelope.getXMin()), east = projection.toLon(envelope.getXMax());
+			double south = projection.toLat(envelope.getYMin()), north = projection.toLat(envelope.getYMax());
+			return new GeoNamesGeometry(new double[][] { { west, east, east, west } }, new double[][] { { south, south, north, north } }, true);
+		}
+		if (geometry instanceof MultiPoint)
+		{
+			MultiPoint multiPoint = (MultiPoint) geometry;
+			int count = multiPoint.getPointCount();
+			double[][] lons = new double[count][1];
+			double[][] lats = new double[count][1];
+			Point2D xy = new Point2D();
+			for (int i = 0; i < count; i++)
+			{
+				multiPoint.getXY(i, xy);
+				lons[i][0] = projection.toLon(xy.x);
+				lats[i][0] = projection.toLat(xy.y);
+			}
+			return new GeoNamesGeometry(lons, lats, false);
+		}
+		if (geometry instanceof MultiPath)
+		{
+			MultiPath multiPath = (MultiPath) geometry;
+			int paths = multiPath.getPathCount();
+			double[][] lons = new double[paths][];
+			double[][] lats = new double[paths][];
+			Point2D xy = new Point2D();
+			for (int path = 0; path < paths; path++)
+			{
+				int start = multiPath.getPathStart(path);
+				int size = multiPath.getPathSize(path);
+				lons[path] = new double[size];
+				lats[path] = new double[size];
+				for (int i = 0; i < size; i++)
+				{
+					multiPath.getXY(start + i, xy);
+					lons[path][i] = projection.toLon(xy.x);
+					lats[path][i] = projection.toLat(xy.y);
+				}
+			}
+			return new GeoNamesGeometry(lons, lats, geometry instanceof Polygon);
+		}
+		throw new IllegalArgumentException("Geometries of type " + ((geometry != null) ? geometry.getType() : null) + " are not supported");
+	}
+
+	public boolean isEmpty()
+	{
+		return minLon > maxLon;
+	}
+
+	/**
+	 * Returns the locations, as lat and lon, to look up so that every part of the geometry is within the cover distance
+	 * of one of them: the points, every other cover distance along each path or ring and, for a polygon, a grid over its
+	 * interior. Each location is moved to the center of its cache cell, and a cell is looked up only once. When that
+	 * takes more than maxSamples locations the cover distance is doubled until it does not, so that a long route or a
+	 * large area is still looked up, if not completely.
+	 * 
+	 * @param coverKm the distance from a location within which its lookup is complete.
+	 * @param cellPrecision the geohash precision of the cache cells.
+	 */
+	public List<double[]> getSamples(double coverKm, int cellPrecision, int maxSamples)
+	{
+		maxSamples = Math.max(1, maxSamples);
+		List<double[]> samples = new ArrayList<double[]>();
+		if (isEmpty())
+			return samples;
+		for (int attempt = 0; attempt < 32; attempt++, coverKm *= 2)
+		{
+			samples.clear();
+			Set<Long> cells = new HashSet<Long>();
+			if (sample(coverKm, cellPrecision, maxSamples, samples, cells))
+				break;
+		}
+		return samples;
+	}
+
+	/**
+	 * @return false as soon as more than maxSamples cells are needed.
+	 */
+	private boolean sample(double coverKm, int cellPrecision, int maxSamples, List<double[]> samples, Set<Long> cells)
+	{
+		for (int part = 0; part < lons.length; part++)
+		{
+			double[] partLons = lons[part];
+			double[] partLats = lats[part];
+			int size = partLons.length;
+			if (!add(partLats[0], partLons[0], cellPrecision, maxSamples, samples, cells))
+				return false;
+			// along a path a location covers the cover distance before and after it
+			double walked = 0;
+			int segments = polygon ? size : size - 1;
+			for (int i = 0; i < segments; i++)
+			{
+				int next = (i + 1) % size;
+				double length = GeoHash.distanceKm(partLats[i], partLons[i], partLats[next], partLons[next]);
+				double dLon = wrap(partLons[next] - partLons[i]);
+				double at = 2 * coverKm - walked;
+				for (; at < length; at += 2 * coverKm)
+				{
+					double t = at / length;
+					if (!add(partLats[i] + t * (partLats[next] - partLats[i]), wrap(partLons[i] + t * dLon), cellPrecision, maxSamples, samples, cells))
+						return false;
+				}
+				// the distance from the last location, which is before this segment if none was placed on it
+				walked = length - (at - 2 * coverKm);
+			}
+			// the end of a path is covered unless it is further than the cover distance from the last location
+			if (!polygon && walked > coverKm && !add(partLats[size - 1], partLons[size - 1], cellPrecision, maxSamples, samples, cells))
+				return false;
+		}
+		if (!polygon)
+			return true;
+		// a square grid whose half diagonal is the cover distance
+		double latStep = coverKm * Math.sqrt(2) / KM_PER_DEGREE;
+		// most of the envelope of a thin diagonal polygon lies outside it, so the grid is bounded rather than its samples
+		double lonStep = latStep / Math.max(Math.cos(Math.toRadians(Math.max(Math.abs(minLat), Math.abs(maxLat)))), 1e-6);
+		if ((maxLat - minLat) / latStep * (maxLon - minLon) / lonStep > 64.0 * maxSamples)
+			return false;
+		for (double lat = minLat + latStep / 2; lat < maxLat; lat += latStep)
+		{
+			lonStep = latStep / Math.max(Math.cos(Math.toRadians(lat)), 1e-6);
+			for (double lon = minLon + lonStep / 2; lon < maxLon; lon += lonStep)
+			{
+				if (contains(lat, lon) && !add(lat, lon, cellPrecision, maxSamples, samples, cells))
+					return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean add(double lat, double lon, int cellPrecision, int maxSamples, List<double[]> samples, Set<Long> cells)
+	{
+		cellPrecision = Math.max(1, Math.min(GeoHash.MAX_PRECISION, cellPrecision));
+		// a geohash alternates longitude and latitude bits, starting with longitude
+		double cellWidth = 360.0 / (1L << ((5 * cellPrecision + 1) / 2));
+		double cellHeight = 180.0 / (1L << (5 * cellPrecision / 2));
+		long column = (long) Math.floor((Math.max(-180, Math.min(180, lon)) + 180) / cellWidth);
+		long row = (long) Math.floor((Math.max(-90, Math.min(90, lat)) + 90) / cellHeight);
+		if (!cells.add((row << 32) | column))
+			return true;
+		if (samples.size() >= maxSamples)
+			return false;
+		samples.add(new double[] { Math.min(90, -90 + (row + 0.5) * cellHeight), Math.min(180, -180 + (column + 0.5) * cellWidth) });
+		return true;
+	}
+
+	/**
+	 * The distance in kilometers from the location to the nearest point of the geometry; 0 inside a polygon.
+	 */
+	public double distanceKm(double lat, double lon)
+	{
+		if (polygon && contains(lat, lon))
+			return 0;
+		// an equirectangular projection around the location, exact enough within a search radius
+		double cosLat = Math.cos(Math.toRadians(lat));
+		double nearest = Double.MAX_VALUE;
+		for (int part = 0; part < lons.length; part++)
+		{
+			double[] partLons = lons[part];
+			double[] partLats = lats[part];
+			int size = partLons.length;
+			double x1 = wrap(partLons[0] - lon) * cosLat, y1 = partLats[0] - lat;
+			nearest = Math.min(nearest, x1 * x1 + y1 * y1);
+			int segments = (polygon && size > 2) ? size : size - 1;
+			for (int i = 0; i < segments; i++)
+			{
+				int next = (i + 1) % size;
+				double x2 = wrap(partLons[next] - lon) * cosLat, y2 = partLats[next] - lat;
+				double dx = x2 - x1, dy = y2 - y1;
+				double lengthSquared = dx * dx + dy * dy;
+				double t = (lengthSquared > 0) ? Math.max(0, Math.min(1, -(x1 * dx + y1 * dy) / lengthSquared)) : 0;
+				double x = x1 + t * dx, y = y1 + t * dy;
+				nearest = Math.min(nearest, x * x + y * y);
+				x1 = x2;
+				y1 = y2;
+			}
+		}
+		return Math.sqrt(nearest) * KM_PER_DEGREE;
+	}
+
+	/**
+	 * Even-odd ray casting over all rings, so that holes are outside.
+	 */
+	boolean contains(double lat, double lon)
+	{
+		boolean inside = false;
+		for (int part = 0; part < lons.length; part++)
+		{
+			double[] partLons = lons[part];
+			double[] partLats = lats[part];
+			for (int i = 0, j = partLons.length - 1; i < partLons.length; j = i++)
+			{
+				if ((partLats[i] > lat) != (partLats[j] > lat) && lon < (partLons[j] - partLons[i]) * (lat - partLats[i]) / (partLats[j] - partLats[i]) + partLons[i])
+					inside = !inside;
+			}
+		}
+		return inside;
+	}
+
+	private static double wrap(double lon)
+	{
+		return (lon > 180) ? lon - 360 : (lon < -180) ? lon + 360 : lon;
+	}
+}
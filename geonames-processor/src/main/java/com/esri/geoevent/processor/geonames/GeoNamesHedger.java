@@ -0,0 +1,341 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+package com.esri.geoevent.processor.geonames;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONException;
+
+/**
+ * Sends a second, hedged request when the first one has not answered within a percentile of the recent response
+ * times, and uses whichever answers first. This cuts the latency tail caused by the occasional slow response at the
+ * cost of a few extra requests. Hedged requests are only sent while an account of the {@link GeoNamesAccountPool} can
+ * send at once, which may be another account than the first request's, and while one of a bounded number of threads
+ * of the processor is free to send them; the first request is sent by the calling thread. The slower request is
+ * cancelled, which disconnects it.
+ */
+public class GeoNamesHedger
+{
+	// the percentile is only trusted once it is based on this many responses
+	private static final int							MIN_SAMPLES					= 20;
+	// the response times are forgotten after this many, so that the delay follows the current server latency
+	private static final int							MAX_SAMPLES					= 5000;
+	private static final long							MIN_DELAY_NANOS			= TimeUnit.MILLISECONDS.toNanos(5);
+	private static final long							UPDATE_INTERVAL_NANOS	= TimeUnit.SECONDS.toNanos(1);
+
+	/**
+	 * Sends one request with the given account.
+	 */
+	public interface Request
+	{
+		List<GeoNamesRow> send(GeoNamesAccount account, GeoNamesHttpClient.Cancellation cancellation) throws IOException, JSONException;
+	}
+
+	private final double									percentile;
+	private final Executor								executor;
+	private final Semaphore								slots;
+	private final GeoNamesHistogram				responseTimes				= new GeoNamesHistogram();
+	private volatile long									delayNanos;
+	private volatile long									delayUpdatedAt			= System.nanoTime() - UPDATE_INTERVAL_NANOS;
+	private final AtomicLong							requestCount				= new AtomicLong();
+	private final AtomicLong							hedgedCount					= new AtomicLong();
+	private final AtomicLong							hedgeWinCount				= new AtomicLong();
+	private final AtomicLong							cancelledCount			= new AtomicLong();
+
+	/**
+	 * @param percentile the percentile of the response times, between 1 and 99, after which a hedged request is sent.
+	 * @param executor the threads of the processor that wait for the delay and send the hedged requests.
+	 * @param maxHedges the most hedged requests waiting or in flight at once, at most the threads of the executor.
+	 */
+	public GeoNamesHedger(int percentile, Executor executor, int maxHedges)
+	{
+		this.percentile = Math.max(1, Math.min(99, percentile)) / 100.0;
+		this.executor = executor;
+		this.slots = new Semaphore(Math.max(1, maxHedges));
+	}
+
+	/**
+	 * Sends the request on the calling thread, and the hedged copy on a thread of the processor if it takes too long.
+	 * 
+	 * @param account the account of the first request, which has already been acquired from the pool.
+	 */
+	public List<GeoNamesRow> execute(Request request, GeoNamesAccount account, GeoNamesAccountPool accounts) throws IOException, JSONException
+	{
+		requestCount.incrementAndGet();
+		long delay = getDelayNanos();
+		final Race race = new Race();
+		if (delay > 0 && slots.tryAcquire())
+		{
+			try
+			{
+				executor.execute(hedge(race, request, accounts, delay));
+			}
+			catch (RejectedExecutionException e)
+			{
+				// the processor is shutting down
+				slots.release();
+				race.hedgeNotSent();
+			}
+		}
+		else
+			race.hedgeNotSent();
+
+		List<GeoNamesRow> rows = null;
+		Exception failure = null;
+		try
+		{
+			rows = timed(request, account, race.firstCancellation);
+		}
+		catch (Exception e)
+		{
+			failure = e;
+		}
+		race.firstDone(rows, failure);
+		try
+		{
+			return race.await();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			race.hedgeCancellation.cancel();
+			throw new IOException("Interrupted while waiting for a GeoNames request");
+		}
+		catch (IOException e)
+		{
+			throw e;
+		}
+		catch (JSONException e)
+		{
+			throw e;
+		}
+		catch (RuntimeException e)
+		{
+			throw e;
+		}
+		catch (Exception e)
+		{
+			throw new IOException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Waits for the delay, and sends the hedged request if the first one has not answered by then.
+	 */
+	private Runnable hedge(final Race race, final Request request, final GeoNamesAccountPool accounts, final long delay)
+	{
+		return new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						if (!race.awaitHedge(delay))
+							return;
+						GeoNamesAccount hedgeAccount = accounts.tryAcquire();
+						if (hedgeAccount == null)
+						{
+							race.hedgeNotSent();
+							return;
+						}
+						hedgedCount.incrementAndGet();
+						List<GeoNamesRow> rows = null;
+						Exception failure = null;
+						try
+						{
+							rows = timed(request, hedgeAccount, race.hedgeCancellation);
+						}
+						catch (Exception e)
+						{
+							failure = e;
+						}
+						if (race.hedgeDone(rows, failure))
+							hedgeWinCount.incrementAndGet();
+					}
+					catch (InterruptedException e)
+					{
+						race.hedgeNotSent();
+					}
+					finally
+					{
+						slots.release();
+					}
+				}
+			};
+	}
+
+	private List<GeoNamesRow> timed(Request request, GeoNamesAccount account, GeoNamesHttpClient.Cancellation cancellation) throws IOException, JSONException
+	{
+		long start = System.nanoTime();
+		try
+		{
+			List<GeoNamesRow> rows = request.send(account, cancellation);
+			responseTimes.record(System.nanoTime() - start);
+			return rows;
+		}
+		catch (GeoNamesHttpClient.CancelledException e)
+		{
+			cancelledCount.incrementAndGet();
+			throw e;
+		}
+	}
+
+	/**
+	 * The percentile of the recent response times, recomputed at most once a second, or 0 while there are too few of
+	 * them to hedge.
+	 */
+	long getDelayNanos()
+	{
+		long now = System.nanoTime();
+		if (now - delayUpdatedAt >= UPDATE_INTERVAL_NANOS)
+		{
+			delayUpdatedAt = now;
+			long samples = responseTimes.getCount();
+			if (samples >= MIN_SAMPLES)
+			{
+				delayNanos = Math.max(MIN_DELAY_NANOS, responseTimes.getValueAtPercentile(percentile));
+				if (samples >= MAX_SAMPLES)
+					responseTimes.reset();
+			}
+		}
+		return delayNanos;
+	}
+
+	public long getRequestCount()
+	{
+		return requestCount.get();
+	}
+
+	public long getHedgedCount()
+	{
+		return hedgedCount.get();
+	}
+
+	public long getHedgeWinCount()
+	{
+		return hedgeWinCount.get();
+	}
+
+	public long getCancelledCount()
+	{
+		return cancelledCount.get();
+	}
+
+	public String getStatistics()
+	{
+		return "delay(ms)=" + TimeUnit.NANOSECONDS.toMillis(delayNanos) + " requests=" + getRequestCount() + " hedged=" + getHedgedCount() + " wins=" + getHedgeWinCount() + " cancelled=" + getCancelledCount();
+	}
+
+	/**
+	 * The first request and its hedged copy racing each other. The first to answer with rows wins and cancels the other;
+	 * a failure is only reported once neither can answer any more.
+	 */
+	private static class Race
+	{
+		final GeoNamesHttpClient.Cancellation	firstCancellation	= new GeoNamesHttpClient.Cancellation();
+		final GeoNamesHttpClient.Cancellation	hedgeCancellation	= new GeoNamesHttpClient.Cancellation();
+		private boolean												firstRunning			= true;
+		private boolean												hedgeWaiting			= true;
+		private boolean												hedgeRunning;
+		private boolean												won;
+		private List<GeoNamesRow>							rows;
+		private Exception											failure;
+
+		/**
+		 * Waits until the delay is over or the first request is done.
+		 * 
+		 * @return true if the hedged request is to be sent, false if the first request is done.
+		 */
+		synchronized boolean awaitHedge(long delayNanos) throws InterruptedException
+		{
+			long deadline = System.nanoTime() + delayNanos;
+			long remaining;
+			while (firstRunning && (remaining = deadline - System.nanoTime()) > 0)
+				TimeUnit.NANOSECONDS.timedWait(this, remaining);
+			if (!firstRunning)
+				return false;
+			hedgeWaiting = false;
+			hedgeRunning = true;
+			return true;
+		}
+
+		synchronized void hedgeNotSent()
+		{
+			hedgeWaiting = false;
+			hedgeRunning = false;
+			notifyAll();
+		}
+
+		synchronized void firstDone(List<GeoNamesRow> rows, Exception failure)
+		{
+			firstRunning = false;
+			// a first request that is done before the delay is not hedged, even if it failed
+			hedgeWaiting = false;
+			finish(rows, failure, hedgeCancellation);
+		}
+
+		/**
+		 * @return whether the hedged request won.
+		 */
+		synchronized boolean hedgeDone(List<GeoNamesRow> rows, Exception failure)
+		{
+			hedgeRunning = false;
+			return finish(rows, failure, firstCancellation);
+		}
+
+		private boolean finish(List<GeoNamesRow> rows, Exception failure, GeoNamesHttpClient.Cancellation other)
+		{
+			notifyAll();
+			if (won)
+				return false;
+			if (failure == null)
+			{
+				won = true;
+				this.rows = rows;
+				other.cancel();
+				return true;
+			}
+			// the failure of a request that was cancelled is not the one to report
+			if (this.failure == null || this.failure instanceof GeoNamesHttpClient.CancelledException)
+				this.failure = failure;
+			return false;
+		}
+
+		synchronized List<GeoNamesRow> await() throws Exception
+		{
+			while (!won && (firstRunning || hedgeWaiting || hedgeRunning))
+				wait();
+			if (won)
+				return rows;
+			throw failure;
+		}
+	}
+}
@@ -0,0 +1,149 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of non-negative long values in the style of HdrHistogram: values are counted in log-linear
+ * buckets, 64 per power of two, so every recorded value is kept to within 1.6% using a fixed 20KB of memory, and
+ * percentiles can be read while other threads keep recording.
+ */
+public class GeoNamesHistogram
+{
+	private static final int				SUB_BUCKET_BITS		= 6;
+	private static final int				SUB_BUCKET_COUNT	= 1 << SUB_BUCKET_BITS;
+	private static final int				SUB_BUCKET_MASK		= SUB_BUCKET_COUNT - 1;
+	private static final int				MAX_EXPONENT			= 42;																																	// 2^42ns is over an hour
+	private static final int				BUCKET_COUNT			= (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+
+	private final AtomicLongArray		counts						= new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong				count							= new AtomicLong();
+	private final AtomicLong				sum								= new AtomicLong();
+	private final AtomicLong				max								= new AtomicLong();
+
+	public void record(long value)
+	{
+		if (value < 0)
+			value = 0;
+		counts.incrementAndGet(indexOf(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		long currentMax;
+		while (value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value))
+			;
+	}
+
+	public long getCount()
+	{
+		return count.get();
+	}
+
+	public void reset()
+	{
+		for (int i = 0; i < BUCKET_COUNT; i++)
+			counts.set(i, 0);
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	/**
+	 * Takes a consistent copy of the counts, with values divided by unit (for example 1e6 to report nanoseconds as
+	 * milliseconds).
+	 */
+	public GeoNamesHistogramSnapshot snapshot(double unit)
+	{
+		long[] copy = new long[BUCKET_COUNT];
+		long total = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++)
+			total += copy[i] = counts.get(i);
+		long highest = max.get();
+		double mean = (total > 0) ? sum.get() / (double) count.get() / unit : 0;
+		return new GeoNamesHistogramSnapshot(total, mean, valueAt(copy, total, highest, 0.50) / unit, valueAt(copy, total, highest, 0.90) / unit, valueAt(copy, total, highest, 0.99) / unit, valueAt(copy, total, highest, 0.999) / unit, highest / unit);
+	}
+
+	/**
+	 * Reads one percentile, between 0 and 1, straight from the live counts without taking a snapshot.
+	 */
+	public long getValueAtPercentile(double percentile)
+	{
+		long total = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++)
+			total += counts.get(i);
+		if (total == 0)
+			return 0;
+		long rank = Math.max(1, (long) Math.ceil(percentile * total));
+		long seen = 0;
+		long highest = max.get();
+		for (int i = 0; i < BUCKET_COUNT; i++)
+		{
+			seen += counts.get(i);
+			if (seen >= rank)
+				return Math.min(highestValueOf(i), highest);
+		}
+		return highest;
+	}
+
+	private static long valueAt(long[] counts, long total, long highest, double percentile)
+	{
+		if (total == 0)
+			return 0;
+		long rank = Math.max(1, (long) Math.ceil(percentile * total));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++)
+		{
+			seen += counts[i];
+			if (seen >= rank)
+				return Math.min(highestValueOf(i), highest);
+		}
+		return highest;
+	}
+
+	static int indexOf(long value)
+	{
+		if (value < SUB_BUCKET_COUNT)
+			return (int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		if (exponent > MAX_EXPONENT)
+			return BUCKET_COUNT - 1;
+		int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & SUB_BUCKET_MASK;
+		return ((exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) + subBucket;
+	}
+
+	/**
+	 * The largest value counted in the bucket at index, which is what a percentile reports, as HdrHistogram does.
+	 */
+	static long highestValueOf(int index)
+	{
+		if (index < SUB_BUCKET_COUNT)
+			return index;
+		int exponent = (index >>> SUB_BUCKET_BITS) + SUB_BUCKET_BITS - 1;
+		int shift = exponent - SUB_BUCKET_BITS;
+		long lowest = (1L << exponent) | ((long) (index & SUB_BUCKET_MASK) << shift);
+		return lowest + (1L << shift) - 1;
+	}
+}
@@ -0,0 +1,106 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import java.beans.ConstructorProperties;
+import java.util.Locale;
+
+/**
+ * Percentiles of a {@link GeoNamesHistogram} at one point in time. Exposed over JMX as composite data.
+ */
+public class GeoNamesHistogramSnapshot
+{
+	private final long		count;
+	private final double	mean;
+	private final double	p50;
+	private final double	p90;
+	private final double	p99;
+	private final double	p999;
+	private final double	max;
+
+	@ConstructorProperties({ "count", "mean", "p50", "p90", "p99", "p999", "max" })
+	public GeoNamesHistogramSnapshot(long count, double mean, double p50, double p90, double p99, double p999, double max)
+	{
+		this.count = count;
+		this.mean = mean;
+		this.p50 = p50;
+		this.p90 = p90;
+		this.p99 = p99;
+		this.p999 = p999;
+		this.max = max;
+	}
+
+	public long getCount()
+	{
+		return count;
+	}
+
+	public double getMean()
+	{
+		return mean;
+	}
+
+	public double getP50()
+	{
+		return p50;
+	}
+
+	public double getP90()
+	{
+		return p90;
+	}
+
+	public double getP99()
+	{
+		return p99;
+	}
+
+	public double getP999()
+	{
+		return p999;
+	}
+
+	public double getMax()
+	{
+		return max;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "p50=" + format(p50) + " p99=" + format(p99) + " max=" + format(max);
+	}
+
+	private static String format(double value)
+	{
+		if (value >= 100)
+			return String.format(Locale.ROOT, "%.0f", value);
+		if (value >= 10)
+			return String.format(Locale.ROOT, "%.1f", value);
+		if (value >= 1)
+			return String.format(Locale.ROOT, "%.2f", value);
+		return String.format(Locale.ROOT, "%.3f", value);
+	}
+}
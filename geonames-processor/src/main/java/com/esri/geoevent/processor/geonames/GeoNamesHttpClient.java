@@ -0,0 +1,633 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.json.JSONException;
+
+/**
+ * Shared HTTP transport used by the GeoNames processors.
+ * 
+ * Connections are never explicitly disconnected. Each response body is read to the end and its stream closed, which
+ * hands the socket back to the JVM keep-alive cache so the next request to the same host reuses it instead of paying
+ * for a new TCP handshake. The number of connections open against any one host is capped by
+ * {@link #setMaxConnectionsPerHost(Object, int)}; callers beyond the cap wait for a connection to be released. The JVM
+ * only keeps {@code http.maxConnections} idle connections per host alive (5 unless the JVM is started with another
+ * value), so under a higher cap the connections released beyond that number are closed rather than reused.
+ * 
+ * Response bodies are either handed to a {@link ResponseHandler} as a stream or read into a per-thread buffer that is
+ * reused across requests.
+ * 
+ * Responses are requested gzip or deflate compressed. GeoNames responses are mostly repetitive text, so this cuts the
+ * bytes transferred per lookup several times over; a server that does not compress answers uncompressed as before.
+ * Handlers always see the decompressed body.
+ * 
+ * Every request has a connect and a read timeout, so that a GeoNames server that stops answering fails the request
+ * instead of holding the calling thread and its connection indefinitely. A request can also be given a
+ * {@link Cancellation}, which another thread uses to abort it: its connection is disconnected rather than kept alive,
+ * and the request fails with a {@link CancelledException}.
+ */
+public class GeoNamesHttpClient
+{
+	public static final int												DEFAULT_MAX_CONNECTIONS_PER_HOST	= 5;
+	public static final int												DEFAULT_CONNECT_TIMEOUT_MILLIS		= 5000;
+	public static final int												DEFAULT_READ_TIMEOUT_MILLIS				= 10000;
+	// the idle connections per host the JVM keeps alive, see sun.net.www.http.KeepAliveCache
+	public static final int												KEEP_ALIVE_CONNECTIONS_PER_HOST		= Integer.getInteger("http.maxConnections", 5);
+
+	private static final GeoNamesHttpClient				INSTANCE													= new GeoNamesHttpClient();
+	private static final Charset									UTF8															= Charset.forName("UTF-8");
+	private static final int											READ_CHUNK_SIZE										= 8192;
+	private static final int											MAX_RETAINED_BUFFER_SIZE					= 1024 * 1024;
+
+	private final ConcurrentMap<String, HostPool>	hostPools													= new ConcurrentHashMap<String, HostPool>();
+	private final Map<Object, Integer>						connectionLimits									= new HashMap<Object, Integer>();
+	private volatile int													maxConnectionsPerHost							= DEFAULT_MAX_CONNECTIONS_PER_HOST;
+
+	private final AtomicLong											requestCount											= new AtomicLong();
+	private final AtomicLong											failureCount											= new AtomicLong();
+	private final AtomicLong											waitCount													= new AtomicLong();
+	private final AtomicLong											bytesRead													= new AtomicLong();
+	private final AtomicLong											bytesDecoded											= new AtomicLong();
+	private final AtomicLong											compressedCount										= new AtomicLong();
+	private final AtomicInteger										activeConnections									= new AtomicInteger();
+	private final AtomicInteger										peakActiveConnections							= new AtomicInteger();
+
+	private final ThreadLocal<ResponseBuffer>			buffers														= new ThreadLocal<ResponseBuffer>();
+
+	GeoNamesHttpClient()
+	{
+	}
+
+	public static GeoNamesHttpClient getInstance()
+	{
+		return INSTANCE;
+	}
+
+	/**
+	 * Sets the per-host connection limit a processor asks for. The client is shared by every processor instance, so the
+	 * limit applied is the largest one asked for by the processors currently registered, and
+	 * {@link #DEFAULT_MAX_CONNECTIONS_PER_HOST} once none is. Lowering the limit does not close connections in use, it
+	 * only makes callers wait until they drop below it.
+	 */
+	public void setMaxConnectionsPerHost(Object processor, int maxConnections)
+	{
+		synchronized (hostPools)
+		{
+			if (maxConnections < 1)
+				connectionLimits.remove(processor);
+			else
+				connectionLimits.put(processor, maxConnections);
+			updateMaxConnectionsPerHost();
+		}
+	}
+
+	/**
+	 * Withdraws the per-host connection limit of a processor that is shut down.
+	 */
+	public void clearMaxConnectionsPerHost(Object processor)
+	{
+		synchronized (hostPools)
+		{
+			connectionLimits.remove(processor);
+			updateMaxConnectionsPerHost();
+		}
+	}
+
+	private void updateMaxConnectionsPerHost()
+	{
+		int maxConnections = connectionLimits.isEmpty() ? DEFAULT_MAX_CONNECTIONS_PER_HOST : 1;
+		for (int limit : connectionLimits.values())
+			maxConnections = Math.max(maxConnections, limit);
+		if (maxConnections != maxConnectionsPerHost)
+		{
+			boolean raised = maxConnections > maxConnectionsPerHost;
+			maxConnectionsPerHost = maxConnections;
+			if (raised)
+				for (HostPool pool : hostPools.values())
+					pool.wakeAll();
+		}
+	}
+
+	public int getMaxConnectionsPerHost()
+	{
+		return maxConnectionsPerHost;
+	}
+
+	/**
+	 * Consumes the body of a successful response. The stream does not need to be read to the end or closed; the client
+	 * does both so the connection can be kept alive.
+	 */
+	public interface ResponseHandler<T>
+	{
+		T handleResponse(InputStream in, Charset charset) throws IOException, JSONException;
+	}
+
+	/**
+	 * Performs a GET request and returns the response body.
+	 * 
+	 * @throws IOException if the connection fails or the server answers with anything other than HTTP 200.
+	 */
+	public String get(URL url) throws IOException
+	{
+		try
+		{
+			return get(url, new ResponseHandler<String>()
+				{
+					@Override
+					public String handleResponse(InputStream in, Charset charset) throws IOException
+					{
+						ResponseBuffer buffer = getBuffer();
+						try
+						{
+							buffer.readFrom(in);
+							return buffer.decode(charset);
+						}
+						finally
+						{
+							buffer.release();
+						}
+					}
+				});
+		}
+		catch (JSONException e)
+		{
+			throw new IOException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Performs a GET request with the default timeouts and passes the response body to the handler as it arrives.
+	 * 
+	 * @throws IOException if the connection fails or the server answers with anything other than HTTP 200.
+	 */
+	public <T> T get(URL url, ResponseHandler<T> handler) throws IOException, JSONException
+	{
+		return get(url, DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS, handler);
+	}
+
+	/**
+	 * Performs a GET request and passes the response body to the handler as it arrives.
+	 * 
+	 * @param connectTimeoutMillis how long to wait for the connection to be established, 0 for no limit.
+	 * @param readTimeoutMillis how long to wait for each read of the response, 0 for no limit.
+	 * @throws IOException if the connection fails or times out, or the server answers with anything other than HTTP 200.
+	 */
+	public <T> T get(URL url, int connectTimeoutMillis, int readTimeoutMillis, ResponseHandler<T> handler) throws IOException, JSONException
+	{
+		return get(url, connectTimeoutMillis, readTimeoutMillis, handler, null);
+	}
+
+	/**
+	 * Performs a GET request that can be cancelled, and passes the response body to the handler as it arrives.
+	 * 
+	 * @param cancellation aborts the request when cancelled, or null.
+	 * @throws CancelledException if the request was cancelled.
+	 */
+	public <T> T get(URL url, int connectTimeoutMillis, int readTimeoutMillis, ResponseHandler<T> handler, Cancellation cancellation) throws IOException, JSONException
+	{
+		HostPool pool = getHostPool(url);
+		pool.acquire();
+		int active = activeConnections.incrementAndGet();
+		updatePeak(active);
+		requestCount.incrementAndGet();
+		try
+		{
+			HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+			if (cancellation != null && !cancellation.attach(conn))
+				throw new CancelledException(url);
+			conn.setRequestMethod("GET");
+			conn.setConnectTimeout(Math.max(0, connectTimeoutMillis));
+			conn.setReadTimeout(Math.max(0, readTimeoutMillis));
+			conn.setRequestProperty("Accept", "application/json");
+			conn.setRequestProperty("Accept-Encoding", "gzip, deflate");
+
+			int responseCode = conn.getResponseCode();
+			if (responseCode != HttpURLConnection.HTTP_OK)
+			{
+				// drain the error body as well, otherwise the connection cannot be kept alive
+				InputStream error = conn.getErrorStream();
+				if (error != null)
+				{
+					drain(error);
+					error.close();
+				}
+				throw new IOException("HTTP error code " + responseCode + " from " + url.getHost());
+			}
+
+			CountingInputStream raw = new CountingInputStream(conn.getInputStream());
+			CountingInputStream in = raw;
+			try
+			{
+				in = decode(raw, conn.getContentEncoding());
+				T result = handler.handleResponse(in, getCharset(conn.getContentType()));
+				// the compressed stream must be read past its trailer as well, otherwise the connection cannot be kept alive
+				drain(in);
+				drain(raw);
+				return result;
+			}
+			finally
+			{
+				bytesRead.addAndGet(raw.getCount());
+				bytesDecoded.addAndGet(in.getCount());
+				// also releases the inflater
+				in.close();
+			}
+		}
+		catch (IOException e)
+		{
+			// a disconnected connection fails however it was being read
+			if (cancellation != null && cancellation.isCancelled())
+				throw (e instanceof CancelledException) ? e : new CancelledException(url);
+			failureCount.incrementAndGet();
+			throw e;
+		}
+		catch (JSONException e)
+		{
+			if (cancellation != null && cancellation.isCancelled())
+				throw new CancelledException(url);
+			failureCount.incrementAndGet();
+			throw e;
+		}
+		finally
+		{
+			activeConnections.decrementAndGet();
+			pool.release();
+		}
+	}
+
+	/**
+	 * Aborts a request from another thread. A cancellation is used for one request; cancelling it before the request
+	 * connects aborts the request as soon as it does.
+	 */
+	public static class Cancellation
+	{
+		private HttpURLConnection	connection;
+		private boolean						cancelled;
+
+		public synchronized void cancel()
+		{
+			cancelled = true;
+			if (connection != null)
+				connection.disconnect();
+		}
+
+		public synchronized boolean isCancelled()
+		{
+			return cancelled;
+		}
+
+		synchronized boolean attach(HttpURLConnection connection)
+		{
+			if (cancelled)
+				return false;
+			this.connection = connection;
+			return true;
+		}
+	}
+
+	/**
+	 * Thrown by a request that was cancelled, which says nothing about the server.
+	 */
+	public static class CancelledException extends IOException
+	{
+		private static final long	serialVersionUID	= 1L;
+
+		CancelledException(URL url)
+		{
+			super("The GeoNames request to " + url.getHost() + " was cancelled");
+		}
+	}
+
+	public long getRequestCount()
+	{
+		return requestCount.get();
+	}
+
+	public long getFailureCount()
+	{
+		return failureCount.get();
+	}
+
+	public long getWaitCount()
+	{
+		return waitCount.get();
+	}
+
+	public long getBytesRead()
+	{
+		return bytesRead.get();
+	}
+
+	/**
+	 * The size of the response bodies after decompression.
+	 */
+	public long getBytesDecoded()
+	{
+		return bytesDecoded.get();
+	}
+
+	public long getCompressedCount()
+	{
+		return compressedCount.get();
+	}
+
+	public int getActiveConnections()
+	{
+		return activeConnections.get();
+	}
+
+	public int getPeakActiveConnections()
+	{
+		return peakActiveConnections.get();
+	}
+
+	public String getStatistics()
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append("hosts=").append(hostPools.size());
+		sb.append(" maxConnectionsPerHost=").append(maxConnectionsPerHost);
+		sb.append(" keepAliveConnectionsPerHost=").append(KEEP_ALIVE_CONNECTIONS_PER_HOST);
+		sb.append(" active=").append(getActiveConnections());
+		sb.append(" peakActive=").append(getPeakActiveConnections());
+		sb.append(" requests=").append(getRequestCount());
+		sb.append(" failures=").append(getFailureCount());
+		sb.append(" waits=").append(getWaitCount());
+		sb.append(" bytesRead=").append(getBytesRead());
+		sb.append(" bytesDecoded=").append(getBytesDecoded());
+		sb.append(" compressed=").append(getCompressedCount());
+		return sb.toString();
+	}
+
+	@Override
+	public String toString()
+	{
+		return "GeoNamesHttpClient[" + getStatistics() + "]";
+	}
+
+	private HostPool getHostPool(URL url)
+	{
+		String key = url.getProtocol() + "://" + url.getHost() + ":" + (url.getPort() == -1 ? url.getDefaultPort() : url.getPort());
+		HostPool pool = hostPools.get(key);
+		if (pool == null)
+		{
+			HostPool newPool = new HostPool();
+			pool = hostPools.putIfAbsent(key, newPool);
+			if (pool == null)
+				pool = newPool;
+		}
+		return pool;
+	}
+
+	private ResponseBuffer getBuffer()
+	{
+		ResponseBuffer buffer = buffers.get();
+		if (buffer == null)
+		{
+			buffer = new ResponseBuffer();
+			buffers.set(buffer);
+		}
+		return buffer;
+	}
+
+	private void updatePeak(int active)
+	{
+		int peak;
+		while (active > (peak = peakActiveConnections.get()))
+		{
+			if (peakActiveConnections.compareAndSet(peak, active))
+				break;
+		}
+	}
+
+	/**
+	 * Wraps the response body in a decompressing stream for its content encoding.
+	 */
+	private CountingInputStream decode(CountingInputStream raw, String contentEncoding) throws IOException
+	{
+		String encoding = (contentEncoding != null) ? contentEncoding.trim().toLowerCase() : "";
+		if (encoding.equals("gzip") || encoding.equals("x-gzip"))
+		{
+			compressedCount.incrementAndGet();
+			return new CountingInputStream(new GZIPInputStream(raw, READ_CHUNK_SIZE));
+		}
+		if (encoding.equals("deflate"))
+		{
+			compressedCount.incrementAndGet();
+			// deflate is meant to be zlib wrapped, but some servers send a raw deflate stream
+			BufferedInputStream in = new BufferedInputStream(raw, READ_CHUNK_SIZE);
+			in.mark(2);
+			int cmf = in.read();
+			int flg = in.read();
+			in.reset();
+			boolean zlib = (cmf & 0x0F) == 8 && ((cmf << 8) | flg) % 31 == 0;
+			return new CountingInputStream(new InflaterInputStream(in, new Inflater(!zlib), READ_CHUNK_SIZE)
+				{
+					@Override
+					public void close() throws IOException
+					{
+						// an inflater passed in is not ended by the stream
+						inf.end();
+						super.close();
+					}
+				});
+		}
+		return raw;
+	}
+
+	private static Charset getCharset(String contentType)
+	{
+		if (contentType != null)
+		{
+			int index = contentType.toLowerCase().indexOf("charset=");
+			if (index != -1)
+			{
+				String name = contentType.substring(index + 8).trim();
+				int end = name.indexOf(';');
+				if (end != -1)
+					name = name.substring(0, end).trim();
+				try
+				{
+					return Charset.forName(name.replace("\"", ""));
+				}
+				catch (Exception ex)
+				{
+					;
+				}
+			}
+		}
+		return UTF8;
+	}
+
+	private void drain(InputStream in)
+	{
+		if (in == null)
+			return;
+		byte[] chunk = getBuffer().chunk;
+		try
+		{
+			while (in.read(chunk) != -1)
+				;
+		}
+		catch (IOException e)
+		{
+			;
+		}
+	}
+
+	/**
+	 * Counts the bytes read from a response body.
+	 */
+	private static class CountingInputStream extends FilterInputStream
+	{
+		private long	count;
+
+		CountingInputStream(InputStream in)
+		{
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			int b = super.read();
+			if (b != -1)
+				count++;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			int n = super.read(b, off, len);
+			if (n > 0)
+				count += n;
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException
+		{
+			long skipped = super.skip(n);
+			count += skipped;
+			return skipped;
+		}
+
+		long getCount()
+		{
+			return count;
+		}
+	}
+
+	/**
+	 * Counts the connections in use against a single host and blocks callers once the shared limit is reached.
+	 */
+	private class HostPool
+	{
+		private int	inUse	= 0;
+
+		synchronized void acquire() throws IOException
+		{
+			if (inUse >= maxConnectionsPerHost)
+			{
+				waitCount.incrementAndGet();
+				while (inUse >= maxConnectionsPerHost)
+				{
+					try
+					{
+						wait();
+					}
+					catch (InterruptedException e)
+					{
+						Thread.currentThread().interrupt();
+						throw new IOException("Interrupted while waiting for a GeoNames connection");
+					}
+				}
+			}
+			inUse++;
+		}
+
+		synchronized void release()
+		{
+			inUse--;
+			notify();
+		}
+
+		synchronized void wakeAll()
+		{
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Growable byte buffer reused by one thread for every response it reads. Buffers that grew unusually large for a
+	 * single response are shrunk back afterwards so an occasional big payload is not retained forever.
+	 */
+	private static class ResponseBuffer extends ByteArrayOutputStream
+	{
+		private final byte[]	chunk	= new byte[READ_CHUNK_SIZE];
+
+		ResponseBuffer()
+		{
+			super(READ_CHUNK_SIZE);
+		}
+
+		void readFrom(InputStream in) throws IOException
+		{
+			int n;
+			while ((n = in.read(chunk)) != -1)
+				write(chunk, 0, n);
+		}
+
+		String decode(Charset charset)
+		{
+			return new String(buf, 0, count, charset);
+		}
+
+		void release()
+		{
+			if (buf.length > MAX_RETAINED_BUFFER_SIZE)
+				buf = new byte[READ_CHUNK_SIZE];
+			reset();
+		}
+	}
+}
@@ -0,0 +1,516 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Streaming decoder for GeoNames JSON responses. The response is read token by token and each element of the result
+ * array is handed to a {@link GeoNamesRowHandler} as soon as it is complete, so the whole body never has to be held in
+ * memory as a String or as a JSON tree.
+ * 
+ * UTF-8 responses are decoded straight from the bytes: the JSON structure is all ASCII, so only strings need decoding,
+ * and a string that does not span buffers and has no escapes becomes a String in a single step. Other charsets are
+ * read through a {@link Reader}.
+ * 
+ * GeoNames result rows are flat; nested objects or arrays inside a row are skipped.
+ */
+public class GeoNamesJsonReader
+{
+	private static final int						BUFFER_SIZE	= 8192;
+	private static final Object					SKIPPED			= new Object();
+	private static final Charset				UTF8				= Charset.forName("UTF-8");
+
+	private final Reader								reader;
+	private final char[]								buffer;
+	private final InputStream						in;
+	private final byte[]								bytes;
+	private byte[]											scratch;
+	private int													pos;
+	private int													limit;
+	private long												offset;
+
+	private final StringBuilder					text				= new StringBuilder();
+	private final Map<String, String>		names				= new HashMap<String, String>();
+	private final List<String>					rowNames		= new ArrayList<String>();
+	private final List<Object>					rowValues		= new ArrayList<Object>();
+
+	public GeoNamesJsonReader(Reader reader)
+	{
+		this.reader = reader;
+		this.buffer = new char[BUFFER_SIZE];
+		this.in = null;
+		this.bytes = null;
+	}
+
+	/**
+	 * Reads the response from a stream in the given charset, decoding UTF-8 and US-ASCII without a {@link Reader}.
+	 */
+	public GeoNamesJsonReader(InputStream in, Charset charset)
+	{
+		boolean utf8 = UTF8.equals(charset) || "US-ASCII".equals(charset.name());
+		this.reader = utf8 ? null : new InputStreamReader(in, charset);
+		this.buffer = utf8 ? null : new char[BUFFER_SIZE];
+		this.in = utf8 ? in : null;
+		this.bytes = utf8 ? new byte[BUFFER_SIZE] : null;
+		this.scratch = utf8 ? new byte[256] : null;
+	}
+
+	/**
+	 * Reads a complete GeoNames response object and passes each element of the named result array to the handler.
+	 * 
+	 * @return the number of rows read.
+	 * @throws GeoNamesStatusException if GeoNames answered with a status (error) object instead of the result array.
+	 * @throws JSONException if the response is malformed or does not contain the result array.
+	 */
+	public int readRows(String resultArrayName, GeoNamesRowHandler handler) throws IOException, JSONException
+	{
+		expect('{');
+		int count = 0;
+		boolean found = false;
+		GeoNamesRow status = null;
+		if (peekClean() == '}')
+		{
+			read();
+		}
+		else
+		{
+			while (true)
+			{
+				expect('"');
+				String name = readName();
+				expect(':');
+				char c = peekClean();
+				if (c == '[' && name.equals(resultArrayName))
+				{
+					count = readArray(handler);
+					found = true;
+				}
+				else if (c == '{' && name.equals("status"))
+				{
+					status = readObject();
+				}
+				else
+				{
+					skipValue();
+				}
+				c = readClean();
+				if (c == '}')
+					break;
+				if (c != ',')
+					throw syntaxError("Expected a ',' or '}'");
+			}
+		}
+		if (!found)
+		{
+			if (status != null)
+				throw new GeoNamesStatusException(statusValue(status.opt("value")), String.valueOf(status.opt("message")));
+			throw new JSONException("JSONObject[" + JSONObject.quote(resultArrayName) + "] not found.");
+		}
+		return count;
+	}
+
+	private static int statusValue(Object value)
+	{
+		if (value instanceof Number)
+			return ((Number) value).intValue();
+		try
+		{
+			return (value != null) ? Integer.parseInt(value.toString().trim()) : -1;
+		}
+		catch (NumberFormatException e)
+		{
+			return -1;
+		}
+	}
+
+	private int readArray(GeoNamesRowHandler handler) throws IOException, JSONException
+	{
+		expect('[');
+		int count = 0;
+		if (peekClean() == ']')
+		{
+			read();
+			return count;
+		}
+		while (true)
+		{
+			if (peekClean() == '{')
+			{
+				handler.handleRow(readObject());
+				count++;
+			}
+			else
+			{
+				skipValue();
+			}
+			char c = readClean();
+			if (c == ']')
+				return count;
+			if (c != ',')
+				throw syntaxError("Expected a ',' or ']'");
+		}
+	}
+
+	private GeoNamesRow readObject() throws IOException, JSONException
+	{
+		expect('{');
+		rowNames.clear();
+		rowValues.clear();
+		if (peekClean() == '}')
+		{
+			read();
+		}
+		else
+		{
+			while (true)
+			{
+				expect('"');
+				String name = readName();
+				expect(':');
+				Object value = readValue();
+				if (value != SKIPPED)
+				{
+					rowNames.add(name);
+					rowValues.add(value);
+				}
+				char c = readClean();
+				if (c == '}')
+					break;
+				if (c != ',')
+					throw syntaxError("Expected a ',' or '}'");
+			}
+		}
+		return new GeoNamesRow(rowNames.toArray(new String[rowNames.size()]), rowValues.toArray());
+	}
+
+	private Object readValue() throws IOException, JSONException
+	{
+		char c = peekClean();
+		switch (c)
+		{
+			case '"':
+				read();
+				return readString();
+			case '{':
+			case '[':
+				skipValue();
+				return SKIPPED;
+			case 't':
+				readLiteral("true");
+				return Boolean.TRUE;
+			case 'f':
+				readLiteral("false");
+				return Boolean.FALSE;
+			case 'n':
+				readLiteral("null");
+				return JSONObject.NULL;
+			default:
+				return readNumber();
+		}
+	}
+
+	private void skipValue() throws IOException, JSONException
+	{
+		char c = peekClean();
+		if (c == '{' || c == '[')
+		{
+			int depth = 0;
+			do
+			{
+				c = read();
+				if (c == '"')
+					skipString();
+				else if (c == '{' || c == '[')
+					depth++;
+				else if (c == '}' || c == ']')
+					depth--;
+			}
+			while (depth > 0);
+		}
+		else
+		{
+			readValue();
+		}
+	}
+
+	/**
+	 * Member names repeat for every row, so one String instance per distinct name is shared by all of them.
+	 */
+	private String readName() throws IOException, JSONException
+	{
+		String name = readString();
+		String shared = names.get(name);
+		if (shared == null)
+		{
+			names.put(name, name);
+			shared = name;
+		}
+		return shared;
+	}
+
+	private String readString() throws IOException, JSONException
+	{
+		if (bytes != null)
+			return readUtf8String();
+		text.setLength(0);
+		while (true)
+		{
+			char c = read();
+			if (c == '"')
+				return text.toString();
+			if (c == '\\')
+				readEscape();
+			else
+				text.append(c);
+		}
+	}
+
+	/**
+	 * Reads a string from UTF-8 bytes. '"' and '\\' never occur inside a multi-byte UTF-8 sequence, so the end of the
+	 * string and its escapes can be found without decoding.
+	 */
+	private String readUtf8String() throws IOException, JSONException
+	{
+		int start = pos;
+		for (int i = start; i < limit; i++)
+		{
+			byte b = bytes[i];
+			if (b == '"')
+			{
+				pos = i + 1;
+				return new String(bytes, start, i - start, UTF8);
+			}
+			if (b == '\\')
+				break;
+		}
+		// the string has escapes or continues in the next buffer, so its bytes are collected and decoded in runs
+		text.setLength(0);
+		int length = 0;
+		while (true)
+		{
+			if (pos >= limit && peek() == -1)
+				throw syntaxError("Unexpected end of response");
+			byte b = bytes[pos++];
+			if (b == '"')
+				break;
+			if (b == '\\')
+			{
+				decode(length);
+				length = 0;
+				readEscape();
+				continue;
+			}
+			if (length == scratch.length)
+			{
+				byte[] larger = new byte[length * 2];
+				System.arraycopy(scratch, 0, larger, 0, length);
+				scratch = larger;
+			}
+			scratch[length++] = b;
+		}
+		decode(length);
+		return text.toString();
+	}
+
+	private void decode(int length)
+	{
+		if (length > 0)
+			text.append(new String(scratch, 0, length, UTF8));
+	}
+
+	private void readEscape() throws IOException, JSONException
+	{
+		char c = read();
+		switch (c)
+		{
+			case 'b':
+				text.append('\b');
+				break;
+			case 'f':
+				text.append('\f');
+				break;
+			case 'n':
+				text.append('\n');
+				break;
+			case 'r':
+				text.append('\r');
+				break;
+			case 't':
+				text.append('\t');
+				break;
+			case 'u':
+				int code = 0;
+				for (int i = 0; i < 4; i++)
+				{
+					int digit = Character.digit(read(), 16);
+					if (digit == -1)
+						throw syntaxError("Illegal escape");
+					code = (code << 4) | digit;
+				}
+				text.append((char) code);
+				break;
+			default:
+				text.append(c);
+		}
+	}
+
+	private void skipString() throws IOException, JSONException
+	{
+		while (true)
+		{
+			char c = read();
+			if (c == '"')
+				return;
+			if (c == '\\')
+				read();
+		}
+	}
+
+	private Object readNumber() throws IOException, JSONException
+	{
+		text.setLength(0);
+		boolean decimal = false;
+		while (true)
+		{
+			int c = peek();
+			if ((c >= '0' && c <= '9') || c == '-' || c == '+')
+			{
+				text.append((char) c);
+			}
+			else if (c == '.' || c == 'e' || c == 'E')
+			{
+				text.append((char) c);
+				decimal = true;
+			}
+			else
+			{
+				break;
+			}
+			pos++;
+		}
+		if (text.length() == 0)
+			throw syntaxError("Unexpected character");
+		String number = text.toString();
+		try
+		{
+			if (!decimal)
+			{
+				long value = Long.parseLong(number);
+				if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE)
+					return Integer.valueOf((int) value);
+				return Long.valueOf(value);
+			}
+			return Double.valueOf(number);
+		}
+		catch (NumberFormatException e)
+		{
+			try
+			{
+				return Double.valueOf(number);
+			}
+			catch (NumberFormatException e2)
+			{
+				throw syntaxError("Bad number " + number);
+			}
+		}
+	}
+
+	private void readLiteral(String literal) throws IOException, JSONException
+	{
+		for (int i = 0; i < literal.length(); i++)
+		{
+			if (read() != literal.charAt(i))
+				throw syntaxError("Expected " + literal);
+		}
+	}
+
+	private void expect(char expected) throws IOException, JSONException
+	{
+		if (readClean() != expected)
+			throw syntaxError("Expected '" + expected + "'");
+	}
+
+	private char readClean() throws IOException, JSONException
+	{
+		char c = peekClean();
+		pos++;
+		return c;
+	}
+
+	private char peekClean() throws IOException, JSONException
+	{
+		while (true)
+		{
+			int c = peek();
+			if (c == -1)
+				throw syntaxError("Unexpected end of response");
+			if (c > ' ')
+				return (char) c;
+			pos++;
+		}
+	}
+
+	private char read() throws IOException, JSONException
+	{
+		int c = peek();
+		if (c == -1)
+			throw syntaxError("Unexpected end of response");
+		pos++;
+		return (char) c;
+	}
+
+	private int peek() throws IOException
+	{
+		if (pos >= limit)
+		{
+			offset += limit;
+			pos = 0;
+			limit = (bytes != null) ? in.read(bytes, 0, bytes.length) : reader.read(buffer, 0, buffer.length);
+			if (limit <= 0)
+			{
+				limit = 0;
+				return -1;
+			}
+		}
+		return (bytes != null) ? bytes[pos] & 0xFF : buffer[pos];
+	}
+
+	private JSONException syntaxError(String message)
+	{
+		return new JSONException(message + " at character " + (offset + pos) + " of the GeoNames response.");
+	}
+}
@@ -0,0 +1,733 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONException;
+
+/**
+ * Answers {@link GeoNamesQuery} lookups for a processor, first from its {@link GeoNamesLookupCache} (when one is
+ * configured) and otherwise from the GeoNames web service, unless a {@link GeoNamesLocalIndex} has been set to answer
+ * them from local data instead. Concurrent lookups for the same cell and parameters can be
+ * coalesced into a single request.
+ * 
+ * In tile mode the world is split into tiles, and a lookup fetches and caches the results of its whole tile, so that
+ * the lookups of every other location in the tile are answered locally by filtering the tile on distance. The tiles
+ * form a quadtree: a tile whose results were cut off at the maximum rows is split into four, down to a maximum number
+ * of levels, so that dense areas get small tiles while sparse ones keep a single large tile.
+ * 
+ * Requests are sent with the accounts of a {@link GeoNamesAccountPool}, each limited by the rate limiter of its
+ * username and guarded by the circuit breaker of its server. Expired cached results are served while no account can be
+ * used. Requests time out, and can be hedged by a {@link GeoNamesHedger}.
+ */
+public class GeoNamesLookup
+{
+	public static final int								DEFAULT_CELL_PRECISION	= 7;
+	public static final int								DEFAULT_TILE_MAX_ROWS		= 500;
+	public static final int								DEFAULT_TILE_LEVELS			= 4;
+
+	private static final GeoNamesRowHandler	IGNORE									= new GeoNamesRowHandler()
+		{
+			@Override
+			public void handleRow(GeoNamesRow row)
+			{
+				;
+			}
+		};
+
+	private final GeoNamesHttpClient			httpClient;
+	private final GeoNamesSingleFlight		singleFlight						= new GeoNamesSingleFlight();
+	private volatile GeoNamesLookupCache	cache;
+	private volatile GeoNamesLocalIndex		localIndex;
+	private volatile int									cellPrecision						= DEFAULT_CELL_PRECISION;
+	private volatile boolean							coalescing							= true;
+	private volatile GeoNamesAccountPool	accounts								= GeoNamesAccountPool.of(GeoNamesAccount.DEFAULT_USERNAME, GeoNamesQuery.DEFAULT_BASE_URL);
+	private volatile GeoNamesMetrics			metrics;
+	private volatile GeoNamesTrackFilter	trackFilter;
+	private volatile boolean							servingStale						= true;
+	private volatile GeoNamesHedger				hedger;
+	private volatile int									connectTimeoutMillis		= GeoNamesHttpClient.DEFAULT_CONNECT_TIMEOUT_MILLIS;
+	private volatile int									readTimeoutMillis				= GeoNamesHttpClient.DEFAULT_READ_TIMEOUT_MILLIS;
+	private volatile double								tileSize;
+	private volatile int									tileMaxRows							= DEFAULT_TILE_MAX_ROWS;
+	private volatile int									tileLevels							= DEFAULT_TILE_LEVELS;
+	private final AtomicLong							tileHitCount						= new AtomicLong();
+	private final AtomicLong							tileSplitCount					= new AtomicLong();
+	private final AtomicLong							tileSaturatedCount			= new AtomicLong();
+
+	public GeoNamesLookup(GeoNamesHttpClient httpClient)
+	{
+		this.httpClient = httpClient;
+	}
+
+	public GeoNamesLookupCache getCache()
+	{
+		return cache;
+	}
+
+	/**
+	 * Sets the cache consulted before going to the network, or null to always go to the network.
+	 */
+	public void setCache(GeoNamesLookupCache cache)
+	{
+		this.cache = cache;
+	}
+
+	public GeoNamesLocalIndex getLocalIndex()
+	{
+		return localIndex;
+	}
+
+	/**
+	 * Sets a local index that answers every lookup instead of the GeoNames web service, or null to use the web service.
+	 */
+	public void setLocalIndex(GeoNamesLocalIndex localIndex)
+	{
+		this.localIndex = localIndex;
+	}
+
+	public int getCellPrecision()
+	{
+		return cellPrecision;
+	}
+
+	/**
+	 * Sets the geohash precision used to decide which lookups share a cache entry or an in-flight request.
+	 */
+	public void setCellPrecision(int cellPrecision)
+	{
+		this.cellPrecision = cellPrecision;
+	}
+
+	public boolean isCoalescing()
+	{
+		return coalescing;
+	}
+
+	public void setCoalescing(boolean coalescing)
+	{
+		this.coalescing = coalescing;
+	}
+
+	public double getTileSize()
+	{
+		return tileSize;
+	}
+
+	public int getTileMaxRows()
+	{
+		return tileMaxRows;
+	}
+
+	public int getTileLevels()
+	{
+		return tileLevels;
+	}
+
+	/**
+	 * Turns on tile mode, which only takes effect with a cache to hold the tiles.
+	 * 
+	 * @param tileSize the width and height of the largest tiles in degrees, or 0 to look up every location on its own.
+	 * @param tileMaxRows the most results requested for a tile. A tile that comes back with that many is assumed to be
+	 *          truncated, and is split into four; at the last level the lookups in it are sent on their own.
+	 * @param tileLevels how many times a tile can be split, each halving its width and height.
+	 */
+	public void setTiling(double tileSize, int tileMaxRows, int tileLevels)
+	{
+		this.tileSize = Math.max(0, tileSize);
+		this.tileMaxRows = Math.max(1, tileMaxRows);
+		this.tileLevels = Math.max(0, Math.min(16, tileLevels));
+	}
+
+	/**
+	 * Returns the query of the tile holding the query in tile mode, or null: the smallest tile the cache knows of, as
+	 * the tiles that have been split are only held in the cache. Nothing is fetched.
+	 */
+	public GeoNamesQuery getTile(GeoNamesQuery query)
+	{
+		GeoNamesLookupCache cache = this.cache;
+		if (tileSize <= 0 || cache == null || query.isTile())
+			return null;
+		int tileLevels = this.tileLevels;
+		GeoNamesQuery leaf = null;
+		for (int level = 0; level <= tileLevels; level++)
+		{
+			GeoNamesQuery tile = getTile(query, level);
+			if (tile == null)
+				continue;
+			leaf = tile;
+			List<GeoNamesRow> rows = cache.getStale(tile.getCellKey(cellPrecision));
+			if (rows == null || !GeoNamesTile.of(rows).isSplit())
+				break;
+		}
+		return leaf;
+	}
+
+	/**
+	 * Returns the query of the tile at the level of the quadtree holding the query, or null. A service without a
+	 * bounding box endpoint is only tiled while the search radius from the tile center reaching the whole tile is one
+	 * GeoNames accepts.
+	 */
+	private GeoNamesQuery getTile(GeoNamesQuery query, int level)
+	{
+		GeoNamesQuery tile = query.getTile(tileSize / (1L << level), tileMaxRows);
+		GeoNamesService service = query.getService();
+		if (service.getBoundingBoxEndpoint() == null && tile.getRadius() > service.getMaxRadius())
+			return null;
+		return tile;
+	}
+
+	/**
+	 * Returns the key the results for the query are cached under: that of its tile in tile mode, otherwise that of its
+	 * cell.
+	 */
+	public String getCacheKey(GeoNamesQuery query)
+	{
+		GeoNamesQuery tile = getTile(query);
+		return (tile != null) ? tile.getCellKey(cellPrecision) : query.getCellKey(cellPrecision);
+	}
+
+	public long getTileHitCount()
+	{
+		return tileHitCount.get();
+	}
+
+	public long getTileSplitCount()
+	{
+		return tileSplitCount.get();
+	}
+
+	public long getTileSaturatedCount()
+	{
+		return tileSaturatedCount.get();
+	}
+
+	public String getTileStatistics()
+	{
+		return "size=" + tileSize + " maxRows=" + tileMaxRows + " levels=" + tileLevels + " hits=" + getTileHitCount() + " splits=" + getTileSplitCount() + " saturated=" + getTileSaturatedCount();
+	}
+
+	public GeoNamesAccountPool getAccounts()
+	{
+		return accounts;
+	}
+
+	/**
+	 * Sets the accounts the requests to the GeoNames web service are sent with.
+	 */
+	public void setAccounts(GeoNamesAccountPool accounts)
+	{
+		this.accounts = accounts;
+	}
+
+	public GeoNamesMetrics getMetrics()
+	{
+		return metrics;
+	}
+
+	/**
+	 * Sets the metrics recording the requests sent to the GeoNames web service, or null to record nothing.
+	 */
+	public void setMetrics(GeoNamesMetrics metrics)
+	{
+		this.metrics = metrics;
+	}
+
+	public GeoNamesTrackFilter getTrackFilter()
+	{
+		return trackFilter;
+	}
+
+	/**
+	 * Sets the filter deciding which lookups of a moving track can be skipped, or null to look up every location.
+	 */
+	public void setTrackFilter(GeoNamesTrackFilter trackFilter)
+	{
+		this.trackFilter = trackFilter;
+	}
+
+	public boolean isServingStale()
+	{
+		return servingStale;
+	}
+
+	/**
+	 * Sets whether a lookup that cannot be sent, because the circuit breaker is open or every account has used up its
+	 * credits, is answered from expired cached results, when there are any.
+	 */
+	public void setServingStale(boolean servingStale)
+	{
+		this.servingStale = servingStale;
+	}
+
+	public GeoNamesHedger getHedger()
+	{
+		return hedger;
+	}
+
+	/**
+	 * Sets the hedger that sends a second request when the first is slow, or null to send one request per lookup.
+	 */
+	public void setHedger(GeoNamesHedger hedger)
+	{
+		this.hedger = hedger;
+	}
+
+	public int getConnectTimeoutMillis()
+	{
+		return connectTimeoutMillis;
+	}
+
+	public int getReadTimeoutMillis()
+	{
+		return readTimeoutMillis;
+	}
+
+	/**
+	 * Sets how long a request waits for the connection and for each read of the response; 0 waits indefinitely.
+	 */
+	public void setTimeouts(int connectTimeoutMillis, int readTimeoutMillis)
+	{
+		this.connectTimeoutMillis = connectTimeoutMillis;
+		this.readTimeoutMillis = readTimeoutMillis;
+	}
+
+	public GeoNamesSingleFlight getSingleFlight()
+	{
+		return singleFlight;
+	}
+
+	/**
+	 * Looks up the query and returns all of its rows.
+	 */
+	public List<GeoNamesRow> lookup(GeoNamesQuery query) throws IOException, JSONException
+	{
+		final List<GeoNamesRow> rows = new ArrayList<GeoNamesRow>();
+		lookup(query, new GeoNamesRowHandler()
+			{
+				@Override
+				public void handleRow(GeoNamesRow row)
+				{
+					rows.add(row);
+				}
+			});
+		return rows;
+	}
+
+	/**
+	 * Looks up the query and passes each row to the handler. When the rows come from the network they are handed over
+	 * while the response is still being read; rows are only retained when they need to be cached or shared with
+	 * coalesced lookups.
+	 */
+	public void lookup(GeoNamesQuery query, GeoNamesRowHandler handler) throws IOException, JSONException
+	{
+		resolve(query, handler, false);
+	}
+
+	/**
+	 * Looks up the query for a moving track. When a {@link GeoNamesTrackFilter} is set and the track has not moved far
+	 * enough since its last lookup, the lookup is skipped and, depending on the filter's mode, either nothing or the
+	 * track's previous rows are passed to the handler.
+	 * 
+	 * @return false if the lookup was skipped and no rows were passed to the handler; true if the handler saw the
+	 *         complete result, which may have been empty.
+	 */
+	public boolean lookup(GeoNamesQuery query, String trackId, GeoNamesRowHandler handler) throws IOException, JSONException
+	{
+		GeoNamesTrackFilter trackFilter = this.trackFilter;
+		if (trackFilter == null || trackId == null)
+		{
+			resolve(query, handler, false);
+			return true;
+		}
+		GeoNamesTrackFilter.TrackState previous = trackFilter.suppress(trackId, query.getLat(), query.getLon());
+		if (previous != null)
+		{
+			if (previous.getRows() == null)
+				return false;
+			deliver(previous.getRows(), query, handler);
+			return true;
+		}
+		boolean reuse = trackFilter.isReusingResults();
+		List<GeoNamesRow> rows = resolve(query, handler, reuse);
+		trackFilter.update(trackId, query.getLat(), query.getLon(), reuse ? rows : null);
+		return true;
+	}
+
+	/**
+	 * Passes the rows for the query to the handler.
+	 * 
+	 * @return if retain is set, the rows as fetched or cached, which are shared and not anchored to the query; otherwise
+	 *         possibly null.
+	 */
+	private List<GeoNamesRow> resolve(final GeoNamesQuery query, final GeoNamesRowHandler handler, boolean retain) throws IOException, JSONException
+	{
+		GeoNamesLocalIndex localIndex = this.localIndex;
+		if (localIndex != null)
+		{
+			List<GeoNamesRow> rows = localIndex.find(query);
+			for (GeoNamesRow row : rows)
+				handler.handleRow(row);
+			return rows;
+		}
+
+		GeoNamesLookupCache cache = this.cache;
+		boolean coalescing = this.coalescing;
+		if (cache == null && !coalescing)
+			return fetch(query, handler, retain);
+
+		double tileSize = this.tileSize;
+		if (tileSize > 0 && cache != null && !query.isTile())
+		{
+			int tileLevels = this.tileLevels;
+			for (int level = 0; level <= tileLevels; level++)
+			{
+				GeoNamesQuery tile = getTile(query, level);
+				if (tile == null)
+					continue;
+				GeoNamesTile tileRows = resolveTile(cache, tile);
+				if (tileRows.isSplit())
+					continue;
+				if (tileRows.size() < tile.getMaxRows())
+				{
+					tileHitCount.incrementAndGet();
+					List<GeoNamesRow> rows = tileRows.nearest(query);
+					for (GeoNamesRow row : rows)
+						handler.handleRow(row);
+					return rows;
+				}
+				// the tile was cut off at its maximum rows, so it may be missing some of the results
+				if (level == tileLevels)
+					break;
+				// until it expires, the tile stands for its four quarters
+				cache.put(tile.getCellKey(cellPrecision), GeoNamesTile.split());
+				tileSplitCount.incrementAndGet();
+			}
+			tileSaturatedCount.incrementAndGet();
+		}
+		return resolve(cache, query.getCellKey(cellPrecision), query, handler);
+	}
+
+	/**
+	 * Passes the rows of the query to the handler, from the cache if they are there, or by joining or sending a
+	 * request.
+	 * 
+	 * @param handler the handler, or null to only return the rows.
+	 * @return the rows as fetched or cached.
+	 */
+	private List<GeoNamesRow> resolve(final GeoNamesLookupCache cache, final String key, final GeoNamesQuery query, final GeoNamesRowHandler handler) throws IOException, JSONException
+	{
+		if (cache != null)
+		{
+			List<GeoNamesRow> rows = cache.get(key);
+			if (rows != null)
+			{
+				if (handler != null)
+					deliver(rows, query, handler);
+				return rows;
+			}
+		}
+
+		try
+		{
+			final GeoNamesRowHandler fetchHandler = (handler != null) ? handler : IGNORE;
+			if (!coalescing)
+				return fetchAndCache(cache, key, query, fetchHandler);
+
+			final boolean[] fetched = new boolean[1];
+			List<GeoNamesRow> rows = singleFlight.execute(key, new GeoNamesSingleFlight.Fetcher()
+				{
+					@Override
+					public List<GeoNamesRow> fetch() throws IOException, JSONException
+					{
+						fetched[0] = true;
+						return fetchAndCache(cache, key, query, fetchHandler);
+					}
+				});
+			if (!fetched[0] && handler != null)
+				deliver(rows, query, handler);
+			return rows;
+		}
+		catch (GeoNamesCircuitBreaker.OpenException e)
+		{
+			// nothing was sent, so no rows have been handed on yet
+			List<GeoNamesRow> stale = (cache != null && servingStale) ? cache.getStale(key) : null;
+			if (stale == null)
+				throw e;
+			accounts.staleServed();
+			if (handler != null)
+				deliver(stale, query, handler);
+			return stale;
+		}
+	}
+
+	/**
+	 * Returns the rows of the tile, from the cache or fetched, as a {@link GeoNamesTile}. Rows that were cached in
+	 * another form, such as those read back from the disk cache, are converted once.
+	 */
+	private GeoNamesTile resolveTile(GeoNamesLookupCache cache, GeoNamesQuery tile) throws IOException, JSONException
+	{
+		String key = tile.getCellKey(cellPrecision);
+		List<GeoNamesRow> rows = resolve(cache, key, tile, null);
+		if (rows instanceof GeoNamesTile)
+			return (GeoNamesTile) rows;
+		GeoNamesTile tileRows = GeoNamesTile.of(rows);
+		cache.replace(key, rows, tileRows);
+		return tileRows;
+	}
+
+	/**
+	 * Requests the query from the GeoNames web service and replaces its cache entry, whether or not the entry has
+	 * expired. A lookup of the same cell that is in flight at the time is joined instead. Does nothing without a cache.
+	 * In tile mode the tile holding the query is refreshed.
+	 */
+	public void refresh(GeoNamesQuery query) throws IOException, JSONException
+	{
+		final GeoNamesLookupCache cache = this.cache;
+		if (cache == null)
+			return;
+		GeoNamesQuery tile = getTile(query);
+		final GeoNamesQuery refreshed = (tile != null) ? tile : query;
+		final String key = refreshed.getCellKey(cellPrecision);
+		if (!coalescing)
+		{
+			fetchAndCache(cache, key, refreshed, IGNORE);
+			return;
+		}
+		singleFlight.execute(key, new GeoNamesSingleFlight.Fetcher()
+			{
+				@Override
+				public List<GeoNamesRow> fetch() throws IOException, JSONException
+				{
+					return fetchAndCache(cache, key, refreshed, IGNORE);
+				}
+			});
+	}
+
+	private List<GeoNamesRow> fetchAndCache(GeoNamesLookupCache cache, String key, GeoNamesQuery query, GeoNamesRowHandler handler) throws IOException, JSONException
+	{
+		List<GeoNamesRow> rows = fetch(query, handler, true);
+		if (query.isTile())
+			rows = GeoNamesTile.of(rows);
+		if (cache != null)
+			cache.put(key, rows);
+		return rows;
+	}
+
+	/**
+	 * Requests the query from the GeoNames web service, streaming each row to the handler as it is decoded, unless the
+	 * request is hedged, in which case the rows are handed on once the first response is complete. When GeoNames reports
+	 * that the credits of the account are used up, the request is sent again with another account of the pool.
+	 * 
+	 * @return the rows, if retain is set, otherwise null.
+	 * @throws GeoNamesCircuitBreaker.OpenException if no account could be used and nothing was sent.
+	 */
+	protected List<GeoNamesRow> fetch(GeoNamesQuery query, GeoNamesRowHandler handler, boolean retain) throws IOException, JSONException
+	{
+		GeoNamesAccountPool accounts = this.accounts;
+		for (int attempt = 1;; attempt++)
+		{
+			GeoNamesAccount account = accounts.acquire(query.isPriority());
+			try
+			{
+				return fetch(accounts, account, query, handler, retain);
+			}
+			catch (GeoNamesStatusException e)
+			{
+				// a status response has no rows, so none have been handed on
+				if (!e.isAccountLimit() || attempt >= accounts.size())
+					throw e;
+				accounts.failedOver();
+			}
+		}
+	}
+
+	private List<GeoNamesRow> fetch(GeoNamesAccountPool accounts, GeoNamesAccount account, final GeoNamesQuery query, final GeoNamesRowHandler handler, boolean retain) throws IOException, JSONException
+	{
+		GeoNamesHedger hedger = this.hedger;
+		if (hedger != null)
+		{
+			List<GeoNamesRow> rows = hedger.execute(new GeoNamesHedger.Request()
+				{
+					@Override
+					public List<GeoNamesRow> send(GeoNamesAccount account, GeoNamesHttpClient.Cancellation cancellation) throws IOException, JSONException
+					{
+						final List<GeoNamesRow> rows = new ArrayList<GeoNamesRow>();
+						request(account, query, new GeoNamesRowHandler()
+							{
+								@Override
+								public void handleRow(GeoNamesRow row)
+								{
+									rows.add(row);
+								}
+							}, cancellation);
+						return Collections.unmodifiableList(rows);
+					}
+				}, account, accounts);
+			for (GeoNamesRow row : rows)
+				handler.handleRow(row);
+			return retain ? rows : null;
+		}
+
+		final List<GeoNamesRow> rows = retain ? new ArrayList<GeoNamesRow>() : null;
+		request(account, query, new GeoNamesRowHandler()
+			{
+				@Override
+				public void handleRow(GeoNamesRow row)
+				{
+					if (rows != null)
+						rows.add(row);
+					handler.handleRow(row);
+				}
+			}, null);
+		return (rows != null) ? Collections.unmodifiableList(rows) : null;
+	}
+
+	/**
+	 * Sends one request with the account, passing each row to the handler as it is decoded, and reports the outcome to
+	 * the circuit breaker of its server and, if GeoNames answered with a status, to the pool. A cancelled request is only
+	 * reported as cancelled, since it says nothing about the server. A response that is not the JSON of a GeoNames
+	 * answer, such as a proxy error page or a truncated body, is a failure of the server.
+	 */
+	private void request(GeoNamesAccount account, GeoNamesQuery query, final GeoNamesRowHandler handler, GeoNamesHttpClient.Cancellation cancellation) throws IOException, JSONException
+	{
+		final String resultArrayName = query.getService().getResultArrayName();
+		final GeoNamesMetrics metrics = this.metrics;
+		final long start = System.nanoTime();
+		if (metrics != null)
+			metrics.request();
+		GeoNamesCircuitBreaker circuitBreaker = account.getCircuitBreaker();
+		boolean answered = false;
+		boolean cancelled = false;
+		try
+		{
+			httpClient.get(query.toURL(account.getBaseUrl(), account.getUsername()), connectTimeoutMillis, readTimeoutMillis, new GeoNamesHttpClient.ResponseHandler<Integer>()
+				{
+					@Override
+					public Integer handleResponse(InputStream in, Charset charset) throws IOException, JSONException
+					{
+						long parseStart = System.nanoTime();
+						if (metrics != null)
+							metrics.recordHttpLatency(parseStart - start);
+						// rows are handed on while the response is still being decoded, so the time spent downstream is taken out of the parse time
+						final long[] handlerNanos = new long[1];
+						GeoNamesJsonReader reader = new GeoNamesJsonReader(in, charset);
+						int count = reader.readRows(resultArrayName, new GeoNamesRowHandler()
+							{
+								@Override
+								public void handleRow(GeoNamesRow row)
+								{
+									long handlerStart = System.nanoTime();
+									handler.handleRow(row);
+									handlerNanos[0] += System.nanoTime() - handlerStart;
+								}
+							});
+						if (metrics != null)
+							metrics.recordParse(System.nanoTime() - parseStart - handlerNanos[0], count);
+						return count;
+					}
+				}, cancellation);
+			answered = true;
+			accounts.answered(account);
+		}
+		catch (GeoNamesStatusException e)
+		{
+			// a GeoNames status response still means the server is answering
+			answered = true;
+			accounts.statusReceived(account, e);
+			throw e;
+		}
+		catch (GeoNamesHttpClient.CancelledException e)
+		{
+			cancelled = true;
+			throw e;
+		}
+		finally
+		{
+			if (circuitBreaker != null)
+			{
+				if (cancelled)
+					circuitBreaker.recordCancelled();
+				else if (answered)
+					circuitBreaker.recordSuccess();
+				else
+					circuitBreaker.recordFailure();
+			}
+		}
+	}
+
+	private static void deliver(List<GeoNamesRow> rows, GeoNamesQuery query, GeoNamesRowHandler handler)
+	{
+		for (GeoNamesRow row : anchor(rows, query))
+			handler.handleRow(row);
+	}
+
+	/**
+	 * Cached or coalesced rows were fetched for some other location in the same cell, so their distances are recomputed
+	 * relative to the location of the query being answered, and they are trimmed to the rows within its search radius,
+	 * nearest first, up to its maximum rows. Rows without a location are kept after them while there is room.
+	 */
+	static List<GeoNamesRow> anchor(List<GeoNamesRow> rows, GeoNamesQuery query)
+	{
+		double radius = query.getRadius();
+		GeoNamesNearest nearest = new GeoNamesNearest(query.getMaxRows());
+		List<GeoNamesRow> unlocated = null;
+		for (int i = 0; i < rows.size(); i++)
+		{
+			GeoNamesRow row = rows.get(i);
+			double lat = row.optDouble("lat");
+			double lng = row.optDouble("lng");
+			if (Double.isNaN(lat) || Double.isNaN(lng))
+			{
+				if (unlocated == null)
+					unlocated = new ArrayList<GeoNamesRow>();
+				unlocated.add(row);
+				continue;
+			}
+			double distance = GeoHash.distanceKm(query.getLat(), query.getLon(), lat, lng);
+			if (distance <= radius && distance < nearest.getThreshold())
+				nearest.offer(i, distance);
+		}
+		int n = nearest.size();
+		double[] distances = new double[n];
+		long[] ids = nearest.drainSorted(distances);
+		List<GeoNamesRow> anchored = new ArrayList<GeoNamesRow>(n);
+		for (int i = 0; i < n; i++)
+			anchored.add(rows.get((int) ids[i]).with("distance", distances[i]));
+		if (unlocated != null)
+		{
+			for (int i = 0; i < unlocated.size() && anchored.size() < query.getMaxRows(); i++)
+				anchored.add(unlocated.get(i));
+		}
+		return anchored;
+	}
+}
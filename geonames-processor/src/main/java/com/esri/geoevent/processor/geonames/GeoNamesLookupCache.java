@@ -0,0 +1,263 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size bounded, least recently used cache of parsed GeoNames results. Entries are keyed by
+ * {@link GeoNamesQuery#getCellKey(int)} and expire after a fixed time to live. An optional {@link GeoNamesDiskCache}
+ * keeps the results across restarts: it is read on a miss and written on every put. Expired entries stay until they
+ * are replaced or evicted, so that they can still be served while GeoNames is unavailable.
+ */
+public class GeoNamesLookupCache
+{
+	public static final int											DEFAULT_TTL_SECONDS			= 600;
+	public static final int											DEFAULT_CAPACITY				= 10000;
+
+	private final long													ttlMillis;
+	private final int														capacity;
+	private final LinkedHashMap<String, CachedResult>	entries;
+
+	private final AtomicLong										hitCount								= new AtomicLong();
+	private final AtomicLong										missCount								= new AtomicLong();
+	private final AtomicLong										evictionCount						= new AtomicLong();
+	private volatile GeoNamesDiskCache					diskCache;
+	private volatile long												diskTtlMillis;
+
+	public GeoNamesLookupCache(long ttlSeconds, int capacity)
+	{
+		this.ttlMillis = ttlSeconds * 1000;
+		this.capacity = capacity;
+		this.entries = new LinkedHashMap<String, CachedResult>(16, 0.75f, true)
+			{
+				private static final long	serialVersionUID	= 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest)
+				{
+					if (size() > GeoNamesLookupCache.this.capacity)
+					{
+						evictionCount.incrementAndGet();
+						return true;
+					}
+					return false;
+				}
+			};
+	}
+
+	/**
+	 * Returns the cached rows for the key, or null if there are none or they have expired.
+	 */
+	public List<GeoNamesRow> get(String key)
+	{
+		long now = System.currentTimeMillis();
+		synchronized (entries)
+		{
+			CachedResult entry = entries.get(key);
+			if (entry != null)
+			{
+				if (entry.expiresAt > now)
+				{
+					hitCount.incrementAndGet();
+					return entry.rows;
+				}
+				// expired entries are kept until they are replaced or evicted, to be served by getStale
+			}
+		}
+		missCount.incrementAndGet();
+		GeoNamesDiskCache diskCache = this.diskCache;
+		if (diskCache != null)
+		{
+			GeoNamesDiskCache.Entry stored = diskCache.get(key);
+			if (stored != null)
+			{
+				CachedResult entry = new CachedResult(stored.getRows(), Math.min(now + ttlMillis, stored.getExpiresAt()));
+				synchronized (entries)
+				{
+					entries.put(key, entry);
+				}
+				return entry.rows;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns how long the cached rows for the key stay fresh, or 0 if there are none. Rows only found in the disk cache
+	 * are moved into memory. Unlike {@link #get(String)} this is not counted as a hit or a miss, so that the
+	 * {@link GeoNamesPrewarmer} checking whether an entry needs a refresh does not distort the statistics.
+	 */
+	public long getRemainingMillis(String key)
+	{
+		long now = System.currentTimeMillis();
+		synchronized (entries)
+		{
+			CachedResult entry = entries.get(key);
+			if (entry != null && entry.expiresAt > now)
+				return entry.expiresAt - now;
+		}
+		GeoNamesDiskCache diskCache = this.diskCache;
+		if (diskCache != null)
+		{
+			GeoNamesDiskCache.Entry stored = diskCache.get(key);
+			if (stored != null)
+			{
+				CachedResult entry = new CachedResult(stored.getRows(), Math.min(now + ttlMillis, stored.getExpiresAt()));
+				synchronized (entries)
+				{
+					entries.put(key, entry);
+				}
+				return entry.expiresAt - now;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Returns the cached rows for the key even if they have expired, or null if there are none; the disk cache only
+	 * returns rows within its own time to live. Used to answer lookups while GeoNames cannot be reached.
+	 */
+	public List<GeoNamesRow> getStale(String key)
+	{
+		synchronized (entries)
+		{
+			CachedResult entry = entries.get(key);
+			if (entry != null)
+				return entry.rows;
+		}
+		GeoNamesDiskCache diskCache = this.diskCache;
+		if (diskCache != null)
+		{
+			GeoNamesDiskCache.Entry stored = diskCache.get(key);
+			if (stored != null)
+				return stored.getRows();
+		}
+		return null;
+	}
+
+	public void put(String key, List<GeoNamesRow> rows)
+	{
+		long now = System.currentTimeMillis();
+		CachedResult entry = new CachedResult(rows, now + ttlMillis);
+		synchronized (entries)
+		{
+			entries.put(key, entry);
+		}
+		GeoNamesDiskCache diskCache = this.diskCache;
+		if (diskCache != null)
+			diskCache.put(key, rows, now + diskTtlMillis);
+	}
+
+	/**
+	 * Replaces the rows cached in memory for the key with an equivalent form of them, keeping their expiry, unless the
+	 * entry has been replaced since they were read.
+	 */
+	void replace(String key, List<GeoNamesRow> rows, List<GeoNamesRow> replacement)
+	{
+		synchronized (entries)
+		{
+			CachedResult entry = entries.get(key);
+			if (entry != null && entry.rows == rows)
+				entries.put(key, new CachedResult(replacement, entry.expiresAt));
+		}
+	}
+
+	public long getTtlMillis()
+	{
+		return ttlMillis;
+	}
+
+	public int getCapacity()
+	{
+		return capacity;
+	}
+
+	public GeoNamesDiskCache getDiskCache()
+	{
+		return diskCache;
+	}
+
+	/**
+	 * @param diskCache the persistent tier, or null for none.
+	 * @param ttlSeconds how long results are kept in the persistent tier.
+	 */
+	public void setDiskCache(GeoNamesDiskCache diskCache, long ttlSeconds)
+	{
+		this.diskTtlMillis = ttlSeconds * 1000;
+		this.diskCache = diskCache;
+	}
+
+	public void clear()
+	{
+		synchronized (entries)
+		{
+			entries.clear();
+		}
+	}
+
+	public int size()
+	{
+		synchronized (entries)
+		{
+			return entries.size();
+		}
+	}
+
+	public long getHitCount()
+	{
+		return hitCount.get();
+	}
+
+	public long getMissCount()
+	{
+		return missCount.get();
+	}
+
+	public long getEvictionCount()
+	{
+		return evictionCount.get();
+	}
+
+	public String getStatistics()
+	{
+		return "size=" + size() + " hits=" + getHitCount() + " misses=" + getMissCount() + " evictions=" + getEvictionCount();
+	}
+
+	private static class CachedResult
+	{
+		final List<GeoNamesRow>	rows;
+		final long							expiresAt;
+
+		CachedResult(List<GeoNamesRow> rows, long expiresAt)
+		{
+			this.rows = rows;
+			this.expiresAt = expiresAt;
+		}
+	}
+}
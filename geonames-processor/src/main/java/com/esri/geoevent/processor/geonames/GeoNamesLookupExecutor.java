@@ -0,0 +1,600 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded worker pool that runs GeoNames lookups off the GeoEvent pipeline thread when a processor is in asynchronous
+ * execution mode. When the queue is full, new work is handled according to the configured {@link QueueFullPolicy}.
+ * Priority lookups have a lane of their own in the queue, which the workers empty first; a priority lookup that finds
+ * the queue full takes the place of the newest routine lookup, which is shed.
+ */
+public class GeoNamesLookupExecutor
+{
+	public static final String	EXECUTION_MODE_SYNCHRONOUS	= "Synchronous";
+	public static final String	EXECUTION_MODE_ASYNCHRONOUS	= "Asynchronous";
+	public static final int			DEFAULT_WORKER_THREADS			= 4;
+	public static final int			DEFAULT_QUEUE_DEPTH					= 1000;
+	public static final int			DEFAULT_DRAIN_SECONDS				= 5;
+
+	public enum QueueFullPolicy
+	{
+		BLOCK("Block"), DROP_OLDEST("Drop Oldest"), DROP_NEWEST("Drop Newest");
+
+		private final String	label;
+
+		private QueueFullPolicy(String label)
+		{
+			this.label = label;
+		}
+
+		public String getLabel()
+		{
+			return label;
+		}
+
+		public static QueueFullPolicy fromLabel(String label)
+		{
+			for (QueueFullPolicy policy : values())
+			{
+				if (policy.label.equalsIgnoreCase(label) || policy.name().equalsIgnoreCase(label))
+					return policy;
+			}
+			return BLOCK;
+		}
+	}
+
+	private final ThreadPoolExecutor	executor;
+	private final QueueFullPolicy			queueFullPolicy;
+	private final AtomicLong					submittedCount	= new AtomicLong();
+	private final AtomicLong					droppedCount		= new AtomicLong();
+	private final AtomicLong					priorityCount		= new AtomicLong();
+	private final AtomicLong					shedCount				= new AtomicLong();
+
+	public GeoNamesLookupExecutor(String name, int workerThreads, int queueDepth, QueueFullPolicy queueFullPolicy)
+	{
+		this.queueFullPolicy = queueFullPolicy;
+		BlockingQueue<Runnable> queue = new LaneQueue(Math.max(1, queueDepth));
+		int threads = Math.max(1, workerThreads);
+		executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, queue, new WorkerThreadFactory(name), new QueueFullHandler());
+	}
+
+	/**
+	 * Queues a lookup. Depending on the queue full policy this either blocks the caller until there is room, discards the
+	 * oldest queued lookup, or discards this one.
+	 */
+	public void execute(Runnable lookup)
+	{
+		execute(lookup, false);
+	}
+
+	/**
+	 * Queues a lookup, in the priority lane if priority is true.
+	 */
+	public void execute(Runnable lookup, boolean priority)
+	{
+		submittedCount.incrementAndGet();
+		if (priority)
+			priorityCount.incrementAndGet();
+		try
+		{
+			executor.execute(new Lookup(lookup, priority));
+		}
+		catch (RejectedExecutionException e)
+		{
+			droppedCount.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Stops taking lookups and lets the queued ones run, for up to {@link #DEFAULT_DRAIN_SECONDS}.
+	 */
+	public void shutdown()
+	{
+		shutdown(DEFAULT_DRAIN_SECONDS, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Stops taking lookups and lets the queued ones run, waiting up to the timeout for them to finish. The lookups still
+	 * queued after that are discarded and counted as dropped, and the running ones are interrupted.
+	 * 
+	 * @return whether every queued lookup ran.
+	 */
+	public boolean shutdown(long timeout, TimeUnit unit)
+	{
+		executor.shutdown();
+		try
+		{
+			if (executor.awaitTermination(timeout, unit))
+				return true;
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		droppedCount.addAndGet(executor.shutdownNow().size());
+		return false;
+	}
+
+	public boolean isShutdown()
+	{
+		return executor.isShutdown();
+	}
+
+	public QueueFullPolicy getQueueFullPolicy()
+	{
+		return queueFullPolicy;
+	}
+
+	public int getQueueSize()
+	{
+		return executor.getQueue().size();
+	}
+
+	public int getActiveCount()
+	{
+		return executor.getActiveCount();
+	}
+
+	public long getSubmittedCount()
+	{
+		return submittedCount.get();
+	}
+
+	public long getCompletedCount()
+	{
+		return executor.getCompletedTaskCount();
+	}
+
+	/**
+	 * The lookups dropped from a full queue, including those shed for a priority lookup, and those still queued when the
+	 * executor was shut down.
+	 */
+	public long getDroppedCount()
+	{
+		return droppedCount.get();
+	}
+
+	public long getPriorityCount()
+	{
+		return priorityCount.get();
+	}
+
+	/**
+	 * The routine lookups dropped from a full queue to make room for a priority lookup.
+	 */
+	public long getShedCount()
+	{
+		return shedCount.get();
+	}
+
+	public String getStatistics()
+	{
+		return "queued=" + getQueueSize() + " active=" + getActiveCount() + " submitted=" + getSubmittedCount() + " priority=" + getPriorityCount() + " completed=" + getCompletedCount() + " dropped=" + getDroppedCount() + " shed=" + getShedCount();
+	}
+
+	private static boolean isPriority(Runnable r)
+	{
+		return (r instanceof Lookup) && ((Lookup) r).priority;
+	}
+
+	private static class Lookup implements Runnable
+	{
+		private final Runnable	lookup;
+		private final boolean		priority;
+
+		Lookup(Runnable lookup, boolean priority)
+		{
+			this.lookup = lookup;
+			this.priority = priority;
+		}
+
+		@Override
+		public void run()
+		{
+			lookup.run();
+		}
+	}
+
+	private class QueueFullHandler implements RejectedExecutionHandler
+	{
+		@Override
+		public void rejectedExecution(Runnable r, ThreadPoolExecutor executor)
+		{
+			if (executor.isShutdown())
+				throw new RejectedExecutionException("GeoNames lookup executor is shut down");
+
+			switch (queueFullPolicy)
+			{
+				case DROP_OLDEST:
+					// a priority lookup only finds the queue full when there is no routine lookup left to shed
+					if (((LaneQueue) executor.getQueue()).dropOldest(isPriority(r)))
+					{
+						droppedCount.incrementAndGet();
+						executor.execute(r);
+					}
+					else
+						throw new RejectedExecutionException("GeoNames lookup queue is full");
+					break;
+				case DROP_NEWEST:
+					throw new RejectedExecutionException("GeoNames lookup queue is full");
+				default:
+					try
+					{
+						executor.getQueue().put(r);
+					}
+					catch (InterruptedException e)
+					{
+						Thread.currentThread().interrupt();
+						throw new RejectedExecutionException("Interrupted while waiting for room in the GeoNames lookup queue");
+					}
+			}
+		}
+	}
+
+	/**
+	 * A bounded queue with a lane for priority lookups, taken from first, and a lane for routine lookups. The capacity is
+	 * shared by both lanes.
+	 */
+	private class LaneQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable>
+	{
+		private final int										capacity;
+		private final ArrayDeque<Runnable>	priorityLane	= new ArrayDeque<Runnable>();
+		private final ArrayDeque<Runnable>	routineLane		= new ArrayDeque<Runnable>();
+		private final ReentrantLock					lock					= new ReentrantLock();
+		private final Condition							notEmpty			= lock.newCondition();
+		private final Condition							notFull				= lock.newCondition();
+
+		LaneQueue(int capacity)
+		{
+			this.capacity = capacity;
+		}
+
+		/**
+		 * Drops the oldest lookup of the lane of the given priority or below.
+		 * 
+		 * @return whether a lookup was dropped.
+		 */
+		boolean dropOldest(boolean priority)
+		{
+			lock.lock();
+			try
+			{
+				Runnable dropped = routineLane.pollFirst();
+				if (dropped == null && priority)
+					dropped = priorityLane.pollFirst();
+				if (dropped == null)
+					return false;
+				notFull.signal();
+				return true;
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Called with the lock held.
+		 */
+		private boolean enqueue(Runnable r)
+		{
+			if (isPriority(r))
+			{
+				if (count() >= capacity)
+				{
+					if (routineLane.pollLast() == null)
+						return false;
+					shedCount.incrementAndGet();
+					droppedCount.incrementAndGet();
+				}
+				priorityLane.addLast(r);
+			}
+			else
+			{
+				if (count() >= capacity)
+					return false;
+				routineLane.addLast(r);
+			}
+			notEmpty.signal();
+			return true;
+		}
+
+		/**
+		 * Called with the lock held.
+		 */
+		private Runnable dequeue()
+		{
+			Runnable r = priorityLane.pollFirst();
+			if (r == null)
+				r = routineLane.pollFirst();
+			if (r != null)
+				notFull.signal();
+			return r;
+		}
+
+		private int count()
+		{
+			return priorityLane.size() + routineLane.size();
+		}
+
+		@Override
+		public boolean offer(Runnable r)
+		{
+			if (r == null)
+				throw new NullPointerException();
+			lock.lock();
+			try
+			{
+				return enqueue(r);
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public boolean offer(Runnable r, long timeout, TimeUnit unit) throws InterruptedException
+		{
+			if (r == null)
+				throw new NullPointerException();
+			long nanos = unit.toNanos(timeout);
+			lock.lockInterruptibly();
+			try
+			{
+				while (!enqueue(r))
+				{
+					if (nanos <= 0)
+						return false;
+					nanos = notFull.awaitNanos(nanos);
+				}
+				return true;
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public void put(Runnable r) throws InterruptedException
+		{
+			if (r == null)
+				throw new NullPointerException();
+			lock.lockInterruptibly();
+			try
+			{
+				while (!enqueue(r))
+					notFull.await();
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public Runnable poll()
+		{
+			lock.lock();
+			try
+			{
+				return dequeue();
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException
+		{
+			long nanos = unit.toNanos(timeout);
+			lock.lockInterruptibly();
+			try
+			{
+				Runnable r;
+				while ((r = dequeue()) == null)
+				{
+					if (nanos <= 0)
+						return null;
+					nanos = notEmpty.awaitNanos(nanos);
+				}
+				return r;
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public Runnable take() throws InterruptedException
+		{
+			lock.lockInterruptibly();
+			try
+			{
+				Runnable r;
+				while ((r = dequeue()) == null)
+					notEmpty.await();
+				return r;
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public Runnable peek()
+		{
+			lock.lock();
+			try
+			{
+				Runnable r = priorityLane.peekFirst();
+				return (r != null) ? r : routineLane.peekFirst();
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public int size()
+		{
+			lock.lock();
+			try
+			{
+				return count();
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public int remainingCapacity()
+		{
+			lock.lock();
+			try
+			{
+				return capacity - count();
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public boolean remove(Object o)
+		{
+			lock.lock();
+			try
+			{
+				if (priorityLane.remove(o) || routineLane.remove(o))
+				{
+					notFull.signal();
+					return true;
+				}
+				return false;
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public int drainTo(Collection<? super Runnable> c)
+		{
+			return drainTo(c, Integer.MAX_VALUE);
+		}
+
+		@Override
+		public int drainTo(Collection<? super Runnable> c, int maxElements)
+		{
+			if (c == this)
+				throw new IllegalArgumentException();
+			lock.lock();
+			try
+			{
+				int drained = 0;
+				Runnable r;
+				while (drained < maxElements && (r = dequeue()) != null)
+				{
+					c.add(r);
+					drained++;
+				}
+				if (drained > 0)
+					notFull.signalAll();
+				return drained;
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Iterates over a snapshot of the queue, priority lookups first.
+		 */
+		@Override
+		public Iterator<Runnable> iterator()
+		{
+			lock.lock();
+			try
+			{
+				List<Runnable> snapshot = new ArrayList<Runnable>(count());
+				snapshot.addAll(priorityLane);
+				snapshot.addAll(routineLane);
+				return snapshot.iterator();
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+	}
+
+	static class WorkerThreadFactory implements ThreadFactory
+	{
+		private final String				name;
+		private final AtomicInteger	threadNumber	= new AtomicInteger();
+
+		WorkerThreadFactory(String name)
+		{
+			this.name = name;
+		}
+
+		@Override
+		public Thread newThread(Runnable r)
+		{
+			Thread thread = new Thread(r, name + "-worker-" + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,330 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.esri.ges.framework.i18n.BundleLogger;
+import com.esri.ges.framework.i18n.BundleLoggerFactory;
+
+/**
+ * Counters and stage timings for one processor: the HTTP round trip to the first byte of the response, decoding of the
+ * response, GeoEvent creation and sending, plus the number of GeoEvents lost along the way. Registered as an MXBean
+ * under com.esri.geoevent.processor.geonames:type=&lt;processor&gt;,name=&lt;id&gt; while the processor is running.
+ */
+public class GeoNamesMetrics implements GeoNamesMetricsMXBean
+{
+	public static final String							JMX_DOMAIN					= "com.esri.geoevent.processor.geonames";
+	private static final double							NANOS_PER_MILLI			= 1e6;
+	private static final BundleLogger				LOGGER							= BundleLoggerFactory.getLogger(GeoNamesMetrics.class);
+
+	private final AtomicLong								eventsReceived			= new AtomicLong();
+	private final AtomicLong								lookups							= new AtomicLong();
+	private final AtomicLong								lookupFailures			= new AtomicLong();
+	private final AtomicLong								requests						= new AtomicLong();
+	private final AtomicLong								rowsReceived				= new AtomicLong();
+	private final AtomicLong								eventsCreated				= new AtomicLong();
+	private final AtomicLong								eventsSent					= new AtomicLong();
+	private final AtomicLong								fieldFailures				= new AtomicLong();
+	private final AtomicLong								creationFailures		= new AtomicLong();
+	private final AtomicLong								sendFailures				= new AtomicLong();
+	private final GeoNamesHistogram					httpLatency					= new GeoNamesHistogram();
+	private final GeoNamesHistogram					parseTime						= new GeoNamesHistogram();
+	private final GeoNamesHistogram					createTime					= new GeoNamesHistogram();
+	private final GeoNamesHistogram					sendTime						= new GeoNamesHistogram();
+	private final GeoNamesHistogram					rowsPerResponse			= new GeoNamesHistogram();
+	private volatile GeoNamesLookupExecutor	queue;
+	private ObjectName											objectName;
+
+	public void eventReceived()
+	{
+		eventsReceived.incrementAndGet();
+	}
+
+	public void lookup()
+	{
+		lookups.incrementAndGet();
+	}
+
+	public void lookupFailed()
+	{
+		lookupFailures.incrementAndGet();
+	}
+
+	public void request()
+	{
+		requests.incrementAndGet();
+	}
+
+	public void recordHttpLatency(long nanos)
+	{
+		httpLatency.record(nanos);
+	}
+
+	public void recordParse(long nanos, int rows)
+	{
+		parseTime.record(nanos);
+		rowsPerResponse.record(rows);
+		rowsReceived.addAndGet(rows);
+	}
+
+	public void recordCreate(long nanos)
+	{
+		createTime.record(nanos);
+		eventsCreated.incrementAndGet();
+	}
+
+	public void recordSend(long nanos)
+	{
+		sendTime.record(nanos);
+		eventsSent.incrementAndGet();
+	}
+
+	/**
+	 * A field of an output GeoEvent was left empty or set to its fallback value because the row did not have it.
+	 */
+	public void fieldFailed()
+	{
+		fieldFailures.incrementAndGet();
+	}
+
+	public void fieldFailed(int count)
+	{
+		if (count > 0)
+			fieldFailures.addAndGet(count);
+	}
+
+	public void creationFailed()
+	{
+		creationFailures.incrementAndGet();
+	}
+
+	public void sendFailed()
+	{
+		sendFailures.incrementAndGet();
+	}
+
+	/**
+	 * Sets the asynchronous queue whose dropped GeoEvents are reported, or null in synchronous execution mode.
+	 */
+	public void setQueue(GeoNamesLookupExecutor queue)
+	{
+		this.queue = queue;
+	}
+
+	@Override
+	public long getEventsReceived()
+	{
+		return eventsReceived.get();
+	}
+
+	@Override
+	public long getLookups()
+	{
+		return lookups.get();
+	}
+
+	@Override
+	public long getLookupFailures()
+	{
+		return lookupFailures.get();
+	}
+
+	@Override
+	public long getRequests()
+	{
+		return requests.get();
+	}
+
+	@Override
+	public long getRowsReceived()
+	{
+		return rowsReceived.get();
+	}
+
+	@Override
+	public long getEventsCreated()
+	{
+		return eventsCreated.get();
+	}
+
+	@Override
+	public long getEventsSent()
+	{
+		return eventsSent.get();
+	}
+
+	@Override
+	public long getFieldFailures()
+	{
+		return fieldFailures.get();
+	}
+
+	@Override
+	public long getCreationFailures()
+	{
+		return creationFailures.get();
+	}
+
+	@Override
+	public long getSendFailures()
+	{
+		return sendFailures.get();
+	}
+
+	@Override
+	public long getQueueDropped()
+	{
+		GeoNamesLookupExecutor queue = this.queue;
+		return (queue != null) ? queue.getDroppedCount() : 0;
+	}
+
+	/**
+	 * Input GeoEvents dropped from a full queue plus output GeoEvents that could not be created or sent.
+	 */
+	@Override
+	public long getEventsDropped()
+	{
+		return getQueueDropped() + getCreationFailures() + getSendFailures();
+	}
+
+	@Override
+	public GeoNamesHistogramSnapshot getHttpLatency()
+	{
+		return httpLatency.snapshot(NANOS_PER_MILLI);
+	}
+
+	@Override
+	public GeoNamesHistogramSnapshot getParseTime()
+	{
+		return parseTime.snapshot(NANOS_PER_MILLI);
+	}
+
+	@Override
+	public GeoNamesHistogramSnapshot getCreateTime()
+	{
+		return createTime.snapshot(NANOS_PER_MILLI);
+	}
+
+	@Override
+	public GeoNamesHistogramSnapshot getSendTime()
+	{
+		return sendTime.snapshot(NANOS_PER_MILLI);
+	}
+
+	@Override
+	public GeoNamesHistogramSnapshot getRowsPerResponse()
+	{
+		return rowsPerResponse.snapshot(1);
+	}
+
+	@Override
+	public String getSummary()
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append("events=").append(getEventsReceived());
+		sb.append(" lookups=").append(getLookups());
+		sb.append(" requests=").append(getRequests());
+		sb.append(" failures=").append(getLookupFailures());
+		sb.append(" rows=").append(getRowsReceived());
+		sb.append(" created=").append(getEventsCreated());
+		sb.append(" sent=").append(getEventsSent());
+		sb.append(" dropped=").append(getEventsDropped());
+		sb.append(" fieldFailures=").append(getFieldFailures());
+		if (httpLatency.getCount() > 0)
+		{
+			sb.append(" http(ms)[").append(getHttpLatency()).append(']');
+			sb.append(" parse(ms)[").append(getParseTime()).append(']');
+			sb.append(" rows/response[").append(getRowsPerResponse()).append(']');
+		}
+		if (createTime.getCount() > 0)
+			sb.append(" create(ms)[").append(getCreateTime()).append(']');
+		if (sendTime.getCount() > 0)
+			sb.append(" send(ms)[").append(getSendTime()).append(']');
+		return sb.toString();
+	}
+
+	@Override
+	public void reset()
+	{
+		eventsReceived.set(0);
+		lookups.set(0);
+		lookupFailures.set(0);
+		requests.set(0);
+		rowsReceived.set(0);
+		eventsCreated.set(0);
+		eventsSent.set(0);
+		fieldFailures.set(0);
+		creationFailures.set(0);
+		sendFailures.set(0);
+		httpLatency.reset();
+		parseTime.reset();
+		createTime.reset();
+		sendTime.reset();
+		rowsPerResponse.reset();
+	}
+
+	/**
+	 * Registers these metrics with the platform MBean server, replacing any registered under the same name.
+	 */
+	public synchronized void register(String type, String id)
+	{
+		unregister();
+		try
+		{
+			ObjectName name = new ObjectName(JMX_DOMAIN + ":type=" + ObjectName.quote(type) + ",name=" + ObjectName.quote(String.valueOf(id)));
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(name))
+				server.unregisterMBean(name);
+			server.registerMBean(this, name);
+			objectName = name;
+		}
+		catch (JMException e)
+		{
+			LOGGER.warn("METRICS_REGISTRATION_FAILURE", id, e.getMessage());
+			LOGGER.debug(e.getMessage(), e);
+		}
+	}
+
+	public synchronized void unregister()
+	{
+		if (objectName == null)
+			return;
+		try
+		{
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+		}
+		catch (JMException e)
+		{
+			LOGGER.debug(e.getMessage(), e);
+		}
+		objectName = null;
+	}
+}
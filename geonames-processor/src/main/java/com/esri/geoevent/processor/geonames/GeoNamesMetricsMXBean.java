@@ -0,0 +1,70 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+/**
+ * The JMX view of a processor's {@link GeoNamesMetrics}. Times are in milliseconds and counts are totals since the
+ * processor started or since the last reset.
+ */
+public interface GeoNamesMetricsMXBean
+{
+	long getEventsReceived();
+
+	long getLookups();
+
+	long getLookupFailures();
+
+	long getRequests();
+
+	long getRowsReceived();
+
+	long getEventsCreated();
+
+	long getEventsSent();
+
+	long getFieldFailures();
+
+	long getCreationFailures();
+
+	long getSendFailures();
+
+	long getQueueDropped();
+
+	long getEventsDropped();
+
+	GeoNamesHistogramSnapshot getHttpLatency();
+
+	GeoNamesHistogramSnapshot getParseTime();
+
+	GeoNamesHistogramSnapshot getCreateTime();
+
+	GeoNamesHistogramSnapshot getSendTime();
+
+	GeoNamesHistogramSnapshot getRowsPerResponse();
+
+	String getSummary();
+
+	void reset();
+}
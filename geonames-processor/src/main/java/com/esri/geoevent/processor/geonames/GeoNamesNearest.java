@@ -0,0 +1,142 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the maxRows nearest candidates offered to it, using a bounded max-heap on distance so that only the current
+ * best candidates are ever held. Candidates are identified by a long so that callers can defer building result rows
+ * until the winners are known.
+ */
+public class GeoNamesNearest
+{
+	private final int				maxRows;
+	private long[]					ids;
+	private double[]				distances;
+	private int							size;
+
+	public GeoNamesNearest(int maxRows)
+	{
+		this.maxRows = Math.max(0, maxRows);
+		int capacity = Math.min(this.maxRows, 64);
+		this.ids = new long[capacity];
+		this.distances = new double[capacity];
+	}
+
+	/**
+	 * Returns the distance a candidate has to beat to be kept, or infinity while there is still room.
+	 */
+	public double getThreshold()
+	{
+		return (size < maxRows) ? Double.POSITIVE_INFINITY : distances[0];
+	}
+
+	public void offer(long id, double distance)
+	{
+		if (maxRows == 0)
+			return;
+		if (size < maxRows)
+		{
+			if (size == ids.length)
+			{
+				int capacity = Math.min(maxRows, ids.length * 2);
+				ids = Arrays.copyOf(ids, capacity);
+				distances = Arrays.copyOf(distances, capacity);
+			}
+			ids[size] = id;
+			distances[size] = distance;
+			siftUp(size++);
+		}
+		else if (distance < distances[0])
+		{
+			ids[0] = id;
+			distances[0] = distance;
+			siftDown(0);
+		}
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Empties the heap, returning the ids nearest first. The distances are returned in the same order in the array
+	 * passed in, which must have room for {@link #size()} values.
+	 */
+	public long[] drainSorted(double[] sortedDistances)
+	{
+		int n = size;
+		long[] sortedIds = new long[n];
+		for (int i = n - 1; i >= 0; i--)
+		{
+			sortedIds[i] = ids[0];
+			sortedDistances[i] = distances[0];
+			size--;
+			ids[0] = ids[size];
+			distances[0] = distances[size];
+			siftDown(0);
+		}
+		return sortedIds;
+	}
+
+	private void siftUp(int i)
+	{
+		while (i > 0)
+		{
+			int parent = (i - 1) >>> 1;
+			if (distances[parent] >= distances[i])
+				break;
+			swap(i, parent);
+			i = parent;
+		}
+	}
+
+	private void siftDown(int i)
+	{
+		while (true)
+		{
+			int left = 2 * i + 1;
+			if (left >= size)
+				return;
+			int largest = (left + 1 < size && distances[left + 1] > distances[left]) ? left + 1 : left;
+			if (distances[i] >= distances[largest])
+				return;
+			swap(i, largest);
+			i = largest;
+		}
+	}
+
+	private void swap(int a, int b)
+	{
+		long id = ids[a];
+		ids[a] = ids[b];
+		ids[b] = id;
+		double distance = distances[a];
+		distances[a] = distances[b];
+		distances[b] = distance;
+	}
+}
@@ -0,0 +1,105 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import java.io.IOException;
+
+import com.esri.ges.framework.i18n.BundleLogger;
+import com.esri.ges.framework.i18n.BundleLoggerFactory;
+
+/**
+ * Looks up the OpenStreetmap Points of Interest near a GeoEvent.
+ */
+class GeoNamesOSMPOIEnrichment extends GeoNamesEnrichment
+{
+	private static final BundleLogger	LOGGER		= BundleLoggerFactory.getLogger(GeoNamesOSMPOIEnrichment.class);
+
+	private volatile double						geoNamesNearbyOSMPOIsRadius;
+	private volatile int							geoNamesNearbyOSMPOIsMaxRows;
+	private String										geoNamesOSMPOIsSource;
+	private String										geoNamesOSMPOIsIndexFile;
+
+	GeoNamesOSMPOIEnrichment(GeoNamesProcessorBase processor, String fieldMappingProperty)
+	{
+		super(processor, "GeoNamesOSMPOI", fieldMappingProperty);
+	}
+
+	@Override
+	public String getLabel()
+	{
+		return "OSM POI";
+	}
+
+	@Override
+	protected GeoNamesQuery createQuery(double lat, double lon)
+	{
+		return new GeoNamesQuery(GeoNamesService.OSM_POI, lat, lon, geoNamesNearbyOSMPOIsRadius, geoNamesNearbyOSMPOIsMaxRows, null);
+	}
+
+	@Override
+	protected GeoNamesFieldMapping compileFieldMapping(String specification)
+	{
+		return GeoNamesOSMPOIProcessorDefinition.compileFieldMapping(specification);
+	}
+
+	@Override
+	protected void configureService()
+	{
+		geoNamesNearbyOSMPOIsRadius = 1.0;
+		if (processor.hasProperty(GeoNamesOSMPOIProcessorDefinition.GEONAMES_OSMPOIsRADIUS_PROPERTY))
+		{
+			geoNamesNearbyOSMPOIsRadius = (double) processor.getProperty(GeoNamesOSMPOIProcessorDefinition.GEONAMES_OSMPOIsRADIUS_PROPERTY).getValue();
+		}
+		geoNamesNearbyOSMPOIsMaxRows = 50;
+		if (processor.hasProperty(GeoNamesOSMPOIProcessorDefinition.GEONAMES_OSMPOIsMAXROWS_PROPERTY))
+		{
+			geoNamesNearbyOSMPOIsMaxRows = (int) processor.getProperty(GeoNamesOSMPOIProcessorDefinition.GEONAMES_OSMPOIsMAXROWS_PROPERTY).getValue();
+		}
+		geoNamesOSMPOIsSource = GeoNamesOSMPOIProcessorDefinition.OSMPOIs_SOURCE_WEB_SERVICE;
+		if (processor.hasProperty(GeoNamesOSMPOIProcessorDefinition.GEONAMES_OSMPOIsSOURCE_PROPERTY))
+		{
+			geoNamesOSMPOIsSource = processor.getProperty(GeoNamesOSMPOIProcessorDefinition.GEONAMES_OSMPOIsSOURCE_PROPERTY).getValueAsString();
+		}
+		geoNamesOSMPOIsIndexFile = "";
+		if (processor.hasProperty(GeoNamesOSMPOIProcessorDefinition.GEONAMES_OSMPOIsINDEXFILE_PROPERTY))
+		{
+			geoNamesOSMPOIsIndexFile = processor.getProperty(GeoNamesOSMPOIProcessorDefinition.GEONAMES_OSMPOIsINDEXFILE_PROPERTY).getValueAsString();
+		}
+		GeoNamesLocalIndex localIndex = null;
+		if (GeoNamesOSMPOIProcessorDefinition.OSMPOIs_SOURCE_LOCAL_INDEX.equals(geoNamesOSMPOIsSource))
+		{
+			try
+			{
+				localIndex = GeoNamesOSMPOIIndex.forFile(geoNamesOSMPOIsIndexFile);
+			}
+			catch (IOException e)
+			{
+				LOGGER.error("OSMPOI_INDEX_LOAD_FAILURE", geoNamesOSMPOIsIndexFile, e.getMessage());
+				LOGGER.debug(e.getMessage(), e);
+			}
+		}
+		lookup.setLocalIndex(localIndex);
+	}
+}
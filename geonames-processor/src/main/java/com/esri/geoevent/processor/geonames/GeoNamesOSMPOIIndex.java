@@ -0,0 +1,305 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Memory-mapped index of OpenStreetMap points of interest, answering the same nearby queries as the findNearbyPOIsOSM
+ * web service. The file is written by {@link GeoNamesOSMPOIIndexBuilder}.
+ * 
+ * Layout (big endian):
+ * <ul>
+ * <li>header: magic, version, record count, reserved (4 ints) and the offset of the string area (long);</li>
+ * <li>records sorted by Morton (Z-order) code, each holding the code (long), latitude and longitude in 1e-7 degrees
+ * (ints) and the string offsets of name, typeClass and typeName (ints, -1 when absent);</li>
+ * <li>string area: each distinct string once, as an unsigned short byte length followed by its UTF-8 bytes.</li>
+ * </ul>
+ * Points close to each other are close in the file, so a query only binary searches and scans the few Z-order ranges
+ * covering its search box. Nothing but the records it returns is read onto the heap.
+ */
+public class GeoNamesOSMPOIIndex implements GeoNamesLocalIndex
+{
+	static final int																	MAGIC						= 0x474E504F;
+	static final int																	VERSION					= 1;
+	static final int																	HEADER_SIZE			= 24;
+	static final int																	RECORD_SIZE			= 28;
+	static final int																	BITS_PER_AXIS		= 31;
+	static final double																E7							= 1e7;
+
+	private static final int													MAX_RANGES			= 64;
+	private static final Charset											UTF8						= Charset.forName("UTF-8");
+	private static final Map<String, GeoNamesOSMPOIIndex>	INDEXES					= new HashMap<String, GeoNamesOSMPOIIndex>();
+
+	private final String															path;
+	private final long																lastModified;
+	private final MappedByteBuffer										buffer;
+	private final int																	count;
+	private final int																	stringsOffset;
+
+	GeoNamesOSMPOIIndex(File file) throws IOException
+	{
+		this.path = file.getAbsolutePath();
+		this.lastModified = file.lastModified();
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try
+		{
+			FileChannel channel = raf.getChannel();
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException("OSM POI index " + path + " is larger than 2GB.");
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		finally
+		{
+			raf.close();
+		}
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+			throw new IOException(path + " is not an OSM POI index file.");
+		if (buffer.getInt(4) != VERSION)
+			throw new IOException("Unsupported OSM POI index version " + buffer.getInt(4) + " in " + path + ".");
+		count = buffer.getInt(8);
+		stringsOffset = (int) buffer.getLong(16);
+		if (stringsOffset != HEADER_SIZE + (long) count * RECORD_SIZE || stringsOffset > buffer.capacity())
+			throw new IOException("OSM POI index " + path + " is truncated.");
+	}
+
+	/**
+	 * Returns the index for the file, mapping it the first time or whenever the file has changed since. Processors
+	 * configured with the same file share one mapping.
+	 */
+	public static GeoNamesOSMPOIIndex forFile(String path) throws IOException
+	{
+		File file = new File(path);
+		if (!file.isFile())
+			throw new IOException("OSM POI index file " + path + " does not exist.");
+		synchronized (INDEXES)
+		{
+			GeoNamesOSMPOIIndex index = INDEXES.get(file.getAbsolutePath());
+			if (index == null || index.lastModified != file.lastModified())
+			{
+				index = new GeoNamesOSMPOIIndex(file);
+				INDEXES.put(file.getAbsolutePath(), index);
+			}
+			return index;
+		}
+	}
+
+	static int quantizeLat(double lat)
+	{
+		return (int) Math.min((1L << BITS_PER_AXIS) - 1, (long) ((lat + 90.0) / 180.0 * (1L << BITS_PER_AXIS)));
+	}
+
+	static int quantizeLon(double lon)
+	{
+		return (int) Math.min((1L << BITS_PER_AXIS) - 1, (long) ((lon + 180.0) / 360.0 * (1L << BITS_PER_AXIS)));
+	}
+
+	/**
+	 * Interleaves the bits of the quantized longitude (even bits) and latitude (odd bits).
+	 */
+	static long morton(int x, int y)
+	{
+		return spread(x) | (spread(y) << 1);
+	}
+
+	private static long spread(int value)
+	{
+		long v = value & 0xFFFFFFFFL;
+		v = (v | (v << 16)) & 0x0000FFFF0000FFFFL;
+		v = (v | (v << 8)) & 0x00FF00FF00FF00FFL;
+		v = (v | (v << 4)) & 0x0F0F0F0F0F0F0F0FL;
+		v = (v | (v << 2)) & 0x3333333333333333L;
+		v = (v | (v << 1)) & 0x5555555555555555L;
+		return v;
+	}
+
+	@Override
+	public int size()
+	{
+		return count;
+	}
+
+	public String getPath()
+	{
+		return path;
+	}
+
+	@Override
+	public List<GeoNamesRow> find(GeoNamesQuery query)
+	{
+		double radius = query.getRadius();
+		double dLat = Math.toDegrees(radius / GeoHash.EARTH_RADIUS_KM);
+		// a search circle reaching a pole takes in every longitude
+		double maxAbsLat = Math.abs(query.getLat()) + dLat;
+		double dLon = (maxAbsLat >= 90) ? 180.0 : Math.min(180.0, dLat / Math.max(Math.cos(Math.toRadians(maxAbsLat)), 1e-6));
+
+		ByteBuffer records = buffer.duplicate();
+		GeoNamesNearest nearest = new GeoNamesNearest(query.getMaxRows());
+		double minLat = Math.max(-90, query.getLat() - dLat);
+		double maxLat = Math.min(90, query.getLat() + dLat);
+		double minLon = query.getLon() - dLon;
+		double maxLon = query.getLon() + dLon;
+		if (dLon >= 180)
+		{
+			search(records, query, minLat, maxLat, -180, 180, nearest);
+		}
+		else
+		{
+			search(records, query, minLat, maxLat, Math.max(-180, minLon), Math.min(180, maxLon), nearest);
+			// the search box crosses the antimeridian
+			if (minLon < -180)
+				search(records, query, minLat, maxLat, minLon + 360, 180, nearest);
+			if (maxLon > 180)
+				search(records, query, minLat, maxLat, -180, maxLon - 360, nearest);
+		}
+
+		int n = nearest.size();
+		double[] distances = new double[n];
+		long[] ids = nearest.drainSorted(distances);
+		List<GeoNamesRow> result = new ArrayList<GeoNamesRow>(n);
+		for (int i = 0; i < n; i++)
+			result.add(readRow(records, (int) ids[i], distances[i]));
+		return Collections.unmodifiableList(result);
+	}
+
+	private void search(ByteBuffer records, GeoNamesQuery query, double minLat, double maxLat, double minLon, double maxLon, GeoNamesNearest nearest)
+	{
+		int x0 = quantizeLon(minLon), x1 = quantizeLon(maxLon);
+		int y0 = quantizeLat(minLat), y1 = quantizeLat(maxLat);
+		int minLatE7 = (int) Math.floor(minLat * E7), maxLatE7 = (int) Math.ceil(maxLat * E7);
+		int minLonE7 = (int) Math.floor(minLon * E7), maxLonE7 = (int) Math.ceil(maxLon * E7);
+
+		// pick the finest grid level at which the box is still covered by a handful of cells
+		int level = 0;
+		while (level < BITS_PER_AXIS)
+		{
+			int shift = BITS_PER_AXIS - (level + 1);
+			long cells = (long) ((x1 >>> shift) - (x0 >>> shift) + 1) * ((y1 >>> shift) - (y0 >>> shift) + 1);
+			if (cells > MAX_RANGES)
+				break;
+			level++;
+		}
+		int shift = BITS_PER_AXIS - level;
+		for (int cy = y0 >>> shift; cy <= y1 >>> shift; cy++)
+		{
+			for (int cx = x0 >>> shift; cx <= x1 >>> shift; cx++)
+			{
+				long low = morton(cx << shift, cy << shift);
+				long high = low | ((1L << (2 * shift)) - 1);
+				for (int i = lowerBound(records, low); i < count; i++)
+				{
+					int offset = HEADER_SIZE + i * RECORD_SIZE;
+					if (records.getLong(offset) > high)
+						break;
+					int latE7 = records.getInt(offset + 8);
+					int lonE7 = records.getInt(offset + 12);
+					if (latE7 < minLatE7 || latE7 > maxLatE7 || lonE7 < minLonE7 || lonE7 > maxLonE7)
+						continue;
+					double distance = GeoHash.distanceKm(query.getLat(), query.getLon(), latE7 / E7, lonE7 / E7);
+					if (distance <= query.getRadius() && distance < nearest.getThreshold())
+						nearest.offer(i, distance);
+				}
+			}
+		}
+	}
+
+	private int lowerBound(ByteBuffer records, long code)
+	{
+		int low = 0, high = count;
+		while (low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if (records.getLong(HEADER_SIZE + mid * RECORD_SIZE) < code)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	private GeoNamesRow readRow(ByteBuffer records, int i, double distance)
+	{
+		int offset = HEADER_SIZE + i * RECORD_SIZE;
+		double lat = records.getInt(offset + 8) / E7;
+		double lng = records.getInt(offset + 12) / E7;
+		String name = readString(records, records.getInt(offset + 16));
+		String typeClass = readString(records, records.getInt(offset + 20));
+		String typeName = readString(records, records.getInt(offset + 24));
+
+		List<String> names = new ArrayList<String>(6);
+		List<Object> values = new ArrayList<Object>(6);
+		if (typeName != null)
+		{
+			names.add("typeName");
+			values.add(typeName);
+		}
+		names.add("distance");
+		values.add(distance);
+		if (name != null)
+		{
+			names.add("name");
+			values.add(name);
+		}
+		names.add("lng");
+		values.add(lng);
+		if (typeClass != null)
+		{
+			names.add("typeClass");
+			values.add(typeClass);
+		}
+		names.add("lat");
+		values.add(lat);
+		return new GeoNamesRow(names.toArray(new String[names.size()]), values.toArray());
+	}
+
+	private String readString(ByteBuffer records, int stringOffset)
+	{
+		if (stringOffset < 0)
+			return null;
+		int position = stringsOffset + stringOffset;
+		int length = records.getShort(position) & 0xFFFF;
+		byte[] bytes = new byte[length];
+		records.position(position + 2);
+		records.get(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	@Override
+	public String toString()
+	{
+		return "GeoNamesOSMPOIIndex[" + path + ", " + count + " points of interest]";
+	}
+}
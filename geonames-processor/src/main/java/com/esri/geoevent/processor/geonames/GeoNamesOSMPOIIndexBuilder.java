@@ -0,0 +1,309 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Offline tool converting an OpenStreetMap point of interest extract into the memory-mapped file read by
+ * {@link GeoNamesOSMPOIIndex}.
+ * 
+ * The input is tab separated UTF-8 text whose first line names the columns, for example the output of
+ * <code>osmconvert --csv="@lat @lon name amenity shop tourism" --csv-headline --csv-separator="\t"</code>. Latitude and
+ * longitude come from the lat/@lat and lng/lon/@lon columns and the name from the name column. The typeClass and
+ * typeName come from columns of those names when present, otherwise from the first other non-empty column, whose
+ * header becomes the typeClass (amenity) and whose value the typeName (restaurant).
+ * 
+ * <pre>
+ * java -cp geonames-processor.jar com.esri.geoevent.processor.geonames.GeoNamesOSMPOIIndexBuilder extract.tsv pois.idx
+ * </pre>
+ */
+public class GeoNamesOSMPOIIndexBuilder
+{
+	private static final Charset				UTF8						= Charset.forName("UTF-8");
+	private static final int						MAX_STRING_BYTES	= 0xFFFF;
+
+	private long[]											codes						= new long[1024];
+	private int[]												latsE7					= new int[1024];
+	private int[]												lonsE7					= new int[1024];
+	private int[]												nameIds					= new int[1024];
+	private int[]												typeClassIds		= new int[1024];
+	private int[]												typeNameIds			= new int[1024];
+	private int													count;
+
+	private final Map<String, Integer>	stringIds				= new HashMap<String, Integer>();
+	private final List<byte[]>					strings					= new ArrayList<byte[]>();
+
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length != 2)
+		{
+			System.err.println("Usage: GeoNamesOSMPOIIndexBuilder <extract.tsv> <index file>");
+			System.exit(1);
+		}
+		GeoNamesOSMPOIIndexBuilder builder = new GeoNamesOSMPOIIndexBuilder();
+		builder.read(new File(args[0]));
+		builder.write(new File(args[1]));
+		System.out.println("Indexed " + builder.count + " points of interest into " + args[1]);
+	}
+
+	public void read(File extract) throws IOException
+	{
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(extract), UTF8));
+		try
+		{
+			String header = reader.readLine();
+			if (header == null)
+				return;
+			String[] columns = header.split("\t", -1);
+			int latColumn = -1, lonColumn = -1, nameColumn = -1, typeClassColumn = -1, typeNameColumn = -1;
+			for (int i = 0; i < columns.length; i++)
+			{
+				String column = columns[i].trim();
+				if (column.equals("lat") || column.equals("@lat"))
+					latColumn = i;
+				else if (column.equals("lng") || column.equals("lon") || column.equals("@lon"))
+					lonColumn = i;
+				else if (column.equals("name"))
+					nameColumn = i;
+				else if (column.equals("typeClass"))
+					typeClassColumn = i;
+				else if (column.equals("typeName"))
+					typeNameColumn = i;
+				columns[i] = column;
+			}
+			if (latColumn == -1 || lonColumn == -1)
+				throw new IOException("The extract header must name a latitude (lat or @lat) and a longitude (lng, lon or @lon) column.");
+
+			String line;
+			while ((line = reader.readLine()) != null)
+			{
+				String[] values = line.split("\t", -1);
+				if (values.length <= Math.max(latColumn, lonColumn))
+					continue;
+				double lat, lon;
+				try
+				{
+					lat = Double.parseDouble(values[latColumn]);
+					lon = Double.parseDouble(values[lonColumn]);
+				}
+				catch (NumberFormatException e)
+				{
+					continue;
+				}
+				if (lat < -90 || lat > 90 || lon < -180 || lon > 180)
+					continue;
+
+				String typeClass = value(values, typeClassColumn);
+				String typeName = value(values, typeNameColumn);
+				if (typeClass == null && typeName == null)
+				{
+					for (int i = 0; i < values.length && i < columns.length; i++)
+					{
+						if (i == latColumn || i == lonColumn || i == nameColumn || columns[i].startsWith("@") || values[i].isEmpty())
+							continue;
+						typeClass = columns[i];
+						typeName = values[i];
+						break;
+					}
+				}
+				add(lat, lon, value(values, nameColumn), typeClass, typeName);
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+
+	public void add(double lat, double lon, String name, String typeClass, String typeName)
+	{
+		if (count == codes.length)
+		{
+			int capacity = count * 2;
+			codes = Arrays.copyOf(codes, capacity);
+			latsE7 = Arrays.copyOf(latsE7, capacity);
+			lonsE7 = Arrays.copyOf(lonsE7, capacity);
+			nameIds = Arrays.copyOf(nameIds, capacity);
+			typeClassIds = Arrays.copyOf(typeClassIds, capacity);
+			typeNameIds = Arrays.copyOf(typeNameIds, capacity);
+		}
+		codes[count] = GeoNamesOSMPOIIndex.morton(GeoNamesOSMPOIIndex.quantizeLon(lon), GeoNamesOSMPOIIndex.quantizeLat(lat));
+		latsE7[count] = (int) Math.round(lat * GeoNamesOSMPOIIndex.E7);
+		lonsE7[count] = (int) Math.round(lon * GeoNamesOSMPOIIndex.E7);
+		nameIds[count] = stringId(name);
+		typeClassIds[count] = stringId(typeClass);
+		typeNameIds[count] = stringId(typeName);
+		count++;
+	}
+
+	public void write(File indexFile) throws IOException
+	{
+		sort(0, count - 1);
+
+		int[] stringOffsets = new int[strings.size()];
+		long stringsSize = 0;
+		for (int i = 0; i < strings.size(); i++)
+		{
+			stringOffsets[i] = (int) stringsSize;
+			stringsSize += 2 + strings.get(i).length;
+		}
+		long stringsOffset = GeoNamesOSMPOIIndex.HEADER_SIZE + (long) count * GeoNamesOSMPOIIndex.RECORD_SIZE;
+		if (stringsOffset + stringsSize > Integer.MAX_VALUE)
+			throw new IOException("The extract is too large for a single OSM POI index file (2GB).");
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile), 1 << 16));
+		try
+		{
+			out.writeInt(GeoNamesOSMPOIIndex.MAGIC);
+			out.writeInt(GeoNamesOSMPOIIndex.VERSION);
+			out.writeInt(count);
+			out.writeInt(0);
+			out.writeLong(stringsOffset);
+			for (int i = 0; i < count; i++)
+			{
+				out.writeLong(codes[i]);
+				out.writeInt(latsE7[i]);
+				out.writeInt(lonsE7[i]);
+				out.writeInt(nameIds[i] == -1 ? -1 : stringOffsets[nameIds[i]]);
+				out.writeInt(typeClassIds[i] == -1 ? -1 : stringOffsets[typeClassIds[i]]);
+				out.writeInt(typeNameIds[i] == -1 ? -1 : stringOffsets[typeNameIds[i]]);
+			}
+			for (byte[] bytes : strings)
+			{
+				out.writeShort(bytes.length);
+				out.write(bytes);
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	public int getCount()
+	{
+		return count;
+	}
+
+	private static String value(String[] values, int column)
+	{
+		if (column == -1 || column >= values.length || values[column].isEmpty())
+			return null;
+		return values[column];
+	}
+
+	/**
+	 * Each distinct string is stored once; the type classes and names in particular repeat for almost every record.
+	 */
+	private int stringId(String value)
+	{
+		if (value == null)
+			return -1;
+		Integer id = stringIds.get(value);
+		if (id == null)
+		{
+			byte[] bytes = value.getBytes(UTF8);
+			if (bytes.length > MAX_STRING_BYTES)
+				bytes = Arrays.copyOf(bytes, MAX_STRING_BYTES);
+			id = strings.size();
+			strings.add(bytes);
+			stringIds.put(value, id);
+		}
+		return id;
+	}
+
+	/**
+	 * Sorts the parallel record arrays by Morton code.
+	 */
+	private void sort(int left, int right)
+	{
+		while (right - left > 16)
+		{
+			long pivot = codes[(left + right) >>> 1];
+			int i = left, j = right;
+			while (i <= j)
+			{
+				while (codes[i] < pivot)
+					i++;
+				while (codes[j] > pivot)
+					j--;
+				if (i <= j)
+					swap(i++, j--);
+			}
+			// recurse into the smaller half to bound the stack depth
+			if (j - left < right - i)
+			{
+				sort(left, j);
+				left = i;
+			}
+			else
+			{
+				sort(i, right);
+				right = j;
+			}
+		}
+		for (int i = left + 1; i <= right; i++)
+		{
+			for (int j = i; j > left && codes[j - 1] > codes[j]; j--)
+				swap(j, j - 1);
+		}
+	}
+
+	private void swap(int a, int b)
+	{
+		long code = codes[a];
+		codes[a] = codes[b];
+		codes[b] = code;
+		int value = latsE7[a];
+		latsE7[a] = latsE7[b];
+		latsE7[b] = value;
+		value = lonsE7[a];
+		lonsE7[a] = lonsE7[b];
+		lonsE7[b] = value;
+		value = nameIds[a];
+		nameIds[a] = nameIds[b];
+		nameIds[b] = value;
+		value = typeClassIds[a];
+		typeClassIds[a] = typeClassIds[b];
+		typeClassIds[b] = value;
+		value = typeNameIds[a];
+		typeNameIds[a] = typeNameIds[b];
+		typeNameIds[b] = value;
+	}
+}
@@ -29,51 +29,24 @@ import java.util.List;
 
 import com.esri.ges.core.ConfigurationException;
 import com.esri.ges.core.geoevent.DefaultFieldDefinition;
-import com.esri.ges.core.geoevent.DefaultGeoEventDefinition;
 import com.esri.ges.core.geoevent.FieldDefinition;
 import com.esri.ges.core.geoevent.FieldType;
-import com.esri.ges.core.geoevent.GeoEventDefinition;
-import com.esri.ges.core.property.PropertyDefinition;
 import com.esri.ges.core.property.PropertyException;
-import com.esri.ges.core.property.PropertyType;
-import com.esri.ges.processor.GeoEventProcessorDefinitionBase;
 
-public class GeoNamesOSMPOIProcessorDefinition extends GeoEventProcessorDefinitionBase
+public class GeoNamesOSMPOIProcessorDefinition extends GeoNamesProcessorDefinitionBase
 {
-
-	protected static final String	GEONAMES_USERNAME_PROPERTY				= "geoNamesUsername";
-	protected static final String	GEONAMES_OSMPOIsRADIUS_PROPERTY		= "geoNamesOSMPOIsRadius";
-	protected static final String	GEONAMES_OSMPOIsMAXROWS_PROPERTY	= "geoNamesOSMPOIsMaxRows";
-
 	public GeoNamesOSMPOIProcessorDefinition()
 	{
 		try
 		{
-			PropertyDefinition geoNamesUsernameProperty = new PropertyDefinition(GEONAMES_USERNAME_PROPERTY, PropertyType.String, "", "GeoNames Username (optional)", "If you purchased GeoNames Premium services, enter your username. If blank, a more limited free account will be used.", false, false);
-			propertyDefinitions.put(GEONAMES_USERNAME_PROPERTY, geoNamesUsernameProperty);
-
-			PropertyDefinition geoNamesOSMPOIsRadiusProperty = new PropertyDefinition(GEONAMES_OSMPOIsRADIUS_PROPERTY, PropertyType.Double, 1, "GeoNames OpenStreetmap POI Search Radius (Km)", "The distance from the geoevent's location within which to search for OpenStreetmap Points of Interest. Max for a free account = 1, max for a premium account = 3.", true, false);
-			propertyDefinitions.put(GEONAMES_OSMPOIsRADIUS_PROPERTY, geoNamesOSMPOIsRadiusProperty);
-
-			PropertyDefinition geoNamesOSMPOIsMaxRowsProperty = new PropertyDefinition(GEONAMES_OSMPOIsMAXROWS_PROPERTY, PropertyType.Integer, 50, "GeoNames OpenStreetmap POI Max Rows", "The maximum number of OpenStreetmap Points of Interest to return. Max for a free account = 50, max for a premium account = 150.", true, false);
-			propertyDefinitions.put(GEONAMES_OSMPOIsMAXROWS_PROPERTY, geoNamesOSMPOIsMaxRowsProperty);
-
-			GeoEventDefinition ged = new DefaultGeoEventDefinition();
-			ged.setName("GeoNamesOSMPOI");
-			List<FieldDefinition> fds = new ArrayList<FieldDefinition>();
-			fds.add(new DefaultFieldDefinition("trackId", FieldType.String, "TRACK_ID"));
-			fds.add(new DefaultFieldDefinition("timestamp", FieldType.Date, "TIME_START"));
-			fds.add(new DefaultFieldDefinition("incidentId", FieldType.String));
-			fds.add(new DefaultFieldDefinition("typeName", FieldType.String));
-			fds.add(new DefaultFieldDefinition("distance", FieldType.Double));
-			fds.add(new DefaultFieldDefinition("name", FieldType.String));
-			fds.add(new DefaultFieldDefinition("lng", FieldType.Double));
-			fds.add(new DefaultFieldDefinition("typeClass", FieldType.String));
-			fds.add(new DefaultFieldDefinition("lat", FieldType.Double));
-			fds.add(new DefaultFieldDefinition("geometry", FieldType.Geometry, "GEOMETRY"));
-			ged.setFieldDefinitions(fds);
-			geoEventDefinitions.put(ged.getName(), ged);
+			addAccountPropertyDefinitions();
+			addOSMPOIPropertyDefinitions();
 
+			addLookupPropertyDefinitions("points of interest", "GeoNamesOSMPOI", "GeoNamesOSMPOIAggregated");
+			addFieldMappingPropertyDefinition(GEONAMES_FIELD_MAPPING_PROPERTY, "GeoNames Field Mapping", "name=typeName to fill name from typeName");
+			addExecutionPropertyDefinitions();
+
+			addOutputGeoEventDefinitions("GeoNamesOSMPOI", resultFieldDefinitions());
 		}
 		catch (PropertyException ex)
 		{
@@ -86,6 +59,39 @@ public class GeoNamesOSMPOIProcessorDefinition extends GeoEventProcessorDefiniti
 		}
 	}
 
+	/**
+	 * The fields describing one point of interest, shared by the per-result GeoEvent and the groups of the aggregated one.
+	 */
+	static List<FieldDefinition> resultFieldDefinitions() throws ConfigurationException
+	{
+		List<FieldDefinition> fds = new ArrayList<FieldDefinition>();
+		fds.add(new DefaultFieldDefinition("typeName", FieldType.String));
+		fds.add(new DefaultFieldDefinition("distance", FieldType.Double));
+		fds.add(new DefaultFieldDefinition("name", FieldType.String));
+		fds.add(new DefaultFieldDefinition("lng", FieldType.Double));
+		fds.add(new DefaultFieldDefinition("typeClass", FieldType.String));
+		fds.add(new DefaultFieldDefinition("lat", FieldType.Double));
+		return fds;
+	}
+
+	/**
+	 * Compiles the mapping from a GeoNames point of interest row to the result fields.
+	 * 
+	 * @param specification the outputField=responseField overrides, or null for none.
+	 * @throws IllegalArgumentException if the specification is invalid.
+	 */
+	static GeoNamesFieldMapping compileFieldMapping(String specification)
+	{
+		try
+		{
+			return GeoNamesFieldMapping.compile(resultFieldDefinitions(), specification, false, "lng", "lat", null);
+		}
+		catch (ConfigurationException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
 	@Override
 	public String getName()
 	{
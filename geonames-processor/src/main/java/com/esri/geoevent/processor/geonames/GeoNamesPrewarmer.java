@@ -0,0 +1,346 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+package com.esri.geoevent.processor.geonames;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONException;
+
+import com.esri.ges.framework.i18n.BundleLogger;
+import com.esri.ges.framework.i18n.BundleLoggerFactory;
+
+/**
+ * Fills the lookup cache for an area of interest in the background, so that GeoEvents inside it are answered from the
+ * cache instead of waiting for GeoNames. Each cache cell of the area is looked up once at its center, for every
+ * service of the processor, and looked up again shortly before its cache entry expires.
+ * 
+ * The requests pass the rate limiter of the account like any other lookup, and in addition a budget of their own, so
+ * that the crawl leaves credits for the live GeoEvents.
+ */
+class GeoNamesPrewarmer implements Runnable
+{
+	public static final int									DEFAULT_REQUESTS_PER_SECOND	= 2;
+	public static final int									DEFAULT_REQUESTS_PER_HOUR		= 500;
+	public static final int									DEFAULT_MAX_CELLS						= 1000;
+	public static final int									DEFAULT_REFRESH_AHEAD_PERCENT	= 20;
+
+	private static final BundleLogger				LOGGER											= BundleLoggerFactory.getLogger(GeoNamesPrewarmer.class);
+	private static final long								MIN_SLEEP_MILLIS						= 1000;
+
+	private final String										name;
+	private final Area											area;
+	private final List<GeoNamesEnrichment>	enrichments;
+	private final int												maxCells;
+	private final int												refreshAheadPercent;
+	private final GeoNamesRateLimiter				budget;
+	private final AtomicLong								cellCount										= new AtomicLong();
+	private final AtomicLong								passCount										= new AtomicLong();
+	private final AtomicLong								warmedCount									= new AtomicLong();
+	private final AtomicLong								refreshedCount							= new AtomicLong();
+	private final AtomicLong								failureCount								= new AtomicLong();
+	private volatile Thread									thread;
+
+	/**
+	 * @param enrichments the services to prewarm; those without a cache or answered from a local index are skipped.
+	 * @param maxCells the maximum number of cells crawled; cells past it are left to the live GeoEvents.
+	 * @param refreshAheadPercent how much of the cache time to live may remain before an entry is refreshed, or 0 to
+	 *          crawl the area only once.
+	 */
+	GeoNamesPrewarmer(String name, Area area, List<GeoNamesEnrichment> enrichments, int maxCells, int requestsPerSecond, int requestsPerHour, int refreshAheadPercent)
+	{
+		this.name = name;
+		this.area = area;
+		this.enrichments = new ArrayList<GeoNamesEnrichment>(enrichments);
+		this.maxCells = maxCells;
+		this.refreshAheadPercent = Math.max(0, Math.min(100, refreshAheadPercent));
+		this.budget = new GeoNamesRateLimiter(name);
+		this.budget.setLimits(requestsPerSecond, requestsPerHour);
+	}
+
+	public void start()
+	{
+		Thread thread = new Thread(this, name);
+		thread.setDaemon(true);
+		this.thread = thread;
+		thread.start();
+	}
+
+	public void stop()
+	{
+		Thread thread = this.thread;
+		this.thread = null;
+		if (thread != null)
+			thread.interrupt();
+	}
+
+	private boolean isStopped()
+	{
+		return thread != Thread.currentThread() || Thread.currentThread().isInterrupted();
+	}
+
+	@Override
+	public void run()
+	{
+		List<GeoNamesEnrichment> targets = new ArrayList<GeoNamesEnrichment>();
+		for (GeoNamesEnrichment enrichment : enrichments)
+		{
+			GeoNamesLookup lookup = enrichment.getLookup();
+			if (lookup.getCache() != null && lookup.getLocalIndex() == null)
+				targets.add(enrichment);
+		}
+		if (targets.isEmpty())
+			return;
+		// the services share the cache, so the cells of every service have to fit in it
+		GeoNamesLookup first = targets.get(0).getLookup();
+		int cells = Math.min(maxCells, first.getCache().getCapacity() / targets.size());
+		List<double[]> centers = area.getCellCenters(first.getCellPrecision(), cells + 1);
+		if (centers.size() > cells)
+		{
+			LOGGER.warn("PREWARM_AREA_TRUNCATED", cells);
+			centers = centers.subList(0, cells);
+		}
+		cellCount.set(centers.size());
+		long refreshAheadMillis = first.getCache().getTtlMillis() * refreshAheadPercent / 100;
+		while (!isStopped())
+		{
+			for (double[] center : centers)
+			{
+				for (GeoNamesEnrichment enrichment : targets)
+				{
+					if (isStopped())
+						return;
+					warm(enrichment, center[0], center[1], refreshAheadMillis);
+				}
+			}
+			passCount.incrementAndGet();
+			if (refreshAheadMillis <= 0)
+				return;
+			try
+			{
+				// an entry is at the latest refreshed half way into its refresh window
+				TimeUnit.MILLISECONDS.sleep(Math.max(MIN_SLEEP_MILLIS, refreshAheadMillis / 2));
+			}
+			catch (InterruptedException e)
+			{
+				return;
+			}
+		}
+	}
+
+	private void warm(GeoNamesEnrichment enrichment, double lat, double lon, long refreshAheadMillis)
+	{
+		GeoNamesLookup lookup = enrichment.getLookup();
+		GeoNamesLookupCache cache = lookup.getCache();
+		if (cache == null)
+			return;
+		GeoNamesQuery query = enrichment.createQuery(lat, lon);
+		long remainingMillis = cache.getRemainingMillis(lookup.getCacheKey(query));
+		if (remainingMillis > refreshAheadMillis)
+			return;
+		try
+		{
+			// nothing else shares the budget, the lookup itself is a routine request on the account
+			budget.acquire(true);
+			lookup.refresh(query);
+			if (remainingMillis > 0)
+				refreshedCount.incrementAndGet();
+			else
+				warmedCount.incrementAndGet();
+		}
+		catch (IOException e)
+		{
+			failureCount.incrementAndGet();
+			LOGGER.debug(e.getMessage(), e);
+		}
+		catch (JSONException e)
+		{
+			failureCount.incrementAndGet();
+			LOGGER.debug(e.getMessage(), e);
+		}
+	}
+
+	public long getCellCount()
+	{
+		return cellCount.get();
+	}
+
+	public long getPassCount()
+	{
+		return passCount.get();
+	}
+
+	public long getWarmedCount()
+	{
+		return warmedCount.get();
+	}
+
+	public long getRefreshedCount()
+	{
+		return refreshedCount.get();
+	}
+
+	public long getFailureCount()
+	{
+		return failureCount.get();
+	}
+
+	public String getStatistics()
+	{
+		return "cells=" + getCellCount() + " passes=" + getPassCount() + " warmed=" + getWarmedCount() + " refreshed=" + getRefreshedCount() + " failures=" + getFailureCount() + " throttled=" + budget.getThrottledCount();
+	}
+
+	/**
+	 * A polygon in longitude and latitude degrees. A bounding box is a polygon with four corners.
+	 */
+	static class Area
+	{
+		private final double[]	lons;
+		private final double[]	lats;
+		private final double		minLon, minLat, maxLon, maxLat;
+
+		Area(double[] lons, double[] lats)
+		{
+			this.lons = lons;
+			this.lats = lats;
+			double minLon = Double.MAX_VALUE, minLat = Double.MAX_VALUE, maxLon = -Double.MAX_VALUE, maxLat = -Double.MAX_VALUE;
+			for (int i = 0; i < lons.length; i++)
+			{
+				minLon = Math.min(minLon, lons[i]);
+				maxLon = Math.max(maxLon, lons[i]);
+				minLat = Math.min(minLat, lats[i]);
+				maxLat = Math.max(maxLat, lats[i]);
+			}
+			this.minLon = minLon;
+			this.minLat = minLat;
+			this.maxLon = maxLon;
+			this.maxLat = maxLat;
+		}
+
+		/**
+		 * Parses either a bounding box, as minLon,minLat,maxLon,maxLat, or a polygon, as at least three comma separated
+		 * "lon lat" vertices.
+		 * 
+		 * @throws IllegalArgumentException if the text is neither.
+		 */
+		static Area parse(String text)
+		{
+			String[] parts = text.trim().split("\\s*,\\s*");
+			if (parts.length == 4 && parts[0].split("\\s+").length == 1)
+			{
+				double minLon = parseDegrees(parts[0], 180), minLat = parseDegrees(parts[1], 90);
+				double maxLon = parseDegrees(parts[2], 180), maxLat = parseDegrees(parts[3], 90);
+				if (minLon >= maxLon || minLat >= maxLat)
+					throw new IllegalArgumentException("The bounding box minimum has to be below its maximum");
+				return new Area(new double[] { minLon, maxLon, maxLon, minLon }, new double[] { minLat, minLat, maxLat, maxLat });
+			}
+			if (parts.length < 3)
+				throw new IllegalArgumentException("Expected minLon,minLat,maxLon,maxLat or at least three \"lon lat\" vertices");
+			double[] lons = new double[parts.length];
+			double[] lats = new double[parts.length];
+			for (int i = 0; i < parts.length; i++)
+			{
+				String[] vertex = parts[i].split("\\s+");
+				if (vertex.length != 2)
+					throw new IllegalArgumentException("Expected a \"lon lat\" vertex but got \"" + parts[i] + "\"");
+				lons[i] = parseDegrees(vertex[0], 180);
+				lats[i] = parseDegrees(vertex[1], 90);
+			}
+			return new Area(lons, lats);
+		}
+
+		private static double parseDegrees(String text, double limit)
+		{
+			double degrees;
+			try
+			{
+				degrees = Double.parseDouble(text);
+			}
+			catch (NumberFormatException e)
+			{
+				throw new IllegalArgumentException("\"" + text + "\" is not a number");
+			}
+			if (Double.isNaN(degrees) || degrees < -limit || degrees > limit)
+				throw new IllegalArgumentException(text + " is outside -" + limit + " to " + limit);
+			return degrees;
+		}
+
+		/**
+		 * Returns the centers, as lat and lon, of the geohash cells of the given precision whose center lies in the area,
+		 * and of those holding one of its vertices so that an area smaller than a cell is not missed. Row by row from the
+		 * south west, stopping after limit cells.
+		 */
+		List<double[]> getCellCenters(int precision, int limit)
+		{
+			precision = Math.max(1, Math.min(GeoHash.MAX_PRECISION, precision));
+			// a geohash alternates longitude and latitude bits, starting with longitude
+			long columns = 1L << ((5 * precision + 1) / 2);
+			long rows = 1L << (5 * precision / 2);
+			double cellWidth = 360.0 / columns;
+			double cellHeight = 180.0 / rows;
+			// an area reaching 180 or 90 ends in the last cell, not in one beyond the world
+			long firstColumn = (long) Math.floor((minLon + 180) / cellWidth), lastColumn = Math.min(columns - 1, (long) Math.floor((maxLon + 180) / cellWidth));
+			long firstRow = (long) Math.floor((minLat + 90) / cellHeight), lastRow = Math.min(rows - 1, (long) Math.floor((maxLat + 90) / cellHeight));
+			List<double[]> centers = new ArrayList<double[]>();
+			for (long row = firstRow; row <= lastRow && centers.size() < limit; row++)
+			{
+				double lat = -90 + (row + 0.5) * cellHeight;
+				for (long column = firstColumn; column <= lastColumn && centers.size() < limit; column++)
+				{
+					double lon = -180 + (column + 0.5) * cellWidth;
+					if (contains(lon, lat) || holdsVertex(lon, lat, cellWidth, cellHeight))
+						centers.add(new double[] { lat, lon });
+				}
+			}
+			return centers;
+		}
+
+		/**
+		 * Even-odd ray casting.
+		 */
+		boolean contains(double lon, double lat)
+		{
+			boolean inside = false;
+			for (int i = 0, j = lons.length - 1; i < lons.length; j = i++)
+			{
+				if ((lats[i] > lat) != (lats[j] > lat) && lon < (lons[j] - lons[i]) * (lat - lats[i]) / (lats[j] - lats[i]) + lons[i])
+					inside = !inside;
+			}
+			return inside;
+		}
+
+		private boolean holdsVertex(double lon, double lat, double cellWidth, double cellHeight)
+		{
+			for (int i = 0; i < lons.length; i++)
+			{
+				if (Math.abs(lons[i] - lon) <= cellWidth / 2 && Math.abs(lats[i] - lat) <= cellHeight / 2)
+					return true;
+			}
+			return false;
+		}
+	}
+}
@@ -0,0 +1,153 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+package com.esri.geoevent.processor.geonames;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.esri.ges.core.geoevent.GeoEvent;
+
+/**
+ * Decides which GeoEvents are looked up ahead of routine ones, such as the reports of incidents among those of vehicle
+ * tracks. The policy is a comma separated list of GeoEvent definition names, like incident, and field conditions, like
+ * severity=high; a GeoEvent matching any of them has priority. A blank policy, the default, gives no GeoEvent
+ * priority.
+ * 
+ * Priority lookups are queued ahead of routine ones in asynchronous execution mode, and routine lookups give way to them
+ * at the rate limiter and leave them a reserve of the hourly credits, see {@link GeoNamesRateLimiter}.
+ */
+public class GeoNamesPriorityPolicy
+{
+	public static final String				DEFAULT_PRIORITY_EVENTS	= "";
+	public static final int						DEFAULT_RESERVE_PERCENT	= 0;
+
+	private final String							events;
+	private final Set<String>					definitionNames;
+	private final List<String[]>			fieldConditions;
+	private final AtomicLong					priorityCount						= new AtomicLong();
+	private final AtomicLong					routineCount						= new AtomicLong();
+
+	private GeoNamesPriorityPolicy(String events, Set<String> definitionNames, List<String[]> fieldConditions)
+	{
+		this.events = events;
+		this.definitionNames = definitionNames;
+		this.fieldConditions = fieldConditions;
+	}
+
+	/**
+	 * @throws IllegalArgumentException if a field condition has no field name or no value.
+	 */
+	public static GeoNamesPriorityPolicy parse(String events)
+	{
+		events = (events != null) ? events.trim() : "";
+		Set<String> definitionNames = new HashSet<String>();
+		List<String[]> fieldConditions = new ArrayList<String[]>();
+		for (String entry : events.split(","))
+		{
+			entry = entry.trim();
+			if (entry.isEmpty())
+				continue;
+			int equals = entry.indexOf('=');
+			if (equals == -1)
+			{
+				definitionNames.add(entry.toLowerCase(Locale.ROOT));
+				continue;
+			}
+			String field = entry.substring(0, equals).trim();
+			String value = entry.substring(equals + 1).trim();
+			if (field.isEmpty() || value.isEmpty())
+				throw new IllegalArgumentException("The priority condition \"" + entry + "\" needs a field name and a value");
+			fieldConditions.add(new String[] { field, value });
+		}
+		return new GeoNamesPriorityPolicy(events, Collections.unmodifiableSet(definitionNames), Collections.unmodifiableList(fieldConditions));
+	}
+
+	/**
+	 * A policy that gives no GeoEvent priority.
+	 */
+	public static GeoNamesPriorityPolicy none()
+	{
+		return parse(null);
+	}
+
+	public boolean isEmpty()
+	{
+		return definitionNames.isEmpty() && fieldConditions.isEmpty();
+	}
+
+	public boolean isPriority(GeoEvent geoEvent)
+	{
+		if (isEmpty())
+			return false;
+		if (!definitionNames.isEmpty() && geoEvent.getGeoEventDefinition() != null && definitionNames.contains(geoEvent.getGeoEventDefinition().getName().toLowerCase(Locale.ROOT)))
+			return true;
+		for (String[] condition : fieldConditions)
+		{
+			Object value;
+			try
+			{
+				value = geoEvent.getField(condition[0]);
+			}
+			catch (RuntimeException e)
+			{
+				// a field the GeoEvent definition does not have
+				continue;
+			}
+			if (value != null && condition[1].equalsIgnoreCase(value.toString()))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Counts a GeoEvent received by the processor.
+	 */
+	public void counted(boolean priority)
+	{
+		if (priority)
+			priorityCount.incrementAndGet();
+		else
+			routineCount.incrementAndGet();
+	}
+
+	public long getPriorityCount()
+	{
+		return priorityCount.get();
+	}
+
+	public long getRoutineCount()
+	{
+		return routineCount.get();
+	}
+
+	public String getStatistics()
+	{
+		return "events=" + (isEmpty() ? "none" : events) + " priority=" + getPriorityCount() + " routine=" + getRoutineCount();
+	}
+}
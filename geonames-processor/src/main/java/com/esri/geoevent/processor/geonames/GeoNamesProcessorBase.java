@@ -0,0 +1,713 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Observable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONException;
+
+import com.esri.ges.core.component.ComponentException;
+import com.esri.ges.core.geoevent.GeoEvent;
+import com.esri.ges.core.geoevent.GeoEventPropertyName;
+import com.esri.ges.core.property.Property;
+import com.esri.ges.framework.i18n.BundleLogger;
+import com.esri.ges.framework.i18n.BundleLoggerFactory;
+import com.esri.ges.messaging.EventDestination;
+import com.esri.ges.messaging.EventUpdatable;
+import com.esri.ges.messaging.GeoEventCreator;
+import com.esri.ges.messaging.GeoEventProducer;
+import com.esri.ges.messaging.Messaging;
+import com.esri.ges.messaging.MessagingException;
+import com.esri.ges.processor.GeoEventProcessorBase;
+import com.esri.ges.processor.GeoEventProcessorDefinition;
+
+/**
+ * The GeoEvent plumbing shared by the GeoNames processors: the properties configuring the lookups, the optional
+ * asynchronous executor, metrics, status details and sending the created GeoEvents. The subclasses add an
+ * {@link GeoNamesEnrichment} for each GeoNames service they look up and decide how a GeoEvent is enriched.
+ */
+public abstract class GeoNamesProcessorBase extends GeoEventProcessorBase implements GeoEventProducer, EventUpdatable
+{
+	private static final BundleLogger					LOGGER								= BundleLoggerFactory.getLogger(GeoNamesProcessorBase.class);
+	// the most lookups of the locations covering a route or an area run at once, beside those on the calling threads
+	private static final int									GEOMETRY_THREADS			= 8;
+	private static final int									GEOMETRY_QUEUE_DEPTH	= 32;
+
+	protected final Object										propertyLock	= new Object();
+	protected final List<GeoNamesEnrichment>	enrichments		= new ArrayList<GeoNamesEnrichment>();
+	private final String											workerName;
+	private String														geoNamesUsername;
+	private String														geoNamesBaseUrl;
+	private int																geoNamesAccountSuspension;
+	private int																geoNamesMaxConnectionsPerHost;
+	private int																geoNamesConnectTimeout;
+	private int																geoNamesReadTimeout;
+	private int																geoNamesCircuitBreakerFailures;
+	private int																geoNamesCircuitBreakerOpenTime;
+	private boolean														geoNamesServeStale;
+	private int																geoNamesHedgePercentile;
+	private int																geoNamesCacheCellPrecision;
+	private int																geoNamesCacheTTL;
+	private int																geoNamesCacheCapacity;
+	private double														geoNamesTileSize;
+	private int																geoNamesTileMaxRows;
+	private int																geoNamesTileLevels;
+	private String														geoNamesDiskCacheFile;
+	private int																geoNamesDiskCacheTTL;
+	private int																geoNamesDiskCacheMaxSize;
+	private boolean														geoNamesCoalesceRequests;
+	private String														geoNamesPrewarmArea;
+	private int																geoNamesPrewarmMaxCells;
+	private int																geoNamesPrewarmRequestsPerSecond;
+	private int																geoNamesPrewarmRequestsPerHour;
+	private int																geoNamesPrewarmRefreshAhead;
+	private String														geoNamesTrackSuppression;
+	private double														geoNamesTrackMinDistance;
+	private int																geoNamesTrackMaxAge;
+	private int																geoNamesTrackCapacity;
+	private String														geoNamesEmissionMode;
+	private int																geoNamesEmissionCapacity;
+	private String														geoNamesOutputMode;
+	private int																geoNamesGeometryMaxLookups;
+	private String														geoNamesExecutionMode;
+	private int																geoNamesWorkerThreads;
+	private int																geoNamesQueueDepth;
+	private String														geoNamesQueueFullPolicy;
+	private int																geoNamesRequestsPerSecond;
+	private int																geoNamesRequestsPerHour;
+	private String														geoNamesPriorityEvents;
+	private int																geoNamesPriorityReserve;
+	private volatile GeoNamesPriorityPolicy		priorityPolicy	= GeoNamesPriorityPolicy.none();
+	private volatile GeoNamesLookupExecutor		executor;
+	private volatile GeoNamesPrewarmer				prewarmer;
+	private final ThreadPoolExecutor					geometryExecutor;
+	private final ThreadPoolExecutor					hedgeExecutor;
+	protected final GeoNamesMetrics						metrics				= new GeoNamesMetrics();
+	private GeoEventCreator										geoEventCreator;
+	private GeoEventProducer									geoEventProducer;
+	private Messaging													messaging;
+
+	/**
+	 * @param workerName the prefix of the names of the asynchronous worker threads.
+	 */
+	protected GeoNamesProcessorBase(GeoEventProcessorDefinition definition, String workerName) throws ComponentException
+	{
+		super(definition);
+		this.workerName = workerName;
+		// shared by the workers of the processor; once the queue is full a worker looks up its locations itself rather than
+		// queueing them behind the geometries of the others
+		geometryExecutor = new ThreadPoolExecutor(GEOMETRY_THREADS, GEOMETRY_THREADS, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(GEOMETRY_QUEUE_DEPTH), new GeoNamesLookupExecutor.WorkerThreadFactory(workerName + "-geometry"), new RejectedExecutionHandler()
+			{
+				@Override
+				public void rejectedExecution(Runnable lookup, ThreadPoolExecutor executor)
+				{
+					// unlike CallerRunsPolicy this also runs the lookup once the pool is shut down, so the caller never
+					// waits on a Future that is never completed
+					lookup.run();
+				}
+			});
+		geometryExecutor.allowCoreThreadTimeOut(true);
+		// resized to the connection limit per host once the properties are set, see resize()
+		hedgeExecutor = new ThreadPoolExecutor(GeoNamesHttpClient.DEFAULT_MAX_CONNECTIONS_PER_HOST, GeoNamesHttpClient.DEFAULT_MAX_CONNECTIONS_PER_HOST, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new GeoNamesLookupExecutor.WorkerThreadFactory(workerName + "-hedge"));
+		hedgeExecutor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Looks up the GeoEvent and sends the results, on the pipeline thread or on a worker thread of the asynchronous
+	 * executor.
+	 */
+	protected abstract void enrich(GeoEvent geoEvent) throws Exception;
+
+	@Override
+	public void setId(String id)
+	{
+		super.setId(id);
+		EventDestination evtDest = new EventDestination(id + ":event");
+		geoEventProducer = messaging.createGeoEventProducer(evtDest);
+		metrics.register(definition.getName(), id);
+	}
+
+	@Override
+	public void afterPropertiesSet()
+	{
+		synchronized (propertyLock)
+		{
+			// a blank list of usernames falls back to the default account when the pool is built
+			geoNamesUsername = "";
+			if (hasProperty(GeoNamesProcessorDefinitionBase.GEONAMES_USERNAME_PROPERTY))
+			{
+				geoNamesUsername = getProperty(GeoNamesProcessorDefinitionBase.GEONAMES_USERNAME_PROPERTY).getValueAsString();
+			}
+			geoNamesBaseUrl = GeoNamesQuery.DEFAULT_BASE_URL;
+			if (hasProperty(GeoNamesProcessorDefinitionBase.GEONAMES_BASE_URL_PROPERTY))
+			{
+				geoNamesBaseUrl = getProperty(GeoNamesProcessorDefinitionBase.GEONAMES_BASE_URL_PROPERTY).getValueAsString();
+			}
+			geoNamesAccountSuspension = GeoNamesRateLimiter.DEFAULT_SUSPENSION_SECONDS;
+			if (hasProperty(GeoNamesProcessorDefinitionBase.GEONAMES_ACCOUNT_SUSPENSION_PROPERTY))
+			{
+				geoNamesAccountSuspension = (int) getProperty(GeoNamesProcessorDefinitionBase.GEONAMES_ACCOUNT_SUSPENSION_PROPERTY).getValue();
+			}
+			geoNamesMaxConnectionsPerHost = GeoNamesHttpClient.DEFAULT_MAX_CONNECTIONS_PER_HOST;
+			if (hasProperty(GeoNamesProcessorDefinitionBase.GEONAMES_MAX_CONNECTIONS_PER_HOST_PROPERTY))
+			{
+				geoNamesMaxConnectionsPerHost = (int) getProperty(GeoNamesProcessorDefinitionBase.GEONAMES_MAX_CONNECTIONS_PER_HOST_PROPERTY).getValue();
+			}
+			GeoNamesHttpClient.getInstance().setMaxConnectionsPerHost(this, geoNamesMaxConnectionsPerHost);
+			// a hedged request is never sent without a free connection to wait for
+			resize(hedgeExecutor, Math.max(1, geoNamesMaxConnectionsPerHost));
+			geoNamesConnectTimeout = GeoNamesHttpClient.DEFAULT_CONNECT_TIMEOUT_MILLIS;
+			if (hasProperty(GeoNamesProcessorDefinitionBase.GEONAMES_CONNECT_TIMEOUT_PROPERTY))
+			{
+				geoNamesConnectTimeout = (int) getProperty(GeoNamesProcessorDefinitionBase.GEONAMES_CONNECT_TIMEOUT_PROPERTY).getValue();
+			}
+			geoNamesReadTimeout = GeoNamesHttpClient.DEFAULT_READ_TIMEOUT_MILLIS;
+			if (hasProperty(GeoNamesProcessorDefinitionBase.GEONAMES_READ_TIMEOUT_PROPERTY))
+			{
+				geoNamesReadTimeout = (int) getProperty(GeoNamesProcessorDefinitionBase.GEONAMES_READ_TIMEOUT_PROPERTY).getValue();
+			}
+			geoNamesCircuitBreakerFailures = GeoNamesCircuitBreaker.DEFAULT_FAILURE_THRESHOLD;
+			if (hasProperty(GeoNamesProcessorDefinitionBase.GEONAMES_CIRCUIT_BREAKER_FAILURES_PROPERTY))
+			{
+				geoNamesCircuitBreakerFailures = (int) getProperty(GeoNamesProcessorDefinitionBase.GEONAMES_CIRCUIT_BREAKER_FAILURES_PROPERTY).getValue();
+			}
+			geoNamesCircuitBreakerOpenTime = GeoNamesCircuitBreaker.DEFAULT_OPEN_SECONDS;
+			if (hasProperty(GeoNamesProcessorDefinitionBase.GEONAMES_CIRCUIT_BREAKER_OPEN_TIME_PROPERTY))
+			{
+				geoNamesCircuitBreakerOpenTime = (int) getProperty(GeoNamesProcessorDefinitionBase.GEONAMES_CIRCUIT_BREAKER_OPEN_TIME_PROPERTY).getValue();
+			}
+			geoNamesServeStale = true;
+			if (hasProperty(GeoNamesProcessorDefinitionBase.GEONAMES_SERVE_STALE_PROPERTY))
+			{
+				geoNamesServeStale = (Boolean) getProperty(GeoNamesProcessorDefinitionBase.GEONAMES_SERVE_STALE_PROPERTY).getValue();
+			}
+			geoNamesHedgePercentile = 0;
+			if (hasProperty(GeoNamesProcessorDefinitionBase.GEONAMES_HEDGE_PERCENTILE_PROPERTY))
+			{
+				geoNamesHedgePercentile = (int) getProperty(GeoNamesProcessorDefinitionBase.GEONAMES_HEDGE_PERCENTILE_PROPERTY).getValue();
+			}
+			geoNamesCacheCellPrecision = GeoNamesLookup.DEFAULT_CELL_PRECISION;
+			if (hasProperty(GeoNamesProcessorDefinitionBase.GEONAMES_CACHE_CELL_PRECISION_PROPERTY))
+			{
+				geoNamesCacheCellPrecision = (int) getProperty(GeoNamesProcessorDefinitionBase.GEONAMES_CACHE_CELL_PRECISION_PROPERTY).getValue();
+			}
+			geoNamesCacheTTL = GeoNamesLookupCache.DEFAULT_TTL_SECONDS;
+			if (hasProperty(GeoNamesProcessorDefinitionBase.GEONAMES_CACHE_TTL_PROPERTY))
+			{
+				geoNamesCacheTTL = (int) getProperty(GeoNamesProcessorDefinitionBase.GEONAMES_CACHE_TTL_PROPERTY).getValue();
+			}
+			geoNamesCacheCapacity = GeoNamesLookupCache.DEFAULT_CAPACITY;
+			if (hasProperty(GeoNamesProcessorDefinitionBase.GEONAMES_CACHE_CAPACITY_PROPERTY))
+			{
+				geoNamesCacheCapacity = (int) getProperty(GeoNamesProcessorDefinitionBase.GEONAMES_CACHE_CAPACITY_PROPERTY).getValue();
+			}
+			geoNamesTileSize = 0;
+			if (hasProperty(GeoNamesProcessorDefinitionBase.GEONAMES_TILE_SIZE_PROPERTY))
+			{
+				geoNamesTileSize = (double) getProperty(GeoNamesProcessorDefinitionBase.GEONAMES_TILE_SIZE_PROPERTY).getValue();
+			}
+			geoNamesTileMaxRows = GeoNamesLookup.DEFAULT_TILE_MAX_ROWS;
+			if (hasProperty(GeoNamesProcessorDefinitionBase.GEONAMES_TILE_MAX_ROWS_PROPERTY))
+			{
+				geoNamesTileMaxRows = (int) getProperty(GeoNamesProcessorDefinitionBase.GEONAMES_TILE_MAX_ROWS_PROPERTY).getValue();
+			}
+			geoNamesTileLevels = GeoNamesLookup.DEFAULT_TILE_LEVELS;
+			if (hasProperty(GeoNamesProcessorDefinitionBase.GEONAMES_TILE_LEVELS_PROPERTY))
+			{
+				geoNamesTileLevels = (int) getProperty(GeoNamesProcessorDefinitionBase.GEONAMES_TILE_LEVELS_PROPERTY).getValue();
+			}
+			geoNamesDiskCacheFile = "";
+			if (hasProperty(GeoNamesProcessorDefinitionBase.GEONAMES_DISK_CACHE_FILE_PROPERTY))
+			{
+				geoNamesDiskCacheFile = getProperty(GeoNamesProcessorDefinitionBase.GEONAMES_DISK_CACHE_FILE_PROPERTY).getValueAsString();
+			}
+			geoNamesDiskCacheTTL = GeoNamesDiskCache.DEFAULT_TTL_SECONDS;
+			if (hasProperty(GeoNamesProcessorDefinitionBase.GEONAMES_DISK_CACHE_TTL_PROPERTY))
+			{
+				geoNamesDiskCacheTTL = (int) getProperty(GeoNamesProcessorDefinitionBase.GEONAMES_DISK_CACHE_TTL_PROPERTY).getValue();
+			}
+			geoNamesDiskCacheMaxSize = GeoNamesDiskCache.DEFAULT_MAX_SIZE_MB;
+			if (hasProperty(GeoNamesProcessorDefinitionBase.GEONAMES_DISK_CACHE_MAX_SIZE_PROPERTY))
+			{
+				geoNamesDiskCacheMaxSize = (int) getProperty(GeoNamesProcessorDefinitionBase.GEONAMES_DISK_CACHE_MAX_SIZE_PROPERTY).getValue();
+			}
+			geoNamesCoalesceRequests = true;
+			if (hasProperty(GeoNamesProcessorDefinitionBase.GEONAMES_COALESCE_REQUESTS_PROPERTY))
+			{
+				geoNamesCoalesceRequests = (Boolean) getProperty(GeoNamesProcessorDefinitionBase.GEONAMES_COALESCE_REQUESTS_PROPERTY).getValue();
+			}
+			geoNamesPrewarmArea = "";
+			if (hasProperty(GeoNamesProcessorDefinitionBase.GEONAMES_PREWARM_AREA_PROPERTY))
+			{
+				geoNamesPrewarmArea = getProperty(GeoNamesProcessorDefinitionBase.GEONAMES_PREWARM_AREA_PROPERTY).getValueAsString();
+			}
+			geoNamesPrewarmMaxCells = GeoNamesPrewarmer.DEFAULT_MAX_CELLS;
+			if (hasProperty(GeoNamesProcessorDefinitionBase.GEONAMES_PREWARM_MAX_CELLS_PROPERTY))
+			{
+				geoNamesPrewarmMaxCells = (int) getProperty(GeoNamesProcessorDefinitionBase.GEONAMES_PREWARM_MAX_CELLS_PROPERTY).getValue();
+			}
+			geoNamesPrewarmRequestsPerSecond = GeoNamesPrewarmer.DEFAULT_REQUESTS_PER_SECOND;
+			if (hasProperty(GeoNamesProcessorDefinitionBase.GEONAMES_PREWARM_REQUESTS_PER_SECOND_PROPERTY))
+			{
+				geoNamesPrewarmRequestsPerSecond = (int) getProperty(GeoNamesProcessorDefinitionBase.GEONAMES_PREWARM_REQUESTS_PER_SECOND_PROPERTY).getValue();
+			}
+			geoNamesPrewarmRequestsPerHour = GeoNamesPrewarmer.DEFAULT_REQUESTS_PER_HOUR;
+			if (hasProperty(GeoNamesProcessorDefinitionBase.GEONAMES_PREWARM_REQUESTS_PER_HOUR_PROPERTY))
+			{
+				geoNamesPrewarmRequestsPerHour = (int) getProperty(GeoNamesProcessorDefinitionBase.GEONAMES_PREWARM_REQUESTS_PER_HOUR_PROPERTY).getValue();
+			}
+			geoNamesPrewarmRefreshAhead = GeoNamesPrewarmer.DEFAULT_REFRESH_AHEAD_PERCENT;
+			if (hasProperty(GeoNamesProcessorDefinitionBase.GEONAMES_PREWARM_REFRESH_AHEAD_PROPERTY))
+			{
+				geoNamesPrewarmRefreshAhead = (int) getProperty(GeoNamesProcessorDefinitionBase.GEONAMES_PREWARM_REFRESH_AHEAD_PROPERTY).getValue();
+			}
+			geoNamesRequestsPerSecond = GeoNamesRateLimiter.DEFAULT_REQUESTS_PER_SECOND;
+			if (hasProperty(GeoNamesProcessorDefinitionBase.GEONAMES_REQUESTS_PER_SECOND_PROPERTY))
+			{
+				geoNamesRequestsPerSecond = (int) getProperty(GeoNamesProcessorDefinitionBase.GEONAMES_REQUESTS_PER_SECOND_PROPERTY).getValue();
+			}
+			geoNamesRequestsPerHour = GeoNamesRateLimiter.DEFAULT_REQUESTS_PER_HOUR;
+			if (hasProperty(GeoNamesProcessorDefinitionBase.GEONAMES_REQUESTS_PER_HOUR_PROPERTY))
+			{
+				geoNamesRequestsPerHour = (int) getProperty(GeoNamesProcessorDefinitionBase.GEONAMES_REQUESTS_PER_HOUR_PROPERTY).getValue();
+			}
+			geoNamesPriorityEvents = GeoNamesPriorityPolicy.DEFAULT_PRIORITY_EVENTS;
+			if (hasProperty(GeoNamesProcessorDefinitionBase.GEONAMES_PRIORITY_EVENTS_PROPERTY))
+			{
+				geoNamesPriorityEvents = getProperty(GeoNamesProcessorDefinitionBase.GEONAMES_PRIORITY_EVENTS_PROPERTY).getValueAsString();
+			}
+			geoNamesPriorityReserve = GeoNamesPriorityPolicy.DEFAULT_RESERVE_PERCENT;
+			if (hasProperty(GeoNamesProcessorDefinitionBase.GEONAMES_PRIORITY_RESERVE_PROPERTY))
+			{
+				geoNamesPriorityReserve = (int) getProperty(GeoNamesProcessorDefinitionBase.GEONAMES_PRIORITY_RESERVE_PROPERTY).getValue();
+			}
+			try
+			{
+				priorityPolicy = GeoNamesPriorityPolicy.parse(geoNamesPriorityEvents);
+			}
+			catch (IllegalArgumentException e)
+			{
+				LOGGER.error("PRIORITY_EVENTS_INVALID", geoNamesPriorityEvents, e.getMessage());
+				priorityPolicy = GeoNamesPriorityPolicy.none();
+			}
+			// the limits apply to each username, and the services of a processor share its accounts
+			List<GeoNamesAccount> accounts = new ArrayList<GeoNamesAccount>();
+			for (String[] account : GeoNamesAccountPool.parse(geoNamesUsername, geoNamesBaseUrl))
+			{
+				GeoNamesRateLimiter rateLimiter = GeoNamesRateLimiter.forUsername(account[0]);
+				rateLimiter.setLimits(geoNamesRequestsPerSecond, geoNamesRequestsPerHour);
+				// without priority GeoEvents there is nothing to keep credits for
+				rateLimiter.setReserve(priorityPolicy.isEmpty() ? 0 : geoNamesPriorityReserve);
+				GeoNamesCircuitBreaker circuitBreaker = null;
+				if (geoNamesCircuitBreakerFailures > 0)
+				{
+					circuitBreaker = GeoNamesCircuitBreaker.forEndpoint(account[1]);
+					circuitBreaker.configure(geoNamesCircuitBreakerFailures, geoNamesCircuitBreakerOpenTime);
+				}
+				accounts.add(new GeoNamesAccount(account[0], account[1], rateLimiter, circuitBreaker));
+			}
+			GeoNamesAccountPool accountPool = new GeoNamesAccountPool(accounts, geoNamesAccountSuspension);
+			geoNamesTrackSuppression = GeoNamesTrackFilter.Mode.OFF.getLabel();
+			if (hasProperty(GeoNamesProcessorDefinitionBase.GEONAMES_TRACK_SUPPRESSION_PROPERTY))
+			{
+				geoNamesTrackSuppression = getProperty(GeoNamesProcessorDefinitionBase.GEONAMES_TRACK_SUPPRESSION_PROPERTY).getValueAsString();
+			}
+			geoNamesTrackMinDistance = GeoNamesTrackFilter.DEFAULT_MIN_DISTANCE_METERS;
+			if (hasProperty(GeoNamesProcessorDefinitionBase.GEONAMES_TRACK_MIN_DISTANCE_PROPERTY))
+			{
+				geoNamesTrackMinDistance = (double) getProperty(GeoNamesProcessorDefinitionBase.GEONAMES_TRACK_MIN_DISTANCE_PROPERTY).getValue();
+			}
+			geoNamesTrackMaxAge = GeoNamesTrackFilter.DEFAULT_MAX_AGE_SECONDS;
+			if (hasProperty(GeoNamesProcessorDefinitionBase.GEONAMES_TRACK_MAX_AGE_PROPERTY))
+			{
+				geoNamesTrackMaxAge = (int) getProperty(GeoNamesProcessorDefinitionBase.GEONAMES_TRACK_MAX_AGE_PROPERTY).getValue();
+			}
+			geoNamesTrackCapacity = GeoNamesTrackFilter.DEFAULT_CAPACITY;
+			if (hasProperty(GeoNamesProcessorDefinitionBase.GEONAMES_TRACK_CAPACITY_PROPERTY))
+			{
+				geoNamesTrackCapacity = (int) getProperty(GeoNamesProcessorDefinitionBase.GEONAMES_TRACK_CAPACITY_PROPERTY).getValue();
+			}
+			GeoNamesTrackFilter.Mode trackSuppressionMode = GeoNamesTrackFilter.Mode.fromLabel(geoNamesTrackSuppression);
+			geoNamesEmissionMode = GeoNamesDeltaFilter.Mode.ALL.getLabel();
+			if (hasProperty(GeoNamesProcessorDefinitionBase.GEONAMES_EMISSION_MODE_PROPERTY))
+			{
+				geoNamesEmissionMode = getProperty(GeoNamesProcessorDefinitionBase.GEONAMES_EMISSION_MODE_PROPERTY).getValueAsString();
+			}
+			geoNamesEmissionCapacity = GeoNamesDeltaFilter.DEFAULT_CAPACITY;
+			if (hasProperty(GeoNamesProcessorDefinitionBase.GEONAMES_EMISSION_CAPACITY_PROPERTY))
+			{
+				geoNamesEmissionCapacity = (int) getProperty(GeoNamesProcessorDefinitionBase.GEONAMES_EMISSION_CAPACITY_PROPERTY).getValue();
+			}
+			GeoNamesDeltaFilter.Mode emissionMode = GeoNamesDeltaFilter.Mode.fromLabel(geoNamesEmissionMode);
+			geoNamesOutputMode = GeoNamesProcessorDefinitionBase.OUTPUT_MODE_PER_RESULT;
+			if (hasProperty(GeoNamesProcessorDefinitionBase.GEONAMES_OUTPUT_MODE_PROPERTY))
+			{
+				geoNamesOutputMode = getProperty(GeoNamesProcessorDefinitionBase.GEONAMES_OUTPUT_MODE_PROPERTY).getValueAsString();
+			}
+			boolean aggregatedOutput = GeoNamesProcessorDefinitionBase.OUTPUT_MODE_PER_INPUT.equals(geoNamesOutputMode);
+			geoNamesGeometryMaxLookups = GeoNamesGeometry.DEFAULT_MAX_SAMPLES;
+			if (hasProperty(GeoNamesProcessorDefinitionBase.GEONAMES_GEOMETRY_MAX_LOOKUPS_PROPERTY))
+			{
+				geoNamesGeometryMaxLookups = (int) getProperty(GeoNamesProcessorDefinitionBase.GEONAMES_GEOMETRY_MAX_LOOKUPS_PROPERTY).getValue();
+			}
+			// the cache keys include the service, so the services of a processor share one cache
+			GeoNamesLookupCache cache = (geoNamesCacheCapacity > 0 && geoNamesCacheTTL > 0) ? new GeoNamesLookupCache(geoNamesCacheTTL, geoNamesCacheCapacity) : null;
+			if (cache != null && geoNamesDiskCacheFile != null && !geoNamesDiskCacheFile.trim().isEmpty() && geoNamesDiskCacheTTL > 0)
+			{
+				// opened lazily by the first lookup, so that a large file does not delay the processor
+				GeoNamesDiskCache diskCache = GeoNamesDiskCache.forFile(geoNamesDiskCacheFile.trim());
+				diskCache.setMaxSize(geoNamesDiskCacheMaxSize * 1024L * 1024L);
+				cache.setDiskCache(diskCache, geoNamesDiskCacheTTL);
+			}
+			for (GeoNamesEnrichment enrichment : enrichments)
+			{
+				GeoNamesLookup lookup = enrichment.getLookup();
+				lookup.setAccounts(accountPool);
+				lookup.setTimeouts(geoNamesConnectTimeout, geoNamesReadTimeout);
+				lookup.setServingStale(geoNamesServeStale);
+				// each service has its own response times
+				lookup.setHedger((geoNamesHedgePercentile > 0) ? new GeoNamesHedger(geoNamesHedgePercentile, hedgeExecutor, hedgeExecutor.getMaximumPoolSize()) : null);
+				lookup.setCellPrecision(geoNamesCacheCellPrecision);
+				lookup.setTiling(geoNamesTileSize, geoNamesTileMaxRows, geoNamesTileLevels);
+				lookup.setCoalescing(geoNamesCoalesceRequests);
+				lookup.setTrackFilter((trackSuppressionMode != GeoNamesTrackFilter.Mode.OFF && geoNamesTrackCapacity > 0) ? new GeoNamesTrackFilter(trackSuppressionMode, geoNamesTrackMinDistance, geoNamesTrackMaxAge, geoNamesTrackCapacity) : null);
+				lookup.setCache(cache);
+				lookup.setMetrics(metrics);
+				enrichment.configure((emissionMode != GeoNamesDeltaFilter.Mode.ALL && geoNamesEmissionCapacity > 0) ? new GeoNamesDeltaFilter(emissionMode, geoNamesEmissionCapacity) : null, aggregatedOutput, geoNamesGeometryMaxLookups);
+			}
+			if (prewarmer != null)
+				prewarmer.stop();
+			prewarmer = null;
+			if (cache != null && geoNamesPrewarmArea != null && !geoNamesPrewarmArea.trim().isEmpty() && geoNamesPrewarmMaxCells > 0)
+			{
+				try
+				{
+					prewarmer = new GeoNamesPrewarmer(workerName + "-" + getId() + "-prewarm", GeoNamesPrewarmer.Area.parse(geoNamesPrewarmArea), enrichments, geoNamesPrewarmMaxCells, geoNamesPrewarmRequestsPerSecond, geoNamesPrewarmRequestsPerHour, geoNamesPrewarmRefreshAhead);
+					prewarmer.start();
+				}
+				catch (IllegalArgumentException e)
+				{
+					LOGGER.error("PREWARM_AREA_INVALID", geoNamesPrewarmArea, e.getMessage());
+				}
+			}
+			geoNamesExecutionMode = GeoNamesLookupExecutor.EXECUTION_MODE_SYNCHRONOUS;
+			if (hasProperty(GeoNamesProcessorDefinitionBase.GEONAMES_EXECUTION_MODE_PROPERTY))
+			{
+				geoNamesExecutionMode = getProperty(GeoNamesProcessorDefinitionBase.GEONAMES_EXECUTION_MODE_PROPERTY).getValueAsString();
+			}
+			geoNamesWorkerThreads = GeoNamesLookupExecutor.DEFAULT_WORKER_THREADS;
+			if (hasProperty(GeoNamesProcessorDefinitionBase.GEONAMES_WORKER_THREADS_PROPERTY))
+			{
+				geoNamesWorkerThreads = (int) getProperty(GeoNamesProcessorDefinitionBase.GEONAMES_WORKER_THREADS_PROPERTY).getValue();
+			}
+			geoNamesQueueDepth = GeoNamesLookupExecutor.DEFAULT_QUEUE_DEPTH;
+			if (hasProperty(GeoNamesProcessorDefinitionBase.GEONAMES_QUEUE_DEPTH_PROPERTY))
+			{
+				geoNamesQueueDepth = (int) getProperty(GeoNamesProcessorDefinitionBase.GEONAMES_QUEUE_DEPTH_PROPERTY).getValue();
+			}
+			geoNamesQueueFullPolicy = GeoNamesLookupExecutor.QueueFullPolicy.BLOCK.getLabel();
+			if (hasProperty(GeoNamesProcessorDefinitionBase.GEONAMES_QUEUE_FULL_POLICY_PROPERTY))
+			{
+				geoNamesQueueFullPolicy = getProperty(GeoNamesProcessorDefinitionBase.GEONAMES_QUEUE_FULL_POLICY_PROPERTY).getValueAsString();
+			}
+			if (executor != null)
+				executor.shutdown();
+			executor = null;
+			if (GeoNamesLookupExecutor.EXECUTION_MODE_ASYNCHRONOUS.equalsIgnoreCase(geoNamesExecutionMode))
+				executor = new GeoNamesLookupExecutor(workerName + "-" + getId(), geoNamesWorkerThreads, geoNamesQueueDepth, GeoNamesLookupExecutor.QueueFullPolicy.fromLabel(geoNamesQueueFullPolicy));
+			metrics.setQueue(executor);
+		}
+	}
+
+	@Override
+	public GeoEvent process(final GeoEvent geoEvent) throws Exception, MalformedURLException, JSONException
+	{
+		metrics.eventReceived();
+		GeoNamesPriorityPolicy priorityPolicy = this.priorityPolicy;
+		boolean priority = priorityPolicy.isPriority(geoEvent);
+		priorityPolicy.counted(priority);
+		GeoNamesLookupExecutor executor = this.executor;
+		if (executor != null)
+		{
+			executor.execute(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						try
+						{
+							enrich(geoEvent);
+						}
+						catch (Exception e)
+						{
+							metrics.lookupFailed();
+							LOGGER.error("GEONAMES_LOOKUP_FAILURE", e.getMessage());
+							LOGGER.debug(e.getMessage(), e);
+						}
+					}
+				}, priority);
+			return null;
+		}
+		enrich(geoEvent);
+		return null;
+	}
+
+	GeoNamesMetrics getMetrics()
+	{
+		return metrics;
+	}
+
+	/**
+	 * Whether the GeoEvent is looked up ahead of routine ones.
+	 */
+	boolean isPriority(GeoEvent geoEvent)
+	{
+		return priorityPolicy.isPriority(geoEvent);
+	}
+
+	private static void resize(ThreadPoolExecutor executor, int threads)
+	{
+		// the maximum may not be set below the core size, nor the core size above the maximum
+		if (threads > executor.getMaximumPoolSize())
+		{
+			executor.setMaximumPoolSize(threads);
+			executor.setCorePoolSize(threads);
+		}
+		else
+		{
+			executor.setCorePoolSize(threads);
+			executor.setMaximumPoolSize(threads);
+		}
+	}
+
+	/**
+	 * The pool looking up the locations covering the routes and areas of the GeoEvents.
+	 */
+	ExecutorService getGeometryExecutor()
+	{
+		return geometryExecutor;
+	}
+
+	/**
+	 * Creates a GeoEvent owned by this processor.
+	 * 
+	 * @return the GeoEvent, or null if messaging is not available yet.
+	 */
+	GeoEvent createGeoEvent(String geoEventDefinitionName) throws MessagingException
+	{
+		if (geoEventCreator == null)
+			return null;
+		GeoEvent created = geoEventCreator.create(geoEventDefinitionName, definition.getUri().toString());
+		created.setProperty(GeoEventPropertyName.TYPE, "event");
+		created.setProperty(GeoEventPropertyName.OWNER_ID, getId());
+		created.setProperty(GeoEventPropertyName.OWNER_URI, definition.getUri());
+		return created;
+	}
+
+	/**
+	 * Sends a created GeoEvent, recording how long it took to create and send.
+	 * 
+	 * @param createdGeoEvent the GeoEvent, or null if its creation failed.
+	 * @param label the service that looked it up, for log messages.
+	 */
+	void sendCreated(GeoEvent createdGeoEvent, long start, String label)
+	{
+		if (createdGeoEvent == null)
+		{
+			metrics.creationFailed();
+			return;
+		}
+		long sendStart = System.nanoTime();
+		metrics.recordCreate(sendStart - start);
+		try
+		{
+			send(createdGeoEvent);
+			metrics.recordSend(System.nanoTime() - sendStart);
+		}
+		catch (Exception ex)
+		{
+			metrics.sendFailed();
+			LOGGER.error("GEOEVENTPRODUCER_SEND_ERROR (" + label + ")", ex.getMessage());
+		}
+	}
+
+	@Override
+	public void send(GeoEvent geoEvent) throws MessagingException
+	{
+		if (geoEventProducer != null && geoEvent != null)
+		{
+			geoEventProducer.send(geoEvent);
+		}
+	}
+
+	@Override
+	public EventDestination getEventDestination()
+	{
+		return (geoEventProducer != null) ? geoEventProducer.getEventDestination() : null;
+	}
+
+	@Override
+	public void disconnect()
+	{
+		if (geoEventProducer != null)
+			geoEventProducer.disconnect();
+	}
+
+	@Override
+	public boolean isConnected()
+	{
+		return (geoEventProducer != null) ? geoEventProducer.isConnected() : false;
+	}
+
+	@Override
+	public String getStatusDetails()
+	{
+		String details = (geoEventProducer != null) ? geoEventProducer.getStatusDetails() : "";
+		if (!enrichments.isEmpty())
+		{
+			GeoNamesLookup lookup = enrichments.get(0).getLookup();
+			GeoNamesLookupCache cache = lookup.getCache();
+			if (cache != null)
+				details = appendStatusDetails(details, "Cache: " + cache.getStatistics());
+			GeoNamesDiskCache diskCache = (cache != null) ? cache.getDiskCache() : null;
+			if (diskCache != null)
+				details = appendStatusDetails(details, "Disk cache: " + diskCache.getStatistics());
+			GeoNamesAccountPool accounts = lookup.getAccounts();
+			if (accounts.size() > 1)
+				details = appendStatusDetails(details, "Accounts: " + accounts.getStatistics());
+			List<String> endpoints = new ArrayList<String>();
+			for (GeoNamesAccount account : accounts.getAccounts())
+			{
+				String suffix = (accounts.size() > 1) ? " (" + account + ")" : "";
+				details = appendStatusDetails(details, "Rate limit" + suffix + ": " + account.getRateLimiter().getStatistics());
+				// a server shared by several accounts has a single breaker
+				GeoNamesCircuitBreaker circuitBreaker = account.getCircuitBreaker();
+				if (circuitBreaker != null && !endpoints.contains(account.getBaseUrl()))
+				{
+					endpoints.add(account.getBaseUrl());
+					details = appendStatusDetails(details, "Circuit breaker" + ((accounts.size() > 1) ? " (" + account.getBaseUrl() + ")" : "") + ": " + circuitBreaker.getStatistics());
+				}
+			}
+		}
+		GeoNamesPrewarmer prewarmer = this.prewarmer;
+		if (prewarmer != null)
+			details = appendStatusDetails(details, "Prewarm: " + prewarmer.getStatistics());
+		for (GeoNamesEnrichment enrichment : enrichments)
+			details = enrichment.appendStatusDetails(details, (enrichments.size() > 1) ? " (" + enrichment.getLabel() + ")" : "");
+		GeoNamesPriorityPolicy priorityPolicy = this.priorityPolicy;
+		if (!priorityPolicy.isEmpty())
+			details = appendStatusDetails(details, "Priority: " + priorityPolicy.getStatistics());
+		GeoNamesLookupExecutor executor = this.executor;
+		if (executor != null)
+			details = appendStatusDetails(details, "Queue: " + executor.getStatistics());
+		details = appendStatusDetails(details, "Metrics: " + metrics.getSummary());
+		return details;
+	}
+
+	static String appendStatusDetails(String details, String more)
+	{
+		return (details == null || details.isEmpty()) ? more : details + " " + more;
+	}
+
+	@Override
+	public void setup() throws MessagingException
+	{
+		;
+	}
+
+	@Override
+	public void init() throws MessagingException
+	{
+		;
+	}
+
+	@Override
+	public void update(Observable o, Object arg)
+	{
+		;
+	}
+
+	@Override
+	public void shutdown()
+	{
+		synchronized (propertyLock)
+		{
+			if (executor != null)
+				executor.shutdown();
+			executor = null;
+			if (prewarmer != null)
+				prewarmer.stop();
+			prewarmer = null;
+		}
+		// a location that never ran fails its geometry instead of keeping the worker waiting for it
+		for (Runnable lookup : geometryExecutor.shutdownNow())
+			((Future<?>) lookup).cancel(false);
+		hedgeExecutor.shutdownNow();
+		GeoNamesHttpClient.getInstance().clearMaxConnectionsPerHost(this);
+		metrics.unregister();
+		super.shutdown();
+	}
+
+	public void setMessaging(Messaging messaging)
+	{
+		this.messaging = messaging;
+		geoEventCreator = messaging.createGeoEventCreator();
+	}
+
+	@Override
+	public String toString()
+	{
+		StringBuffer sb = new StringBuffer();
+		sb.append(definition.getName());
+		sb.append("/");
+		sb.append(definition.getVersion());
+		sb.append("[");
+		for (Property p : getProperties())
+		{
+			sb.append(p.getDefinition().getPropertyName());
+			sb.append(":");
+			sb.append(p.getValue());
+			sb.append(" ");
+		}
+		sb.append("]");
+		return sb.toString();
+	}
+
+	@Override
+	public List<EventDestination> getEventDestinations()
+	{
+		return (geoEventProducer != null) ? Arrays.asList(geoEventProducer.getEventDestination()) : new ArrayList<EventDestination>();
+	}
+}
@@ -0,0 +1,333 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.esri.ges.core.ConfigurationException;
+import com.esri.ges.core.geoevent.DefaultFieldDefinition;
+import com.esri.ges.core.geoevent.DefaultGeoEventDefinition;
+import com.esri.ges.core.geoevent.FieldCardinality;
+import com.esri.ges.core.geoevent.FieldDefinition;
+import com.esri.ges.core.geoevent.FieldType;
+import com.esri.ges.core.geoevent.GeoEventDefinition;
+import com.esri.ges.core.property.PropertyDefinition;
+import com.esri.ges.core.property.PropertyException;
+import com.esri.ges.core.property.PropertyType;
+import com.esri.ges.processor.GeoEventProcessorDefinitionBase;
+
+/**
+ * The properties shared by the GeoNames processor definitions, so that the processors configure the lookups, output
+ * and execution the same way.
+ */
+public abstract class GeoNamesProcessorDefinitionBase extends GeoEventProcessorDefinitionBase
+{
+	protected static final String	GEONAMES_USERNAME_PROPERTY					= "geoNamesUsername";
+	protected static final String	GEONAMES_BASE_URL_PROPERTY					= "geoNamesBaseUrl";
+	protected static final String	GEONAMES_ACCOUNT_SUSPENSION_PROPERTY	= "geoNamesAccountSuspension";
+	protected static final String	GEONAMES_WIKIPEDIARADIUS_PROPERTY		= "geoNamesWikiRadius";
+	protected static final String	GEONAMES_WIKIPEDIAMAXROWS_PROPERTY	= "geoNamesWikiMaxRows";
+	protected static final String	GEONAMES_WIKIPEDIASOURCE_PROPERTY		= "geoNamesWikiSource";
+	protected static final String	GEONAMES_WIKIPEDIAGAZETTEERFILE_PROPERTY	= "geoNamesWikiGazetteerFile";
+	protected static final String	WIKIPEDIA_SOURCE_WEB_SERVICE			= "GeoNames Web Service";
+	protected static final String	WIKIPEDIA_SOURCE_LOCAL_FILE				= "Local Gazetteer File";
+	protected static final String	GEONAMES_OSMPOIsRADIUS_PROPERTY		= "geoNamesOSMPOIsRadius";
+	protected static final String	GEONAMES_OSMPOIsMAXROWS_PROPERTY	= "geoNamesOSMPOIsMaxRows";
+	protected static final String	GEONAMES_OSMPOIsSOURCE_PROPERTY				= "geoNamesOSMPOIsSource";
+	protected static final String	GEONAMES_OSMPOIsINDEXFILE_PROPERTY			= "geoNamesOSMPOIsIndexFile";
+	protected static final String	OSMPOIs_SOURCE_WEB_SERVICE						= "GeoNames Web Service";
+	protected static final String	OSMPOIs_SOURCE_LOCAL_INDEX						= "Local Index File";
+	protected static final String	GEONAMES_MAX_CONNECTIONS_PER_HOST_PROPERTY	= "geoNamesMaxConnectionsPerHost";
+	protected static final String	GEONAMES_CONNECT_TIMEOUT_PROPERTY				= "geoNamesConnectTimeout";
+	protected static final String	GEONAMES_READ_TIMEOUT_PROPERTY					= "geoNamesReadTimeout";
+	protected static final String	GEONAMES_CIRCUIT_BREAKER_FAILURES_PROPERTY	= "geoNamesCircuitBreakerFailures";
+	protected static final String	GEONAMES_CIRCUIT_BREAKER_OPEN_TIME_PROPERTY	= "geoNamesCircuitBreakerOpenTime";
+	protected static final String	GEONAMES_SERVE_STALE_PROPERTY						= "geoNamesServeStale";
+	protected static final String	GEONAMES_HEDGE_PERCENTILE_PROPERTY			= "geoNamesHedgePercentile";
+	protected static final String	GEONAMES_CACHE_CELL_PRECISION_PROPERTY	= "geoNamesCacheCellPrecision";
+	protected static final String	GEONAMES_CACHE_TTL_PROPERTY						= "geoNamesCacheTTL";
+	protected static final String	GEONAMES_CACHE_CAPACITY_PROPERTY				= "geoNamesCacheCapacity";
+	protected static final String	GEONAMES_TILE_SIZE_PROPERTY							= "geoNamesTileSize";
+	protected static final String	GEONAMES_TILE_MAX_ROWS_PROPERTY					= "geoNamesTileMaxRows";
+	protected static final String	GEONAMES_TILE_LEVELS_PROPERTY						= "geoNamesTileLevels";
+	protected static final String	GEONAMES_DISK_CACHE_FILE_PROPERTY				= "geoNamesDiskCacheFile";
+	protected static final String	GEONAMES_DISK_CACHE_TTL_PROPERTY				= "geoNamesDiskCacheTTL";
+	protected static final String	GEONAMES_DISK_CACHE_MAX_SIZE_PROPERTY		= "geoNamesDiskCacheMaxSize";
+	protected static final String	GEONAMES_COALESCE_REQUESTS_PROPERTY			= "geoNamesCoalesceRequests";
+	protected static final String	GEONAMES_PREWARM_AREA_PROPERTY					= "geoNamesPrewarmArea";
+	protected static final String	GEONAMES_PREWARM_MAX_CELLS_PROPERTY			= "geoNamesPrewarmMaxCells";
+	protected static final String	GEONAMES_PREWARM_REQUESTS_PER_SECOND_PROPERTY	= "geoNamesPrewarmRequestsPerSecond";
+	protected static final String	GEONAMES_PREWARM_REQUESTS_PER_HOUR_PROPERTY	= "geoNamesPrewarmRequestsPerHour";
+	protected static final String	GEONAMES_PREWARM_REFRESH_AHEAD_PROPERTY	= "geoNamesPrewarmRefreshAhead";
+	protected static final String	GEONAMES_TRACK_SUPPRESSION_PROPERTY			= "geoNamesTrackSuppression";
+	protected static final String	GEONAMES_TRACK_MIN_DISTANCE_PROPERTY		= "geoNamesTrackMinDistance";
+	protected static final String	GEONAMES_TRACK_MAX_AGE_PROPERTY				= "geoNamesTrackMaxAge";
+	protected static final String	GEONAMES_TRACK_CAPACITY_PROPERTY				= "geoNamesTrackCapacity";
+	protected static final String	GEONAMES_EMISSION_MODE_PROPERTY				= "geoNamesEmissionMode";
+	protected static final String	GEONAMES_EMISSION_CAPACITY_PROPERTY		= "geoNamesEmissionCapacity";
+	protected static final String	GEONAMES_OUTPUT_MODE_PROPERTY					= "geoNamesOutputMode";
+	protected static final String	GEONAMES_GEOMETRY_MAX_LOOKUPS_PROPERTY	= "geoNamesGeometryMaxLookups";
+	protected static final String	GEONAMES_FIELD_MAPPING_PROPERTY				= "geoNamesFieldMapping";
+	protected static final String	OUTPUT_MODE_PER_RESULT								= "One GeoEvent Per Result";
+	protected static final String	OUTPUT_MODE_PER_INPUT									= "One GeoEvent Per Input";
+	protected static final String	GEONAMES_EXECUTION_MODE_PROPERTY				= "geoNamesExecutionMode";
+	protected static final String	GEONAMES_WORKER_THREADS_PROPERTY				= "geoNamesWorkerThreads";
+	protected static final String	GEONAMES_QUEUE_DEPTH_PROPERTY					= "geoNamesQueueDepth";
+	protected static final String	GEONAMES_QUEUE_FULL_POLICY_PROPERTY			= "geoNamesQueueFullPolicy";
+	protected static final String	GEONAMES_REQUESTS_PER_SECOND_PROPERTY		= "geoNamesRequestsPerSecond";
+	protected static final String	GEONAMES_REQUESTS_PER_HOUR_PROPERTY			= "geoNamesRequestsPerHour";
+	protected static final String	GEONAMES_PRIORITY_EVENTS_PROPERTY				= "geoNamesPriorityEvents";
+	protected static final String	GEONAMES_PRIORITY_RESERVE_PROPERTY			= "geoNamesPriorityReserve";
+
+	protected void addAccountPropertyDefinitions() throws PropertyException
+	{
+		PropertyDefinition geoNamesUsernameProperty = new PropertyDefinition(GEONAMES_USERNAME_PROPERTY, PropertyType.String, "", "GeoNames Usernames (optional)", "If you purchased GeoNames Premium services, enter your username. Separate several usernames with commas to spread the requests over their credits; write username@url to send the requests of a username to its own server, such as a premium server. If blank, a more limited free account will be used.", false, false);
+		propertyDefinitions.put(GEONAMES_USERNAME_PROPERTY, geoNamesUsernameProperty);
+
+		PropertyDefinition geoNamesBaseUrlProperty = new PropertyDefinition(GEONAMES_BASE_URL_PROPERTY, PropertyType.String, GeoNamesQuery.DEFAULT_BASE_URL, "GeoNames Base URL", "The address of the GeoNames web service used by the usernames that do not name their own server. Change it to use a GeoNames premium server or a local test server.", true, false);
+		propertyDefinitions.put(GEONAMES_BASE_URL_PROPERTY, geoNamesBaseUrlProperty);
+
+		PropertyDefinition geoNamesAccountSuspensionProperty = new PropertyDefinition(GEONAMES_ACCOUNT_SUSPENSION_PROPERTY, PropertyType.Integer, GeoNamesRateLimiter.DEFAULT_SUSPENSION_SECONDS, "GeoNames Account Suspension (seconds)", "How long a username is not used after GeoNames reported that its credits are used up. The time doubles each time the credits are used up again right after the suspension.", true, false);
+		propertyDefinitions.put(GEONAMES_ACCOUNT_SUSPENSION_PROPERTY, geoNamesAccountSuspensionProperty);
+	}
+
+	protected void addWikipediaPropertyDefinitions() throws PropertyException
+	{
+		PropertyDefinition geoNamesWikipediaRadiusProperty = new PropertyDefinition(GEONAMES_WIKIPEDIARADIUS_PROPERTY, PropertyType.Double, 10, "GeoNames Wikipedia Search Radius (Km)", "The distance from the geoevent's location within which to search for Wikipedia articles. Max for a free account = 20km, max for a premium account = 150km.", true, false);
+		propertyDefinitions.put(GEONAMES_WIKIPEDIARADIUS_PROPERTY, geoNamesWikipediaRadiusProperty);
+
+		PropertyDefinition geoNamesWikipediaMaxRowsProperty = new PropertyDefinition(GEONAMES_WIKIPEDIAMAXROWS_PROPERTY, PropertyType.Integer, 10, "GeoNames Wikipedia Max Rows", "The maximum number of Wikipedia articles to return. Max for a free account = 500, max for a premium account = 2000.", true, false);
+		propertyDefinitions.put(GEONAMES_WIKIPEDIAMAXROWS_PROPERTY, geoNamesWikipediaMaxRowsProperty);
+
+		PropertyDefinition geoNamesWikipediaSourceProperty = new PropertyDefinition(GEONAMES_WIKIPEDIASOURCE_PROPERTY, PropertyType.String, WIKIPEDIA_SOURCE_WEB_SERVICE, "GeoNames Wikipedia Source", "Where to look up Wikipedia articles: the GeoNames web service, or a local gazetteer file loaded into memory so that no network access is needed.", true, false);
+		geoNamesWikipediaSourceProperty.addAllowedValue(WIKIPEDIA_SOURCE_WEB_SERVICE);
+		geoNamesWikipediaSourceProperty.addAllowedValue(WIKIPEDIA_SOURCE_LOCAL_FILE);
+		propertyDefinitions.put(GEONAMES_WIKIPEDIASOURCE_PROPERTY, geoNamesWikipediaSourceProperty);
+
+		PropertyDefinition geoNamesWikipediaGazetteerFileProperty = new PropertyDefinition(GEONAMES_WIKIPEDIAGAZETTEERFILE_PROPERTY, PropertyType.String, "", "GeoNames Wikipedia Gazetteer File", "Path of the local gazetteer file used when the source is a local file: either a GeoNames Wikipedia JSON document or a tab separated file whose first line names the columns (summary, title, wikipediaUrl, lat, lng, ...).", false, false);
+		propertyDefinitions.put(GEONAMES_WIKIPEDIAGAZETTEERFILE_PROPERTY, geoNamesWikipediaGazetteerFileProperty);
+	}
+
+	protected void addOSMPOIPropertyDefinitions() throws PropertyException
+	{
+		PropertyDefinition geoNamesOSMPOIsRadiusProperty = new PropertyDefinition(GEONAMES_OSMPOIsRADIUS_PROPERTY, PropertyType.Double, 1, "GeoNames OpenStreetmap POI Search Radius (Km)", "The distance from the geoevent's location within which to search for OpenStreetmap Points of Interest. Max for a free account = 1, max for a premium account = 3.", true, false);
+		propertyDefinitions.put(GEONAMES_OSMPOIsRADIUS_PROPERTY, geoNamesOSMPOIsRadiusProperty);
+
+		PropertyDefinition geoNamesOSMPOIsMaxRowsProperty = new PropertyDefinition(GEONAMES_OSMPOIsMAXROWS_PROPERTY, PropertyType.Integer, 50, "GeoNames OpenStreetmap POI Max Rows", "The maximum number of OpenStreetmap Points of Interest to return. Max for a free account = 50, max for a premium account = 150.", true, false);
+		propertyDefinitions.put(GEONAMES_OSMPOIsMAXROWS_PROPERTY, geoNamesOSMPOIsMaxRowsProperty);
+
+		PropertyDefinition geoNamesOSMPOIsSourceProperty = new PropertyDefinition(GEONAMES_OSMPOIsSOURCE_PROPERTY, PropertyType.String, OSMPOIs_SOURCE_WEB_SERVICE, "GeoNames OpenStreetmap POI Source", "Where to look up OpenStreetmap Points of Interest: the GeoNames web service, or a local index file built with GeoNamesOSMPOIIndexBuilder and memory-mapped so that no network access is needed.", true, false);
+		geoNamesOSMPOIsSourceProperty.addAllowedValue(OSMPOIs_SOURCE_WEB_SERVICE);
+		geoNamesOSMPOIsSourceProperty.addAllowedValue(OSMPOIs_SOURCE_LOCAL_INDEX);
+		propertyDefinitions.put(GEONAMES_OSMPOIsSOURCE_PROPERTY, geoNamesOSMPOIsSourceProperty);
+
+		PropertyDefinition geoNamesOSMPOIsIndexFileProperty = new PropertyDefinition(GEONAMES_OSMPOIsINDEXFILE_PROPERTY, PropertyType.String, "", "GeoNames OpenStreetmap POI Index File", "Path of the local index file used when the source is a local index file.", false, false);
+		propertyDefinitions.put(GEONAMES_OSMPOIsINDEXFILE_PROPERTY, geoNamesOSMPOIsIndexFileProperty);
+	}
+
+	/**
+	 * Adds the connection, cache, track suppression, emission and output mode properties.
+	 * 
+	 * @param results what the results are called in the property descriptions, for example "articles".
+	 * @param perResultDefinitions the name(s) of the GeoEvent definitions sent for each result.
+	 * @param aggregatedDefinitions the name(s) of the GeoEvent definitions sent for each input GeoEvent.
+	 */
+	protected void addLookupPropertyDefinitions(String results, String perResultDefinitions, String aggregatedDefinitions) throws PropertyException
+	{
+		PropertyDefinition geoNamesMaxConnectionsPerHostProperty = new PropertyDefinition(GEONAMES_MAX_CONNECTIONS_PER_HOST_PROPERTY, PropertyType.Integer, GeoNamesHttpClient.DEFAULT_MAX_CONNECTIONS_PER_HOST, "GeoNames Max Connections Per Host", "The maximum number of connections open at once to the GeoNames web service. The connections are shared by all running GeoNames processors, which use the largest value configured on any of them. The JVM keeps at most http.maxConnections (5 by default) idle connections alive per host, so connections beyond that are closed after use unless the JVM is started with a higher http.maxConnections.", true, false);
+		propertyDefinitions.put(GEONAMES_MAX_CONNECTIONS_PER_HOST_PROPERTY, geoNamesMaxConnectionsPerHostProperty);
+
+		PropertyDefinition geoNamesConnectTimeoutProperty = new PropertyDefinition(GEONAMES_CONNECT_TIMEOUT_PROPERTY, PropertyType.Integer, GeoNamesHttpClient.DEFAULT_CONNECT_TIMEOUT_MILLIS, "GeoNames Connect Timeout (ms)", "How long to wait for a connection to the GeoNames web service before the lookup fails. Set to 0 to wait indefinitely.", true, false);
+		propertyDefinitions.put(GEONAMES_CONNECT_TIMEOUT_PROPERTY, geoNamesConnectTimeoutProperty);
+
+		PropertyDefinition geoNamesReadTimeoutProperty = new PropertyDefinition(GEONAMES_READ_TIMEOUT_PROPERTY, PropertyType.Integer, GeoNamesHttpClient.DEFAULT_READ_TIMEOUT_MILLIS, "GeoNames Read Timeout (ms)", "How long to wait for the GeoNames web service to send data before the lookup fails. Set to 0 to wait indefinitely.", true, false);
+		propertyDefinitions.put(GEONAMES_READ_TIMEOUT_PROPERTY, geoNamesReadTimeoutProperty);
+
+		PropertyDefinition geoNamesCircuitBreakerFailuresProperty = new PropertyDefinition(GEONAMES_CIRCUIT_BREAKER_FAILURES_PROPERTY, PropertyType.Integer, GeoNamesCircuitBreaker.DEFAULT_FAILURE_THRESHOLD, "GeoNames Circuit Breaker Failures", "After this many requests in a row fail or time out, lookups fail at once instead of waiting for GeoNames, until the circuit breaker open time has passed. Shared by all processors using the same base URL. Set to 0 to always send the requests.", true, false);
+		propertyDefinitions.put(GEONAMES_CIRCUIT_BREAKER_FAILURES_PROPERTY, geoNamesCircuitBreakerFailuresProperty);
+
+		PropertyDefinition geoNamesCircuitBreakerOpenTimeProperty = new PropertyDefinition(GEONAMES_CIRCUIT_BREAKER_OPEN_TIME_PROPERTY, PropertyType.Integer, GeoNamesCircuitBreaker.DEFAULT_OPEN_SECONDS, "GeoNames Circuit Breaker Open Time (seconds)", "How long lookups fail at once after the circuit breaker opened, before a single request checks whether GeoNames is answering again.", true, false);
+		propertyDefinitions.put(GEONAMES_CIRCUIT_BREAKER_OPEN_TIME_PROPERTY, geoNamesCircuitBreakerOpenTimeProperty);
+
+		PropertyDefinition geoNamesServeStaleProperty = new PropertyDefinition(GEONAMES_SERVE_STALE_PROPERTY, PropertyType.Boolean, true, "GeoNames Serve Stale Results", "While the circuit breaker is open, answer lookups from cached results that have expired, when there are any, instead of failing them.", true, false);
+		propertyDefinitions.put(GEONAMES_SERVE_STALE_PROPERTY, geoNamesServeStaleProperty);
+
+		PropertyDefinition geoNamesHedgePercentileProperty = new PropertyDefinition(GEONAMES_HEDGE_PERCENTILE_PROPERTY, PropertyType.Integer, 0, "GeoNames Hedge Percentile", "When a request takes longer than this percentile (1-99) of the recent response times, for example 95, send a second request and use whichever answers first. Costs extra credits for the slowest requests. Set to 0 to send one request per lookup.", true, false);
+		propertyDefinitions.put(GEONAMES_HEDGE_PERCENTILE_PROPERTY, geoNamesHedgePercentileProperty);
+
+		PropertyDefinition geoNamesCacheCellPrecisionProperty = new PropertyDefinition(GEONAMES_CACHE_CELL_PRECISION_PROPERTY, PropertyType.Integer, GeoNamesLookup.DEFAULT_CELL_PRECISION, "GeoNames Cache Cell Precision", "The geohash precision (1-12) used to group nearby locations into one cached or coalesced lookup. 6 is about 1.2km x 0.6km, 7 is about 150m x 150m and 8 is about 40m x 20m.", true, false);
+		propertyDefinitions.put(GEONAMES_CACHE_CELL_PRECISION_PROPERTY, geoNamesCacheCellPrecisionProperty);
+
+		PropertyDefinition geoNamesCacheTTLProperty = new PropertyDefinition(GEONAMES_CACHE_TTL_PROPERTY, PropertyType.Integer, GeoNamesLookupCache.DEFAULT_TTL_SECONDS, "GeoNames Cache Time To Live (seconds)", "How long a cached lookup result is reused before GeoNames is queried again.", true, false);
+		propertyDefinitions.put(GEONAMES_CACHE_TTL_PROPERTY, geoNamesCacheTTLProperty);
+
+		PropertyDefinition geoNamesCacheCapacityProperty = new PropertyDefinition(GEONAMES_CACHE_CAPACITY_PROPERTY, PropertyType.Integer, GeoNamesLookupCache.DEFAULT_CAPACITY, "GeoNames Cache Capacity", "The maximum number of cached lookup results. The least recently used results are evicted first. Set to 0 to disable the cache.", true, false);
+		propertyDefinitions.put(GEONAMES_CACHE_CAPACITY_PROPERTY, geoNamesCacheCapacityProperty);
+
+		PropertyDefinition geoNamesTileSizeProperty = new PropertyDefinition(GEONAMES_TILE_SIZE_PROPERTY, PropertyType.Double, 0, "GeoNames Tile Size (degrees)", "Splits the world into tiles of up to this size and fetches all results of a tile, plus a margin of the search radius, with the first lookup in it. The other lookups in the tile are then answered from the cache without a request. Wikipedia tiles use a bounding box query; OpenStreetMap POI tiles use a nearby query from the tile center, so they are only used while that radius stays within 3km. Needs the cache. Set to 0 to look up every location on its own.", true, false);
+		propertyDefinitions.put(GEONAMES_TILE_SIZE_PROPERTY, geoNamesTileSizeProperty);
+
+		PropertyDefinition geoNamesTileMaxRowsProperty = new PropertyDefinition(GEONAMES_TILE_MAX_ROWS_PROPERTY, PropertyType.Integer, GeoNamesLookup.DEFAULT_TILE_MAX_ROWS, "GeoNames Tile Maximum Results", "The most results requested for a tile. A tile returning that many may be missing some, so it is split into four smaller tiles, or at the last level the lookups in it are sent on their own instead.", true, false);
+		propertyDefinitions.put(GEONAMES_TILE_MAX_ROWS_PROPERTY, geoNamesTileMaxRowsProperty);
+
+		PropertyDefinition geoNamesTileLevelsProperty = new PropertyDefinition(GEONAMES_TILE_LEVELS_PROPERTY, PropertyType.Integer, GeoNamesLookup.DEFAULT_TILE_LEVELS, "GeoNames Tile Levels", "How many times a tile that returned the maximum results can be split into four, each halving its size, so that dense areas get smaller tiles. A split tile is fetched whole again once it expires from the cache, and used again if it is no longer full. Set to 0 to always use tiles of the configured size.", true, false);
+		propertyDefinitions.put(GEONAMES_TILE_LEVELS_PROPERTY, geoNamesTileLevelsProperty);
+
+		PropertyDefinition geoNamesDiskCacheFileProperty = new PropertyDefinition(GEONAMES_DISK_CACHE_FILE_PROPERTY, PropertyType.String, "", "GeoNames Disk Cache File (optional)", "Path of a file that keeps the cached lookup results across restarts, so that they are not looked up again. Processors configured with the same file share it. Leave blank to keep the results in memory only. Requires a cache capacity above 0.", false, false);
+		propertyDefinitions.put(GEONAMES_DISK_CACHE_FILE_PROPERTY, geoNamesDiskCacheFileProperty);
+
+		PropertyDefinition geoNamesDiskCacheTTLProperty = new PropertyDefinition(GEONAMES_DISK_CACHE_TTL_PROPERTY, PropertyType.Integer, GeoNamesDiskCache.DEFAULT_TTL_SECONDS, "GeoNames Disk Cache Time To Live (seconds)", "How long a lookup result kept in the disk cache file is reused before GeoNames is queried again.", true, false);
+		propertyDefinitions.put(GEONAMES_DISK_CACHE_TTL_PROPERTY, geoNamesDiskCacheTTLProperty);
+
+		PropertyDefinition geoNamesDiskCacheMaxSizeProperty = new PropertyDefinition(GEONAMES_DISK_CACHE_MAX_SIZE_PROPERTY, PropertyType.Integer, GeoNamesDiskCache.DEFAULT_MAX_SIZE_MB, "GeoNames Disk Cache Max Size (MB)", "The size the disk cache file may grow to. When it is reached, expired and replaced results are removed from the file, and the results expiring first if that is not enough.", true, false);
+		propertyDefinitions.put(GEONAMES_DISK_CACHE_MAX_SIZE_PROPERTY, geoNamesDiskCacheMaxSizeProperty);
+
+		PropertyDefinition geoNamesPrewarmAreaProperty = new PropertyDefinition(GEONAMES_PREWARM_AREA_PROPERTY, PropertyType.String, "", "GeoNames Prewarm Area (optional)", "An area whose lookups are cached in the background when the processor starts, so that GeoEvents inside it do not wait for GeoNames: either a bounding box as minLon,minLat,maxLon,maxLat or a polygon as comma separated lon lat vertices. Each cache cell of the area costs one request per service. Leave blank to only cache the lookups of the GeoEvents received.", false, false);
+		propertyDefinitions.put(GEONAMES_PREWARM_AREA_PROPERTY, geoNamesPrewarmAreaProperty);
+
+		PropertyDefinition geoNamesPrewarmMaxCellsProperty = new PropertyDefinition(GEONAMES_PREWARM_MAX_CELLS_PROPERTY, PropertyType.Integer, GeoNamesPrewarmer.DEFAULT_MAX_CELLS, "GeoNames Prewarm Max Cells", "The maximum number of cache cells of the prewarm area that are cached, at most the cache capacity. Use a lower cache cell precision to cover a larger area with the same number of cells.", true, false);
+		propertyDefinitions.put(GEONAMES_PREWARM_MAX_CELLS_PROPERTY, geoNamesPrewarmMaxCellsProperty);
+
+		PropertyDefinition geoNamesPrewarmRequestsPerSecondProperty = new PropertyDefinition(GEONAMES_PREWARM_REQUESTS_PER_SECOND_PROPERTY, PropertyType.Integer, GeoNamesPrewarmer.DEFAULT_REQUESTS_PER_SECOND, "GeoNames Prewarm Requests Per Second", "The maximum number of requests per second sent to cache the prewarm area. They also count against the requests per second of the username. Set to 0 for no separate limit.", true, false);
+		propertyDefinitions.put(GEONAMES_PREWARM_REQUESTS_PER_SECOND_PROPERTY, geoNamesPrewarmRequestsPerSecondProperty);
+
+		PropertyDefinition geoNamesPrewarmRequestsPerHourProperty = new PropertyDefinition(GEONAMES_PREWARM_REQUESTS_PER_HOUR_PROPERTY, PropertyType.Integer, GeoNamesPrewarmer.DEFAULT_REQUESTS_PER_HOUR, "GeoNames Prewarm Requests Per Hour", "The share of the hourly credit budget of the username that may be spent caching the prewarm area, leaving the rest for the GeoEvents received. Set to 0 for no separate limit.", true, false);
+		propertyDefinitions.put(GEONAMES_PREWARM_REQUESTS_PER_HOUR_PROPERTY, geoNamesPrewarmRequestsPerHourProperty);
+
+		PropertyDefinition geoNamesPrewarmRefreshAheadProperty = new PropertyDefinition(GEONAMES_PREWARM_REFRESH_AHEAD_PROPERTY, PropertyType.Integer, GeoNamesPrewarmer.DEFAULT_REFRESH_AHEAD_PERCENT, "GeoNames Prewarm Refresh Ahead (%)", "The cached results of the prewarm area are looked up again when less than this percentage of the cache time to live remains, so that they never expire. Set to 0 to cache the area only once.", true, false);
+		propertyDefinitions.put(GEONAMES_PREWARM_REFRESH_AHEAD_PROPERTY, geoNamesPrewarmRefreshAheadProperty);
+
+		PropertyDefinition geoNamesCoalesceRequestsProperty = new PropertyDefinition(GEONAMES_COALESCE_REQUESTS_PROPERTY, PropertyType.Boolean, true, "GeoNames Coalesce Requests", "When several GeoEvents in the same cache cell are looked up at the same time, send a single request to GeoNames and share its results between them.", true, false);
+		propertyDefinitions.put(GEONAMES_COALESCE_REQUESTS_PROPERTY, geoNamesCoalesceRequestsProperty);
+
+		PropertyDefinition geoNamesTrackSuppressionProperty = new PropertyDefinition(GEONAMES_TRACK_SUPPRESSION_PROPERTY, PropertyType.String, GeoNamesTrackFilter.Mode.OFF.getLabel(), "GeoNames Track Movement Suppression", "Whether to look up every report of a track. Skip Lookup ignores reports from a track that has not moved more than the minimum distance since its last lookup; Reuse Previous Result answers them with the results of that lookup instead.", true, false);
+		for (GeoNamesTrackFilter.Mode mode : GeoNamesTrackFilter.Mode.values())
+			geoNamesTrackSuppressionProperty.addAllowedValue(mode.getLabel());
+		propertyDefinitions.put(GEONAMES_TRACK_SUPPRESSION_PROPERTY, geoNamesTrackSuppressionProperty);
+
+		PropertyDefinition geoNamesTrackMinDistanceProperty = new PropertyDefinition(GEONAMES_TRACK_MIN_DISTANCE_PROPERTY, PropertyType.Double, GeoNamesTrackFilter.DEFAULT_MIN_DISTANCE_METERS, "GeoNames Track Minimum Distance (m)", "How far a track has to move from the location of its last lookup before it is looked up again.", true, false);
+		propertyDefinitions.put(GEONAMES_TRACK_MIN_DISTANCE_PROPERTY, geoNamesTrackMinDistanceProperty);
+
+		PropertyDefinition geoNamesTrackMaxAgeProperty = new PropertyDefinition(GEONAMES_TRACK_MAX_AGE_PROPERTY, PropertyType.Integer, GeoNamesTrackFilter.DEFAULT_MAX_AGE_SECONDS, "GeoNames Track Maximum Age (seconds)", "How long the last lookup of a track that has not moved is used before it is looked up again. Set to 0 to never look it up again until it moves.", true, false);
+		propertyDefinitions.put(GEONAMES_TRACK_MAX_AGE_PROPERTY, geoNamesTrackMaxAgeProperty);
+
+		PropertyDefinition geoNamesTrackCapacityProperty = new PropertyDefinition(GEONAMES_TRACK_CAPACITY_PROPERTY, PropertyType.Integer, GeoNamesTrackFilter.DEFAULT_CAPACITY, "GeoNames Track Capacity", "The maximum number of tracks remembered. The tracks that reported least recently are forgotten first.", true, false);
+		propertyDefinitions.put(GEONAMES_TRACK_CAPACITY_PROPERTY, geoNamesTrackCapacityProperty);
+
+		PropertyDefinition geoNamesEmissionModeProperty = new PropertyDefinition(GEONAMES_EMISSION_MODE_PROPERTY, PropertyType.String, GeoNamesDeltaFilter.Mode.ALL.getLabel(), "GeoNames Emission Mode", "Whether to send a GeoEvent for every result of every lookup. New Results Only sends the " + results + " that were not sent for the same track and incident last time; New and Removed Results also sends those that are no longer returned. The changeType field is Added or Removed.", true, false);
+		for (GeoNamesDeltaFilter.Mode mode : GeoNamesDeltaFilter.Mode.values())
+			geoNamesEmissionModeProperty.addAllowedValue(mode.getLabel());
+		propertyDefinitions.put(GEONAMES_EMISSION_MODE_PROPERTY, geoNamesEmissionModeProperty);
+
+		PropertyDefinition geoNamesEmissionCapacityProperty = new PropertyDefinition(GEONAMES_EMISSION_CAPACITY_PROPERTY, PropertyType.Integer, GeoNamesDeltaFilter.DEFAULT_CAPACITY, "GeoNames Emission Capacity", "The maximum number of tracks and incidents whose sent results are remembered. The least recently reported are forgotten first, and their results are sent again as new.", true, false);
+		propertyDefinitions.put(GEONAMES_EMISSION_CAPACITY_PROPERTY, geoNamesEmissionCapacityProperty);
+
+		PropertyDefinition geoNamesOutputModeProperty = new PropertyDefinition(GEONAMES_OUTPUT_MODE_PROPERTY, PropertyType.String, OUTPUT_MODE_PER_RESULT, "GeoNames Output Mode", "One GeoEvent Per Result sends a " + perResultDefinitions + " GeoEvent for each result. One GeoEvent Per Input sends a single " + aggregatedDefinitions + " GeoEvent for each input GeoEvent, with all of its results in the results group field.", true, false);
+		geoNamesOutputModeProperty.addAllowedValue(OUTPUT_MODE_PER_RESULT);
+		geoNamesOutputModeProperty.addAllowedValue(OUTPUT_MODE_PER_INPUT);
+		propertyDefinitions.put(GEONAMES_OUTPUT_MODE_PROPERTY, geoNamesOutputModeProperty);
+
+		PropertyDefinition geoNamesGeometryMaxLookupsProperty = new PropertyDefinition(GEONAMES_GEOMETRY_MAX_LOOKUPS_PROPERTY, PropertyType.Integer, GeoNamesGeometry.DEFAULT_MAX_SAMPLES, "GeoNames Geometry Maximum Lookups", "GeoEvents with a polyline, polygon or multipoint geometry are looked up from several locations covering the geometry, in parallel, and get the results within the search radius of the geometry, nearest first. This is the most locations a geometry is looked up from; a longer route or a larger area is looked up from locations further apart, which may miss some results between them.", true, false);
+		propertyDefinitions.put(GEONAMES_GEOMETRY_MAX_LOOKUPS_PROPERTY, geoNamesGeometryMaxLookupsProperty);
+	}
+
+	/**
+	 * @param example an example mapping for the description, such as title=name,summary=
+	 */
+	protected void addFieldMappingPropertyDefinition(String propertyName, String label, String example) throws PropertyException
+	{
+		PropertyDefinition geoNamesFieldMappingProperty = new PropertyDefinition(propertyName, PropertyType.String, "", label, "Which GeoNames response field fills each output field, as comma separated outputField=responseField pairs, for example " + example + ". Output fields that are not listed are filled from the response field of the same name.", false, false);
+		propertyDefinitions.put(propertyName, geoNamesFieldMappingProperty);
+	}
+
+	protected void addExecutionPropertyDefinitions() throws PropertyException
+	{
+		PropertyDefinition geoNamesExecutionModeProperty = new PropertyDefinition(GEONAMES_EXECUTION_MODE_PROPERTY, PropertyType.String, GeoNamesLookupExecutor.EXECUTION_MODE_SYNCHRONOUS, "GeoNames Execution Mode", "Synchronous looks up each GeoEvent on the pipeline thread. Asynchronous hands the lookup to a bounded pool of worker threads and sends the results when they arrive.", true, false);
+		geoNamesExecutionModeProperty.addAllowedValue(GeoNamesLookupExecutor.EXECUTION_MODE_SYNCHRONOUS);
+		geoNamesExecutionModeProperty.addAllowedValue(GeoNamesLookupExecutor.EXECUTION_MODE_ASYNCHRONOUS);
+		propertyDefinitions.put(GEONAMES_EXECUTION_MODE_PROPERTY, geoNamesExecutionModeProperty);
+
+		PropertyDefinition geoNamesWorkerThreadsProperty = new PropertyDefinition(GEONAMES_WORKER_THREADS_PROPERTY, PropertyType.Integer, GeoNamesLookupExecutor.DEFAULT_WORKER_THREADS, "GeoNames Worker Threads", "The number of threads performing lookups in asynchronous execution mode.", true, false);
+		propertyDefinitions.put(GEONAMES_WORKER_THREADS_PROPERTY, geoNamesWorkerThreadsProperty);
+
+		PropertyDefinition geoNamesQueueDepthProperty = new PropertyDefinition(GEONAMES_QUEUE_DEPTH_PROPERTY, PropertyType.Integer, GeoNamesLookupExecutor.DEFAULT_QUEUE_DEPTH, "GeoNames Queue Depth", "The maximum number of GeoEvents waiting for a worker thread in asynchronous execution mode.", true, false);
+		propertyDefinitions.put(GEONAMES_QUEUE_DEPTH_PROPERTY, geoNamesQueueDepthProperty);
+
+		PropertyDefinition geoNamesQueueFullPolicyProperty = new PropertyDefinition(GEONAMES_QUEUE_FULL_POLICY_PROPERTY, PropertyType.String, GeoNamesLookupExecutor.QueueFullPolicy.BLOCK.getLabel(), "GeoNames Queue Full Policy", "What to do with a new GeoEvent when the asynchronous queue is full: block the pipeline until there is room, drop the oldest queued GeoEvent, or drop the new GeoEvent.", true, false);
+		for (GeoNamesLookupExecutor.QueueFullPolicy policy : GeoNamesLookupExecutor.QueueFullPolicy.values())
+			geoNamesQueueFullPolicyProperty.addAllowedValue(policy.getLabel());
+		propertyDefinitions.put(GEONAMES_QUEUE_FULL_POLICY_PROPERTY, geoNamesQueueFullPolicyProperty);
+
+		PropertyDefinition geoNamesRequestsPerSecondProperty = new PropertyDefinition(GEONAMES_REQUESTS_PER_SECOND_PROPERTY, PropertyType.Integer, GeoNamesRateLimiter.DEFAULT_REQUESTS_PER_SECOND, "GeoNames Requests Per Second", "The maximum number of requests per second sent to GeoNames with each username, shared by all processors using it. Requests over the limit wait instead of failing. Leave at 0 for no limit.", true, false);
+		propertyDefinitions.put(GEONAMES_REQUESTS_PER_SECOND_PROPERTY, geoNamesRequestsPerSecondProperty);
+
+		PropertyDefinition geoNamesRequestsPerHourProperty = new PropertyDefinition(GEONAMES_REQUESTS_PER_HOUR_PROPERTY, PropertyType.Integer, GeoNamesRateLimiter.DEFAULT_REQUESTS_PER_HOUR, "GeoNames Requests Per Hour", "The hourly credit budget of each username, shared by all processors using it. A free account has 1000 credits per hour. Requests over the limit wait instead of failing. Leave at 0 for no limit, for example for a premium account.", true, false);
+		propertyDefinitions.put(GEONAMES_REQUESTS_PER_HOUR_PROPERTY, geoNamesRequestsPerHourProperty);
+
+		PropertyDefinition geoNamesPriorityEventsProperty = new PropertyDefinition(GEONAMES_PRIORITY_EVENTS_PROPERTY, PropertyType.String, GeoNamesPriorityPolicy.DEFAULT_PRIORITY_EVENTS, "GeoNames Priority Events (optional)", "The GeoEvents looked up ahead of the others, as a comma separated list of GeoEvent definition names and field conditions like incident,severity=high. They are queued first in asynchronous execution mode, and while one waits for the rate limit the other lookups are shed: they are answered from expired cached results if served stale, or fail. Leave blank, the default, to look up all GeoEvents in the order received.", false, false);
+		propertyDefinitions.put(GEONAMES_PRIORITY_EVENTS_PROPERTY, geoNamesPriorityEventsProperty);
+
+		PropertyDefinition geoNamesPriorityReserveProperty = new PropertyDefinition(GEONAMES_PRIORITY_RESERVE_PROPERTY, PropertyType.Integer, GeoNamesPriorityPolicy.DEFAULT_RESERVE_PERCENT, "GeoNames Priority Reserve (%)", "The percentage of the hourly credit budget of each username kept for the priority events. While priority events have been looked up within the last hour, the other lookups are shed once only the reserve is left. Set to 0, the default, to keep no reserve.", true, false);
+		propertyDefinitions.put(GEONAMES_PRIORITY_RESERVE_PROPERTY, geoNamesPriorityReserveProperty);
+	}
+
+	/**
+	 * Adds the GeoEvent definitions sent by a lookup: one GeoEvent per result named after the service, and one
+	 * GeoEvent per input GeoEvent with a group for each result named after the service with an Aggregated suffix.
+	 */
+	protected void addOutputGeoEventDefinitions(String name, List<FieldDefinition> resultFieldDefinitions) throws ConfigurationException
+	{
+		GeoEventDefinition ged = new DefaultGeoEventDefinition();
+		ged.setName(name);
+		List<FieldDefinition> fds = new ArrayList<FieldDefinition>();
+		fds.add(new DefaultFieldDefinition("trackId", FieldType.String, "TRACK_ID"));
+		fds.add(new DefaultFieldDefinition("timestamp", FieldType.Date, "TIME_START"));
+		fds.add(new DefaultFieldDefinition("incidentId", FieldType.String));
+		fds.addAll(resultFieldDefinitions);
+		fds.add(new DefaultFieldDefinition("geometry", FieldType.Geometry, "GEOMETRY"));
+		fds.add(new DefaultFieldDefinition("changeType", FieldType.String));
+		ged.setFieldDefinitions(fds);
+		geoEventDefinitions.put(ged.getName(), ged);
+
+		// one GeoEvent per input GeoEvent, with a group for each result
+		ged = new DefaultGeoEventDefinition();
+		ged.setName(name + "Aggregated");
+		fds = new ArrayList<FieldDefinition>();
+		fds.add(new DefaultFieldDefinition("trackId", FieldType.String, "TRACK_ID"));
+		fds.add(new DefaultFieldDefinition("timestamp", FieldType.Date, "TIME_START"));
+		fds.add(new DefaultFieldDefinition("incidentId", FieldType.String));
+		fds.add(new DefaultFieldDefinition("resultCount", FieldType.Integer));
+		fds.add(new DefaultFieldDefinition("geometry", FieldType.Geometry, "GEOMETRY"));
+		FieldDefinition results = new DefaultFieldDefinition("results", FieldType.Group);
+		results.setCardinality(FieldCardinality.Many);
+		for (FieldDefinition child : resultFieldDefinitions)
+			results.addChild(child);
+		results.addChild(new DefaultFieldDefinition("changeType", FieldType.String));
+		fds.add(results);
+		ged.setFieldDefinitions(fds);
+		geoEventDefinitions.put(ged.getName(), ged);
+	}
+}
@@ -0,0 +1,118 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+package com.esri.geoevent.processor.geonames;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.esri.core.geometry.SpatialReference;
+import com.esri.ges.framework.i18n.BundleLogger;
+import com.esri.ges.framework.i18n.BundleLoggerFactory;
+
+/**
+ * Converts the coordinates of GeoEvent geometries to the WGS84 longitudes and latitudes GeoNames expects. Geographic
+ * spatial references are taken as WGS84, as their datums differ from it by less than a lookup cell; Web Mercator is
+ * converted with the spherical formulas. The projection of each wkid is created once and shared, and a wkid that
+ * cannot be converted is logged once and its GeoEvents are not looked up, rather than looked up at the wrong place.
+ */
+public class GeoNamesProjection
+{
+	private static final BundleLogger														LOGGER							= BundleLoggerFactory.getLogger(GeoNamesProjection.class);
+	private static final double																	WEB_MERCATOR_RADIUS	= 6378137.0;
+
+	public static final int																			WGS84_WKID					= 4326;
+	public static final GeoNamesProjection											WGS84								= new GeoNamesProjection(WGS84_WKID, false, true);
+
+	private static final ConcurrentMap<Integer, GeoNamesProjection>	PROJECTIONS					= new ConcurrentHashMap<Integer, GeoNamesProjection>();
+
+	private final int																						wkid;
+	private final boolean																				webMercator;
+	private final boolean																				supported;
+
+	private GeoNamesProjection(int wkid, boolean webMercator, boolean supported)
+	{
+		this.wkid = wkid;
+		this.webMercator = webMercator;
+		this.supported = supported;
+	}
+
+	/**
+	 * Returns the projection from the spatial reference to WGS84, taking a geometry without one to be in WGS84.
+	 * 
+	 * @return the projection, or null if the spatial reference is not supported.
+	 */
+	public static GeoNamesProjection forSpatialReference(SpatialReference spatialReference)
+	{
+		if (spatialReference == null)
+			return WGS84;
+		int wkid = spatialReference.getID();
+		GeoNamesProjection projection = PROJECTIONS.get(wkid);
+		if (projection == null)
+		{
+			GeoNamesProjection created = create(wkid);
+			projection = PROJECTIONS.putIfAbsent(wkid, created);
+			if (projection == null)
+			{
+				projection = created;
+				if (!created.supported)
+					LOGGER.warn("SPATIAL_REFERENCE_UNSUPPORTED", wkid);
+			}
+		}
+		return projection.supported ? projection : null;
+	}
+
+	private static GeoNamesProjection create(int wkid)
+	{
+		switch (wkid)
+		{
+			case WGS84_WKID:
+				return WGS84;
+			case 3857:
+			case 3785:
+			case 900913:
+			case 102100:
+			case 102113:
+				return new GeoNamesProjection(wkid, true, true);
+			default:
+				// EPSG and Esri geographic coordinate systems, in degrees
+				boolean geographic = (wkid >= 4000 && wkid < 5000) || (wkid >= 37001 && wkid <= 37260) || (wkid >= 104000 && wkid < 105000);
+				return new GeoNamesProjection(wkid, false, geographic);
+		}
+	}
+
+	public int getWkid()
+	{
+		return wkid;
+	}
+
+	public double toLon(double x)
+	{
+		return webMercator ? Math.toDegrees(x / WEB_MERCATOR_RADIUS) : x;
+	}
+
+	public double toLat(double y)
+	{
+		return webMercator ? Math.toDegrees(Math.atan(Math.sinh(y / WEB_MERCATOR_RADIUS))) : y;
+	}
+}
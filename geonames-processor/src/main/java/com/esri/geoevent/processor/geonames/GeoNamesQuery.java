@@ -0,0 +1,212 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+
+/**
+ * A single nearby lookup against one of the GeoNames services, or the lookup of a whole tile of the world, see
+ * {@link #getTile(double, int)}. A priority query, such as that of an incident, is sent ahead of routine ones; the
+ * priority is not part of what is looked up, so it shares the cached results of routine queries.
+ */
+public class GeoNamesQuery
+{
+	public static final String		DEFAULT_BASE_URL	= "http://api.geonames.org";
+
+	private final GeoNamesService	service;
+	private final double					lat;
+	private final double					lon;
+	private final double					radius;
+	private final int							maxRows;
+	private final String					lang;
+	private final String					tile;
+	private final double					north;
+	private final double					south;
+	private final double					east;
+	private final double					west;
+	private final boolean					priority;
+
+	public GeoNamesQuery(GeoNamesService service, double lat, double lon, double radius, int maxRows, String lang)
+	{
+		this(service, lat, lon, radius, maxRows, lang, null, Double.NaN, Double.NaN, Double.NaN, Double.NaN, false);
+	}
+
+	private GeoNamesQuery(GeoNamesService service, double lat, double lon, double radius, int maxRows, String lang, String tile, double north, double south, double east, double west, boolean priority)
+	{
+		this.service = service;
+		this.lat = lat;
+		this.lon = lon;
+		this.radius = radius;
+		this.maxRows = maxRows;
+		this.lang = lang;
+		this.tile = tile;
+		this.north = north;
+		this.south = south;
+		this.east = east;
+		this.west = west;
+		this.priority = priority;
+	}
+
+	/**
+	 * Returns this query with the given priority.
+	 */
+	public GeoNamesQuery withPriority(boolean priority)
+	{
+		if (priority == this.priority)
+			return this;
+		return new GeoNamesQuery(service, lat, lon, radius, maxRows, lang, tile, north, south, east, west, priority);
+	}
+
+	public boolean isPriority()
+	{
+		return priority;
+	}
+
+	/**
+	 * Returns the query for the fixed tile of the world containing this location, covering the tile plus a margin of
+	 * the search radius so that every result of a nearby lookup anywhere in the tile is in it. Services with a bounding
+	 * box endpoint query the box; the others query the tile center with a radius reaching the corners of the box. The
+	 * tile grid is aligned to -180/-90; boxes are clipped at the poles and the antimeridian, and a box reaching a pole
+	 * spans every longitude.
+	 * 
+	 * @param tileSize the width and height of a tile in degrees.
+	 * @param tileMaxRows the most results requested for a tile.
+	 */
+	public GeoNamesQuery getTile(double tileSize, int tileMaxRows)
+	{
+		// the antimeridian and the poles belong to the last column and row rather than to tiles of their own
+		long x = Math.min((long) Math.ceil(360 / tileSize) - 1, (long) Math.floor((Math.max(-180, Math.min(180, lon)) + 180) / tileSize));
+		long y = Math.min((long) Math.ceil(180 / tileSize) - 1, (long) Math.floor((Math.max(-90, Math.min(90, lat)) + 90) / tileSize));
+		double tileWest = -180 + x * tileSize;
+		double tileSouth = -90 + y * tileSize;
+		double tileEast = Math.min(180, tileWest + tileSize);
+		double tileNorth = Math.min(90, tileSouth + tileSize);
+		double dLat = Math.toDegrees(radius / GeoHash.EARTH_RADIUS_KM);
+		// a box reaching a pole takes in every longitude
+		double maxAbsLat = Math.max(Math.abs(tileSouth), Math.abs(tileNorth)) + dLat;
+		double dLon = (maxAbsLat >= 90) ? 180.0 : Math.min(180.0, dLat / Math.max(Math.cos(Math.toRadians(maxAbsLat)), 1e-6));
+		double boxNorth = Math.min(90, tileNorth + dLat);
+		double boxSouth = Math.max(-90, tileSouth - dLat);
+		double boxEast = (dLon >= 180) ? 180 : Math.min(180, tileEast + dLon);
+		double boxWest = (dLon >= 180) ? -180 : Math.max(-180, tileWest - dLon);
+		double centerLat = (tileSouth + tileNorth) / 2;
+		double centerLon = (tileWest + tileEast) / 2;
+		double tileRadius = Math.max(GeoHash.distanceKm(centerLat, centerLon, boxNorth, boxEast), GeoHash.distanceKm(centerLat, centerLon, boxSouth, boxEast));
+		String key = tileSize + ":" + x + ":" + y + ":" + radius;
+		return new GeoNamesQuery(service, centerLat, centerLon, tileRadius, tileMaxRows, lang, key, boxNorth, boxSouth, boxEast, boxWest, priority);
+	}
+
+	/**
+	 * Whether this is the query of a whole tile, see {@link #getTile(double, int)}.
+	 */
+	public boolean isTile()
+	{
+		return tile != null;
+	}
+
+	public GeoNamesService getService()
+	{
+		return service;
+	}
+
+	public double getLat()
+	{
+		return lat;
+	}
+
+	public double getLon()
+	{
+		return lon;
+	}
+
+	public double getRadius()
+	{
+		return radius;
+	}
+
+	public int getMaxRows()
+	{
+		return maxRows;
+	}
+
+	public String getLang()
+	{
+		return lang;
+	}
+
+	public URL toURL(String baseUrl, String username) throws MalformedURLException
+	{
+		StringBuilder sb = new StringBuilder(baseUrl);
+		if (tile != null && service.getBoundingBoxEndpoint() != null)
+		{
+			sb.append('/').append(service.getBoundingBoxEndpoint());
+			sb.append("?north=").append(Double.toString(north));
+			sb.append("&south=").append(Double.toString(south));
+			sb.append("&east=").append(Double.toString(east));
+			sb.append("&west=").append(Double.toString(west));
+			sb.append("&username=").append(username);
+			if (lang != null)
+				sb.append("&lang=").append(lang);
+			sb.append("&maxRows=").append(Integer.toString(maxRows));
+			return new URL(sb.toString());
+		}
+		sb.append('/').append(service.getEndpoint());
+		sb.append("?lat=").append(Double.toString(lat));
+		sb.append("&lng=").append(Double.toString(lon));
+		sb.append("&username=").append(username);
+		if (lang != null)
+			sb.append("&lang=").append(lang);
+		sb.append("&radius=").append(Double.toString(radius));
+		sb.append("&maxRows=").append(Integer.toString(maxRows));
+		return new URL(sb.toString());
+	}
+
+	/**
+	 * Returns a key shared by every query for the same service and parameters whose location falls in the same geohash
+	 * cell of the given precision. The key of a tile query is that of its tile, whatever the precision.
+	 */
+	public String getCellKey(int precision)
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append(service.name());
+		if (tile != null)
+			sb.append("|tile:").append(tile);
+		else
+			sb.append('|').append(GeoHash.encode(lat, lon, precision));
+		sb.append('|').append(radius);
+		sb.append('|').append(maxRows);
+		sb.append('|').append(lang);
+		return sb.toString();
+	}
+
+	@Override
+	public String toString()
+	{
+		if (tile != null)
+			return service.getEndpoint() + "[tile=" + tile + ", north=" + north + ", south=" + south + ", east=" + east + ", west=" + west + ", maxRows=" + maxRows + ", lang=" + lang + "]";
+		return service.getEndpoint() + "[lat=" + lat + ", lng=" + lon + ", radius=" + radius + ", maxRows=" + maxRows + ", lang=" + lang + "]";
+	}
+}
@@ -0,0 +1,465 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.esri.ges.framework.i18n.BundleLogger;
+import com.esri.ges.framework.i18n.BundleLoggerFactory;
+
+/**
+ * Token bucket limiter for outbound GeoNames requests with a per-second and a per-hour budget. One limiter is shared by
+ * every processor using the same GeoNames username, since the credit limits apply to the account.
+ * 
+ * Requests over the budget are not rejected. Callers wait, first come first served, until a token is available; the
+ * waiting GeoEvents are the ones already held by the pipeline thread or the bounded asynchronous queue. Routine
+ * requests are the exception: a routine request that would have to wait while a priority request is waiting is shed
+ * with a {@link ShedException} instead, and so is one that would take the reserve of the hourly budget kept for
+ * priority requests. The reserve is only kept while priority requests are being made: for an hour after the last one,
+ * the period of the hourly budget.
+ * 
+ * When GeoNames itself reports that the credits of the account are used up, the account is suspended, so that a
+ * {@link GeoNamesAccountPool} sends its requests with the other accounts. The suspension doubles with every limit
+ * reported in a row, up to a day, since the credits may not come back at the start of the next hour.
+ * 
+ * There are no budgets by default: the credits of an account depend on its plan, so the limits are opt-in.
+ */
+public class GeoNamesRateLimiter
+{
+	public static final int																	DEFAULT_REQUESTS_PER_SECOND	= 0;
+	public static final int																	DEFAULT_REQUESTS_PER_HOUR		= 0;
+	public static final int																	DEFAULT_SUSPENSION_SECONDS	= 600;
+	private static final long																MAX_SUSPENSION_MILLIS				= TimeUnit.DAYS.toMillis(1);
+	private static final long																ROUTINE_WAIT_SLICE_NANOS		= TimeUnit.MILLISECONDS.toNanos(10);
+	private static final long																RESERVE_HOLD_NANOS					= TimeUnit.HOURS.toNanos(1);
+
+	private static final BundleLogger												LOGGER											= BundleLoggerFactory.getLogger(GeoNamesRateLimiter.class);
+	private static final ConcurrentMap<String, GeoNamesRateLimiter>	LIMITERS										= new ConcurrentHashMap<String, GeoNamesRateLimiter>();
+
+	private final String																		username;
+	private final ReentrantLock															lock												= new ReentrantLock(true);
+	private final TokenBucket																perSecond										= new TokenBucket();
+	private final TokenBucket																perHour											= new TokenBucket();
+	private final AtomicInteger															waiting											= new AtomicInteger();
+	private final AtomicLong																acquiredCount								= new AtomicLong();
+	private final AtomicLong																throttledCount							= new AtomicLong();
+	private volatile boolean																printedWarning;
+	private volatile long																		suspendedUntil;
+	private volatile int																		consecutiveLimits;
+	private final AtomicLong																limitCount									= new AtomicLong();
+	private final AtomicInteger															priorityWaiting							= new AtomicInteger();
+	private final AtomicLong																shedCount										= new AtomicLong();
+	private volatile int																		reservePercent;
+	private volatile boolean																prioritySeen;
+	private volatile long																		lastPriorityNanos;
+
+	GeoNamesRateLimiter(String username)
+	{
+		this.username = username;
+	}
+
+	/**
+	 * Returns the limiter shared by all processors using the given GeoNames username.
+	 */
+	public static GeoNamesRateLimiter forUsername(String username)
+	{
+		GeoNamesRateLimiter limiter = LIMITERS.get(username);
+		if (limiter == null)
+		{
+			GeoNamesRateLimiter newLimiter = new GeoNamesRateLimiter(username);
+			limiter = LIMITERS.putIfAbsent(username, newLimiter);
+			if (limiter == null)
+				limiter = newLimiter;
+		}
+		return limiter;
+	}
+
+	/**
+	 * Sets the budgets. A value of 0 or less removes that limit. The limiter is shared, so the last processor to
+	 * configure it decides the budgets for the account.
+	 */
+	public void setLimits(int requestsPerSecond, int requestsPerHour)
+	{
+		lock.lock();
+		try
+		{
+			perSecond.configure(requestsPerSecond, TimeUnit.SECONDS.toNanos(1));
+			perHour.configure(requestsPerHour, TimeUnit.HOURS.toNanos(1));
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Sets the share of the hourly budget kept for priority requests. The limiter is shared, so the last processor to
+	 * configure it decides the reserve for the account.
+	 */
+	public void setReserve(int reservePercent)
+	{
+		this.reservePercent = Math.max(0, Math.min(100, reservePercent));
+	}
+
+	public int getReserve()
+	{
+		return reservePercent;
+	}
+
+	/**
+	 * Takes one token from each bucket, waiting as long as necessary for them to refill.
+	 * 
+	 * @param priority false for a routine request, which is shed rather than wait while a priority request is waiting,
+	 *          or take the reserve of the hourly budget.
+	 * @throws ShedException if the routine request was shed.
+	 */
+	public void acquire(boolean priority) throws IOException
+	{
+		waiting.incrementAndGet();
+		if (priority)
+		{
+			priorityWaiting.incrementAndGet();
+			lastPriorityNanos = System.nanoTime();
+			prioritySeen = true;
+		}
+		try
+		{
+			lock.lockInterruptibly();
+			try
+			{
+				long waitNanos = Math.max(perSecond.nanosUntilAvailable(), perHour.nanosUntilAvailable());
+				if (!priority)
+					checkRoutine(waitNanos > 0);
+				if (waitNanos > 0)
+				{
+					throttledCount.incrementAndGet();
+					if (!printedWarning)
+					{
+						printedWarning = true;
+						LOGGER.warn("RATE_LIMIT_WARNING", username);
+					}
+					while (waitNanos > 0)
+					{
+						// a routine request holding the lock wakes up to step aside for a priority one
+						TimeUnit.NANOSECONDS.sleep(priority ? waitNanos : Math.min(waitNanos, ROUTINE_WAIT_SLICE_NANOS));
+						waitNanos = Math.max(perSecond.nanosUntilAvailable(), perHour.nanosUntilAvailable());
+						if (!priority)
+							checkRoutine(waitNanos > 0);
+					}
+				}
+				perSecond.take();
+				perHour.take();
+				acquiredCount.incrementAndGet();
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the GeoNames rate limit");
+		}
+		finally
+		{
+			if (priority)
+				priorityWaiting.decrementAndGet();
+			waiting.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Sheds a routine request that would have to wait while a priority request is waiting, or would take the reserve.
+	 * Called with the lock held.
+	 */
+	private void checkRoutine(boolean mustWait) throws ShedException
+	{
+		if (mustWait && priorityWaiting.get() > 0)
+		{
+			shedCount.incrementAndGet();
+			throw new ShedException("A routine GeoNames request for username " + username + " was shed for a priority one");
+		}
+		if (isReserving() && perHour.isBelow(reservePercent / 100.0))
+		{
+			shedCount.incrementAndGet();
+			throw new ShedException("A routine GeoNames request for username " + username + " was shed, the rest of the hourly credits are kept for priority requests");
+		}
+	}
+
+	/**
+	 * Whether the reserve is kept, because a priority request was made within the last hour.
+	 */
+	private boolean isReserving()
+	{
+		return reservePercent > 0 && prioritySeen && System.nanoTime() - lastPriorityNanos < RESERVE_HOLD_NANOS;
+	}
+
+	/**
+	 * Takes one token from each bucket if both have one available right now, without waiting.
+	 * 
+	 * @return false if the budget is used up and nothing was taken.
+	 */
+	public boolean tryAcquire()
+	{
+		if (!lock.tryLock())
+			return false;
+		try
+		{
+			if (perSecond.nanosUntilAvailable() > 0 || perHour.nanosUntilAvailable() > 0)
+				return false;
+			perSecond.take();
+			perHour.take();
+			acquiredCount.incrementAndGet();
+			return true;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the tokens taken by {@link #acquire(boolean)} or {@link #tryAcquire()} for a request that was not sent
+	 * after all.
+	 */
+	public void release()
+	{
+		lock.lock();
+		try
+		{
+			perSecond.giveBack();
+			perHour.giveBack();
+			acquiredCount.decrementAndGet();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Whether a token is available in both buckets right now, so that {@link #acquire(boolean)} would not wait.
+	 */
+	public boolean isAvailable()
+	{
+		lock.lock();
+		try
+		{
+			return perSecond.nanosUntilAvailable() == 0 && perHour.nanosUntilAvailable() == 0;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * The tokens left in the hourly bucket, or Long.MAX_VALUE if there is no hourly limit.
+	 */
+	public long getRemaining()
+	{
+		lock.lock();
+		try
+		{
+			return perHour.remaining();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Takes the account out of use after GeoNames reported that its credits are used up.
+	 * 
+	 * @param suspensionSeconds how long the first limit in a row suspends the account; each following one doubles it.
+	 */
+	public void limitReached(int suspensionSeconds)
+	{
+		limitCount.incrementAndGet();
+		long suspensionMillis;
+		synchronized (this)
+		{
+			// the answers to requests sent before the account was suspended do not extend the suspension
+			if (isSuspended())
+				return;
+			int limits = ++consecutiveLimits;
+			suspensionMillis = Math.min(MAX_SUSPENSION_MILLIS, TimeUnit.SECONDS.toMillis(Math.max(1, suspensionSeconds)) << Math.min(limits - 1, 20));
+			suspendedUntil = System.currentTimeMillis() + suspensionMillis;
+		}
+		LOGGER.warn("ACCOUNT_SUSPENDED", username, TimeUnit.MILLISECONDS.toSeconds(suspensionMillis));
+	}
+
+	/**
+	 * Called when GeoNames answered a request, which ends a run of limits.
+	 */
+	public void limitCleared()
+	{
+		if (consecutiveLimits != 0)
+		{
+			synchronized (this)
+			{
+				consecutiveLimits = 0;
+			}
+		}
+	}
+
+	public boolean isSuspended()
+	{
+		return suspendedUntil > System.currentTimeMillis();
+	}
+
+	public long getLimitCount()
+	{
+		return limitCount.get();
+	}
+
+	public String getUsername()
+	{
+		return username;
+	}
+
+	public int getWaitingCount()
+	{
+		return waiting.get();
+	}
+
+	public long getAcquiredCount()
+	{
+		return acquiredCount.get();
+	}
+
+	public long getThrottledCount()
+	{
+		return throttledCount.get();
+	}
+
+	public long getShedCount()
+	{
+		return shedCount.get();
+	}
+
+	public String getStatistics()
+	{
+		long suspendedMillis = suspendedUntil - System.currentTimeMillis();
+		return "waiting=" + getWaitingCount() + " acquired=" + getAcquiredCount() + " throttled=" + getThrottledCount() + " limits=" + getLimitCount() + " shed=" + getShedCount() + ((suspendedMillis > 0) ? " suspended(s)=" + TimeUnit.MILLISECONDS.toSeconds(suspendedMillis) : "");
+	}
+
+	/**
+	 * Thrown instead of waiting for a routine request that gave way to priority requests. Nothing was sent, so the lookup
+	 * can be answered with expired cached results like when no account can be used.
+	 */
+	public static class ShedException extends GeoNamesCircuitBreaker.OpenException
+	{
+		private static final long	serialVersionUID	= 1L;
+
+		ShedException(String message)
+		{
+			super(message);
+		}
+	}
+
+	/**
+	 * A bucket holding up to capacity tokens that refills at capacity tokens per period. Only accessed under the limiter
+	 * lock.
+	 */
+	private static class TokenBucket
+	{
+		private boolean	configured;
+		private double	capacity;
+		private double	tokens;
+		private double	tokensPerNano;
+		private long		lastRefill	= System.nanoTime();
+
+		/**
+		 * The bucket starts full. Reconfiguring it keeps the tokens left, up to the new capacity.
+		 */
+		void configure(int capacity, long periodNanos)
+		{
+			refill();
+			this.capacity = Math.max(0, capacity);
+			this.tokensPerNano = this.capacity / periodNanos;
+			this.tokens = configured ? Math.min(tokens, this.capacity) : this.capacity;
+			configured = true;
+		}
+
+		long nanosUntilAvailable()
+		{
+			if (capacity <= 0)
+				return 0;
+			refill();
+			return (tokens >= 1) ? 0 : (long) Math.ceil((1 - tokens) / tokensPerNano);
+		}
+
+		long remaining()
+		{
+			if (capacity <= 0)
+				return Long.MAX_VALUE;
+			refill();
+			return (long) tokens;
+		}
+
+		/**
+		 * Whether fewer than the fraction of the capacity are left; never without a limit.
+		 */
+		boolean isBelow(double fraction)
+		{
+			if (capacity <= 0 || fraction <= 0)
+				return false;
+			refill();
+			return tokens < fraction * capacity;
+		}
+
+		void take()
+		{
+			if (capacity > 0)
+				tokens -= 1;
+		}
+
+		void giveBack()
+		{
+			if (capacity > 0)
+			{
+				refill();
+				tokens = Math.min(capacity, tokens + 1);
+			}
+		}
+
+		private void refill()
+		{
+			long now = System.nanoTime();
+			if (capacity > 0)
+				tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+			lastRefill = now;
+		}
+	}
+}
@@ -0,0 +1,229 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * One immutable result row of a GeoNames response. GeoNames rows are flat, so the row is kept as two parallel arrays
+ * of names and values rather than as a JSON tree. The accessors behave like their {@link JSONObject} counterparts and
+ * throw {@link JSONException} for missing values.
+ */
+public class GeoNamesRow
+{
+	private final String[]	names;
+	private final Object[]	values;
+
+	public GeoNamesRow(String[] names, Object[] values)
+	{
+		this.names = names;
+		this.values = values;
+	}
+
+	/**
+	 * Parses a complete GeoNames JSON response into its result rows.
+	 */
+	public static List<GeoNamesRow> parse(String jsonResponse, String resultArrayName) throws JSONException
+	{
+		final List<GeoNamesRow> rows = new ArrayList<GeoNamesRow>();
+		try
+		{
+			new GeoNamesJsonReader(new StringReader(jsonResponse)).readRows(resultArrayName, new GeoNamesRowHandler()
+				{
+					@Override
+					public void handleRow(GeoNamesRow row)
+					{
+						rows.add(row);
+					}
+				});
+		}
+		catch (IOException e)
+		{
+			throw new JSONException(e);
+		}
+		return Collections.unmodifiableList(rows);
+	}
+
+	/**
+	 * @return the number of values in the row.
+	 */
+	public int size()
+	{
+		return names.length;
+	}
+
+	public String getName(int index)
+	{
+		return names[index];
+	}
+
+	public Object getValue(int index)
+	{
+		return values[index];
+	}
+
+	public boolean has(String name)
+	{
+		return indexOf(name) != -1;
+	}
+
+	public Object opt(String name)
+	{
+		int index = indexOf(name);
+		return (index != -1) ? values[index] : null;
+	}
+
+	public Object get(String name) throws JSONException
+	{
+		Object value = opt(name);
+		if (value == null || value == JSONObject.NULL)
+			throw new JSONException("GeoNamesRow[" + JSONObject.quote(name) + "] not found.");
+		return value;
+	}
+
+	public String getString(String name) throws JSONException
+	{
+		return get(name).toString();
+	}
+
+	public double getDouble(String name) throws JSONException
+	{
+		Object value = get(name);
+		try
+		{
+			return (value instanceof Number) ? ((Number) value).doubleValue() : Double.parseDouble(value.toString());
+		}
+		catch (NumberFormatException e)
+		{
+			throw new JSONException("GeoNamesRow[" + JSONObject.quote(name) + "] is not a number.");
+		}
+	}
+
+	/**
+	 * Returns the value as a double, or NaN if it is missing or not a number.
+	 */
+	public double optDouble(String name)
+	{
+		Object value = opt(name);
+		if (value instanceof Number)
+			return ((Number) value).doubleValue();
+		if (value instanceof String)
+		{
+			try
+			{
+				return Double.parseDouble((String) value);
+			}
+			catch (NumberFormatException e)
+			{
+				;
+			}
+		}
+		return Double.NaN;
+	}
+
+	/**
+	 * Returns a copy of this row with one value added or replaced.
+	 */
+	public GeoNamesRow with(String name, Object value)
+	{
+		int index = indexOf(name);
+		if (index != -1)
+		{
+			Object[] newValues = values.clone();
+			newValues[index] = value;
+			return new GeoNamesRow(names, newValues);
+		}
+		String[] newNames = Arrays.copyOf(names, names.length + 1);
+		Object[] newValues = Arrays.copyOf(values, values.length + 1);
+		newNames[names.length] = name;
+		newValues[values.length] = value;
+		return new GeoNamesRow(newNames, newValues);
+	}
+
+	/**
+	 * Returns a stable 64-bit identity for the feature this row describes: its geoNameId when it has one, otherwise a
+	 * hash of all its values except the distance, which depends on where the query was made.
+	 */
+	public long identity()
+	{
+		Object geoNameId = opt("geoNameId");
+		if (geoNameId instanceof Number)
+			return ((Number) geoNameId).longValue();
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < names.length; i++)
+		{
+			if (names[i].equals("distance"))
+				continue;
+			hash = hash(hash, names[i]);
+			hash = hash(hash, String.valueOf(values[i]));
+		}
+		// keep hashes apart from geoNameIds, which are never negative
+		return hash | Long.MIN_VALUE;
+	}
+
+	private static long hash(long hash, String s)
+	{
+		for (int i = 0; i < s.length(); i++)
+		{
+			hash ^= s.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		// separator, so that "ab","c" and "a","bc" differ
+		hash ^= 0xff;
+		hash *= 0x100000001b3L;
+		return hash;
+	}
+
+	private int indexOf(String name)
+	{
+		for (int i = 0; i < names.length; i++)
+		{
+			if (names[i].equals(name))
+				return i;
+		}
+		return -1;
+	}
+
+	@Override
+	public String toString()
+	{
+		StringBuilder sb = new StringBuilder("{");
+		for (int i = 0; i < names.length; i++)
+		{
+			if (i > 0)
+				sb.append(',');
+			sb.append(JSONObject.quote(names[i])).append(':').append(values[i]);
+		}
+		return sb.append('}').toString();
+	}
+}
@@ -0,0 +1,74 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+/**
+ * The GeoNames web services used by the processors, with the JSON array each one returns its results in, the largest
+ * search radius a premium account may use, and the service answering bounding box queries with the same results, if
+ * GeoNames has one.
+ */
+public enum GeoNamesService
+{
+	WIKIPEDIA("findNearbyWikipediaJSON", "geonames", 150, "wikipediaBoundingBoxJSON"), OSM_POI("findNearbyPOIsOSMJSON", "poi", 3, null);
+
+	private final String	endpoint;
+	private final String	resultArrayName;
+	private final double	maxRadius;
+	private final String	boundingBoxEndpoint;
+
+	private GeoNamesService(String endpoint, String resultArrayName, double maxRadius, String boundingBoxEndpoint)
+	{
+		this.endpoint = endpoint;
+		this.resultArrayName = resultArrayName;
+		this.maxRadius = maxRadius;
+		this.boundingBoxEndpoint = boundingBoxEndpoint;
+	}
+
+	public String getEndpoint()
+	{
+		return endpoint;
+	}
+
+	public String getResultArrayName()
+	{
+		return resultArrayName;
+	}
+
+	/**
+	 * The largest search radius in kilometers, for a premium account.
+	 */
+	public double getMaxRadius()
+	{
+		return maxRadius;
+	}
+
+	/**
+	 * The endpoint taking north, south, east and west instead of a location and radius, or null if there is none.
+	 */
+	public String getBoundingBoxEndpoint()
+	{
+		return boundingBoxEndpoint;
+	}
+}
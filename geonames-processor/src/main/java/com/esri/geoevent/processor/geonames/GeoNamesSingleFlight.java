@@ -0,0 +1,143 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONException;
+
+/**
+ * Coalesces concurrent lookups for the same key into a single in-flight request. The first caller for a key performs
+ * the fetch; callers arriving while it is in flight wait for and share its result, or its failure. A fetch shed by the
+ * rate limiter is not shared, since the callers waiting for it may have priority: they try again.
+ */
+public class GeoNamesSingleFlight
+{
+	public interface Fetcher
+	{
+		List<GeoNamesRow> fetch() throws IOException, JSONException;
+	}
+
+	private final ConcurrentMap<String, Call>	inFlight				= new ConcurrentHashMap<String, Call>();
+	private final AtomicLong									fetchCount			= new AtomicLong();
+	private final AtomicLong									coalescedCount	= new AtomicLong();
+
+	public List<GeoNamesRow> execute(String key, Fetcher fetcher) throws IOException, JSONException
+	{
+		Call call = new Call();
+		Call existing;
+		while ((existing = inFlight.putIfAbsent(key, call)) != null)
+		{
+			coalescedCount.incrementAndGet();
+			try
+			{
+				return existing.await();
+			}
+			catch (GeoNamesRateLimiter.ShedException e)
+			{
+				// the call has been removed, so the next attempt fetches or joins a newer call
+			}
+		}
+
+		fetchCount.incrementAndGet();
+		try
+		{
+			call.rows = fetcher.fetch();
+			return call.rows;
+		}
+		catch (IOException e)
+		{
+			call.error = e;
+			throw e;
+		}
+		catch (JSONException e)
+		{
+			call.error = e;
+			throw e;
+		}
+		catch (RuntimeException e)
+		{
+			call.error = e;
+			throw e;
+		}
+		finally
+		{
+			inFlight.remove(key, call);
+			call.done.countDown();
+		}
+	}
+
+	public int getInFlightCount()
+	{
+		return inFlight.size();
+	}
+
+	public long getFetchCount()
+	{
+		return fetchCount.get();
+	}
+
+	public long getCoalescedCount()
+	{
+		return coalescedCount.get();
+	}
+
+	public String getStatistics()
+	{
+		return "inFlight=" + getInFlightCount() + " fetches=" + getFetchCount() + " coalesced=" + getCoalescedCount();
+	}
+
+	private static class Call
+	{
+		final CountDownLatch				done	= new CountDownLatch(1);
+		volatile List<GeoNamesRow>	rows;
+		volatile Exception					error;
+
+		List<GeoNamesRow> await() throws IOException, JSONException
+		{
+			try
+			{
+				done.await();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for a coalesced GeoNames request");
+			}
+			if (error instanceof IOException)
+				throw (IOException) error;
+			if (error instanceof JSONException)
+				throw (JSONException) error;
+			if (error != null)
+				throw new IOException("Coalesced GeoNames request failed: " + error.getMessage(), error);
+			return rows;
+		}
+	}
+}
@@ -0,0 +1,65 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+package com.esri.geoevent.processor.geonames;
+
+import org.json.JSONException;
+
+/**
+ * GeoNames answered a request with a status object instead of results, for example because the credits of the account
+ * are used up. The codes are listed at http://www.geonames.org/export/webservice-exception.html.
+ */
+public class GeoNamesStatusException extends JSONException
+{
+	private static final long	serialVersionUID				= 1L;
+
+	public static final int		AUTHORIZATION_EXCEPTION	= 10;
+	public static final int		DAILY_LIMIT_EXCEEDED		= 18;
+	public static final int		HOURLY_LIMIT_EXCEEDED		= 19;
+	public static final int		WEEKLY_LIMIT_EXCEEDED		= 20;
+
+	private final int					value;
+
+	/**
+	 * @param value the status code, or -1 if GeoNames sent none.
+	 */
+	public GeoNamesStatusException(int value, String message)
+	{
+		super("GeoNames status " + value + ": " + message);
+		this.value = value;
+	}
+
+	public int getValue()
+	{
+		return value;
+	}
+
+	/**
+	 * Whether the account cannot be used for a while: its daily, hourly or weekly credits are used up, or it is not
+	 * enabled for the web services.
+	 */
+	public boolean isAccountLimit()
+	{
+		return value == DAILY_LIMIT_EXCEEDED || value == HOURLY_LIMIT_EXCEEDED || value == WEEKLY_LIMIT_EXCEEDED || value == AUTHORIZATION_EXCEPTION;
+	}
+}
@@ -0,0 +1,118 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A size bounded map of per-track state that forgets the least recently used keys first. It is split into
+ * independently locked access-order stripes so that concurrent updates for different keys rarely contend.
+ */
+public class GeoNamesStripedMap<V>
+{
+	private static final int		STRIPES					= 16;
+
+	private final Stripe<V>[]		stripes;
+	private final AtomicLong		evictionCount		= new AtomicLong();
+
+	@SuppressWarnings("unchecked")
+	public GeoNamesStripedMap(int capacity)
+	{
+		stripes = new Stripe[STRIPES];
+		int stripeCapacity = Math.max(1, (capacity + STRIPES - 1) / STRIPES);
+		for (int i = 0; i < STRIPES; i++)
+			stripes[i] = new Stripe<V>(stripeCapacity, evictionCount);
+	}
+
+	public V get(String key)
+	{
+		Stripe<V> stripe = stripeFor(key);
+		synchronized (stripe)
+		{
+			return stripe.get(key);
+		}
+	}
+
+	public void put(String key, V value)
+	{
+		Stripe<V> stripe = stripeFor(key);
+		synchronized (stripe)
+		{
+			stripe.put(key, value);
+		}
+	}
+
+	public int size()
+	{
+		int size = 0;
+		for (Stripe<V> stripe : stripes)
+		{
+			synchronized (stripe)
+			{
+				size += stripe.size();
+			}
+		}
+		return size;
+	}
+
+	public long getEvictionCount()
+	{
+		return evictionCount.get();
+	}
+
+	private Stripe<V> stripeFor(String key)
+	{
+		int hash = key.hashCode();
+		hash ^= (hash >>> 16);
+		return stripes[hash & (STRIPES - 1)];
+	}
+
+	private static class Stripe<V> extends LinkedHashMap<String, V>
+	{
+		private static final long	serialVersionUID	= 1L;
+		private final int					capacity;
+		private final AtomicLong	evictionCount;
+
+		Stripe(int capacity, AtomicLong evictionCount)
+		{
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+			this.evictionCount = evictionCount;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, V> eldest)
+		{
+			if (size() > capacity)
+			{
+				evictionCount.incrementAndGet();
+				return true;
+			}
+			return false;
+		}
+	}
+}
@@ -0,0 +1,126 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+package com.esri.geoevent.processor.geonames;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * The results of a tile of the world, as cached by a {@link GeoNamesLookup} in tile mode. The coordinates are kept in
+ * primitive arrays next to the rows, so that answering a nearby lookup from the tile scans two double[] instead of
+ * looking up the lat and lng of every row.
+ * 
+ * A tile whose results were cut off at the maximum is split into four; it is then cached as the {@link #split()}
+ * marker, a single row that survives the {@link GeoNamesDiskCache} like any other.
+ */
+public class GeoNamesTile extends AbstractList<GeoNamesRow> implements RandomAccess
+{
+	private static final String			SPLIT_FIELD	= "geoNamesTileSplit";
+	private static final GeoNamesTile	SPLIT				= new GeoNamesTile(new GeoNamesRow[] { new GeoNamesRow(new String[] { SPLIT_FIELD }, new Object[] { Boolean.TRUE }) });
+
+	private final GeoNamesRow[]				rows;
+	private final double[]						lats;
+	private final double[]						lons;
+
+	private GeoNamesTile(GeoNamesRow[] rows)
+	{
+		this.rows = rows;
+		this.lats = new double[rows.length];
+		this.lons = new double[rows.length];
+		for (int i = 0; i < rows.length; i++)
+		{
+			lats[i] = rows[i].optDouble("lat");
+			lons[i] = rows[i].optDouble("lng");
+		}
+	}
+
+	/**
+	 * Returns the rows as a tile, building the coordinate arrays unless they already are one.
+	 */
+	public static GeoNamesTile of(List<GeoNamesRow> rows)
+	{
+		if (rows instanceof GeoNamesTile)
+			return (GeoNamesTile) rows;
+		if (rows.size() == 1 && rows.get(0).has(SPLIT_FIELD))
+			return SPLIT;
+		return new GeoNamesTile(rows.toArray(new GeoNamesRow[rows.size()]));
+	}
+
+	/**
+	 * The marker cached for a tile that has been split.
+	 */
+	public static GeoNamesTile split()
+	{
+		return SPLIT;
+	}
+
+	public boolean isSplit()
+	{
+		return this == SPLIT;
+	}
+
+	@Override
+	public GeoNamesRow get(int index)
+	{
+		return rows[index];
+	}
+
+	@Override
+	public int size()
+	{
+		return rows.length;
+	}
+
+	/**
+	 * Answers a nearby lookup: the rows within the search radius of the query, nearest first, up to its maximum rows,
+	 * with their distance from the query.
+	 */
+	public List<GeoNamesRow> nearest(GeoNamesQuery query)
+	{
+		double lat = query.getLat();
+		double lon = query.getLon();
+		double radius = query.getRadius();
+		// rows further north or south than the radius cannot be within it, whatever their longitude
+		double dLat = Math.toDegrees(radius / GeoHash.EARTH_RADIUS_KM);
+		GeoNamesNearest nearest = new GeoNamesNearest(query.getMaxRows());
+		for (int i = 0; i < rows.length; i++)
+		{
+			if (Math.abs(lats[i] - lat) > dLat)
+				continue;
+			double distance = GeoHash.distanceKm(lat, lon, lats[i], lons[i]);
+			if (distance <= radius && distance < nearest.getThreshold())
+				nearest.offer(i, distance);
+		}
+		int n = nearest.size();
+		double[] distances = new double[n];
+		long[] ids = nearest.drainSorted(distances);
+		List<GeoNamesRow> result = new ArrayList<GeoNamesRow>(n);
+		for (int i = 0; i < n; i++)
+			result.add(rows[(int) ids[i]].with("distance", distances[i]));
+		return Collections.unmodifiableList(result);
+	}
+}
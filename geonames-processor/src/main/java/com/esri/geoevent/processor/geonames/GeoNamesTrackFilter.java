@@ -0,0 +1,175 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers where each track was last looked up, so that reports from a track that has barely moved do not each cost a
+ * GeoNames lookup. A lookup is needed again once the track has moved more than the minimum distance or the previous
+ * lookup is older than the maximum age.
+ * 
+ * The number of tracks remembered is bounded; the tracks that reported least recently are forgotten first.
+ */
+public class GeoNamesTrackFilter
+{
+	public static final double	DEFAULT_MIN_DISTANCE_METERS	= 50;
+	public static final int			DEFAULT_MAX_AGE_SECONDS			= 300;
+	public static final int			DEFAULT_CAPACITY						= 100000;
+
+	public enum Mode
+	{
+		OFF("Off"), SKIP("Skip Lookup"), REUSE("Reuse Previous Result");
+
+		private final String	label;
+
+		private Mode(String label)
+		{
+			this.label = label;
+		}
+
+		public String getLabel()
+		{
+			return label;
+		}
+
+		public static Mode fromLabel(String label)
+		{
+			for (Mode mode : values())
+			{
+				if (mode.label.equalsIgnoreCase(label) || mode.name().equalsIgnoreCase(label))
+					return mode;
+			}
+			return OFF;
+		}
+	}
+
+	private final Mode					mode;
+	private final double				minDistanceKm;
+	private final long					maxAgeMillis;
+	private final GeoNamesStripedMap<TrackState>	tracks;
+
+	private final AtomicLong		suppressedCount	= new AtomicLong();
+	private final AtomicLong		passedCount			= new AtomicLong();
+
+	/**
+	 * @param mode SKIP to drop the reports of a track that has not moved far enough, REUSE to answer them with the rows
+	 *          of the track's previous lookup.
+	 * @param maxAgeSeconds 0 or less to never look a stationary track up again.
+	 */
+	public GeoNamesTrackFilter(Mode mode, double minDistanceMeters, long maxAgeSeconds, int capacity)
+	{
+		this.mode = mode;
+		this.minDistanceKm = minDistanceMeters / 1000;
+		this.maxAgeMillis = (maxAgeSeconds > 0) ? maxAgeSeconds * 1000 : Long.MAX_VALUE;
+		this.tracks = new GeoNamesStripedMap<TrackState>(capacity);
+	}
+
+	public Mode getMode()
+	{
+		return mode;
+	}
+
+	public boolean isReusingResults()
+	{
+		return mode == Mode.REUSE;
+	}
+
+	/**
+	 * Returns the track's previous state if a lookup at the given location can be skipped, or null if one is needed.
+	 */
+	public TrackState suppress(String trackId, double lat, double lon)
+	{
+		TrackState state = tracks.get(trackId);
+		if (state != null && System.currentTimeMillis() - state.queriedAt < maxAgeMillis && GeoHash.distanceKm(state.lat, state.lon, lat, lon) <= minDistanceKm)
+		{
+			suppressedCount.incrementAndGet();
+			return state;
+		}
+		passedCount.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * Records a lookup of the track at the given location.
+	 * 
+	 * @param rows the rows to reuse for the track's next reports, or null.
+	 */
+	public void update(String trackId, double lat, double lon, List<GeoNamesRow> rows)
+	{
+		TrackState state = new TrackState(lat, lon, System.currentTimeMillis(), rows);
+		tracks.put(trackId, state);
+	}
+
+	public int size()
+	{
+		return tracks.size();
+	}
+
+	public long getSuppressedCount()
+	{
+		return suppressedCount.get();
+	}
+
+	public long getPassedCount()
+	{
+		return passedCount.get();
+	}
+
+	public long getEvictionCount()
+	{
+		return tracks.getEvictionCount();
+	}
+
+	public String getStatistics()
+	{
+		return "tracks=" + size() + " suppressed=" + getSuppressedCount() + " passed=" + getPassedCount() + " evictions=" + getEvictionCount();
+	}
+
+	public static class TrackState
+	{
+		final double						lat;
+		final double						lon;
+		final long							queriedAt;
+		final List<GeoNamesRow>	rows;
+
+		TrackState(double lat, double lon, long queriedAt, List<GeoNamesRow> rows)
+		{
+			this.lat = lat;
+			this.lon = lon;
+			this.queriedAt = queriedAt;
+			this.rows = rows;
+		}
+
+		/**
+		 * The rows of the track's previous lookup, relative to where it was then, or null if they were not kept.
+		 */
+		public List<GeoNamesRow> getRows()
+		{
+			return rows;
+		}
+	}
+}
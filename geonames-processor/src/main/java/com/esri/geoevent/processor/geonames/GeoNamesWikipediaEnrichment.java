@@ -0,0 +1,106 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import java.io.IOException;
+
+import com.esri.ges.framework.i18n.BundleLogger;
+import com.esri.ges.framework.i18n.BundleLoggerFactory;
+
+/**
+ * Looks up the georeferenced Wikipedia articles near a GeoEvent.
+ */
+class GeoNamesWikipediaEnrichment extends GeoNamesEnrichment
+{
+	private static final BundleLogger	LOGGER		= BundleLoggerFactory.getLogger(GeoNamesWikipediaEnrichment.class);
+
+	private volatile double						geoNamesWikipediaRadius;
+	private volatile int							geoNamesWikipediaMaxRows;
+	private String										geoNamesWikipediaSource;
+	private String										geoNamesWikipediaGazetteerFile;
+
+	GeoNamesWikipediaEnrichment(GeoNamesProcessorBase processor, String fieldMappingProperty)
+	{
+		super(processor, "GeoNamesWikipedia", fieldMappingProperty);
+	}
+
+	@Override
+	public String getLabel()
+	{
+		return "Wikipedia";
+	}
+
+	@Override
+	protected GeoNamesQuery createQuery(double lat, double lon)
+	{
+		String geoNamesLang = "en"; // lang : language code (around 240 languages) (default = en)
+		return new GeoNamesQuery(GeoNamesService.WIKIPEDIA, lat, lon, geoNamesWikipediaRadius, geoNamesWikipediaMaxRows, geoNamesLang);
+	}
+
+	@Override
+	protected GeoNamesFieldMapping compileFieldMapping(String specification)
+	{
+		return GeoNamesWikipediaProcessorDefinition.compileFieldMapping(specification);
+	}
+
+	@Override
+	protected void configureService()
+	{
+		geoNamesWikipediaRadius = 10.0;
+		if (processor.hasProperty(GeoNamesWikipediaProcessorDefinition.GEONAMES_WIKIPEDIARADIUS_PROPERTY))
+		{
+			geoNamesWikipediaRadius = (double) processor.getProperty(GeoNamesWikipediaProcessorDefinition.GEONAMES_WIKIPEDIARADIUS_PROPERTY).getValue();
+		}
+		geoNamesWikipediaMaxRows = 10;
+		if (processor.hasProperty(GeoNamesWikipediaProcessorDefinition.GEONAMES_WIKIPEDIAMAXROWS_PROPERTY))
+		{
+			geoNamesWikipediaMaxRows = (int) processor.getProperty(GeoNamesWikipediaProcessorDefinition.GEONAMES_WIKIPEDIAMAXROWS_PROPERTY).getValue();
+		}
+		geoNamesWikipediaSource = GeoNamesWikipediaProcessorDefinition.WIKIPEDIA_SOURCE_WEB_SERVICE;
+		if (processor.hasProperty(GeoNamesWikipediaProcessorDefinition.GEONAMES_WIKIPEDIASOURCE_PROPERTY))
+		{
+			geoNamesWikipediaSource = processor.getProperty(GeoNamesWikipediaProcessorDefinition.GEONAMES_WIKIPEDIASOURCE_PROPERTY).getValueAsString();
+		}
+		geoNamesWikipediaGazetteerFile = "";
+		if (processor.hasProperty(GeoNamesWikipediaProcessorDefinition.GEONAMES_WIKIPEDIAGAZETTEERFILE_PROPERTY))
+		{
+			geoNamesWikipediaGazetteerFile = processor.getProperty(GeoNamesWikipediaProcessorDefinition.GEONAMES_WIKIPEDIAGAZETTEERFILE_PROPERTY).getValueAsString();
+		}
+		GeoNamesLocalIndex localIndex = null;
+		if (GeoNamesWikipediaProcessorDefinition.WIKIPEDIA_SOURCE_LOCAL_FILE.equals(geoNamesWikipediaSource))
+		{
+			try
+			{
+				localIndex = GeoNamesWikipediaGazetteer.forFile(geoNamesWikipediaGazetteerFile);
+			}
+			catch (IOException e)
+			{
+				LOGGER.error("GAZETTEER_LOAD_FAILURE", geoNamesWikipediaGazetteerFile, e.getMessage());
+				LOGGER.debug(e.getMessage(), e);
+			}
+		}
+		lookup.setLocalIndex(localIndex);
+	}
+}
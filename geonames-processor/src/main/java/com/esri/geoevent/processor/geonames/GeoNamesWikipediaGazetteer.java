@@ -0,0 +1,379 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONException;
+
+/**
+ * In-memory gazetteer of georeferenced Wikipedia articles loaded from a local file, answering the same nearby queries
+ * as the findNearbyWikipedia web service.
+ * 
+ * Two file layouts are accepted:
+ * <ul>
+ * <li>a GeoNames JSON document with the articles in a "geonames" array, as returned by the Wikipedia web services;</li>
+ * <li>tab separated text whose first line names the columns (summary, title, wikipediaUrl, lat, lng, ...), as in the
+ * GeoNames Wikipedia dump.</li>
+ * </ul>
+ * Articles are indexed by a packed KD-tree: the coordinates are kept in primitive arrays reordered so that every range
+ * is split at its median, alternating between latitude and longitude, which needs no node objects at all.
+ */
+public class GeoNamesWikipediaGazetteer implements GeoNamesLocalIndex
+{
+	private static final Charset																	UTF8				= Charset.forName("UTF-8");
+	private static final Map<String, GeoNamesWikipediaGazetteer>	GAZETTEERS	= new HashMap<String, GeoNamesWikipediaGazetteer>();
+
+	private final String																					path;
+	private final long																						lastModified;
+	private final double[]																				lats;
+	private final double[]																				lons;
+	private final GeoNamesRow[]																		rows;
+
+	GeoNamesWikipediaGazetteer(String path, long lastModified, List<GeoNamesRow> articles)
+	{
+		this.path = path;
+		this.lastModified = lastModified;
+		List<GeoNamesRow> located = new ArrayList<GeoNamesRow>(articles.size());
+		for (GeoNamesRow row : articles)
+		{
+			if (isLocated(row))
+				located.add(row);
+		}
+		int n = located.size();
+		lats = new double[n];
+		lons = new double[n];
+		rows = located.toArray(new GeoNamesRow[n]);
+		for (int i = 0; i < n; i++)
+		{
+			lats[i] = rows[i].optDouble("lat");
+			lons[i] = rows[i].optDouble("lng");
+		}
+		build(0, n, 0);
+	}
+
+	/**
+	 * Returns the gazetteer for the file, loading it the first time or whenever the file has changed since it was last
+	 * loaded. Processors configured with the same file share one gazetteer.
+	 */
+	public static GeoNamesWikipediaGazetteer forFile(String path) throws IOException
+	{
+		File file = new File(path);
+		if (!file.isFile())
+			throw new IOException("Wikipedia gazetteer file " + path + " does not exist.");
+		synchronized (GAZETTEERS)
+		{
+			GeoNamesWikipediaGazetteer gazetteer = GAZETTEERS.get(file.getAbsolutePath());
+			if (gazetteer == null || gazetteer.lastModified != file.lastModified())
+			{
+				gazetteer = new GeoNamesWikipediaGazetteer(file.getAbsolutePath(), file.lastModified(), load(file));
+				GAZETTEERS.put(file.getAbsolutePath(), gazetteer);
+			}
+			return gazetteer;
+		}
+	}
+
+	static List<GeoNamesRow> load(File file) throws IOException
+	{
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8));
+		try
+		{
+			reader.mark(1);
+			int first = reader.read();
+			while (first != -1 && Character.isWhitespace(first))
+			{
+				reader.mark(1);
+				first = reader.read();
+			}
+			reader.reset();
+			return (first == '{') ? loadJSON(reader) : loadTabSeparated(reader);
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+
+	private static List<GeoNamesRow> loadJSON(Reader reader) throws IOException
+	{
+		final List<GeoNamesRow> articles = new ArrayList<GeoNamesRow>();
+		try
+		{
+			new GeoNamesJsonReader(reader).readRows(GeoNamesService.WIKIPEDIA.getResultArrayName(), new GeoNamesRowHandler()
+				{
+					@Override
+					public void handleRow(GeoNamesRow row)
+					{
+						articles.add(row);
+					}
+				});
+		}
+		catch (JSONException e)
+		{
+			throw new IOException("Invalid Wikipedia gazetteer file: " + e.getMessage(), e);
+		}
+		return articles;
+	}
+
+	private static List<GeoNamesRow> loadTabSeparated(BufferedReader reader) throws IOException
+	{
+		List<GeoNamesRow> articles = new ArrayList<GeoNamesRow>();
+		String header = reader.readLine();
+		if (header == null)
+			return articles;
+		String[] names = header.split("\t", -1);
+		for (int i = 0; i < names.length; i++)
+			names[i] = names[i].trim();
+
+		String line;
+		while ((line = reader.readLine()) != null)
+		{
+			if (line.isEmpty())
+				continue;
+			String[] columns = line.split("\t", -1);
+			int n = Math.min(names.length, columns.length);
+			List<String> rowNames = new ArrayList<String>(n);
+			List<Object> rowValues = new ArrayList<Object>(n);
+			for (int i = 0; i < n; i++)
+			{
+				if (columns[i].isEmpty())
+					continue;
+				rowNames.add(names[i]);
+				rowValues.add(toValue(columns[i]));
+			}
+			articles.add(new GeoNamesRow(rowNames.toArray(new String[rowNames.size()]), rowValues.toArray()));
+		}
+		return articles;
+	}
+
+	private static Object toValue(String text)
+	{
+		char c = text.charAt(0);
+		if ((c >= '0' && c <= '9') || c == '-')
+		{
+			try
+			{
+				return Double.valueOf(text);
+			}
+			catch (NumberFormatException e)
+			{
+				;
+			}
+		}
+		return text;
+	}
+
+	private static boolean isLocated(GeoNamesRow row)
+	{
+		double lat = row.optDouble("lat");
+		double lon = row.optDouble("lng");
+		return !Double.isNaN(lat) && !Double.isNaN(lon) && lat >= -90 && lat <= 90 && lon >= -180 && lon <= 180;
+	}
+
+	@Override
+	public int size()
+	{
+		return rows.length;
+	}
+
+	public String getPath()
+	{
+		return path;
+	}
+
+	@Override
+	public List<GeoNamesRow> find(GeoNamesQuery query)
+	{
+		double radius = query.getRadius();
+		double dLat = Math.toDegrees(radius / GeoHash.EARTH_RADIUS_KM);
+		// a search circle reaching a pole takes in every longitude
+		double maxAbsLat = Math.abs(query.getLat()) + dLat;
+		double dLon = (maxAbsLat >= 90) ? 180.0 : Math.min(180.0, dLat / Math.max(Math.cos(Math.toRadians(maxAbsLat)), 1e-6));
+
+		Search search = new Search(query, Math.max(-90, query.getLat() - dLat), Math.min(90, query.getLat() + dLat));
+		double minLon = query.getLon() - dLon;
+		double maxLon = query.getLon() + dLon;
+		if (dLon >= 180)
+		{
+			search.run(-180, 180);
+		}
+		else
+		{
+			search.run(Math.max(-180, minLon), Math.min(180, maxLon));
+			// the search box crosses the antimeridian
+			if (minLon < -180)
+				search.run(minLon + 360, 180);
+			if (maxLon > 180)
+				search.run(-180, maxLon - 360);
+		}
+
+		int n = search.nearest.size();
+		double[] distances = new double[n];
+		long[] ids = search.nearest.drainSorted(distances);
+		List<GeoNamesRow> result = new ArrayList<GeoNamesRow>(n);
+		for (int i = 0; i < n; i++)
+			result.add(rows[(int) ids[i]].with("distance", distances[i]));
+		return Collections.unmodifiableList(result);
+	}
+
+	/**
+	 * Reorders [from, to) so that the median on the current axis sits at the middle, smaller values before it and
+	 * larger values after it, then does the same for both halves on the other axis.
+	 */
+	private void build(int from, int to, int depth)
+	{
+		if (to - from <= 1)
+			return;
+		int mid = (from + to) >>> 1;
+		select(from, to - 1, mid, (depth & 1) == 0);
+		build(from, mid, depth + 1);
+		build(mid + 1, to, depth + 1);
+	}
+
+	private void select(int left, int right, int k, boolean byLat)
+	{
+		while (right > left)
+		{
+			int pivotIndex = (left + right) >>> 1;
+			double pivot = byLat ? lats[pivotIndex] : lons[pivotIndex];
+			swap(pivotIndex, right);
+			int store = left;
+			for (int i = left; i < right; i++)
+			{
+				if ((byLat ? lats[i] : lons[i]) < pivot)
+					swap(i, store++);
+			}
+			swap(store, right);
+			if (store == k)
+				return;
+			if (store < k)
+				left = store + 1;
+			else
+				right = store - 1;
+		}
+	}
+
+	private void swap(int a, int b)
+	{
+		double lat = lats[a];
+		lats[a] = lats[b];
+		lats[b] = lat;
+		double lon = lons[a];
+		lons[a] = lons[b];
+		lons[b] = lon;
+		GeoNamesRow row = rows[a];
+		rows[a] = rows[b];
+		rows[b] = row;
+	}
+
+	private class Search
+	{
+		final GeoNamesQuery		query;
+		final double					minLat;
+		final double					maxLat;
+		final String					lang;
+		final GeoNamesNearest	nearest;
+		double								minLon;
+		double								maxLon;
+
+		Search(GeoNamesQuery query, double minLat, double maxLat)
+		{
+			this.query = query;
+			this.minLat = minLat;
+			this.maxLat = maxLat;
+			this.lang = query.getLang();
+			this.nearest = new GeoNamesNearest(query.getMaxRows());
+		}
+
+		void run(double minLon, double maxLon)
+		{
+			this.minLon = minLon;
+			this.maxLon = maxLon;
+			search(0, rows.length, 0);
+		}
+
+		private void search(int from, int to, int depth)
+		{
+			while (to > from)
+			{
+				int mid = (from + to) >>> 1;
+				double lat = lats[mid];
+				double lon = lons[mid];
+				if (lat >= minLat && lat <= maxLat && lon >= minLon && lon <= maxLon)
+					consider(mid);
+
+				double value = ((depth & 1) == 0) ? lat : lon;
+				double min = ((depth & 1) == 0) ? minLat : minLon;
+				double max = ((depth & 1) == 0) ? maxLat : maxLon;
+				depth++;
+				boolean goLeft = min <= value;
+				boolean goRight = max >= value;
+				if (goLeft && goRight)
+				{
+					search(from, mid, depth);
+					from = mid + 1;
+				}
+				else if (goLeft)
+				{
+					to = mid;
+				}
+				else
+				{
+					from = mid + 1;
+				}
+			}
+		}
+
+		private void consider(int i)
+		{
+			if (lang != null)
+			{
+				Object rowLang = rows[i].opt("lang");
+				if (rowLang != null && !lang.equals(rowLang.toString()))
+					return;
+			}
+			double distance = GeoHash.distanceKm(query.getLat(), query.getLon(), lats[i], lons[i]);
+			if (distance <= query.getRadius() && distance < nearest.getThreshold())
+				nearest.offer(i, distance);
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		return "GeoNamesWikipediaGazetteer[" + path + ", " + rows.length + " articles]";
+	}
+}
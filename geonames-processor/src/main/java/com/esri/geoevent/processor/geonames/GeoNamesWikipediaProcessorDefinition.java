@@ -29,60 +29,24 @@ import java.util.List;
 
 import com.esri.ges.core.ConfigurationException;
 import com.esri.ges.core.geoevent.DefaultFieldDefinition;
-import com.esri.ges.core.geoevent.DefaultGeoEventDefinition;
 import com.esri.ges.core.geoevent.FieldDefinition;
 import com.esri.ges.core.geoevent.FieldType;
-import com.esri.ges.core.geoevent.GeoEventDefinition;
-import com.esri.ges.core.property.PropertyDefinition;
 import com.esri.ges.core.property.PropertyException;
-import com.esri.ges.core.property.PropertyType;
-import com.esri.ges.processor.GeoEventProcessorDefinitionBase;
 
-public class GeoNamesWikipediaProcessorDefinition extends GeoEventProcessorDefinitionBase
+public class GeoNamesWikipediaProcessorDefinition extends GeoNamesProcessorDefinitionBase
 {
-
-	protected static final String	GEONAMES_USERNAME_PROPERTY					= "geoNamesUsername";
-	protected static final String	GEONAMES_WIKIPEDIARADIUS_PROPERTY		= "geoNamesWikiRadius";
-	protected static final String	GEONAMES_WIKIPEDIAMAXROWS_PROPERTY	= "geoNamesWikiMaxRows";
-
 	public GeoNamesWikipediaProcessorDefinition()
 	{
 		try
 		{
+			addAccountPropertyDefinitions();
+			addWikipediaPropertyDefinitions();
 
-			PropertyDefinition geoNamesUsernameProperty = new PropertyDefinition(GEONAMES_USERNAME_PROPERTY, PropertyType.String, "", "GeoNames Username (optional)", "If you purchased GeoNames Premium services, enter your username. If blank, a more limited free account will be used.", false, false);
-			propertyDefinitions.put(GEONAMES_USERNAME_PROPERTY, geoNamesUsernameProperty);
-
-			PropertyDefinition geoNamesWikipediaRadiusProperty = new PropertyDefinition(GEONAMES_WIKIPEDIARADIUS_PROPERTY, PropertyType.Double, 10, "GeoNames Wikipedia Search Radius (Km)", "The distance from the geoevent's location within which to search for Wikipedia articles. Max for a free account = 20km, max for a premium account = 150km.", true, false);
-			propertyDefinitions.put(GEONAMES_WIKIPEDIARADIUS_PROPERTY, geoNamesWikipediaRadiusProperty);
-
-			PropertyDefinition geoNamesWikipediaMaxRowsProperty = new PropertyDefinition(GEONAMES_WIKIPEDIAMAXROWS_PROPERTY, PropertyType.Integer, 10, "GeoNames Wikipedia Max Rows", "The maximum number of Wikipedia articles to return. Max for a free account = 500, max for a premium account = 2000.", true, false);
-			propertyDefinitions.put(GEONAMES_WIKIPEDIAMAXROWS_PROPERTY, geoNamesWikipediaMaxRowsProperty);
-
-			GeoEventDefinition ged = new DefaultGeoEventDefinition();
-			List<FieldDefinition> fds = new ArrayList<FieldDefinition>();
-
-			ged = new DefaultGeoEventDefinition();
-			ged.setName("GeoNamesWikipedia");
-			fds = new ArrayList<FieldDefinition>();
-			fds.add(new DefaultFieldDefinition("trackId", FieldType.String, "TRACK_ID"));
-			fds.add(new DefaultFieldDefinition("timestamp", FieldType.Date, "TIME_START"));
-			fds.add(new DefaultFieldDefinition("incidentId", FieldType.String));
-			fds.add(new DefaultFieldDefinition("summary", FieldType.String));
-			fds.add(new DefaultFieldDefinition("distance", FieldType.Double));
-			fds.add(new DefaultFieldDefinition("rank", FieldType.Double));
-			fds.add(new DefaultFieldDefinition("title", FieldType.String));
-			fds.add(new DefaultFieldDefinition("wikipediaUrl", FieldType.String));
-			fds.add(new DefaultFieldDefinition("elevation", FieldType.Double));
-			fds.add(new DefaultFieldDefinition("countryCode", FieldType.String));
-			fds.add(new DefaultFieldDefinition("lng", FieldType.Double));
-			fds.add(new DefaultFieldDefinition("feature", FieldType.String));
-			fds.add(new DefaultFieldDefinition("geoNameId", FieldType.Double));
-			fds.add(new DefaultFieldDefinition("lang", FieldType.String));
-			fds.add(new DefaultFieldDefinition("lat", FieldType.Double));
-			fds.add(new DefaultFieldDefinition("geometry", FieldType.Geometry, "GEOMETRY"));
-			ged.setFieldDefinitions(fds);
-			geoEventDefinitions.put(ged.getName(), ged);
+			addLookupPropertyDefinitions("articles", "GeoNamesWikipedia", "GeoNamesWikipediaAggregated");
+			addFieldMappingPropertyDefinition(GEONAMES_FIELD_MAPPING_PROPERTY, "GeoNames Field Mapping", "title=name,summary= to fill title from name and leave summary empty");
+			addExecutionPropertyDefinitions();
+
+			addOutputGeoEventDefinitions("GeoNamesWikipedia", resultFieldDefinitions());
 		}
 		catch (PropertyException ex)
 		{
@@ -95,6 +59,45 @@ public class GeoNamesWikipediaProcessorDefinition extends GeoEventProcessorDefin
 		}
 	}
 
+	/**
+	 * The fields describing one article, shared by the per-result GeoEvent and the groups of the aggregated one.
+	 */
+	static List<FieldDefinition> resultFieldDefinitions() throws ConfigurationException
+	{
+		List<FieldDefinition> fds = new ArrayList<FieldDefinition>();
+		fds.add(new DefaultFieldDefinition("summary", FieldType.String));
+		fds.add(new DefaultFieldDefinition("distance", FieldType.Double));
+		fds.add(new DefaultFieldDefinition("rank", FieldType.Double));
+		fds.add(new DefaultFieldDefinition("title", FieldType.String));
+		fds.add(new DefaultFieldDefinition("wikipediaUrl", FieldType.String));
+		fds.add(new DefaultFieldDefinition("elevation", FieldType.Double));
+		fds.add(new DefaultFieldDefinition("countryCode", FieldType.String));
+		fds.add(new DefaultFieldDefinition("lng", FieldType.Double));
+		fds.add(new DefaultFieldDefinition("feature", FieldType.String));
+		fds.add(new DefaultFieldDefinition("geoNameId", FieldType.Double));
+		fds.add(new DefaultFieldDefinition("lang", FieldType.String));
+		fds.add(new DefaultFieldDefinition("lat", FieldType.Double));
+		return fds;
+	}
+
+	/**
+	 * Compiles the mapping from a GeoNames article row to the result fields.
+	 * 
+	 * @param specification the outputField=responseField overrides, or null for none.
+	 * @throws IllegalArgumentException if the specification is invalid.
+	 */
+	static GeoNamesFieldMapping compileFieldMapping(String specification)
+	{
+		try
+		{
+			return GeoNamesFieldMapping.compile(resultFieldDefinitions(), specification, true, "lng", "lat", "elevation");
+		}
+		catch (ConfigurationException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
 	@Override
 	public String getName()
 	{
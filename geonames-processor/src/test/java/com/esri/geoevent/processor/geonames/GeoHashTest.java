@@ -0,0 +1,74 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Test;
+
+public class GeoHashTest
+{
+	@Test
+	public void encodesKnownLocations()
+	{
+		assertEquals("u4pruydqqvj", GeoHash.encode(57.64911, 10.40744, 11));
+		assertEquals("s0000", GeoHash.encode(0, 0, 5));
+		assertEquals("ezs42", GeoHash.encode(42.6, -5.6, 5));
+	}
+
+	@Test
+	public void clampsThePrecision()
+	{
+		assertEquals(1, GeoHash.encode(42.6, -5.6, 0).length());
+		assertEquals(GeoHash.MAX_PRECISION, GeoHash.encode(42.6, -5.6, 40).length());
+	}
+
+	@Test
+	public void prefixesCoarserCells()
+	{
+		String fine = GeoHash.encode(34.0567, -117.1956, 9);
+		for (int precision = 1; precision < 9; precision++)
+			assertEquals(fine.substring(0, precision), GeoHash.encode(34.0567, -117.1956, precision));
+	}
+
+	@Test
+	public void separatesLocationsInDifferentCells()
+	{
+		assertFalse(GeoHash.encode(34.0567, -117.1956, 6).equals(GeoHash.encode(34.0567, -117.0, 6)));
+	}
+
+	@Test
+	public void measuresGreatCircleDistances()
+	{
+		assertEquals(0.0, GeoHash.distanceKm(34.0567, -117.1956, 34.0567, -117.1956), 1e-9);
+		// one degree of latitude
+		assertEquals(111.195, GeoHash.distanceKm(0, 0, 1, 0), 0.01);
+		// Paris to London
+		assertEquals(343.5, GeoHash.distanceKm(48.8566, 2.3522, 51.5074, -0.1278), 1.0);
+		// antipodes
+		assertEquals(Math.PI * GeoHash.EARTH_RADIUS_KM, GeoHash.distanceKm(0, 0, 0, 180), 1e-6);
+	}
+}
@@ -0,0 +1,295 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.json.JSONException;
+import org.junit.Test;
+
+public class GeoNamesAccountPoolTest
+{
+	private static final String	LIMIT_RESPONSE	= "{\"status\":{\"message\":\"the hourly limit of 1000 credits has been exceeded\",\"value\":19}}";
+
+	@Test
+	public void keepsTheTrialRequestWhenTheRateLimiterFails() throws Exception
+	{
+		GeoNamesAccount account = halfOpenAccount(0);
+		GeoNamesAccountPool pool = new GeoNamesAccountPool(Collections.singletonList(account), 1);
+		Thread.currentThread().interrupt();
+		try
+		{
+			pool.acquire(false);
+			fail();
+		}
+		catch (IOException e)
+		{
+			assertTrue(Thread.interrupted());
+		}
+		// the trial request was not claimed by the request that never got a token
+		assertSame(account, pool.acquire(true));
+		assertEquals(GeoNamesCircuitBreaker.State.HALF_OPEN, account.getCircuitBreaker().getState());
+		assertFalse(account.getCircuitBreaker().allowRequest());
+	}
+
+	@Test
+	public void returnsTheTokenWhenTheCircuitBreakerRefuses() throws Exception
+	{
+		GeoNamesAccount account = halfOpenAccount(2);
+		GeoNamesAccountPool pool = new GeoNamesAccountPool(Collections.singletonList(account), 1);
+		assertTrue(account.getCircuitBreaker().allowRequest());
+		try
+		{
+			pool.acquire(true);
+			fail();
+		}
+		catch (GeoNamesCircuitBreaker.OpenException e)
+		{
+			// the trial request is out
+		}
+		assertEquals(2, account.getRateLimiter().getRemaining());
+		assertEquals(0, account.getRateLimiter().getAcquiredCount());
+	}
+
+	@Test
+	public void parsesTheAccountList()
+	{
+		List<String[]> accounts = GeoNamesAccountPool.parse(" alice , bob@https://premium.example.com/ ,alice,, bob@https://premium.example.com", "http://api.example.com");
+		assertEquals(2, accounts.size());
+		assertArrayEquals(new String[] { "alice", "http://api.example.com" }, accounts.get(0));
+		assertArrayEquals(new String[] { "bob", "https://premium.example.com" }, accounts.get(1));
+	}
+
+	@Test
+	public void usesTheDefaultAccountForABlankList()
+	{
+		for (String blank : new String[] { null, "", " , ,", "@http://api.example.com" })
+		{
+			List<String[]> accounts = GeoNamesAccountPool.parse(blank, null);
+			assertEquals(1, accounts.size());
+			assertArrayEquals(new String[] { GeoNamesAccount.DEFAULT_USERNAME, GeoNamesQuery.DEFAULT_BASE_URL }, accounts.get(0));
+		}
+	}
+
+	@Test
+	public void leavesOutAccountsWithAMalformedBaseUrl()
+	{
+		List<String[]> accounts = GeoNamesAccountPool.parse("alice@api.example.com,bob@ftp://files.example.com,carol@http://,dave", "http://api.example.com");
+		assertEquals(1, accounts.size());
+		assertArrayEquals(new String[] { "dave", "http://api.example.com" }, accounts.get(0));
+
+		accounts = GeoNamesAccountPool.parse("alice@not a url", "http://api.example.com");
+		assertArrayEquals(new String[] { GeoNamesAccount.DEFAULT_USERNAME, "http://api.example.com" }, accounts.get(0));
+	}
+
+	@Test
+	public void suspendsAnAccountForLongerWithEveryLimitInARow() throws InterruptedException
+	{
+		GeoNamesAccount account = account("test", 0, 0);
+		GeoNamesAccountPool pool = new GeoNamesAccountPool(Collections.singletonList(account), 1);
+		pool.statusReceived(account, limit());
+		assertTrue(account.getRateLimiter().isSuspended());
+		assertFalse(account.isUsable());
+		Thread.sleep(1100);
+		assertTrue(account.isUsable());
+
+		// the second limit in a row suspends the account for 2 seconds
+		pool.statusReceived(account, limit());
+		Thread.sleep(1100);
+		assertTrue(account.getRateLimiter().isSuspended());
+		Thread.sleep(1000);
+		assertFalse(account.getRateLimiter().isSuspended());
+	}
+
+	@Test
+	public void endsTheRunOfLimitsWhenGeoNamesAnswers() throws InterruptedException
+	{
+		GeoNamesAccount account = account("test", 0, 0);
+		GeoNamesAccountPool pool = new GeoNamesAccountPool(Collections.singletonList(account), 1);
+		pool.statusReceived(account, limit());
+		Thread.sleep(1100);
+		pool.answered(account);
+		pool.statusReceived(account, limit());
+		Thread.sleep(1100);
+		assertFalse(account.getRateLimiter().isSuspended());
+
+		// so does a status that is not about the credits
+		pool.statusReceived(account, new GeoNamesStatusException(15, "no result found"));
+		pool.statusReceived(account, limit());
+		Thread.sleep(1100);
+		assertFalse(account.getRateLimiter().isSuspended());
+	}
+
+	@Test
+	public void prefersTheAvailableAccountWithTheMostCreditsLeft() throws IOException
+	{
+		GeoNamesAccount few = account("few", 0, 10);
+		GeoNamesAccount many = account("many", 0, 20);
+		GeoNamesAccount waiting = account("waiting", 1, 100);
+		assertTrue(waiting.getRateLimiter().tryAcquire());
+		GeoNamesAccountPool pool = new GeoNamesAccountPool(Arrays.asList(few, waiting, many), 1);
+		for (int i = 0; i < 10; i++)
+			assertSame(many, pool.acquire(true));
+		// both have 10 credits left now, so they take turns
+		GeoNamesAccount first = pool.acquire(true);
+		GeoNamesAccount second = pool.acquire(true);
+		assertFalse(first == second);
+		assertFalse(first == waiting || second == waiting);
+	}
+
+	@Test
+	public void rotatesAccountsWithTheSameCredits() throws IOException
+	{
+		GeoNamesAccount a = account("a", 0, 0);
+		GeoNamesAccount b = account("b", 0, 0);
+		GeoNamesAccount c = account("c", 0, 0);
+		GeoNamesAccountPool pool = new GeoNamesAccountPool(Arrays.asList(a, b, c), 1);
+		for (int i = 0; i < 6; i++)
+			assertSame(Arrays.asList(a, b, c).get(i % 3), pool.acquire(false));
+	}
+
+	@Test
+	public void skipsSuspendedAccounts() throws IOException
+	{
+		GeoNamesAccount a = account("a", 0, 0);
+		GeoNamesAccount b = account("b", 0, 0);
+		GeoNamesAccountPool pool = new GeoNamesAccountPool(Arrays.asList(a, b), 60);
+		pool.statusReceived(a, limit());
+		for (int i = 0; i < 4; i++)
+			assertSame(b, pool.acquire(false));
+		pool.statusReceived(b, limit());
+		try
+		{
+			pool.acquire(true);
+			fail();
+		}
+		catch (GeoNamesCircuitBreaker.OpenException e)
+		{
+			assertEquals(1, pool.getExhaustedCount());
+		}
+		assertEquals(null, pool.tryAcquire());
+	}
+
+	@Test
+	public void sendsTheRequestAgainWithAnotherAccountWhenTheCreditsAreUsedUp() throws IOException, JSONException
+	{
+		GeoNamesTestServer server = new GeoNamesTestServer();
+		try
+		{
+			server.respond("spent", LIMIT_RESPONSE);
+			server.respond("{\"geonames\":[{\"title\":\"Redlands\",\"lat\":34.05,\"lng\":-117.19}]}");
+			// the spent account has the most credits left, so it is tried first
+			GeoNamesAccount spent = account("spent", server.getBaseUrl(), 0, 100);
+			GeoNamesAccount fresh = account("fresh", server.getBaseUrl(), 0, 50);
+			GeoNamesAccountPool pool = new GeoNamesAccountPool(Arrays.asList(spent, fresh), 60);
+			GeoNamesLookup lookup = new GeoNamesLookup(GeoNamesHttpClient.getInstance());
+			lookup.setAccounts(pool);
+
+			List<GeoNamesRow> rows = lookup.lookup(new GeoNamesQuery(GeoNamesService.WIKIPEDIA, 34.05, -117.19, 5, 10, "en"));
+			assertEquals(1, rows.size());
+			assertEquals("Redlands", rows.get(0).getString("title"));
+			assertEquals(Arrays.asList("spent", "fresh"), server.getUsernames());
+			assertEquals(1, pool.getFailoverCount());
+			assertTrue(spent.getRateLimiter().isSuspended());
+
+			// the suspended account is not tried again
+			lookup.lookup(new GeoNamesQuery(GeoNamesService.WIKIPEDIA, 35.05, -117.19, 5, 10, "en"));
+			assertEquals(Arrays.asList("spent", "fresh", "fresh"), server.getUsernames());
+		}
+		finally
+		{
+			server.stop();
+		}
+	}
+
+	@Test
+	public void failsOnceEveryAccountHasUsedUpItsCredits() throws IOException, JSONException
+	{
+		GeoNamesTestServer server = new GeoNamesTestServer();
+		try
+		{
+			server.respond(LIMIT_RESPONSE);
+			GeoNamesAccountPool pool = new GeoNamesAccountPool(Arrays.asList(account("a", server.getBaseUrl(), 0, 0), account("b", server.getBaseUrl(), 0, 0)), 60);
+			GeoNamesLookup lookup = new GeoNamesLookup(GeoNamesHttpClient.getInstance());
+			lookup.setAccounts(pool);
+			try
+			{
+				lookup.lookup(new GeoNamesQuery(GeoNamesService.WIKIPEDIA, 34.05, -117.19, 5, 10, "en"));
+				fail();
+			}
+			catch (GeoNamesStatusException e)
+			{
+				assertTrue(e.isAccountLimit());
+			}
+			assertEquals(2, server.getRequestCount());
+			assertEquals(1, pool.getFailoverCount());
+		}
+		finally
+		{
+			server.stop();
+		}
+	}
+
+	/**
+	 * An account whose breaker has been open for long enough to let a trial request pass.
+	 */
+	private static GeoNamesAccount halfOpenAccount(int requestsPerHour) throws InterruptedException
+	{
+		GeoNamesRateLimiter rateLimiter = new GeoNamesRateLimiter("test");
+		rateLimiter.setLimits(0, requestsPerHour);
+		GeoNamesCircuitBreaker circuitBreaker = new GeoNamesCircuitBreaker("test");
+		circuitBreaker.configure(1, 1);
+		circuitBreaker.recordFailure();
+		Thread.sleep(1100);
+		return new GeoNamesAccount("test", "http://127.0.0.1:1", rateLimiter, circuitBreaker);
+	}
+
+	private static GeoNamesAccount account(String username, int requestsPerSecond, int requestsPerHour)
+	{
+		return account(username, "http://127.0.0.1:1", requestsPerSecond, requestsPerHour);
+	}
+
+	private static GeoNamesAccount account(String username, String baseUrl, int requestsPerSecond, int requestsPerHour)
+	{
+		GeoNamesRateLimiter rateLimiter = new GeoNamesRateLimiter(username);
+		rateLimiter.setLimits(requestsPerSecond, requestsPerHour);
+		return new GeoNamesAccount(username, baseUrl, rateLimiter, null);
+	}
+
+	private static GeoNamesStatusException limit()
+	{
+		return new GeoNamesStatusException(GeoNamesStatusException.HOURLY_LIMIT_EXCEEDED, "the hourly limit of 1000 credits has been exceeded");
+	}
+}
@@ -0,0 +1,140 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class GeoNamesCircuitBreakerTest
+{
+	@Test
+	public void sharesOneBreakerPerEndpoint()
+	{
+		assertSame(GeoNamesCircuitBreaker.forEndpoint("http://shared"), GeoNamesCircuitBreaker.forEndpoint("http://shared"));
+		assertFalse(GeoNamesCircuitBreaker.forEndpoint("http://shared") == GeoNamesCircuitBreaker.forEndpoint("http://other"));
+	}
+
+	@Test
+	public void opensAfterTheThresholdAndClosesAfterASuccessfulTrial() throws InterruptedException
+	{
+		GeoNamesCircuitBreaker breaker = new GeoNamesCircuitBreaker("test");
+		breaker.configure(2, 1);
+		assertTrue(breaker.allowRequest());
+		breaker.recordFailure();
+		assertEquals(GeoNamesCircuitBreaker.State.CLOSED, breaker.getState());
+		assertTrue(breaker.allowRequest());
+		breaker.recordFailure();
+		assertEquals(GeoNamesCircuitBreaker.State.OPEN, breaker.getState());
+		assertTrue(breaker.isOpen());
+		assertFalse(breaker.allowRequest());
+		assertEquals(1, breaker.getOpenedCount());
+		assertEquals(1, breaker.getRejectedCount());
+
+		Thread.sleep(1100);
+		assertFalse(breaker.isOpen());
+		// a single trial request passes
+		assertTrue(breaker.allowRequest());
+		assertEquals(GeoNamesCircuitBreaker.State.HALF_OPEN, breaker.getState());
+		assertFalse(breaker.allowRequest());
+		breaker.recordSuccess();
+		assertEquals(GeoNamesCircuitBreaker.State.CLOSED, breaker.getState());
+		assertTrue(breaker.allowRequest());
+		assertTrue(breaker.allowRequest());
+	}
+
+	@Test
+	public void opensAgainWhenTheTrialFails() throws InterruptedException
+	{
+		GeoNamesCircuitBreaker breaker = new GeoNamesCircuitBreaker("test");
+		breaker.configure(1, 1);
+		breaker.recordFailure();
+		Thread.sleep(1100);
+		assertTrue(breaker.allowRequest());
+		breaker.recordFailure();
+		assertEquals(GeoNamesCircuitBreaker.State.OPEN, breaker.getState());
+		assertFalse(breaker.allowRequest());
+		assertEquals(2, breaker.getOpenedCount());
+	}
+
+	@Test
+	public void handsTheTrialToTheNextRequestWhenItIsCancelled() throws InterruptedException
+	{
+		GeoNamesCircuitBreaker breaker = new GeoNamesCircuitBreaker("test");
+		breaker.configure(1, 1);
+		breaker.recordFailure();
+		Thread.sleep(1100);
+		assertTrue(breaker.allowRequest());
+		breaker.recordCancelled();
+		assertEquals(GeoNamesCircuitBreaker.State.HALF_OPEN, breaker.getState());
+		assertTrue(breaker.allowRequest());
+		assertFalse(breaker.allowRequest());
+	}
+
+	@Test
+	public void doesNotCountCancelledRequestsAsFailures()
+	{
+		GeoNamesCircuitBreaker breaker = new GeoNamesCircuitBreaker("test");
+		breaker.configure(1, 1);
+		for (int i = 0; i < 3; i++)
+		{
+			assertTrue(breaker.allowRequest());
+			breaker.recordCancelled();
+		}
+		assertEquals(GeoNamesCircuitBreaker.State.CLOSED, breaker.getState());
+	}
+
+	@Test
+	public void neverOpensWithoutAThreshold()
+	{
+		GeoNamesCircuitBreaker breaker = new GeoNamesCircuitBreaker("test");
+		breaker.configure(0, 1);
+		for (int i = 0; i < 10; i++)
+			breaker.recordFailure();
+		assertTrue(breaker.allowRequest());
+		assertFalse(breaker.isOpen());
+	}
+
+	@Test
+	public void throwsWhenOpen()
+	{
+		GeoNamesCircuitBreaker breaker = new GeoNamesCircuitBreaker("test");
+		breaker.configure(1, 30);
+		breaker.recordFailure();
+		try
+		{
+			breaker.checkRequest();
+			fail();
+		}
+		catch (GeoNamesCircuitBreaker.OpenException e)
+		{
+			assertTrue(e.getMessage().contains("test"));
+		}
+	}
+}
@@ -0,0 +1,544 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.esri.core.geometry.MapGeometry;
+import com.esri.core.geometry.Point;
+import com.esri.core.geometry.SpatialReference;
+import com.esri.ges.core.geoevent.FieldGroup;
+import com.esri.ges.core.geoevent.GeoEvent;
+import com.esri.ges.core.geoevent.GeoEventDefinition;
+import com.esri.ges.core.property.Property;
+import com.esri.ges.core.property.PropertyDefinition;
+import com.esri.ges.core.property.PropertyException;
+import com.esri.ges.messaging.GeoEventCreator;
+import com.esri.ges.messaging.GeoEventProducer;
+import com.esri.ges.messaging.Messaging;
+import com.esri.ges.processor.GeoEventProcessorDefinition;
+
+public class GeoNamesCombinedProcessorTest
+{
+	private static final String					WIKIPEDIA_RESPONSE	= "{\"geonames\":["
+																														+ "{\"summary\":\"Home of Esri\",\"distance\":\"0.2\",\"rank\":80,\"title\":\"Redlands\",\"wikipediaUrl\":\"en.wikipedia.org/wiki/Redlands\",\"elevation\":410,\"countryCode\":\"US\",\"lng\":-117.18,\"feature\":\"city\",\"geoNameId\":5386754,\"lang\":\"en\",\"lat\":34.05},"
+																														+ "{\"summary\":\"A university\",\"distance\":\"1.4\",\"rank\":60,\"title\":\"University of Redlands\",\"wikipediaUrl\":\"en.wikipedia.org/wiki/University_of_Redlands\",\"countryCode\":\"US\",\"lng\":-117.16,\"lang\":\"en\",\"lat\":34.06}]}";
+	private static final String					OSM_POI_RESPONSE		= "{\"poi\":["
+																														+ "{\"typeName\":\"cafe\",\"distance\":\"0.05\",\"name\":\"Augie's\",\"lng\":\"-117.1821\",\"typeClass\":\"amenity\",\"lat\":\"34.0551\"},"
+																														+ "{\"typeName\":\"library\",\"distance\":\"0.3\",\"name\":\"A.K. Smiley\",\"lng\":\"-117.1795\",\"typeClass\":\"amenity\",\"lat\":\"34.0527\"}]}";
+	private static final AtomicInteger	IDS									= new AtomicInteger();
+
+	private GeoNamesTestServer					server;
+
+	@Before
+	public void startServer() throws Exception
+	{
+		server = new GeoNamesTestServer();
+		server.respondAt(GeoNamesService.WIKIPEDIA.getEndpoint(), WIKIPEDIA_RESPONSE);
+		server.respondAt(GeoNamesService.OSM_POI.getEndpoint(), OSM_POI_RESPONSE);
+	}
+
+	@After
+	public void stopServer()
+	{
+		server.stop();
+	}
+
+	@Test
+	public void sendsTheSameGeoEventsAsTheSingleServiceProcessors() throws Exception
+	{
+		GeoEvent track = trackGeoEvent("track-1", 34.055, -117.182);
+		SentGeoEvents wikipedia = run(new GeoNamesWikipediaProcessorDefinition(), track);
+		SentGeoEvents osmPOIs = run(new GeoNamesOSMPOIProcessorDefinition(), track);
+		SentGeoEvents combined = run(new GeoNamesCombinedProcessorDefinition(), track);
+
+		assertEquals(2, wikipedia.size());
+		assertEquals(2, osmPOIs.size());
+		assertEquals(4, combined.size());
+		assertEquals(wikipedia.describe("GeoNamesWikipedia"), combined.describe("GeoNamesWikipedia"));
+		assertEquals(osmPOIs.describe("GeoNamesOSMPOI"), combined.describe("GeoNamesOSMPOI"));
+	}
+
+	@Test
+	public void sendsTheResultFieldsAfterTheInputFields() throws Exception
+	{
+		GeoEvent track = trackGeoEvent("track-1", 34.055, -117.182);
+		SentGeoEvents combined = run(new GeoNamesCombinedProcessorDefinition(), track);
+
+		// trackId, startTime and incidentId, then the result fields, the geometry and the change type
+		SentGeoEvent article = combined.get("GeoNamesWikipedia", 0);
+		assertEquals("track-1", article.getField(0));
+		assertEquals(track.getStartTime(), article.getField(1));
+		assertEquals("none", article.getField(2));
+		assertEquals("Home of Esri", article.getField(3));
+		assertEquals("Redlands", article.getField(6));
+		assertEquals("en", article.getField(13));
+		assertEquals(34.05, (Double) article.getField(14), 1e-9);
+		assertNull(article.getField(3 + 12 + 1));
+		assertEquals(-117.18, article.getX(), 1e-9);
+		assertEquals(34.05, article.getY(), 1e-9);
+
+		SentGeoEvent poi = combined.get("GeoNamesOSMPOI", 1);
+		assertEquals("track-1", poi.getField(0));
+		assertEquals("library", poi.getField(3));
+		assertEquals("A.K. Smiley", poi.getField(5));
+		assertEquals("amenity", poi.getField(7));
+		assertEquals(34.0527, (Double) poi.getField(8), 1e-9);
+		assertNull(poi.getField(3 + 6 + 1));
+		assertEquals(-117.1795, poi.getX(), 1e-9);
+	}
+
+	@Test
+	public void sendsTheResultsOfEachInputInOneAggregatedGeoEvent() throws Exception
+	{
+		GeoEvent track = trackGeoEvent("track-1", 34.055, -117.182);
+		SentGeoEvents perResult = run(new GeoNamesCombinedProcessorDefinition(), track);
+		Map<String, Object> properties = properties();
+		properties.put(GeoNamesProcessorDefinitionBase.GEONAMES_OUTPUT_MODE_PROPERTY, GeoNamesProcessorDefinitionBase.OUTPUT_MODE_PER_INPUT);
+		properties.put(GeoNamesProcessorDefinitionBase.GEONAMES_EMISSION_MODE_PROPERTY, GeoNamesDeltaFilter.Mode.ADDED.getLabel());
+		SentGeoEvents aggregated = run(new GeoNamesCombinedProcessorDefinition(), properties, track);
+
+		assertEquals(2, aggregated.size());
+		// trackId, startTime and incidentId, then the result count, the geometry of the input and the results
+		SentGeoEvent articles = aggregated.get("GeoNamesWikipediaAggregated", 0);
+		assertEquals("track-1", articles.getField(0));
+		assertEquals(track.getStartTime(), articles.getField(1));
+		assertEquals("none", articles.getField(2));
+		assertEquals(2, articles.getField(3));
+		assertEquals(-117.182, articles.getX(), 1e-9);
+		assertEquals(34.055, articles.getY(), 1e-9);
+		assertResults(perResult.get("GeoNamesWikipedia"), articles.getResults(5), 12);
+
+		SentGeoEvent pois = aggregated.get("GeoNamesOSMPOIAggregated", 0);
+		assertEquals(2, pois.getField(3));
+		assertResults(perResult.get("GeoNamesOSMPOI"), pois.getResults(5), 6);
+	}
+
+	@Test
+	public void runsTheOSMPOILookupOnTheCallingThreadWhenTheFanOutThreadsAreBusy() throws Exception
+	{
+		// more callers than fan-out threads, each held on the server long enough for all of them to arrive
+		int callers = 12;
+		server.delay(1000);
+		final SentGeoEvents sent = new SentGeoEvents();
+		final GeoNamesProcessorBase processor = createProcessor(new GeoNamesCombinedProcessorDefinition(), properties(), sent);
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		List<Thread> threads = new ArrayList<Thread>();
+		try
+		{
+			for (int i = 0; i < callers; i++)
+			{
+				// a cell of its own for each caller, so that no lookups are coalesced
+				final GeoEvent track = trackGeoEvent("track-" + i, i, 10);
+				Thread thread = new Thread(new Runnable()
+					{
+						@Override
+						public void run()
+						{
+							try
+							{
+								start.await();
+								processor.process(track);
+							}
+							catch (Throwable e)
+							{
+								failure.compareAndSet(null, e);
+							}
+						}
+					}, "caller-" + i);
+				thread.start();
+				threads.add(thread);
+			}
+			start.countDown();
+			for (Thread thread : threads)
+			{
+				thread.join(10000);
+				assertFalse(thread.isAlive());
+			}
+		}
+		finally
+		{
+			processor.shutdown();
+		}
+
+		assertNull(failure.get());
+		assertEquals(callers * 4, sent.size());
+		int onCallers = 0;
+		for (SentGeoEvent poi : sent.get("GeoNamesOSMPOI"))
+		{
+			if (poi.getThreadName().startsWith("caller-"))
+			{
+				// the caller that ran the lookup is the one whose track it was
+				assertEquals(poi.getThreadName().substring("caller-".length()), ((String) poi.getField(0)).substring("track-".length()));
+				onCallers++;
+			}
+		}
+		assertTrue(onCallers >= (callers - 8) * 2);
+	}
+
+	private SentGeoEvents run(GeoEventProcessorDefinition definition, GeoEvent geoEvent) throws Exception
+	{
+		return run(definition, properties(), geoEvent);
+	}
+
+	private SentGeoEvents run(GeoEventProcessorDefinition definition, Map<String, Object> properties, GeoEvent geoEvent) throws Exception
+	{
+		SentGeoEvents sent = new SentGeoEvents();
+		GeoNamesProcessorBase processor = createProcessor(definition, properties, sent);
+		try
+		{
+			processor.process(geoEvent);
+		}
+		finally
+		{
+			processor.shutdown();
+		}
+		return sent;
+	}
+
+	private Map<String, Object> properties()
+	{
+		Map<String, Object> properties = new HashMap<String, Object>();
+		properties.put(GeoNamesProcessorDefinitionBase.GEONAMES_USERNAME_PROPERTY, "test");
+		properties.put(GeoNamesProcessorDefinitionBase.GEONAMES_BASE_URL_PROPERTY, server.getBaseUrl());
+		properties.put(GeoNamesProcessorDefinitionBase.GEONAMES_MAX_CONNECTIONS_PER_HOST_PROPERTY, 24);
+		return properties;
+	}
+
+	private GeoNamesProcessorBase createProcessor(final GeoEventProcessorDefinition definition, final Map<String, Object> properties, SentGeoEvents sent) throws Exception
+	{
+		GeoNamesProcessorBase processor;
+		if (definition instanceof GeoNamesWikipediaProcessorDefinition)
+		{
+			processor = new GeoNamesWikipediaProcessor(definition)
+				{
+					@Override
+					public boolean hasProperty(String name)
+					{
+						return definition.getPropertyDefinitions().containsKey(name);
+					}
+
+					@Override
+					public Property getProperty(String name)
+					{
+						return property(definition, properties, name);
+					}
+				};
+		}
+		else if (definition instanceof GeoNamesOSMPOIProcessorDefinition)
+		{
+			processor = new GeoNamesOSMPOIProcessor(definition)
+				{
+					@Override
+					public boolean hasProperty(String name)
+					{
+						return definition.getPropertyDefinitions().containsKey(name);
+					}
+
+					@Override
+					public Property getProperty(String name)
+					{
+						return property(definition, properties, name);
+					}
+				};
+		}
+		else
+		{
+			processor = new GeoNamesCombinedProcessor(definition)
+				{
+					@Override
+					public boolean hasProperty(String name)
+					{
+						return definition.getPropertyDefinitions().containsKey(name);
+					}
+
+					@Override
+					public Property getProperty(String name)
+					{
+						return property(definition, properties, name);
+					}
+				};
+		}
+		processor.setMessaging(messaging(sent));
+		processor.setId("test-" + IDS.incrementAndGet());
+		processor.afterPropertiesSet();
+		return processor;
+	}
+
+	/**
+	 * The GeoEvents sent by a processor, in the order sent.
+	 */
+	private static class SentGeoEvents
+	{
+		private final List<SentGeoEvent>	sent	= new ArrayList<SentGeoEvent>();
+
+		synchronized void add(SentGeoEvent geoEvent)
+		{
+			sent.add(geoEvent);
+		}
+
+		synchronized int size()
+		{
+			return sent.size();
+		}
+
+		synchronized List<SentGeoEvent> get(String definitionName)
+		{
+			List<SentGeoEvent> matching = new ArrayList<SentGeoEvent>();
+			for (SentGeoEvent geoEvent : sent)
+			{
+				if (geoEvent.definitionName.equals(definitionName))
+					matching.add(geoEvent);
+			}
+			return matching;
+		}
+
+		SentGeoEvent get(String definitionName, int index)
+		{
+			return get(definitionName).get(index);
+		}
+
+		List<String> describe(String definitionName)
+		{
+			List<String> descriptions = new ArrayList<String>();
+			for (SentGeoEvent geoEvent : get(definitionName))
+				descriptions.add(geoEvent.toString());
+			return descriptions;
+		}
+	}
+
+	/**
+	 * A GeoEvent created by a processor, holding its fields in an Object[] like the server's own.
+	 */
+	private static class SentGeoEvent implements InvocationHandler
+	{
+		private final String		definitionName;
+		private final Object[]	fields		= new Object[17];
+		private MapGeometry			geometry;
+		private String					threadName;
+
+		SentGeoEvent(String definitionName)
+		{
+			this.definitionName = definitionName;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+		{
+			String name = method.getName();
+			if (name.equals("setField") && args[0] instanceof Integer)
+				fields[(Integer) args[0]] = args[1];
+			else if (name.equals("getField") && args[0] instanceof Integer)
+				return fields[(Integer) args[0]];
+			else if (name.equals("setGeometry"))
+				geometry = (MapGeometry) args[0];
+			else if (name.equals("getGeometry"))
+				return geometry;
+			else if (name.equals("createFieldGroup"))
+				return proxy(FieldGroup.class, new SentGeoEvent((String) args[0]));
+			else if (name.equals("toString"))
+				return toString();
+			return defaultValue(method);
+		}
+
+		Object getField(int index)
+		{
+			return fields[index];
+		}
+
+		double getX()
+		{
+			return ((Point) geometry.getGeometry()).getX();
+		}
+
+		double getY()
+		{
+			return ((Point) geometry.getGeometry()).getY();
+		}
+
+		String getThreadName()
+		{
+			return threadName;
+		}
+
+		@SuppressWarnings("unchecked")
+		List<SentGeoEvent> getResults(int index)
+		{
+			List<SentGeoEvent> results = new ArrayList<SentGeoEvent>();
+			for (FieldGroup result : (List<FieldGroup>) fields[index])
+				results.add((SentGeoEvent) Proxy.getInvocationHandler(result));
+			return results;
+		}
+
+		@Override
+		public String toString()
+		{
+			return definitionName + Arrays.asList(fields) + ((geometry != null) ? "@" + getX() + "," + getY() : "");
+		}
+	}
+
+	/**
+	 * Checks that each result group holds the result fields of the per-result GeoEvent, followed by its change type.
+	 */
+	private static void assertResults(List<SentGeoEvent> expected, List<SentGeoEvent> results, int outputCount)
+	{
+		assertEquals(expected.size(), results.size());
+		for (int i = 0; i < results.size(); i++)
+		{
+			SentGeoEvent result = results.get(i);
+			assertEquals("results", result.definitionName);
+			for (int field = 0; field < outputCount; field++)
+				assertEquals(expected.get(i).getField(3 + field), result.getField(field));
+			assertEquals(GeoNamesDeltaFilter.CHANGE_ADDED, result.getField(outputCount));
+		}
+	}
+
+	private static Messaging messaging(final SentGeoEvents sent)
+	{
+		final GeoEventCreator creator = proxy(GeoEventCreator.class, new InvocationHandler()
+			{
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+				{
+					if (method.getName().equals("create"))
+						return proxy(GeoEvent.class, new SentGeoEvent((String) args[0]));
+					return defaultValue(method);
+				}
+			});
+		final GeoEventProducer producer = proxy(GeoEventProducer.class, new InvocationHandler()
+			{
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+				{
+					if (method.getName().equals("send"))
+					{
+						SentGeoEvent geoEvent = (SentGeoEvent) Proxy.getInvocationHandler(args[0]);
+						geoEvent.threadName = Thread.currentThread().getName();
+						sent.add(geoEvent);
+					}
+					return defaultValue(method);
+				}
+			});
+		return proxy(Messaging.class, new InvocationHandler()
+			{
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+				{
+					if (method.getName().equals("createGeoEventCreator"))
+						return creator;
+					if (method.getName().equals("createGeoEventProducer"))
+						return producer;
+					return defaultValue(method);
+				}
+			});
+	}
+
+	private static GeoEvent trackGeoEvent(String trackId, double lat, double lon)
+	{
+		final Object[] fields = new Object[] { trackId, new Date(), new MapGeometry(new Point(lon, lat), SpatialReference.create(4326)) };
+		final GeoEventDefinition definition = proxy(GeoEventDefinition.class, new InvocationHandler()
+			{
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+				{
+					if (method.getName().equals("getName"))
+						return "track";
+					return defaultValue(method);
+				}
+			});
+		return proxy(GeoEvent.class, new InvocationHandler()
+			{
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+				{
+					String name = method.getName();
+					if (name.equals("getTrackId"))
+						return fields[0];
+					if (name.equals("getStartTime"))
+						return fields[1];
+					if (name.equals("getGeometry"))
+						return fields[2];
+					if (name.equals("getGeoEventDefinition"))
+						return definition;
+					return defaultValue(method);
+				}
+			});
+	}
+
+	private static Property property(GeoEventProcessorDefinition definition, Map<String, Object> properties, String name)
+	{
+		PropertyDefinition propertyDefinition = definition.getPropertyDefinitions().get(name);
+		if (propertyDefinition == null)
+			return null;
+		try
+		{
+			return new Property(propertyDefinition, properties.containsKey(name) ? properties.get(name) : propertyDefinition.getDefaultValue());
+		}
+		catch (PropertyException e)
+		{
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+	private static <T> T proxy(Class<T> type, InvocationHandler handler)
+	{
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, handler));
+	}
+
+	private static Object defaultValue(Method method)
+	{
+		Class<?> type = method.getReturnType();
+		if (!type.isPrimitive() || type == void.class)
+			return null;
+		if (type == boolean.class)
+			return Boolean.FALSE;
+		if (type == long.class)
+			return Long.valueOf(0);
+		if (type == double.class)
+			return Double.valueOf(0);
+		return Integer.valueOf(0);
+	}
+}
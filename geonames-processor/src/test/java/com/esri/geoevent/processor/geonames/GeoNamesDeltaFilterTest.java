@@ -0,0 +1,174 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class GeoNamesDeltaFilterTest
+{
+	private static final String	KEY	= GeoNamesDeltaFilter.key("track", "incident");
+
+	@Test
+	public void addsOnlyRowsNotSentLastTime()
+	{
+		GeoNamesDeltaFilter filter = new GeoNamesDeltaFilter(GeoNamesDeltaFilter.Mode.ADDED, 100);
+		assertEquals(ids(1, 2, 3), added(filter, KEY, 1, 2, 3));
+		assertEquals(ids(4), added(filter, KEY, 2, 3, 4));
+		assertEquals(ids(5), added(filter, KEY, 4, 5));
+		// 2 and 3 were not in the last lookup, so they are new again
+		assertEquals(ids(2, 3), added(filter, KEY, 2, 3, 4, 5));
+	}
+
+	@Test
+	public void keepsTheSetsOfKeysApart()
+	{
+		GeoNamesDeltaFilter filter = new GeoNamesDeltaFilter(GeoNamesDeltaFilter.Mode.ADDED, 100);
+		added(filter, KEY, 1, 2);
+		assertEquals(ids(1, 2), added(filter, GeoNamesDeltaFilter.key("track", "other"), 1, 2));
+		assertEquals(ids(1, 2), added(filter, GeoNamesDeltaFilter.key("other", "incident"), 1, 2));
+		assertEquals(3, filter.size());
+	}
+
+	@Test
+	public void reportsTheRowsNoLongerReturned()
+	{
+		GeoNamesDeltaFilter filter = new GeoNamesDeltaFilter(GeoNamesDeltaFilter.Mode.ADDED_AND_REMOVED, 100);
+		GeoNamesDeltaFilter.Delta delta = filter.begin(KEY);
+		GeoNamesRow removed = row(1);
+		delta.add(removed);
+		delta.add(row(3));
+		delta.add(row(2));
+		assertTrue(delta.finish().isEmpty());
+
+		delta = filter.begin(KEY);
+		assertFalse(delta.add(row(2)));
+		assertTrue(delta.add(row(4)));
+		assertFalse(delta.add(row(3)));
+		List<GeoNamesRow> removedRows = delta.finish();
+		assertEquals(1, removedRows.size());
+		assertSame(removed, removedRows.get(0));
+	}
+
+	@Test
+	public void reportsNoRemovalsWhenOnlyAddingRows()
+	{
+		GeoNamesDeltaFilter filter = new GeoNamesDeltaFilter(GeoNamesDeltaFilter.Mode.ADDED, 100);
+		added(filter, KEY, 1, 2);
+		GeoNamesDeltaFilter.Delta delta = filter.begin(KEY);
+		delta.add(row(3));
+		assertTrue(delta.finish().isEmpty());
+	}
+
+	@Test
+	public void keepsThePreviousSetOfAnUnfinishedLookup()
+	{
+		GeoNamesDeltaFilter filter = new GeoNamesDeltaFilter(GeoNamesDeltaFilter.Mode.ADDED, 100);
+		added(filter, KEY, 1, 2);
+		// a failed lookup is never finished
+		filter.begin(KEY).add(row(3));
+		assertEquals(ids(3), added(filter, KEY, 1, 2, 3));
+	}
+
+	@Test
+	public void comparesManyRows()
+	{
+		GeoNamesDeltaFilter filter = new GeoNamesDeltaFilter(GeoNamesDeltaFilter.Mode.ADDED_AND_REMOVED, 100);
+		long[] first = new long[100];
+		long[] second = new long[100];
+		for (int i = 0; i < 100; i++)
+		{
+			first[i] = 1000 - i;
+			second[i] = 1050 - i;
+		}
+		added(filter, KEY, first);
+		GeoNamesDeltaFilter.Delta delta = filter.begin(KEY);
+		int newRows = 0;
+		for (long id : second)
+		{
+			if (delta.add(row(id)))
+				newRows++;
+		}
+		assertEquals(50, newRows);
+		List<GeoNamesRow> removed = delta.finish();
+		assertEquals(50, removed.size());
+		for (GeoNamesRow row : removed)
+			assertTrue(row.identity() <= 950);
+	}
+
+	@Test
+	public void identifiesRowsWithoutAGeoNameIdByTheirValues()
+	{
+		GeoNamesDeltaFilter filter = new GeoNamesDeltaFilter(GeoNamesDeltaFilter.Mode.ADDED, 100);
+		GeoNamesDeltaFilter.Delta delta = filter.begin(KEY);
+		delta.add(new GeoNamesRow(new String[] { "name", "distance" }, new Object[] { "cafe", 0.1 }));
+		delta.finish();
+		delta = filter.begin(KEY);
+		// the distance depends on where the track is, so it does not make the row new
+		assertFalse(delta.add(new GeoNamesRow(new String[] { "name", "distance" }, new Object[] { "cafe", 0.2 })));
+		assertTrue(delta.add(new GeoNamesRow(new String[] { "name", "distance" }, new Object[] { "bar", 0.1 })));
+	}
+
+	@Test
+	public void parsesModeLabels()
+	{
+		assertEquals(GeoNamesDeltaFilter.Mode.ADDED, GeoNamesDeltaFilter.Mode.fromLabel("New Results Only"));
+		assertEquals(GeoNamesDeltaFilter.Mode.ADDED_AND_REMOVED, GeoNamesDeltaFilter.Mode.fromLabel("added_and_removed"));
+		assertEquals(GeoNamesDeltaFilter.Mode.ALL, GeoNamesDeltaFilter.Mode.fromLabel(null));
+	}
+
+	private static List<Long> added(GeoNamesDeltaFilter filter, String key, long... ids)
+	{
+		GeoNamesDeltaFilter.Delta delta = filter.begin(key);
+		List<Long> added = new ArrayList<Long>();
+		for (long id : ids)
+		{
+			if (delta.add(row(id)))
+				added.add(id);
+		}
+		delta.finish();
+		return added;
+	}
+
+	private static List<Long> ids(long... ids)
+	{
+		List<Long> list = new ArrayList<Long>();
+		for (long id : ids)
+			list.add(id);
+		return list;
+	}
+
+	private static GeoNamesRow row(long geoNameId)
+	{
+		return new GeoNamesRow(new String[] { "geoNameId", "title" }, new Object[] { geoNameId, "row " + geoNameId });
+	}
+}
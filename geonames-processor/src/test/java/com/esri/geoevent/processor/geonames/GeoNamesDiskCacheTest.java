@@ -0,0 +1,253 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class GeoNamesDiskCacheTest
+{
+	private static final long				HOUR		= TimeUnit.HOURS.toMillis(1);
+
+	@Rule
+	public final TemporaryFolder		folder	= new TemporaryFolder();
+
+	private File										file;
+	private GeoNamesDiskCache				cache;
+
+	@Before
+	public void createCache()
+	{
+		file = new File(folder.getRoot(), "geonames.cache");
+		cache = new GeoNamesDiskCache(file);
+	}
+
+	@After
+	public void closeCache()
+	{
+		cache.close();
+	}
+
+	@Test
+	public void storesRowsAcrossRestarts()
+	{
+		GeoNamesRow row = new GeoNamesRow(new String[] { "title", "geoNameId", "population", "lat", "capital", "feature" }, new Object[] { "S\u00e3o Paulo", 3448439, 12345678901L, -23.55, true, JSONObject.NULL });
+		long expiresAt = System.currentTimeMillis() + HOUR;
+		cache.put("key", Arrays.asList(row, row("other")), expiresAt);
+		assertRows(cache.get("key"), row, expiresAt);
+
+		cache.close();
+		cache = new GeoNamesDiskCache(file);
+		assertRows(cache.get("key"), row, expiresAt);
+		assertEquals(1, cache.size());
+		assertNull(cache.get("missing"));
+	}
+
+	@Test
+	public void replacesTheRowsOfAKey()
+	{
+		long expiresAt = System.currentTimeMillis() + HOUR;
+		cache.put("key", Collections.singletonList(row("first")), expiresAt);
+		cache.put("key", Collections.singletonList(row("second")), expiresAt);
+		assertEquals("second", cache.get("key").getRows().get(0).opt("title"));
+
+		cache.close();
+		assertEquals("second", cache.get("key").getRows().get(0).opt("title"));
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void dropsExpiredRows()
+	{
+		cache.put("expired", Collections.singletonList(row("expired")), System.currentTimeMillis() - 1);
+		assertNull(cache.get("expired"));
+
+		cache.put("expired", Collections.singletonList(row("expired")), System.currentTimeMillis() - 1);
+		cache.put("live", Collections.singletonList(row("live")), System.currentTimeMillis() + HOUR);
+		cache.close();
+		assertNotNull(cache.get("live"));
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void cutsOffATornRecord() throws IOException
+	{
+		long expiresAt = System.currentTimeMillis() + HOUR;
+		cache.put("first", Collections.singletonList(row("first")), expiresAt);
+		cache.close();
+		long intact = file.length();
+		cache.put("second", Collections.singletonList(row("second")), expiresAt);
+		cache.close();
+
+		// a crash while the second record was written
+		truncate(file, file.length() - 3);
+		assertNotNull(cache.get("first"));
+		assertNull(cache.get("second"));
+		assertEquals(intact, file.length());
+
+		// the cache keeps appending after the intact records
+		cache.put("second", Collections.singletonList(row("second")), expiresAt);
+		cache.close();
+		assertNotNull(cache.get("first"));
+		assertNotNull(cache.get("second"));
+	}
+
+	@Test
+	public void cutsOffADamagedLastRecord() throws IOException
+	{
+		long expiresAt = System.currentTimeMillis() + HOUR;
+		cache.put("first", Collections.singletonList(row("first")), expiresAt);
+		cache.close();
+		long intact = file.length();
+		cache.put("second", Collections.singletonList(row("second")), expiresAt);
+		cache.close();
+
+		// the length made it to the disk, but not all of the body
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try
+		{
+			raf.seek(raf.length() - 2);
+			raf.write(0xff);
+		}
+		finally
+		{
+			raf.close();
+		}
+		assertNull(cache.get("second"));
+		assertNotNull(cache.get("first"));
+		assertEquals(intact, file.length());
+	}
+
+	@Test
+	public void compactsReplacedRecords()
+	{
+		long expiresAt = System.currentTimeMillis() + HOUR;
+		List<GeoNamesRow> rows = rows(100);
+		for (int i = 0; i < 200; i++)
+			cache.put("key" + (i % 2), rows, expiresAt);
+		assertFalse(cache.getStatistics(), cache.getStatistics().contains("compactions=0"));
+		// only the live records and the records written since the last compaction are left
+		assertTrue(file.length() < 2 * 1024 * 1024);
+		assertEquals(100, cache.get("key0").getRows().size());
+		assertEquals(100, cache.get("key1").getRows().size());
+
+		cache.close();
+		assertEquals(100, cache.get("key1").getRows().size());
+		assertEquals(2, cache.size());
+	}
+
+	@Test
+	public void dropsTheRecordsExpiringFirstBeyondTheMaxSize()
+	{
+		cache.setMaxSize(0);
+		long expiresAt = System.currentTimeMillis() + HOUR;
+		List<GeoNamesRow> rows = rows(50);
+		for (int i = 0; i < 200; i++)
+			cache.put("key" + i, rows, expiresAt + i * 1000);
+		assertTrue(file.length() <= 1024 * 1024);
+		assertTrue(cache.size() < 200);
+		assertNull(cache.get("key0"));
+		assertNotNull(cache.get("key199"));
+	}
+
+	@Test
+	public void ignoresAFileThatIsNotACache() throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try
+		{
+			raf.writeBytes("not a GeoNames disk cache");
+		}
+		finally
+		{
+			raf.close();
+		}
+		cache.put("key", Collections.singletonList(row("title")), System.currentTimeMillis() + HOUR);
+		assertNull(cache.get("key"));
+		assertTrue(cache.getStatistics().contains("failed"));
+	}
+
+	private static void assertRows(GeoNamesDiskCache.Entry entry, GeoNamesRow expected, long expiresAt)
+	{
+		assertNotNull(entry);
+		assertEquals(expiresAt, entry.getExpiresAt());
+		assertEquals(2, entry.getRows().size());
+		GeoNamesRow row = entry.getRows().get(0);
+		assertEquals(expected.size(), row.size());
+		for (int i = 0; i < expected.size(); i++)
+		{
+			assertEquals(expected.getName(i), row.getName(i));
+			assertEquals(expected.getValue(i), row.getValue(i));
+		}
+		assertEquals("other", entry.getRows().get(1).opt("title"));
+	}
+
+	private static List<GeoNamesRow> rows(int count)
+	{
+		List<GeoNamesRow> rows = new ArrayList<GeoNamesRow>();
+		char[] summary = new char[100];
+		Arrays.fill(summary, 'x');
+		for (int i = 0; i < count; i++)
+			rows.add(new GeoNamesRow(new String[] { "title", "summary", "geoNameId" }, new Object[] { "row " + i, new String(summary), i }));
+		return rows;
+	}
+
+	private static GeoNamesRow row(String title)
+	{
+		return new GeoNamesRow(new String[] { "title" }, new Object[] { title });
+	}
+
+	private static void truncate(File file, long length) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try
+		{
+			raf.setLength(length);
+		}
+		finally
+		{
+			raf.close();
+		}
+	}
+}
@@ -0,0 +1,201 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import com.esri.core.geometry.MapGeometry;
+import com.esri.core.geometry.Point;
+import com.esri.ges.core.ConfigurationException;
+import com.esri.ges.core.geoevent.DefaultFieldDefinition;
+import com.esri.ges.core.geoevent.FieldDefinition;
+import com.esri.ges.core.geoevent.FieldException;
+import com.esri.ges.core.geoevent.FieldGroup;
+import com.esri.ges.core.geoevent.FieldType;
+import com.esri.ges.core.geoevent.GeoEvent;
+
+public class GeoNamesFieldMappingTest
+{
+	private static final GeoNamesRow	ROW	= new GeoNamesRow(new String[] { "title", "summary", "lat", "lng", "elevation", "rank", "population", "distance" }, new Object[] { "Redlands", "A city", 34.0556, -117.1825, "413", 97, "71513", JSONObject.NULL });
+
+	@Test
+	public void fillsFieldsOfTheSameName() throws Exception
+	{
+		GeoNamesFieldMapping mapping = GeoNamesFieldMapping.compile(fields("title", FieldType.String, "rank", FieldType.Integer, "population", FieldType.Long, "lat", FieldType.Double), null, false, "lng", "lat", null);
+		assertEquals(4, mapping.getOutputCount());
+		Map<Integer, Object> values = new HashMap<Integer, Object>();
+		assertEquals(0, mapping.apply(ROW, fieldGroup(values), 2));
+		assertEquals("Redlands", values.get(2));
+		assertEquals(Integer.valueOf(97), values.get(3));
+		assertEquals(Long.valueOf(71513), values.get(4));
+		assertEquals(Double.valueOf(34.0556), values.get(5));
+		assertEquals(4, values.size());
+	}
+
+	@Test
+	public void convertsValuesToTheFieldTypes() throws Exception
+	{
+		GeoNamesFieldMapping mapping = GeoNamesFieldMapping.compile(fields("elevation", FieldType.Double, "rank", FieldType.String, "population", FieldType.Float, "title", FieldType.Double), null, false, "lng", "lat", null);
+		Map<Integer, Object> values = new HashMap<Integer, Object>();
+		// the title is not a number
+		assertEquals(1, mapping.apply(ROW, fieldGroup(values), 0));
+		assertEquals(Double.valueOf(413), values.get(0));
+		assertEquals("97", values.get(1));
+		assertEquals(Float.valueOf(71513), values.get(2));
+		assertNull(values.get(3));
+	}
+
+	@Test
+	public void countsAndFillsMissingValues() throws Exception
+	{
+		List<FieldDefinition> fields = fields("missing", FieldType.String, "distance", FieldType.Double, "feature", FieldType.Integer);
+		Map<Integer, Object> values = new HashMap<Integer, Object>();
+		assertEquals(3, GeoNamesFieldMapping.compile(fields, null, false, "lng", "lat", null).apply(ROW, fieldGroup(values), 0));
+		assertNull(values.get(0));
+		assertNull(values.get(1));
+
+		assertEquals(3, GeoNamesFieldMapping.compile(fields, null, true, "lng", "lat", null).apply(ROW, fieldGroup(values), 0));
+		assertEquals(GeoNamesFieldMapping.UNAVAILABLE, values.get(0));
+		assertTrue(((Double) values.get(1)).isNaN());
+		assertNull(values.get(2));
+	}
+
+	@Test
+	public void fillsFieldsAsSpecified() throws Exception
+	{
+		GeoNamesFieldMapping mapping = GeoNamesFieldMapping.compile(fields("name", FieldType.String, "summary", FieldType.String, "title", FieldType.String), " name = title , summary= ", false, "lng", "lat", null);
+		Map<Integer, Object> values = new HashMap<Integer, Object>();
+		assertEquals(0, mapping.apply(ROW, fieldGroup(values), 0));
+		assertEquals("Redlands", values.get(0));
+		// an empty response field leaves the output field empty
+		assertFalse(values.containsKey(1));
+		assertEquals("Redlands", values.get(2));
+	}
+
+	@Test
+	public void rejectsMalformedSpecifications() throws ConfigurationException
+	{
+		List<FieldDefinition> fields = fields("title", FieldType.String);
+		for (String specification : new String[] { "title", "=title", "unknown=title" })
+		{
+			try
+			{
+				GeoNamesFieldMapping.compile(fields, specification, false, "lng", "lat", null);
+				fail(specification);
+			}
+			catch (IllegalArgumentException e)
+			{
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void setsThePointGeometry() throws Exception
+	{
+		GeoNamesFieldMapping mapping = GeoNamesFieldMapping.compile(fields("lat", FieldType.Double, "title", FieldType.String), null, false, "lng", "lat", "elevation");
+		// only the output fields are set, the longitude and elevation are read for the geometry alone
+		assertEquals(2, mapping.getOutputCount());
+		Map<Integer, Object> values = new HashMap<Integer, Object>();
+		List<MapGeometry> geometries = new ArrayList<MapGeometry>();
+		assertEquals(0, mapping.apply(ROW, fieldGroup(values), 0, geoEvent(geometries)));
+		assertEquals(2, values.size());
+		assertEquals(1, geometries.size());
+		Point point = (Point) geometries.get(0).getGeometry();
+		assertEquals(-117.1825, point.getX(), 0.0);
+		assertEquals(34.0556, point.getY(), 0.0);
+		assertEquals(413, point.getZ(), 0.0);
+		assertEquals(4326, geometries.get(0).getSpatialReference().getID());
+	}
+
+	@Test
+	public void countsAMissingGeometry() throws Exception
+	{
+		GeoNamesFieldMapping mapping = GeoNamesFieldMapping.compile(fields("title", FieldType.String), null, false, "x", "y", null);
+		List<MapGeometry> geometries = new ArrayList<MapGeometry>();
+		assertEquals(1, mapping.apply(ROW, fieldGroup(new HashMap<Integer, Object>()), 0, geoEvent(geometries)));
+		assertTrue(geometries.isEmpty());
+	}
+
+	private static List<FieldDefinition> fields(Object... namesAndTypes) throws ConfigurationException
+	{
+		List<FieldDefinition> fields = new ArrayList<FieldDefinition>();
+		for (int i = 0; i < namesAndTypes.length; i += 2)
+			fields.add(new DefaultFieldDefinition((String) namesAndTypes[i], (FieldType) namesAndTypes[i + 1]));
+		return fields;
+	}
+
+	/**
+	 * A field group that records the fields set by index.
+	 */
+	private static FieldGroup fieldGroup(final Map<Integer, Object> values)
+	{
+		values.clear();
+		return (FieldGroup) Proxy.newProxyInstance(FieldGroup.class.getClassLoader(), new Class<?>[] { FieldGroup.class }, new InvocationHandler()
+			{
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) throws FieldException
+				{
+					if (!method.getName().equals("setField") || !(args[0] instanceof Integer))
+						throw new UnsupportedOperationException(method.getName());
+					values.put((Integer) args[0], args[1]);
+					return null;
+				}
+			});
+	}
+
+	/**
+	 * A GeoEvent that records the geometries set.
+	 */
+	private static GeoEvent geoEvent(final List<MapGeometry> geometries)
+	{
+		return (GeoEvent) Proxy.newProxyInstance(GeoEvent.class.getClassLoader(), new Class<?>[] { GeoEvent.class }, new InvocationHandler()
+			{
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args)
+				{
+					if (!method.getName().equals("setGeometry"))
+						throw new UnsupportedOperationException(method.getName());
+					geometries.add((MapGeometry) args[0]);
+					return null;
+				}
+			});
+	}
+}
@@ -0,0 +1,187 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.esri.core.geometry.Envelope;
+import com.esri.core.geometry.Line;
+import com.esri.core.geometry.MultiPoint;
+import com.esri.core.geometry.Point;
+import com.esri.core.geometry.Polygon;
+import com.esri.core.geometry.Polyline;
+
+public class GeoNamesGeometryTest
+{
+	private static final int		PRECISION			= 5;
+	// half the diagonal of a geohash cell of precision 5 at the equator
+	private static final double	HALF_CELL_KM	= 3.5;
+
+	@Test
+	public void samplesAPointAtTheCenterOfItsCell()
+	{
+		GeoNamesGeometry geometry = GeoNamesGeometry.of(new Point(-117.19, 34.05), GeoNamesProjection.WGS84);
+		List<double[]> samples = geometry.getSamples(10, PRECISION, 100);
+		assertEquals(1, samples.size());
+		assertEquals(GeoHash.encode(34.05, -117.19, PRECISION), GeoHash.encode(samples.get(0)[0], samples.get(0)[1], PRECISION));
+		assertEquals(GeoHash.distanceKm(34.05, -117.19, 34.06, -117.19), geometry.distanceKm(34.06, -117.19), 0.01);
+	}
+
+	@Test
+	public void coversAPath()
+	{
+		// about 111 km along the equator
+		GeoNamesGeometry geometry = GeoNamesGeometry.of(line(0, 0, 1, 0), GeoNamesProjection.WGS84);
+		List<double[]> samples = geometry.getSamples(10, PRECISION, 100);
+		assertTrue(samples.size() >= 6 && samples.size() <= 8);
+		assertUniqueCells(samples);
+		for (double lon = 0; lon <= 1; lon += 0.01)
+			assertTrue("uncovered at " + lon, nearest(samples, 0, lon) <= 10 + HALF_CELL_KM);
+	}
+
+	@Test
+	public void samplesTheSameCellsEveryTime()
+	{
+		GeoNamesGeometry geometry = GeoNamesGeometry.of(line(0, 0, 1, 0.5), GeoNamesProjection.WGS84);
+		List<double[]> first = geometry.getSamples(10, PRECISION, 100);
+		List<double[]> second = geometry.getSamples(10, PRECISION, 100);
+		assertEquals(first.size(), second.size());
+		for (int i = 0; i < first.size(); i++)
+		{
+			assertEquals(first.get(i)[0], second.get(i)[0], 0.0);
+			assertEquals(first.get(i)[1], second.get(i)[1], 0.0);
+		}
+	}
+
+	@Test
+	public void widensTheCoverBeyondTheMaxSamples()
+	{
+		// about 1100 km, which would take 550 lookups covering 1 km each
+		GeoNamesGeometry geometry = GeoNamesGeometry.of(line(0, 0, 10, 0), GeoNamesProjection.WGS84);
+		List<double[]> samples = geometry.getSamples(1, PRECISION, 10);
+		assertTrue(samples.size() <= 10);
+		assertTrue(samples.size() >= 5);
+		// the route is still sampled from end to end
+		assertTrue(nearest(samples, 0, 0) <= HALF_CELL_KM);
+		assertTrue(nearest(samples, 0, 10) < 1100.0 / samples.size());
+	}
+
+	@Test
+	public void coversTheInteriorOfAPolygon()
+	{
+		Polygon square = new Polygon();
+		square.startPath(0, 0);
+		square.lineTo(0.5, 0);
+		square.lineTo(0.5, 0.5);
+		square.lineTo(0, 0.5);
+		GeoNamesGeometry geometry = GeoNamesGeometry.of(square, GeoNamesProjection.WGS84);
+		List<double[]> samples = geometry.getSamples(5, PRECISION, 1000);
+		assertUniqueCells(samples);
+		for (double lat = 0; lat <= 0.5; lat += 0.05)
+		{
+			for (double lon = 0; lon <= 0.5; lon += 0.05)
+				assertTrue("uncovered at " + lat + "," + lon, nearest(samples, lat, lon) <= 5 + HALF_CELL_KM);
+		}
+		assertEquals(0, geometry.distanceKm(0.25, 0.25), 0.0);
+		assertEquals(GeoHash.distanceKm(0.25, 0.6, 0.25, 0.5), geometry.distanceKm(0.25, 0.6), 0.01);
+	}
+
+	@Test
+	public void treatsAnEnvelopeAsAPolygon()
+	{
+		GeoNamesGeometry geometry = GeoNamesGeometry.of(new Envelope(0, 0, 0.5, 0.5), GeoNamesProjection.WGS84);
+		assertEquals(0, geometry.distanceKm(0.25, 0.25), 0.0);
+		assertTrue(geometry.getSamples(5, PRECISION, 1000).size() > 4);
+	}
+
+	@Test
+	public void measuresTheDistanceToTheNearestPart()
+	{
+		MultiPoint points = new MultiPoint();
+		points.add(0, 0);
+		points.add(1, 0);
+		GeoNamesGeometry geometry = GeoNamesGeometry.of(points, GeoNamesProjection.WGS84);
+		assertEquals(GeoHash.distanceKm(0, 0.9, 0, 1), geometry.distanceKm(0, 0.9), 0.01);
+		assertEquals(2, geometry.getSamples(10, PRECISION, 100).size());
+
+		geometry = GeoNamesGeometry.of(line(0, 0, 1, 0), GeoNamesProjection.WGS84);
+		assertEquals(0, geometry.distanceKm(0, 0.5), 1e-9);
+		assertEquals(GeoHash.distanceKm(0, 0.5, 0.1, 0.5), geometry.distanceKm(0.1, 0.5), 0.01);
+		assertEquals(GeoHash.distanceKm(0, 1, 0, 1.2), geometry.distanceKm(0, 1.2), 0.01);
+	}
+
+	@Test
+	public void measuresAcrossTheAntimeridian()
+	{
+		GeoNamesGeometry geometry = GeoNamesGeometry.of(line(179.9, 0, -179.9, 0), GeoNamesProjection.WGS84);
+		assertEquals(0, geometry.distanceKm(0, 180), 0.01);
+	}
+
+	@Test
+	public void samplesNothingForAnEmptyGeometry()
+	{
+		GeoNamesGeometry geometry = GeoNamesGeometry.of(new Polyline(), GeoNamesProjection.WGS84);
+		assertTrue(geometry.isEmpty());
+		assertTrue(geometry.getSamples(10, PRECISION, 100).isEmpty());
+		assertFalse(GeoNamesGeometry.of(new Point(0, 0), GeoNamesProjection.WGS84).isEmpty());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsOtherGeometries()
+	{
+		GeoNamesGeometry.of(new Line(), GeoNamesProjection.WGS84);
+	}
+
+	private static Polyline line(double x1, double y1, double x2, double y2)
+	{
+		Polyline line = new Polyline();
+		line.startPath(x1, y1);
+		line.lineTo(x2, y2);
+		return line;
+	}
+
+	private static double nearest(List<double[]> samples, double lat, double lon)
+	{
+		double nearest = Double.MAX_VALUE;
+		for (double[] sample : samples)
+			nearest = Math.min(nearest, GeoHash.distanceKm(lat, lon, sample[0], sample[1]));
+		return nearest;
+	}
+
+	private static void assertUniqueCells(List<double[]> samples)
+	{
+		Set<String> cells = new HashSet<String>();
+		for (double[] sample : samples)
+			assertTrue(cells.add(GeoHash.encode(sample[0], sample[1], PRECISION)));
+	}
+}
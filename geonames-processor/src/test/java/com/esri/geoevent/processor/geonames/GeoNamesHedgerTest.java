@@ -0,0 +1,253 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GeoNamesHedgerTest
+{
+	private static final List<GeoNamesRow>	FIRST_ROWS	= Collections.singletonList(row("first"));
+	private static final List<GeoNamesRow>	HEDGE_ROWS	= Collections.singletonList(row("hedge"));
+
+	private ExecutorService									executor;
+	private GeoNamesAccount									first;
+	private GeoNamesAccount									second;
+	private GeoNamesAccountPool							accounts;
+
+	@Before
+	public void createAccounts()
+	{
+		executor = Executors.newCachedThreadPool();
+		first = account("first");
+		second = account("second");
+		accounts = new GeoNamesAccountPool(Collections.singletonList(second), 60);
+	}
+
+	@After
+	public void shutdownExecutor()
+	{
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void doesNotHedgeUntilThereAreEnoughResponseTimes() throws Exception
+	{
+		GeoNamesHedger hedger = new GeoNamesHedger(50, executor, 4);
+		for (int i = 0; i < 19; i++)
+			assertSame(FIRST_ROWS, hedger.execute(answer(0, 0), first, accounts));
+		Thread.sleep(1100);
+		assertEquals(0, hedger.getDelayNanos());
+		assertEquals(0, hedger.getHedgedCount());
+		assertEquals(19, hedger.getRequestCount());
+	}
+
+	@Test
+	public void delaysTheHedgeByThePercentileOfTheResponseTimes() throws Exception
+	{
+		GeoNamesHedger low = new GeoNamesHedger(25, executor, 4);
+		GeoNamesHedger high = new GeoNamesHedger(90, executor, 4);
+		for (int i = 0; i < 20; i++)
+		{
+			long millis = (i % 2 == 0) ? 0 : 40;
+			low.execute(answer(millis, millis), first, accounts);
+			high.execute(answer(millis, millis), first, accounts);
+		}
+		Thread.sleep(1100);
+		// never less than 5 ms
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(5), low.getDelayNanos());
+		assertTrue(high.getDelayNanos() >= TimeUnit.MILLISECONDS.toNanos(39));
+		assertTrue(high.getDelayNanos() < TimeUnit.MILLISECONDS.toNanos(200));
+	}
+
+	@Test
+	public void usesTheHedgeWhenTheFirstRequestIsSlow() throws Exception
+	{
+		GeoNamesHedger hedger = warmedUp();
+		assertSame(HEDGE_ROWS, hedger.execute(answer(-1, 0), first, accounts));
+		assertEquals(1, hedger.getHedgedCount());
+		assertEquals(1, hedger.getHedgeWinCount());
+		// the first request was cancelled by the hedge
+		assertEquals(1, hedger.getCancelledCount());
+	}
+
+	@Test
+	public void cancelsTheHedgeWhenTheFirstRequestAnswersFirst() throws Exception
+	{
+		GeoNamesHedger hedger = warmedUp();
+		assertSame(FIRST_ROWS, hedger.execute(answer(50, -1), first, accounts));
+		assertEquals(1, hedger.getHedgedCount());
+		assertEquals(0, hedger.getHedgeWinCount());
+		long deadline = System.currentTimeMillis() + 5000;
+		while (hedger.getCancelledCount() == 0 && System.currentTimeMillis() < deadline)
+			Thread.sleep(1);
+		assertEquals(1, hedger.getCancelledCount());
+	}
+
+	@Test
+	public void doesNotHedgeWithoutAnAccountThatCanSendAtOnce() throws Exception
+	{
+		GeoNamesHedger hedger = warmedUp();
+		second.getRateLimiter().limitReached(60);
+		assertSame(FIRST_ROWS, hedger.execute(answer(50, 0), first, accounts));
+		assertEquals(0, hedger.getHedgedCount());
+	}
+
+	@Test
+	public void reportsTheFailureOnceNeitherRequestCanAnswer() throws Exception
+	{
+		GeoNamesHedger hedger = warmedUp();
+		try
+		{
+			hedger.execute(new GeoNamesHedger.Request()
+				{
+					@Override
+					public List<GeoNamesRow> send(GeoNamesAccount account, GeoNamesHttpClient.Cancellation cancellation) throws IOException
+					{
+						sleep(50);
+						throw new IOException(account.getUsername() + " failed");
+					}
+				}, first, accounts);
+			fail();
+		}
+		catch (IOException e)
+		{
+			assertTrue(e.getMessage().endsWith("failed"));
+		}
+		assertEquals(1, hedger.getHedgedCount());
+		assertEquals(0, hedger.getHedgeWinCount());
+	}
+
+	@Test
+	public void doesNotReportTheCancelledLoserToTheCircuitBreaker() throws Exception
+	{
+		GeoNamesTestServer server = new GeoNamesTestServer();
+		try
+		{
+			server.respond("{\"geonames\":[{\"title\":\"Redlands\",\"lat\":34.05,\"lng\":-117.19}]}");
+			GeoNamesCircuitBreaker circuitBreaker = new GeoNamesCircuitBreaker(server.getBaseUrl());
+			// a single failure would open the breaker
+			circuitBreaker.configure(1, 60);
+			GeoNamesRateLimiter rateLimiter = new GeoNamesRateLimiter("test");
+			GeoNamesAccountPool pool = new GeoNamesAccountPool(Collections.singletonList(new GeoNamesAccount("test", server.getBaseUrl(), rateLimiter, circuitBreaker)), 60);
+			GeoNamesLookup lookup = new GeoNamesLookup(GeoNamesHttpClient.getInstance());
+			lookup.setAccounts(pool);
+			GeoNamesHedger hedger = new GeoNamesHedger(50, executor, 4);
+			lookup.setHedger(hedger);
+			for (int i = 0; i < 20; i++)
+				lookup.lookup(new GeoNamesQuery(GeoNamesService.WIKIPEDIA, 34.05, -117.19 + i, 5, 10, "en"));
+			Thread.sleep(1100);
+			assertTrue(hedger.getDelayNanos() > 0);
+
+			server.delayNext(2000);
+			List<GeoNamesRow> rows = lookup.lookup(new GeoNamesQuery(GeoNamesService.WIKIPEDIA, 34.05, -100, 5, 10, "en"));
+			assertEquals(1, rows.size());
+			assertEquals(1, hedger.getHedgeWinCount());
+			assertEquals(1, hedger.getCancelledCount());
+			assertEquals(GeoNamesCircuitBreaker.State.CLOSED, circuitBreaker.getState());
+			assertEquals(0, circuitBreaker.getOpenedCount());
+		}
+		finally
+		{
+			server.stop();
+		}
+	}
+
+	/**
+	 * A hedger whose delay is 5 ms, after 20 instant responses.
+	 */
+	private GeoNamesHedger warmedUp() throws Exception
+	{
+		GeoNamesHedger hedger = new GeoNamesHedger(50, executor, 4);
+		for (int i = 0; i < 20; i++)
+			hedger.execute(answer(0, 0), first, accounts);
+		Thread.sleep(1100);
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(5), hedger.getDelayNanos());
+		return hedger;
+	}
+
+	/**
+	 * A request answered after the given time, by the first account or the hedge account, or only once it is cancelled
+	 * if the time is negative.
+	 */
+	private GeoNamesHedger.Request answer(final long firstMillis, final long hedgeMillis)
+	{
+		return new GeoNamesHedger.Request()
+			{
+				@Override
+				public List<GeoNamesRow> send(GeoNamesAccount account, GeoNamesHttpClient.Cancellation cancellation) throws IOException, JSONException
+				{
+					boolean isFirst = account == first;
+					long millis = isFirst ? firstMillis : hedgeMillis;
+					if (millis < 0)
+					{
+						long deadline = System.currentTimeMillis() + 5000;
+						while (!cancellation.isCancelled() && System.currentTimeMillis() < deadline)
+							sleep(1);
+						throw new GeoNamesHttpClient.CancelledException(new URL("http://127.0.0.1:1"));
+					}
+					sleep(millis);
+					return isFirst ? FIRST_ROWS : HEDGE_ROWS;
+				}
+			};
+	}
+
+	private static void sleep(long millis)
+	{
+		try
+		{
+			Thread.sleep(millis);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static GeoNamesAccount account(String username)
+	{
+		return new GeoNamesAccount(username, "http://127.0.0.1:1", new GeoNamesRateLimiter(username), null);
+	}
+
+	private static GeoNamesRow row(String title)
+	{
+		return new GeoNamesRow(new String[] { "title" }, new Object[] { title });
+	}
+}
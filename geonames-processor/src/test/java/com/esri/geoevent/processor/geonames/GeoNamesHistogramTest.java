@@ -0,0 +1,143 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class GeoNamesHistogramTest
+{
+	@Test
+	public void keepsSmallValuesExactly()
+	{
+		for (int value = 0; value < 64; value++)
+		{
+			assertEquals(value, GeoNamesHistogram.indexOf(value));
+			assertEquals(value, GeoNamesHistogram.highestValueOf(value));
+		}
+	}
+
+	@Test
+	public void keepsEveryValueToWithinOneSixtyFourth()
+	{
+		for (long value = 64; value < (1L << 42); value = value * 17 / 16 + 1)
+		{
+			long highest = GeoNamesHistogram.highestValueOf(GeoNamesHistogram.indexOf(value));
+			assertTrue(value + " -> " + highest, highest >= value);
+			assertTrue(value + " -> " + highest, highest - value <= value / 64);
+		}
+	}
+
+	@Test
+	public void coversTheValuesWithoutGapsOrOverlaps()
+	{
+		int last = GeoNamesHistogram.indexOf(Long.MAX_VALUE);
+		for (int index = 0; index < last; index++)
+		{
+			long highest = GeoNamesHistogram.highestValueOf(index);
+			assertEquals(index, GeoNamesHistogram.indexOf(highest));
+			assertEquals(index + 1, GeoNamesHistogram.indexOf(highest + 1));
+		}
+	}
+
+	@Test
+	public void reportsPercentilesToWithinTheBucketPrecision()
+	{
+		GeoNamesHistogram histogram = new GeoNamesHistogram();
+		for (long value = 1; value <= 10000; value++)
+			histogram.record(value * 1000);
+
+		GeoNamesHistogramSnapshot snapshot = histogram.snapshot(1e3);
+		assertEquals(10000, snapshot.getCount());
+		assertEquals(5000.5, snapshot.getMean(), 1e-9);
+		assertEquals(5000, snapshot.getP50(), 5000 / 64.0);
+		assertEquals(9000, snapshot.getP90(), 9000 / 64.0);
+		assertEquals(9900, snapshot.getP99(), 9900 / 64.0);
+		assertEquals(9990, snapshot.getP999(), 9990 / 64.0);
+		assertEquals(10000, snapshot.getMax(), 0);
+		assertEquals(snapshot.getP99() * 1e3, histogram.getValueAtPercentile(0.99), 0);
+	}
+
+	@Test
+	public void neverReportsAPercentileAboveTheMaximum()
+	{
+		GeoNamesHistogram histogram = new GeoNamesHistogram();
+		histogram.record(1000001);
+		assertEquals(1000001, histogram.getValueAtPercentile(0.5));
+		assertEquals(1000001, histogram.snapshot(1).getP999(), 0);
+	}
+
+	@Test
+	public void countsNegativeValuesAsZero()
+	{
+		GeoNamesHistogram histogram = new GeoNamesHistogram();
+		histogram.record(-5);
+		assertEquals(1, histogram.getCount());
+		assertEquals(0, histogram.getValueAtPercentile(1.0));
+	}
+
+	@Test
+	public void resetsEveryCount()
+	{
+		GeoNamesHistogram histogram = new GeoNamesHistogram();
+		histogram.record(123456);
+		histogram.reset();
+		GeoNamesHistogramSnapshot snapshot = histogram.snapshot(1);
+		assertEquals(0, snapshot.getCount());
+		assertEquals(0, snapshot.getP50(), 0);
+		assertEquals(0, snapshot.getMax(), 0);
+		assertEquals(0, histogram.getValueAtPercentile(0.5));
+	}
+
+	@Test
+	public void countsValuesRecordedByConcurrentThreads() throws Exception
+	{
+		final GeoNamesHistogram histogram = new GeoNamesHistogram();
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++)
+		{
+			threads[t] = new Thread(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						for (long value = 0; value < 10000; value++)
+							histogram.record(value);
+					}
+				});
+			threads[t].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+
+		GeoNamesHistogramSnapshot snapshot = histogram.snapshot(1);
+		assertEquals(40000, histogram.getCount());
+		assertEquals(40000, snapshot.getCount());
+		assertEquals(9999, snapshot.getMax(), 0);
+		assertEquals(4999.5, snapshot.getMean(), 1e-9);
+	}
+}
@@ -0,0 +1,244 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GeoNamesHttpClientTest
+{
+	private static final String	RESPONSE								= "{\"geonames\":[{\"title\":\"Redlands\",\"summary\":\"Home of Esri\"}]}";
+	private static final String	COMPRESSIBLE_RESPONSE		= compressibleResponse();
+
+	private GeoNamesTestServer	server;
+	private GeoNamesHttpClient	client;
+
+	@Before
+	public void startServer() throws Exception
+	{
+		server = new GeoNamesTestServer();
+		server.respond(RESPONSE);
+		client = new GeoNamesHttpClient();
+	}
+
+	@After
+	public void stopServer()
+	{
+		server.stop();
+	}
+
+	@Test
+	public void appliesTheLargestLimitOfTheRunningProcessors()
+	{
+		Object first = new Object();
+		Object second = new Object();
+		assertEquals(GeoNamesHttpClient.DEFAULT_MAX_CONNECTIONS_PER_HOST, client.getMaxConnectionsPerHost());
+		client.setMaxConnectionsPerHost(first, 2);
+		assertEquals(2, client.getMaxConnectionsPerHost());
+		client.setMaxConnectionsPerHost(second, 7);
+		assertEquals(7, client.getMaxConnectionsPerHost());
+		client.clearMaxConnectionsPerHost(second);
+		assertEquals(2, client.getMaxConnectionsPerHost());
+		client.clearMaxConnectionsPerHost(first);
+		assertEquals(GeoNamesHttpClient.DEFAULT_MAX_CONNECTIONS_PER_HOST, client.getMaxConnectionsPerHost());
+	}
+
+	@Test
+	public void waitsForAConnectionBeyondTheLimitPerHost() throws Exception
+	{
+		client.setMaxConnectionsPerHost(this, 2);
+		server.delay(200);
+		final URL url = url("a");
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 6; i++)
+		{
+			Thread thread = new Thread(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						try
+						{
+							assertEquals(RESPONSE, client.get(url));
+						}
+						catch (Throwable e)
+						{
+							failure.compareAndSet(null, e);
+						}
+					}
+				});
+			thread.start();
+			threads.add(thread);
+		}
+		for (Thread thread : threads)
+			thread.join(10000);
+
+		assertNull(failure.get());
+		assertEquals(6, client.getRequestCount());
+		assertEquals(2, client.getPeakActiveConnections());
+		assertTrue(client.getWaitCount() > 0);
+		assertEquals(0, client.getActiveConnections());
+	}
+
+	@Test
+	public void keepsTheConnectionAliveWhenTheHandlerStopsReadingEarly() throws Exception
+	{
+		for (int i = 0; i < 3; i++)
+		{
+			int first = client.get(url("a"), new GeoNamesHttpClient.ResponseHandler<Integer>()
+				{
+					@Override
+					public Integer handleResponse(InputStream in, Charset charset) throws IOException
+					{
+						return in.read();
+					}
+				});
+			assertEquals('{', first);
+		}
+		assertEquals(3, server.getRequestCount());
+		assertEquals(1, server.getConnectionCount());
+		assertEquals(3L * RESPONSE.length(), client.getBytesRead());
+	}
+
+	@Test
+	public void keepsTheConnectionAliveWhenTheHandlerReadsNothing() throws Exception
+	{
+		for (int i = 0; i < 3; i++)
+		{
+			client.get(url("a"), new GeoNamesHttpClient.ResponseHandler<Object>()
+				{
+					@Override
+					public Object handleResponse(InputStream in, Charset charset)
+					{
+						return null;
+					}
+				});
+		}
+		assertEquals(3, server.getRequestCount());
+		assertEquals(1, server.getConnectionCount());
+	}
+
+	@Test
+	public void decodesGzipResponses() throws Exception
+	{
+		assertDecodes("gzip", false);
+	}
+
+	@Test
+	public void decodesZlibWrappedDeflateResponses() throws Exception
+	{
+		assertDecodes("deflate", false);
+	}
+
+	@Test
+	public void decodesRawDeflateResponses() throws Exception
+	{
+		assertDecodes("deflate", true);
+	}
+
+	@Test
+	public void drainsCompressedResponsesPastTheirTrailer() throws Exception
+	{
+		byte[] gzip = compress(COMPRESSIBLE_RESPONSE, "gzip", false);
+		byte[] zlib = compress(COMPRESSIBLE_RESPONSE, "deflate", false);
+		byte[] raw = compress(COMPRESSIBLE_RESPONSE, "deflate", true);
+		for (byte[] body : new byte[][] { gzip, zlib, raw })
+		{
+			server.respond(body == gzip ? "gzip" : "deflate", body);
+			for (int i = 0; i < 2; i++)
+			{
+				int first = client.get(url("a"), new GeoNamesHttpClient.ResponseHandler<Integer>()
+					{
+						@Override
+						public Integer handleResponse(InputStream in, Charset charset) throws IOException
+						{
+							return in.read();
+						}
+					});
+				assertEquals('{', first);
+			}
+		}
+		assertEquals(6, server.getRequestCount());
+		assertEquals(1, server.getConnectionCount());
+		assertEquals(2L * (gzip.length + zlib.length + raw.length), client.getBytesRead());
+		assertEquals(6, client.getCompressedCount());
+	}
+
+	private void assertDecodes(String contentEncoding, boolean raw) throws Exception
+	{
+		byte[] body = compress(COMPRESSIBLE_RESPONSE, contentEncoding, raw);
+		server.respond(contentEncoding, body);
+		assertEquals(COMPRESSIBLE_RESPONSE, client.get(url("a")));
+		assertEquals(1, client.getCompressedCount());
+		assertEquals(body.length, client.getBytesRead());
+		assertEquals(COMPRESSIBLE_RESPONSE.getBytes("UTF-8").length, client.getBytesDecoded());
+		assertTrue(client.getBytesRead() < client.getBytesDecoded());
+	}
+
+	private URL url(String username) throws IOException
+	{
+		return new URL(server.getBaseUrl() + "/" + GeoNamesService.WIKIPEDIA.getEndpoint() + "?username=" + username);
+	}
+
+	private static String compressibleResponse()
+	{
+		StringBuilder sb = new StringBuilder("{\"geonames\":[");
+		for (int i = 0; i < 50; i++)
+		{
+			if (i > 0)
+				sb.append(',');
+			sb.append("{\"title\":\"Z\u00fcrich ").append(i).append("\",\"summary\":\"A city on Lake Z\u00fcrich\"}");
+		}
+		return sb.append("]}").toString();
+	}
+
+	private static byte[] compress(String s, String contentEncoding, boolean raw) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		OutputStream out = contentEncoding.equals("gzip") ? new GZIPOutputStream(bytes) : new DeflaterOutputStream(bytes, new Deflater(Deflater.DEFAULT_COMPRESSION, raw));
+		out.write(s.getBytes("UTF-8"));
+		out.close();
+		return bytes.toByteArray();
+	}
+}
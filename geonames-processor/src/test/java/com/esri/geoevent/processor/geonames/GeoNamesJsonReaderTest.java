@@ -0,0 +1,242 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class GeoNamesJsonReaderTest
+{
+	private static final Charset	UTF8				= Charset.forName("UTF-8");
+	private static final Charset	ISO_8859_1	= Charset.forName("ISO-8859-1");
+
+	private static final String		RESPONSE		= "{\"geonames\": [\n"
+																						+ "  {\"title\": \"S\u00e3o Paulo \u65e5\u672c \ud83d\ude00\", \"lat\": -23.55, \"lng\": -46.633, \"geoNameId\": 3448439, \"rank\": 100, \"population\": 12345678901, \"elevation\": 7.6e2, \"capital\": true, \"feature\": null},\n"
+																						+ "  {\"title\": \"quote \\\" backslash \\\\ slash \\/ tab \\t newline \\n\", \"summary\": \"\\u00e9t\\u00e9 \\ud83d\\ude00\", \"nested\": {\"a\": [1, {\"b\": \"]}\"}]}, \"tags\": [\"x\", \"y\"], \"lang\": \"fr\"},\n"
+																						+ "  {}\n"
+																						+ "], \"ignored\": {\"geonames\": []}}";
+
+	@Test
+	public void readsRowsFromUtf8Bytes() throws IOException, JSONException
+	{
+		assertRows(readBytes(RESPONSE, UTF8));
+	}
+
+	@Test
+	public void readsRowsFromAReader() throws IOException, JSONException
+	{
+		assertRows(readReader(RESPONSE));
+	}
+
+	@Test
+	public void readsRowsInOtherCharsets() throws IOException, JSONException
+	{
+		List<GeoNamesRow> rows = readBytes("{\"geonames\":[{\"title\":\"S\u00e3o Paulo\"}]}", ISO_8859_1);
+		assertEquals(1, rows.size());
+		assertEquals("S\u00e3o Paulo", rows.get(0).getString("title"));
+	}
+
+	@Test
+	public void readsStringsAcrossBuffers() throws IOException, JSONException
+	{
+		// multi-byte characters and escapes straddle every position of the 8192 byte buffer
+		StringBuilder title = new StringBuilder();
+		for (int i = 0; i < 3000; i++)
+			title.append((i % 3 == 0) ? "\u00e3" : (i % 3 == 1) ? "\u65e5" : "\ud83d\ude00");
+		StringBuilder json = new StringBuilder("{\"geonames\":[");
+		for (int i = 0; i < 20; i++)
+		{
+			if (i > 0)
+				json.append(',');
+			json.append("{\"title\":\"").append(title).append("\",\"escaped\":\"a\\\"b\\u00e9c\",\"lat\":").append(i).append('}');
+		}
+		json.append("]}");
+		assertLongRows(readBytes(json.toString(), UTF8), title.toString());
+		assertLongRows(readReader(json.toString()), title.toString());
+	}
+
+	private static void assertLongRows(List<GeoNamesRow> rows, String title) throws JSONException
+	{
+		assertEquals(20, rows.size());
+		for (int i = 0; i < 20; i++)
+		{
+			assertEquals(title, rows.get(i).getString("title"));
+			assertEquals("a\"b\u00e9c", rows.get(i).getString("escaped"));
+			assertEquals(i, rows.get(i).getDouble("lat"), 0.0);
+		}
+	}
+
+	@Test
+	public void agreesWithOrgJson() throws IOException, JSONException
+	{
+		List<GeoNamesRow> rows = readBytes(RESPONSE, UTF8);
+		JSONObject expected = new JSONObject(RESPONSE).getJSONArray("geonames").getJSONObject(1);
+		assertEquals(expected.getString("title"), rows.get(1).getString("title"));
+		assertEquals(expected.getString("summary"), rows.get(1).getString("summary"));
+	}
+
+	@Test
+	public void throwsTheStatusGeoNamesAnsweredWith() throws IOException, JSONException
+	{
+		String response = "{\"status\": {\"message\": \"the hourly limit of 1000 credits for demo has been exceeded\", \"value\": 19}}";
+		for (int i = 0; i < 2; i++)
+		{
+			try
+			{
+				if (i == 0)
+					readBytes(response, UTF8);
+				else
+					readReader(response);
+				fail();
+			}
+			catch (GeoNamesStatusException e)
+			{
+				assertEquals(GeoNamesStatusException.HOURLY_LIMIT_EXCEEDED, e.getValue());
+				assertTrue(e.isAccountLimit());
+				assertTrue(e.getMessage().contains("hourly limit"));
+			}
+		}
+	}
+
+	@Test
+	public void readsStatusValuesSentAsStrings() throws IOException, JSONException
+	{
+		try
+		{
+			readBytes("{\"status\": {\"message\": \"invalid lat/lng\", \"value\": \"14\"}}", UTF8);
+			fail();
+		}
+		catch (GeoNamesStatusException e)
+		{
+			assertEquals(14, e.getValue());
+			assertFalse(e.isAccountLimit());
+		}
+		try
+		{
+			readBytes("{\"status\": {\"message\": \"unknown\"}}", UTF8);
+			fail();
+		}
+		catch (GeoNamesStatusException e)
+		{
+			assertEquals(-1, e.getValue());
+		}
+	}
+
+	@Test
+	public void prefersTheResultsToAStatus() throws IOException, JSONException
+	{
+		assertEquals(1, readBytes("{\"status\": {\"message\": \"partial\", \"value\": 15}, \"geonames\": [{\"title\": \"a\"}]}", UTF8).size());
+	}
+
+	@Test
+	public void readsAnEmptyResultArray() throws IOException, JSONException
+	{
+		assertEquals(0, readBytes("{\"geonames\": []}", UTF8).size());
+		assertEquals(0, readReader(" { \"geonames\" : [ ] } ").size());
+	}
+
+	@Test(expected = JSONException.class)
+	public void rejectsAResponseWithoutTheResultArray() throws IOException, JSONException
+	{
+		readBytes("{\"poi\": []}", UTF8);
+	}
+
+	@Test(expected = JSONException.class)
+	public void rejectsAMalformedResponse() throws IOException, JSONException
+	{
+		readBytes("{\"geonames\": [{\"title\": \"a\" \"lat\": 1}]}", UTF8);
+	}
+
+	@Test(expected = JSONException.class)
+	public void rejectsATruncatedResponse() throws IOException, JSONException
+	{
+		readBytes("{\"geonames\": [{\"title\": \"a", UTF8);
+	}
+
+	private static void assertRows(List<GeoNamesRow> rows) throws JSONException
+	{
+		assertEquals(3, rows.size());
+
+		GeoNamesRow row = rows.get(0);
+		assertEquals("S\u00e3o Paulo \u65e5\u672c \ud83d\ude00", row.getString("title"));
+		assertEquals(-23.55, row.getDouble("lat"), 0.0);
+		assertEquals(-46.633, row.getDouble("lng"), 0.0);
+		assertEquals(Integer.valueOf(3448439), row.get("geoNameId"));
+		assertEquals(3448439L, row.identity());
+		assertEquals(Long.valueOf(12345678901L), row.get("population"));
+		assertEquals(760.0, row.getDouble("elevation"), 0.0);
+		assertEquals(Boolean.TRUE, row.get("capital"));
+		assertTrue(row.has("feature"));
+		assertEquals(JSONObject.NULL, row.opt("feature"));
+
+		row = rows.get(1);
+		assertEquals("quote \" backslash \\ slash / tab \t newline \n", row.getString("title"));
+		assertEquals("\u00e9t\u00e9 \ud83d\ude00", row.getString("summary"));
+		// nested values are skipped
+		assertFalse(row.has("nested"));
+		assertFalse(row.has("tags"));
+		assertEquals("fr", row.getString("lang"));
+
+		assertEquals(0, rows.get(2).size());
+	}
+
+	private static List<GeoNamesRow> readBytes(String json, Charset charset) throws IOException, JSONException
+	{
+		return read(new GeoNamesJsonReader(new ByteArrayInputStream(json.getBytes(charset)), charset));
+	}
+
+	private static List<GeoNamesRow> readReader(String json) throws IOException, JSONException
+	{
+		return read(new GeoNamesJsonReader(new StringReader(json)));
+	}
+
+	private static List<GeoNamesRow> read(GeoNamesJsonReader reader) throws IOException, JSONException
+	{
+		final List<GeoNamesRow> rows = new ArrayList<GeoNamesRow>();
+		int count = reader.readRows("geonames", new GeoNamesRowHandler()
+			{
+				@Override
+				public void handleRow(GeoNamesRow row)
+				{
+					rows.add(row);
+				}
+			});
+		assertEquals(rows.size(), count);
+		return rows;
+	}
+}
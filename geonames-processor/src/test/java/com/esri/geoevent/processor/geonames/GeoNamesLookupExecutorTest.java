@@ -0,0 +1,247 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GeoNamesLookupExecutorTest
+{
+	private List<String>						ran;
+	private CountDownLatch					started;
+	private CountDownLatch					release;
+	private GeoNamesLookupExecutor	executor;
+
+	@Before
+	public void createLatches()
+	{
+		ran = Collections.synchronizedList(new ArrayList<String>());
+		started = new CountDownLatch(1);
+		release = new CountDownLatch(1);
+	}
+
+	@After
+	public void shutdownExecutor()
+	{
+		release.countDown();
+		if (executor != null)
+			executor.shutdown(0, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void blocksTheCallerUntilThereIsRoom() throws InterruptedException
+	{
+		executor = busyExecutor(GeoNamesLookupExecutor.QueueFullPolicy.BLOCK);
+		executor.execute(lookup("a"));
+		executor.execute(lookup("b"));
+		final CountDownLatch queued = new CountDownLatch(1);
+		Thread caller = new Thread()
+			{
+				@Override
+				public void run()
+				{
+					executor.execute(lookup("c"));
+					queued.countDown();
+				}
+			};
+		caller.start();
+		assertFalse(queued.await(200, TimeUnit.MILLISECONDS));
+		release.countDown();
+		assertTrue(queued.await(5, TimeUnit.SECONDS));
+		assertTrue(executor.shutdown(5, TimeUnit.SECONDS));
+		assertEquals(Arrays.asList("busy", "a", "b", "c"), ran);
+		assertEquals(0, executor.getDroppedCount());
+	}
+
+	@Test
+	public void dropsTheOldestQueuedLookup() throws InterruptedException
+	{
+		executor = busyExecutor(GeoNamesLookupExecutor.QueueFullPolicy.DROP_OLDEST);
+		executor.execute(lookup("a"));
+		executor.execute(lookup("b"));
+		executor.execute(lookup("c"));
+		assertEquals(1, executor.getDroppedCount());
+		release.countDown();
+		assertTrue(executor.shutdown(5, TimeUnit.SECONDS));
+		assertEquals(Arrays.asList("busy", "b", "c"), ran);
+		assertEquals(4, executor.getSubmittedCount());
+	}
+
+	@Test
+	public void dropsTheNewestLookup() throws InterruptedException
+	{
+		executor = busyExecutor(GeoNamesLookupExecutor.QueueFullPolicy.DROP_NEWEST);
+		executor.execute(lookup("a"));
+		executor.execute(lookup("b"));
+		executor.execute(lookup("c"));
+		assertEquals(1, executor.getDroppedCount());
+		release.countDown();
+		assertTrue(executor.shutdown(5, TimeUnit.SECONDS));
+		assertEquals(Arrays.asList("busy", "a", "b"), ran);
+	}
+
+	@Test
+	public void runsTheQueuedLookupsWhenShutDown() throws InterruptedException
+	{
+		executor = busyExecutor(GeoNamesLookupExecutor.QueueFullPolicy.BLOCK);
+		executor.execute(lookup("a"));
+		new Thread()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						Thread.sleep(100);
+					}
+					catch (InterruptedException e)
+					{
+						;
+					}
+					release.countDown();
+				}
+			}.start();
+		assertTrue(executor.shutdown(5, TimeUnit.SECONDS));
+		assertEquals(Arrays.asList("busy", "a"), ran);
+		assertEquals(0, executor.getDroppedCount());
+
+		// nothing is taken after the shutdown
+		executor.execute(lookup("b"));
+		assertEquals(1, executor.getDroppedCount());
+	}
+
+	@Test
+	public void countsTheLookupsLeftQueuedWhenTheDrainTimesOut() throws InterruptedException
+	{
+		executor = busyExecutor(GeoNamesLookupExecutor.QueueFullPolicy.BLOCK);
+		executor.execute(lookup("a"));
+		executor.execute(lookup("b"));
+		assertFalse(executor.shutdown(100, TimeUnit.MILLISECONDS));
+		assertEquals(2, executor.getDroppedCount());
+		assertEquals(Arrays.asList("busy"), ran);
+	}
+
+	@Test
+	public void runsThePriorityLookupsFirst() throws InterruptedException
+	{
+		executor = busyExecutor(GeoNamesLookupExecutor.QueueFullPolicy.BLOCK);
+		executor.execute(lookup("a"));
+		executor.execute(lookup("p"), true);
+		release.countDown();
+		assertTrue(executor.shutdown(5, TimeUnit.SECONDS));
+		assertEquals(Arrays.asList("busy", "p", "a"), ran);
+		assertEquals(1, executor.getPriorityCount());
+		assertEquals(0, executor.getShedCount());
+	}
+
+	@Test
+	public void shedsTheNewestRoutineLookupForAPriorityLookup() throws InterruptedException
+	{
+		executor = busyExecutor(GeoNamesLookupExecutor.QueueFullPolicy.BLOCK);
+		executor.execute(lookup("a"));
+		executor.execute(lookup("b"));
+		executor.execute(lookup("p"), true);
+		assertEquals(1, executor.getShedCount());
+		assertEquals(1, executor.getDroppedCount());
+		release.countDown();
+		assertTrue(executor.shutdown(5, TimeUnit.SECONDS));
+		assertEquals(Arrays.asList("busy", "p", "a"), ran);
+	}
+
+	@Test
+	public void appliesTheQueueFullPolicyWhenOnlyPriorityLookupsAreQueued() throws InterruptedException
+	{
+		executor = busyExecutor(GeoNamesLookupExecutor.QueueFullPolicy.DROP_OLDEST);
+		executor.execute(lookup("p1"), true);
+		executor.execute(lookup("p2"), true);
+		// a routine lookup never takes the place of a priority one
+		executor.execute(lookup("a"));
+		executor.execute(lookup("p3"), true);
+		assertEquals(2, executor.getDroppedCount());
+		assertEquals(0, executor.getShedCount());
+		release.countDown();
+		assertTrue(executor.shutdown(5, TimeUnit.SECONDS));
+		assertEquals(Arrays.asList("busy", "p2", "p3"), ran);
+	}
+
+	@Test
+	public void parsesTheQueueFullPolicy()
+	{
+		assertEquals(GeoNamesLookupExecutor.QueueFullPolicy.DROP_OLDEST, GeoNamesLookupExecutor.QueueFullPolicy.fromLabel("Drop Oldest"));
+		assertEquals(GeoNamesLookupExecutor.QueueFullPolicy.DROP_NEWEST, GeoNamesLookupExecutor.QueueFullPolicy.fromLabel("drop_newest"));
+		assertEquals(GeoNamesLookupExecutor.QueueFullPolicy.BLOCK, GeoNamesLookupExecutor.QueueFullPolicy.fromLabel("unknown"));
+	}
+
+	/**
+	 * An executor with a single worker, busy until the release latch is counted down, and room for two queued lookups.
+	 */
+	private GeoNamesLookupExecutor busyExecutor(GeoNamesLookupExecutor.QueueFullPolicy policy) throws InterruptedException
+	{
+		GeoNamesLookupExecutor executor = new GeoNamesLookupExecutor("test", 1, 2, policy);
+		executor.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					ran.add("busy");
+					started.countDown();
+					try
+					{
+						release.await();
+					}
+					catch (InterruptedException e)
+					{
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		return executor;
+	}
+
+	private Runnable lookup(final String name)
+	{
+		return new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					ran.add(name);
+				}
+			};
+	}
+}
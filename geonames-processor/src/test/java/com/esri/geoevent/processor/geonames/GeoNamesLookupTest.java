@@ -0,0 +1,136 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.json.JSONException;
+import org.junit.Test;
+
+public class GeoNamesLookupTest
+{
+	private static final GeoNamesService	SERVICE	= GeoNamesService.WIKIPEDIA;
+
+	@Test
+	public void sharesTheCacheKeyWithinACell()
+	{
+		GeoNamesQuery query = new GeoNamesQuery(SERVICE, 34.05670, -117.19560, 10, 5, "en");
+		GeoNamesQuery nearby = new GeoNamesQuery(SERVICE, 34.05671, -117.19561, 10, 5, "en");
+		assertEquals(query.getCellKey(5), nearby.getCellKey(5));
+		assertEquals(query.getCellKey(5), query.withPriority(true).getCellKey(5));
+	}
+
+	@Test
+	public void separatesTheCacheKeyOfOtherCellsAndParameters()
+	{
+		GeoNamesQuery query = new GeoNamesQuery(SERVICE, 34.0567, -117.1956, 10, 5, "en");
+		assertFalse(query.getCellKey(5).equals(new GeoNamesQuery(SERVICE, 35.0567, -117.1956, 10, 5, "en").getCellKey(5)));
+		assertFalse(query.getCellKey(5).equals(new GeoNamesQuery(GeoNamesService.OSM_POI, 34.0567, -117.1956, 10, 5, "en").getCellKey(5)));
+		assertFalse(query.getCellKey(5).equals(new GeoNamesQuery(SERVICE, 34.0567, -117.1956, 20, 5, "en").getCellKey(5)));
+		assertFalse(query.getCellKey(5).equals(new GeoNamesQuery(SERVICE, 34.0567, -117.1956, 10, 6, "en").getCellKey(5)));
+		assertFalse(query.getCellKey(5).equals(new GeoNamesQuery(SERVICE, 34.0567, -117.1956, 10, 5, "pt").getCellKey(5)));
+	}
+
+	@Test
+	public void keysATileQueryByItsTile()
+	{
+		GeoNamesQuery tile = new GeoNamesQuery(SERVICE, 34.0567, -117.1956, 10, 5, "en").getTile(1.0, 500);
+		assertTrue(tile.isTile());
+		assertEquals(tile.getCellKey(3), tile.getCellKey(9));
+		assertEquals(tile.getCellKey(5), new GeoNamesQuery(SERVICE, 34.9, -117.9, 10, 5, "en").getTile(1.0, 500).getCellKey(5));
+	}
+
+	@Test
+	public void anchorsRowsToTheQueryLocation() throws JSONException
+	{
+		List<GeoNamesRow> rows = Arrays.asList(row(1, 34.10, -117.20, 99.0), row(2, 34.06, -117.20, 99.0));
+		List<GeoNamesRow> anchored = GeoNamesLookup.anchor(rows, new GeoNamesQuery(SERVICE, 34.0567, -117.1956, 10, 5, "en"));
+		assertEquals(2, anchored.size());
+		assertEquals(2L, anchored.get(0).identity());
+		assertEquals(1L, anchored.get(1).identity());
+		assertEquals(GeoHash.distanceKm(34.0567, -117.1956, 34.06, -117.20), anchored.get(0).getDouble("distance"), 1e-9);
+		assertEquals(GeoHash.distanceKm(34.0567, -117.1956, 34.10, -117.20), anchored.get(1).getDouble("distance"), 1e-9);
+		// the cached rows are shared, so they are never changed
+		assertEquals(99.0, rows.get(0).getDouble("distance"), 0.0);
+	}
+
+	@Test
+	public void trimsAnchoredRowsToTheRadiusAndMaxRows() throws JSONException
+	{
+		List<GeoNamesRow> rows = new ArrayList<GeoNamesRow>();
+		for (int i = 0; i < 10; i++)
+			rows.add(row(i, 34.0 + i * 0.01, -117.0, 0.0));
+		// 0.01 degrees of latitude is about 1.1 km, so rows 0 to 4 are within 5 km
+		List<GeoNamesRow> anchored = GeoNamesLookup.anchor(rows, new GeoNamesQuery(SERVICE, 34.0, -117.0, 5, 3, "en"));
+		assertEquals(3, anchored.size());
+		for (int i = 0; i < 3; i++)
+			assertEquals(i, anchored.get(i).identity());
+
+		anchored = GeoNamesLookup.anchor(rows, new GeoNamesQuery(SERVICE, 34.0, -117.0, 5, 100, "en"));
+		assertEquals(5, anchored.size());
+		for (GeoNamesRow row : anchored)
+			assertTrue(row.getDouble("distance") <= 5);
+	}
+
+	@Test
+	public void keepsRowsWithoutALocationWhileThereIsRoom()
+	{
+		GeoNamesRow unlocated = new GeoNamesRow(new String[] { "geoNameId", "title" }, new Object[] { 7L, "somewhere" });
+		List<GeoNamesRow> rows = Arrays.asList(unlocated, row(1, 34.0, -117.0, 0.0), row(2, 34.01, -117.0, 0.0));
+		List<GeoNamesRow> anchored = GeoNamesLookup.anchor(rows, new GeoNamesQuery(SERVICE, 34.0, -117.0, 5, 3, "en"));
+		assertEquals(3, anchored.size());
+		assertSame(unlocated, anchored.get(2));
+
+		anchored = GeoNamesLookup.anchor(rows, new GeoNamesQuery(SERVICE, 34.0, -117.0, 5, 2, "en"));
+		assertEquals(2, anchored.size());
+		assertEquals(1L, anchored.get(0).identity());
+		assertEquals(2L, anchored.get(1).identity());
+	}
+
+	@Test
+	public void treatsRowsWithAnInvalidLocationAsUnlocated()
+	{
+		GeoNamesRow blank = new GeoNamesRow(new String[] { "geoNameId", "lat", "lng" }, new Object[] { 7L, "", "-117.0" });
+		GeoNamesRow text = new GeoNamesRow(new String[] { "geoNameId", "lat", "lng" }, new Object[] { 8L, "34.0", "west" });
+		List<GeoNamesRow> rows = Arrays.asList(blank, row(1, 34.0, -117.0, 0.0), text);
+		List<GeoNamesRow> anchored = GeoNamesLookup.anchor(rows, new GeoNamesQuery(SERVICE, 34.0, -117.0, 5, 3, "en"));
+		assertEquals(3, anchored.size());
+		assertEquals(1L, anchored.get(0).identity());
+		assertSame(blank, anchored.get(1));
+		assertSame(text, anchored.get(2));
+	}
+
+	private static GeoNamesRow row(long geoNameId, double lat, double lng, double distance)
+	{
+		return new GeoNamesRow(new String[] { "geoNameId", "lat", "lng", "distance" }, new Object[] { geoNameId, lat, lng, distance });
+	}
+}
@@ -0,0 +1,194 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.json.JSONException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class GeoNamesOSMPOIIndexTest
+{
+	@Rule
+	public final TemporaryFolder	folder	= new TemporaryFolder();
+
+	private int										indexes;
+
+	@Test
+	public void findsTheSameRowsAsABruteForceSearch() throws IOException, JSONException
+	{
+		Random random = new Random(11);
+		GeoNamesOSMPOIIndexBuilder builder = new GeoNamesOSMPOIIndexBuilder();
+		List<double[]> points = new ArrayList<double[]>();
+		for (int i = 0; i < 5000; i++)
+		{
+			// a cluster around the origin, where the first Morton split is in both axes, and some around the world
+			double lat = (i % 2 == 0) ? random.nextDouble() * 2 - 1 : random.nextDouble() * 180 - 90;
+			double lon = (i % 2 == 0) ? random.nextDouble() * 2 - 1 : random.nextDouble() * 360 - 180;
+			points.add(new double[] { lat, lon });
+			builder.add(lat, lon, "poi " + i, "amenity", (i % 3 == 0) ? "cafe" : "restaurant");
+		}
+		GeoNamesOSMPOIIndex index = build(builder);
+		assertEquals(5000, index.size());
+		for (int i = 0; i < 200; i++)
+		{
+			double lat = (i % 2 == 0) ? random.nextDouble() * 2 - 1 : random.nextDouble() * 180 - 90;
+			double lon = (i % 2 == 0) ? random.nextDouble() * 2 - 1 : random.nextDouble() * 360 - 180;
+			GeoNamesQuery query = new GeoNamesQuery(GeoNamesService.OSM_POI, lat, lon, (i % 2 == 0) ? 1 + random.nextInt(50) : 100 + random.nextInt(1000), 1 + random.nextInt(20), null);
+			assertRows(bruteForce(points, query), index.find(query));
+		}
+	}
+
+	@Test
+	public void searchesAcrossAMortonRangeBoundary() throws IOException, JSONException
+	{
+		GeoNamesOSMPOIIndexBuilder builder = new GeoNamesOSMPOIIndexBuilder();
+		// one point in each quadrant around the origin, whose Morton codes are at the four ends of the code range
+		builder.add(0.001, 0.001, "northeast", null, null);
+		builder.add(0.002, -0.002, "northwest", null, null);
+		builder.add(-0.003, 0.003, "southeast", null, null);
+		builder.add(-0.004, -0.004, "southwest", null, null);
+		// and around a finer boundary, at 90 degrees east
+		builder.add(45.0, 89.9999, "west of 90", null, null);
+		builder.add(45.0, 90.0001, "east of 90", null, null);
+		GeoNamesOSMPOIIndex index = build(builder);
+		assertNames(index.find(new GeoNamesQuery(GeoNamesService.OSM_POI, 0, 0, 1, 10, null)), "northeast", "northwest", "southeast", "southwest");
+		assertNames(index.find(new GeoNamesQuery(GeoNamesService.OSM_POI, 45.0, 90.00005, 1, 10, null)), "east of 90", "west of 90");
+	}
+
+	@Test
+	public void searchesAcrossTheAntimeridianAndThePoles() throws IOException, JSONException
+	{
+		GeoNamesOSMPOIIndexBuilder builder = new GeoNamesOSMPOIIndexBuilder();
+		builder.add(10, 179.99, "west", null, null);
+		builder.add(10, -179.98, "east", null, null);
+		builder.add(89.95, 0, "north", null, null);
+		builder.add(89.95, 179, "across the pole", null, null);
+		builder.add(-89.99, -90, "south", null, null);
+		builder.add(-89.98, 90, "across the south pole", null, null);
+		GeoNamesOSMPOIIndex index = build(builder);
+		assertNames(index.find(new GeoNamesQuery(GeoNamesService.OSM_POI, 10, -179.995, 5, 10, null)), "west", "east");
+		assertNames(index.find(new GeoNamesQuery(GeoNamesService.OSM_POI, 89.95, 0, 20, 10, null)), "north", "across the pole");
+		assertNames(index.find(new GeoNamesQuery(GeoNamesService.OSM_POI, -90, 0, 5, 10, null)), "south", "across the south pole");
+	}
+
+	@Test
+	public void readsTheExtract() throws IOException, JSONException
+	{
+		File extract = folder.newFile("extract.tsv");
+		Writer writer = new OutputStreamWriter(new FileOutputStream(extract), "UTF-8");
+		try
+		{
+			writer.write("@id\t@lat\t@lon\tname\tamenity\tshop\n");
+			writer.write("1\t34.0556\t-117.1825\tCaf\u00e9 Redlands\tcafe\t\n");
+			writer.write("2\t34.0560\t-117.1830\t\t\tbakery\n");
+			writer.write("3\tnorth\t-117.1830\tNowhere\tcafe\t\n");
+		}
+		finally
+		{
+			writer.close();
+		}
+		GeoNamesOSMPOIIndexBuilder builder = new GeoNamesOSMPOIIndexBuilder();
+		builder.read(extract);
+		assertEquals(2, builder.getCount());
+		GeoNamesOSMPOIIndex index = build(builder);
+		assertSame(index, GeoNamesOSMPOIIndex.forFile(index.getPath()));
+		List<GeoNamesRow> rows = index.find(new GeoNamesQuery(GeoNamesService.OSM_POI, 34.0556, -117.1825, 1, 10, null));
+		assertEquals(2, rows.size());
+		assertEquals("Caf\u00e9 Redlands", rows.get(0).getString("name"));
+		assertEquals("amenity", rows.get(0).getString("typeClass"));
+		assertEquals("cafe", rows.get(0).getString("typeName"));
+		assertEquals(34.0556, rows.get(0).getDouble("lat"), 1e-7);
+		assertEquals(0, rows.get(0).getDouble("distance"), 1e-6);
+		assertNull(rows.get(1).opt("name"));
+		assertEquals("shop", rows.get(1).getString("typeClass"));
+		assertEquals("bakery", rows.get(1).getString("typeName"));
+	}
+
+	private GeoNamesOSMPOIIndex build(GeoNamesOSMPOIIndexBuilder builder) throws IOException
+	{
+		File file = folder.newFile("pois" + (indexes++) + ".idx");
+		builder.write(file);
+		return GeoNamesOSMPOIIndex.forFile(file.getPath());
+	}
+
+	private static List<Integer> bruteForce(final List<double[]> points, final GeoNamesQuery query)
+	{
+		List<Integer> found = new ArrayList<Integer>();
+		for (int i = 0; i < points.size(); i++)
+		{
+			if (distance(query, points.get(i)) <= query.getRadius())
+				found.add(i);
+		}
+		Collections.sort(found, new Comparator<Integer>()
+			{
+				@Override
+				public int compare(Integer a, Integer b)
+				{
+					return Double.compare(distance(query, points.get(a)), distance(query, points.get(b)));
+				}
+			});
+		return found.subList(0, Math.min(found.size(), query.getMaxRows()));
+	}
+
+	/**
+	 * The distance to the point as stored in the index, in 1e-7 degrees.
+	 */
+	private static double distance(GeoNamesQuery query, double[] point)
+	{
+		double lat = Math.round(point[0] * GeoNamesOSMPOIIndex.E7) / GeoNamesOSMPOIIndex.E7;
+		double lon = Math.round(point[1] * GeoNamesOSMPOIIndex.E7) / GeoNamesOSMPOIIndex.E7;
+		return GeoHash.distanceKm(query.getLat(), query.getLon(), lat, lon);
+	}
+
+	private static void assertRows(List<Integer> expected, List<GeoNamesRow> actual) throws JSONException
+	{
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++)
+			assertEquals("poi " + expected.get(i), actual.get(i).getString("name"));
+	}
+
+	private static void assertNames(List<GeoNamesRow> rows, String... names) throws JSONException
+	{
+		assertEquals(names.length, rows.size());
+		for (int i = 0; i < names.length; i++)
+			assertEquals(names[i], rows.get(i).getString("name"));
+	}
+}
@@ -0,0 +1,113 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class GeoNamesPrewarmerTest
+{
+	@Test
+	public void parsesABoundingBox()
+	{
+		GeoNamesPrewarmer.Area area = GeoNamesPrewarmer.Area.parse(" -117.3, 34.0 ,-117.1,34.2 ");
+		assertTrue(area.contains(-117.2, 34.1));
+		assertFalse(area.contains(-117.4, 34.1));
+		assertFalse(area.contains(-117.2, 34.3));
+	}
+
+	@Test
+	public void parsesAPolygon()
+	{
+		// a triangle with its right angle in the south west
+		GeoNamesPrewarmer.Area area = GeoNamesPrewarmer.Area.parse("-117.3 34.0, -117.1 34.0, -117.3 34.2");
+		assertTrue(area.contains(-117.25, 34.05));
+		assertFalse(area.contains(-117.12, 34.18));
+	}
+
+	@Test
+	public void rejectsInvalidAreas()
+	{
+		String[] invalid = { "", "-117.1,34.0,-117.3,34.2", "-117.3,34.2,-117.1,34.0", "-190,34.0,-117.1,34.2", "-117.3,-91,-117.1,34.2", "west,34.0,-117.1,34.2", "-117.3 34.0, -117.1 34.0", "-117.3 34.0, -117.1, -117.3 34.2", "-117.3 34.0 1, -117.1 34.0, -117.3 34.2" };
+		for (String text : invalid)
+		{
+			try
+			{
+				GeoNamesPrewarmer.Area.parse(text);
+				fail(text);
+			}
+			catch (IllegalArgumentException e)
+			{
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void coversTheCellsOfTheArea()
+	{
+		List<double[]> centers = GeoNamesPrewarmer.Area.parse("-180,-90,180,90").getCellCenters(1, 1000);
+		assertEquals(32, centers.size());
+		Set<String> cells = new HashSet<String>();
+		for (double[] center : centers)
+			cells.add(GeoHash.encode(center[0], center[1], 1));
+		assertEquals(32, cells.size());
+	}
+
+	@Test
+	public void coversAnAreaSmallerThanACell()
+	{
+		List<double[]> centers = GeoNamesPrewarmer.Area.parse("-117.2001,34.0001,-117.2,34.0002").getCellCenters(4, 1000);
+		assertEquals(1, centers.size());
+		assertEquals(GeoHash.encode(34.0001, -117.2, 4), GeoHash.encode(centers.get(0)[0], centers.get(0)[1], 4));
+	}
+
+	@Test
+	public void coversTheCellsOfAPolygonOnly()
+	{
+		GeoNamesPrewarmer.Area box = GeoNamesPrewarmer.Area.parse("-118,34,-117,35");
+		GeoNamesPrewarmer.Area triangle = GeoNamesPrewarmer.Area.parse("-118 34, -117 34, -118 35");
+		int boxCells = box.getCellCenters(5, 100000).size();
+		int triangleCells = triangle.getCellCenters(5, 100000).size();
+		assertTrue(triangleCells < boxCells * 0.6);
+		assertTrue(triangleCells > boxCells * 0.4);
+		for (double[] center : triangle.getCellCenters(5, 100000))
+			assertTrue(center[0] >= 34 - 0.05 && center[1] <= -117 + 0.05);
+	}
+
+	@Test
+	public void stopsAtTheLimit()
+	{
+		assertEquals(10, GeoNamesPrewarmer.Area.parse("-118,34,-117,35").getCellCenters(5, 10).size());
+	}
+}
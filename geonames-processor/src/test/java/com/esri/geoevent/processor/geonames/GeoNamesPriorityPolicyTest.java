@@ -0,0 +1,155 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.esri.ges.core.geoevent.GeoEvent;
+import com.esri.ges.core.geoevent.GeoEventDefinition;
+
+public class GeoNamesPriorityPolicyTest
+{
+	@Test
+	public void givesNoGeoEventPriorityByDefault()
+	{
+		for (String events : new String[] { null, "", " , ", GeoNamesPriorityPolicy.DEFAULT_PRIORITY_EVENTS })
+		{
+			GeoNamesPriorityPolicy policy = GeoNamesPriorityPolicy.parse(events);
+			assertTrue(policy.isEmpty());
+			assertFalse(policy.isPriority(geoEvent("incident", "severity", "high")));
+		}
+		assertTrue(GeoNamesPriorityPolicy.none().isEmpty());
+		assertEquals(0, GeoNamesPriorityPolicy.DEFAULT_RESERVE_PERCENT);
+	}
+
+	@Test
+	public void matchesTheGeoEventDefinitionNames()
+	{
+		GeoNamesPriorityPolicy policy = GeoNamesPriorityPolicy.parse(" Incident , alarm");
+		assertFalse(policy.isEmpty());
+		assertTrue(policy.isPriority(geoEvent("incident")));
+		assertTrue(policy.isPriority(geoEvent("ALARM")));
+		assertFalse(policy.isPriority(geoEvent("track")));
+	}
+
+	@Test
+	public void matchesTheFieldConditions()
+	{
+		GeoNamesPriorityPolicy policy = GeoNamesPriorityPolicy.parse("severity = High,status=open");
+		assertTrue(policy.isPriority(geoEvent("track", "severity", "high")));
+		assertTrue(policy.isPriority(geoEvent("track", "status", "OPEN")));
+		assertFalse(policy.isPriority(geoEvent("track", "severity", "low")));
+		assertFalse(policy.isPriority(geoEvent("track", "severity", null)));
+		// the definition name does not match a field condition
+		assertFalse(policy.isPriority(geoEvent("severity")));
+	}
+
+	@Test
+	public void skipsFieldsTheGeoEventDoesNotHave()
+	{
+		GeoNamesPriorityPolicy policy = GeoNamesPriorityPolicy.parse("severity=high,incident");
+		assertFalse(policy.isPriority(geoEvent("track")));
+		assertTrue(policy.isPriority(geoEvent("incident")));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsAConditionWithoutAValue()
+	{
+		GeoNamesPriorityPolicy.parse("incident,severity=");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsAConditionWithoutAFieldName()
+	{
+		GeoNamesPriorityPolicy.parse("=high");
+	}
+
+	@Test
+	public void countsThePriorityAndRoutineGeoEvents()
+	{
+		GeoNamesPriorityPolicy policy = GeoNamesPriorityPolicy.parse("incident");
+		policy.counted(true);
+		policy.counted(false);
+		policy.counted(false);
+		assertEquals(1, policy.getPriorityCount());
+		assertEquals(2, policy.getRoutineCount());
+		assertEquals("events=incident priority=1 routine=2", policy.getStatistics());
+		assertEquals("events=none priority=0 routine=0", GeoNamesPriorityPolicy.none().getStatistics());
+	}
+
+	private static GeoEvent geoEvent(String definitionName)
+	{
+		return geoEvent(definitionName, Collections.<String, Object> emptyMap());
+	}
+
+	private static GeoEvent geoEvent(String definitionName, String field, Object value)
+	{
+		Map<String, Object> fields = new HashMap<String, Object>();
+		fields.put(field, value);
+		return geoEvent(definitionName, fields);
+	}
+
+	/**
+	 * A GeoEvent of the named definition with the given fields; reading any other field fails as it does on the server.
+	 */
+	private static GeoEvent geoEvent(final String definitionName, final Map<String, Object> fields)
+	{
+		final GeoEventDefinition definition = (GeoEventDefinition) Proxy.newProxyInstance(GeoEventDefinition.class.getClassLoader(), new Class<?>[] { GeoEventDefinition.class }, new InvocationHandler()
+			{
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args)
+				{
+					if (!method.getName().equals("getName"))
+						throw new UnsupportedOperationException(method.getName());
+					return definitionName;
+				}
+			});
+		return (GeoEvent) Proxy.newProxyInstance(GeoEvent.class.getClassLoader(), new Class<?>[] { GeoEvent.class }, new InvocationHandler()
+			{
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args)
+				{
+					if (method.getName().equals("getGeoEventDefinition"))
+						return definition;
+					if (!method.getName().equals("getField") || !(args[0] instanceof String))
+						throw new UnsupportedOperationException(method.getName());
+					if (!fields.containsKey(args[0]))
+						throw new IllegalArgumentException("No field " + args[0]);
+					return fields.get(args[0]);
+				}
+			});
+	}
+}
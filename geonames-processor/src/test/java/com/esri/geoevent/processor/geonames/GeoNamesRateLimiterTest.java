@@ -0,0 +1,212 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class GeoNamesRateLimiterTest
+{
+	@Test
+	public void sharesOneLimiterPerUsername()
+	{
+		assertSame(GeoNamesRateLimiter.forUsername("shared"), GeoNamesRateLimiter.forUsername("shared"));
+		assertFalse(GeoNamesRateLimiter.forUsername("shared") == GeoNamesRateLimiter.forUsername("other"));
+	}
+
+	@Test
+	public void limitsTheHourlyBudget()
+	{
+		GeoNamesRateLimiter limiter = new GeoNamesRateLimiter("test");
+		limiter.setLimits(0, 3);
+		assertEquals(3, limiter.getRemaining());
+		for (int i = 0; i < 3; i++)
+			assertTrue(limiter.tryAcquire());
+		assertFalse(limiter.tryAcquire());
+		assertFalse(limiter.isAvailable());
+		assertEquals(0, limiter.getRemaining());
+		assertEquals(3, limiter.getAcquiredCount());
+
+		limiter.release();
+		assertEquals(2, limiter.getAcquiredCount());
+		assertTrue(limiter.tryAcquire());
+		assertFalse(limiter.tryAcquire());
+	}
+
+	@Test
+	public void doesNotLimitWithoutABudget()
+	{
+		GeoNamesRateLimiter limiter = new GeoNamesRateLimiter("test");
+		limiter.setLimits(0, 0);
+		for (int i = 0; i < 1000; i++)
+			assertTrue(limiter.tryAcquire());
+		assertEquals(Long.MAX_VALUE, limiter.getRemaining());
+	}
+
+	@Test
+	public void waitsForThePerSecondBucketToRefill() throws IOException
+	{
+		GeoNamesRateLimiter limiter = new GeoNamesRateLimiter("test");
+		limiter.setLimits(20, 0);
+		long start = System.nanoTime();
+		for (int i = 0; i < 20; i++)
+			limiter.acquire(false);
+		assertEquals(0, limiter.getThrottledCount());
+		// the 21st token refills after 50 ms
+		limiter.acquire(false);
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(40));
+		assertEquals(1, limiter.getThrottledCount());
+		assertEquals(0, limiter.getShedCount());
+	}
+
+	@Test
+	public void shedsARoutineRequestWaitingWhileAPriorityOneIs() throws Exception
+	{
+		final GeoNamesRateLimiter limiter = new GeoNamesRateLimiter("test");
+		limiter.setLimits(2, 0);
+		assertTrue(limiter.tryAcquire());
+		assertTrue(limiter.tryAcquire());
+		ExecutorService callers = Executors.newFixedThreadPool(2);
+		try
+		{
+			Future<Void> routine = callers.submit(acquire(limiter, false));
+			awaitWaiting(limiter, 1);
+			Future<Void> priority = callers.submit(acquire(limiter, true));
+			try
+			{
+				routine.get(5, TimeUnit.SECONDS);
+				fail();
+			}
+			catch (ExecutionException e)
+			{
+				assertTrue(e.getCause() instanceof GeoNamesRateLimiter.ShedException);
+			}
+			priority.get(5, TimeUnit.SECONDS);
+			assertEquals(1, limiter.getShedCount());
+		}
+		finally
+		{
+			callers.shutdownNow();
+		}
+	}
+
+	@Test
+	public void keepsTheReserveOnlyOncePriorityRequestsAreMade() throws IOException
+	{
+		GeoNamesRateLimiter limiter = new GeoNamesRateLimiter("test");
+		limiter.setLimits(0, 10);
+		limiter.setReserve(50);
+		for (int i = 0; i < 8; i++)
+			limiter.acquire(false);
+		assertEquals(0, limiter.getShedCount());
+
+		limiter = new GeoNamesRateLimiter("test");
+		limiter.setLimits(0, 10);
+		limiter.setReserve(50);
+		limiter.acquire(true);
+		int routine = 0;
+		try
+		{
+			while (true)
+			{
+				limiter.acquire(false);
+				routine++;
+			}
+		}
+		catch (GeoNamesRateLimiter.ShedException e)
+		{
+			// the hourly budget dropped below the reserve
+		}
+		assertEquals(5, routine);
+		assertEquals(1, limiter.getShedCount());
+		// priority requests still take the reserve
+		for (int i = 0; i < 4; i++)
+			limiter.acquire(true);
+		assertEquals(0, limiter.getRemaining());
+	}
+
+	@Test
+	public void doublesTheSuspensionOfLimitsInARow() throws InterruptedException
+	{
+		GeoNamesRateLimiter limiter = new GeoNamesRateLimiter("test");
+		assertFalse(limiter.isSuspended());
+		limiter.limitReached(1);
+		assertTrue(limiter.isSuspended());
+		// the answers to requests already sent do not extend the suspension
+		limiter.limitReached(1);
+		assertEquals(2, limiter.getLimitCount());
+		Thread.sleep(1100);
+		assertFalse(limiter.isSuspended());
+
+		// the second limit in a row suspends the account for 2 seconds
+		limiter.limitReached(1);
+		Thread.sleep(1100);
+		assertTrue(limiter.isSuspended());
+		Thread.sleep(1000);
+		assertFalse(limiter.isSuspended());
+
+		// a successful response ends the run
+		limiter.limitCleared();
+		limiter.limitReached(1);
+		Thread.sleep(1100);
+		assertFalse(limiter.isSuspended());
+	}
+
+	private static Callable<Void> acquire(final GeoNamesRateLimiter limiter, final boolean priority)
+	{
+		return new Callable<Void>()
+			{
+				@Override
+				public Void call() throws IOException
+				{
+					limiter.acquire(priority);
+					return null;
+				}
+			};
+	}
+
+	private static void awaitWaiting(GeoNamesRateLimiter limiter, int count) throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + 5000;
+		while (limiter.getWaitingCount() < count && System.currentTimeMillis() < deadline)
+			Thread.sleep(1);
+		assertEquals(count, limiter.getWaitingCount());
+		// the waiting callers are counted just before they take the lock
+		Thread.sleep(20);
+	}
+}
@@ -0,0 +1,214 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONException;
+import org.junit.After;
+import org.junit.Test;
+
+public class GeoNamesSingleFlightTest
+{
+	private static final int						CALLERS				= 4;
+
+	private final GeoNamesSingleFlight	singleFlight	= new GeoNamesSingleFlight();
+	private final ExecutorService				callers				= Executors.newFixedThreadPool(CALLERS);
+
+	@After
+	public void shutdown()
+	{
+		callers.shutdownNow();
+	}
+
+	@Test
+	public void sharesTheRowsOfOneFetch() throws Exception
+	{
+		final List<GeoNamesRow> rows = Collections.singletonList(new GeoNamesRow(new String[] { "geoNameId" }, new Object[] { 1L }));
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger fetches = new AtomicInteger();
+		List<Future<List<GeoNamesRow>>> results = start(new GeoNamesSingleFlight.Fetcher()
+			{
+				@Override
+				public List<GeoNamesRow> fetch() throws IOException
+				{
+					fetches.incrementAndGet();
+					await(release);
+					return rows;
+				}
+			});
+		awaitCoalesced(CALLERS - 1);
+		release.countDown();
+		for (Future<List<GeoNamesRow>> result : results)
+			assertSame(rows, result.get(5, TimeUnit.SECONDS));
+		assertEquals(1, fetches.get());
+		assertEquals(1, singleFlight.getFetchCount());
+		assertEquals(CALLERS - 1, singleFlight.getCoalescedCount());
+		assertEquals(0, singleFlight.getInFlightCount());
+	}
+
+	@Test
+	public void sharesTheFailureOfOneFetch() throws Exception
+	{
+		final CountDownLatch release = new CountDownLatch(1);
+		List<Future<List<GeoNamesRow>>> results = start(new GeoNamesSingleFlight.Fetcher()
+			{
+				@Override
+				public List<GeoNamesRow> fetch() throws IOException
+				{
+					await(release);
+					throw new IOException("GeoNames is down");
+				}
+			});
+		awaitCoalesced(CALLERS - 1);
+		release.countDown();
+		for (Future<List<GeoNamesRow>> result : results)
+		{
+			try
+			{
+				result.get(5, TimeUnit.SECONDS);
+				fail();
+			}
+			catch (ExecutionException e)
+			{
+				assertTrue(e.getCause() instanceof IOException);
+				assertEquals("GeoNames is down", e.getCause().getMessage());
+			}
+		}
+		assertEquals(1, singleFlight.getFetchCount());
+	}
+
+	@Test
+	public void retriesAFetchTheRateLimiterShed() throws Exception
+	{
+		final List<GeoNamesRow> rows = Collections.emptyList();
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger fetches = new AtomicInteger();
+		List<Future<List<GeoNamesRow>>> results = start(new GeoNamesSingleFlight.Fetcher()
+			{
+				@Override
+				public List<GeoNamesRow> fetch() throws IOException
+				{
+					if (fetches.incrementAndGet() == 1)
+					{
+						await(release);
+						throw new GeoNamesRateLimiter.ShedException("shed");
+					}
+					return rows;
+				}
+			});
+		awaitCoalesced(CALLERS - 1);
+		release.countDown();
+		int shed = 0;
+		for (Future<List<GeoNamesRow>> result : results)
+		{
+			try
+			{
+				assertSame(rows, result.get(5, TimeUnit.SECONDS));
+			}
+			catch (ExecutionException e)
+			{
+				assertTrue(e.getCause() instanceof GeoNamesRateLimiter.ShedException);
+				shed++;
+			}
+		}
+		// only the caller whose own fetch was shed fails, the others fetch again
+		assertEquals(1, shed);
+		assertTrue(fetches.get() >= 2);
+	}
+
+	@Test
+	public void fetchesDifferentKeysSeparately() throws IOException, JSONException
+	{
+		GeoNamesSingleFlight.Fetcher fetcher = new GeoNamesSingleFlight.Fetcher()
+			{
+				@Override
+				public List<GeoNamesRow> fetch()
+				{
+					return Collections.emptyList();
+				}
+			};
+		singleFlight.execute("a", fetcher);
+		singleFlight.execute("b", fetcher);
+		singleFlight.execute("a", fetcher);
+		assertEquals(3, singleFlight.getFetchCount());
+		assertEquals(0, singleFlight.getCoalescedCount());
+	}
+
+	private List<Future<List<GeoNamesRow>>> start(final GeoNamesSingleFlight.Fetcher fetcher)
+	{
+		List<Future<List<GeoNamesRow>>> results = new ArrayList<Future<List<GeoNamesRow>>>();
+		for (int i = 0; i < CALLERS; i++)
+		{
+			results.add(callers.submit(new Callable<List<GeoNamesRow>>()
+				{
+					@Override
+					public List<GeoNamesRow> call() throws Exception
+					{
+						return singleFlight.execute("key", fetcher);
+					}
+				}));
+		}
+		return results;
+	}
+
+	private void awaitCoalesced(long count) throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + 5000;
+		while (singleFlight.getCoalescedCount() < count && System.currentTimeMillis() < deadline)
+			Thread.sleep(1);
+		assertEquals(count, singleFlight.getCoalescedCount());
+		// the coalesced callers are counted just before they wait
+		Thread.sleep(20);
+	}
+
+	private static void await(CountDownLatch latch) throws IOException
+	{
+		try
+		{
+			latch.await();
+		}
+		catch (InterruptedException e)
+		{
+			throw new IOException(e);
+		}
+	}
+}
@@ -0,0 +1,238 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local HTTP server standing in for GeoNames in the tests. Each request is answered with the response set for its
+ * username, else the response set for its service endpoint, else the default response, and the usernames of the
+ * requests are recorded in the order received.
+ */
+class GeoNamesTestServer
+{
+	private final HttpServer						server;
+	private final ExecutorService				executor;
+	private final Map<String, byte[]>		responses					= new ConcurrentHashMap<String, byte[]>();
+	private final Map<String, byte[]>		endpointResponses	= new ConcurrentHashMap<String, byte[]>();
+	private final List<String>					usernames					= Collections.synchronizedList(new ArrayList<String>());
+	private final Set<String>						connections				= Collections.synchronizedSet(new HashSet<String>());
+	private final AtomicLong						nextDelayMillis		= new AtomicLong();
+	private volatile long								delayMillis;
+	private volatile byte[]							defaultResponse;
+	private volatile String							defaultEncoding;
+
+	GeoNamesTestServer() throws IOException
+	{
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		executor = Executors.newCachedThreadPool();
+		server.setExecutor(executor);
+		server.createContext("/", new HttpHandler()
+			{
+				@Override
+				public void handle(HttpExchange exchange) throws IOException
+				{
+					try
+					{
+						answer(exchange);
+					}
+					finally
+					{
+						exchange.close();
+					}
+				}
+			});
+		respond("{\"geonames\":[]}");
+		server.start();
+	}
+
+	String getBaseUrl()
+	{
+		return "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	void respond(String body)
+	{
+		respond(null, utf8(body));
+	}
+
+	/**
+	 * Sets the default response to a body already compressed with the given content encoding, such as gzip.
+	 */
+	void respond(String contentEncoding, byte[] body)
+	{
+		defaultEncoding = contentEncoding;
+		defaultResponse = body;
+	}
+
+	void respond(String username, String body)
+	{
+		responses.put(username, utf8(body));
+	}
+
+	/**
+	 * Answers the requests to a service endpoint, such as findNearbyPOIsOSMJSON, that have no response set for their
+	 * username.
+	 */
+	void respondAt(String endpoint, String body)
+	{
+		endpointResponses.put("/" + endpoint, utf8(body));
+	}
+
+	/**
+	 * Holds the response to every request back for the given time.
+	 */
+	void delay(long millis)
+	{
+		delayMillis = millis;
+	}
+
+	/**
+	 * Holds the response to the next request back for the given time.
+	 */
+	void delayNext(long millis)
+	{
+		nextDelayMillis.set(millis);
+	}
+
+	/**
+	 * The usernames of the requests received so far, in order.
+	 */
+	List<String> getUsernames()
+	{
+		synchronized (usernames)
+		{
+			return new ArrayList<String>(usernames);
+		}
+	}
+
+	int getRequestCount()
+	{
+		return usernames.size();
+	}
+
+	/**
+	 * The number of connections the requests received so far came in on, which is below the number of requests when
+	 * connections were kept alive.
+	 */
+	int getConnectionCount()
+	{
+		return connections.size();
+	}
+
+	void stop()
+	{
+		server.stop(0);
+		executor.shutdownNow();
+		try
+		{
+			executor.awaitTermination(5, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void answer(HttpExchange exchange) throws IOException
+	{
+		String username = parameter(exchange.getRequestURI().getRawQuery(), "username");
+		usernames.add(username);
+		connections.add(exchange.getRemoteAddress().toString());
+		InputStream in = exchange.getRequestBody();
+		while (in.read() != -1)
+			;
+		long delayMillis = Math.max(this.delayMillis, nextDelayMillis.getAndSet(0));
+		if (delayMillis > 0)
+		{
+			try
+			{
+				Thread.sleep(delayMillis);
+			}
+			catch (InterruptedException e)
+			{
+				return;
+			}
+		}
+		byte[] body = (username != null) ? responses.get(username) : null;
+		if (body == null)
+			body = endpointResponses.get(exchange.getRequestURI().getPath());
+		String contentEncoding = null;
+		if (body == null)
+		{
+			contentEncoding = defaultEncoding;
+			body = defaultResponse;
+		}
+		exchange.getResponseHeaders().set("Content-Type", "application/json;charset=UTF-8");
+		if (contentEncoding != null)
+			exchange.getResponseHeaders().set("Content-Encoding", contentEncoding);
+		exchange.sendResponseHeaders(200, body.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(body);
+		out.close();
+	}
+
+	private static String parameter(String query, String name)
+	{
+		if (query == null)
+			return null;
+		for (String pair : query.split("&"))
+		{
+			if (pair.startsWith(name + "="))
+				return pair.substring(name.length() + 1);
+		}
+		return null;
+	}
+
+	private static byte[] utf8(String s)
+	{
+		try
+		{
+			return s.getBytes("UTF-8");
+		}
+		catch (IOException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,251 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.json.JSONException;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GeoNamesTileTest
+{
+	private static final int						PRECISION	= GeoNamesLookup.DEFAULT_CELL_PRECISION;
+	private static final GeoNamesQuery	QUERY			= new GeoNamesQuery(GeoNamesService.WIKIPEDIA, 34.05, -117.19, 5, 10, "en");
+
+	private GeoNamesLookupCache					cache;
+	private GeoNamesLookup							lookup;
+
+	@Before
+	public void createLookup()
+	{
+		cache = new GeoNamesLookupCache(600, 1000);
+		lookup = new GeoNamesLookup(GeoNamesHttpClient.getInstance());
+		lookup.setCache(cache);
+		// nothing listens there, so a lookup that is not answered from the cache fails
+		lookup.setAccounts(GeoNamesAccountPool.of("test", "http://127.0.0.1:1"));
+		lookup.setTiling(1.0, 3, 2);
+	}
+
+	@Test
+	public void answersTheNearestRowsOfTheTile() throws JSONException
+	{
+		GeoNamesTile tile = GeoNamesTile.of(Arrays.asList(row(1, 34.10, -117.19), row(2, 34.06, -117.19), row(3, 34.30, -117.19), row(4, 34.051, -117.19)));
+		List<GeoNamesRow> nearest = tile.nearest(new GeoNamesQuery(GeoNamesService.WIKIPEDIA, 34.05, -117.19, 10, 2, "en"));
+		assertEquals(2, nearest.size());
+		assertEquals(4L, nearest.get(0).identity());
+		assertEquals(2L, nearest.get(1).identity());
+		assertEquals(GeoHash.distanceKm(34.05, -117.19, 34.06, -117.19), nearest.get(1).getDouble("distance"), 1e-9);
+
+		// row 3 is beyond the radius
+		assertEquals(3, tile.nearest(new GeoNamesQuery(GeoNamesService.WIKIPEDIA, 34.05, -117.19, 10, 10, "en")).size());
+	}
+
+	@Test
+	public void keepsTheSplitMarker()
+	{
+		assertTrue(GeoNamesTile.split().isSplit());
+		List<GeoNamesRow> stored = new ArrayList<GeoNamesRow>(GeoNamesTile.split());
+		assertTrue(GeoNamesTile.of(stored).isSplit());
+		assertFalse(GeoNamesTile.of(Arrays.asList(row(1, 34.0, -117.0))).isSplit());
+		GeoNamesTile tile = GeoNamesTile.of(Arrays.asList(row(1, 34.0, -117.0)));
+		assertSame(tile, GeoNamesTile.of(tile));
+	}
+
+	@Test
+	public void answersFromTheTileHoldingTheQuery() throws Exception
+	{
+		put(QUERY.getTile(1.0, 3), row(1, 34.06, -117.19), row(2, 34.50, -117.50));
+		List<GeoNamesRow> rows = lookup.lookup(QUERY);
+		assertEquals(1, rows.size());
+		assertEquals(1L, rows.get(0).identity());
+		assertEquals(1, lookup.getTileHitCount());
+		assertEquals(0, lookup.getTileSplitCount());
+	}
+
+	@Test
+	public void splitsAFullTileIntoQuarters() throws Exception
+	{
+		GeoNamesQuery tile = QUERY.getTile(1.0, 3);
+		GeoNamesQuery quarter = QUERY.getTile(0.5, 3);
+		put(tile, row(1, 34.06, -117.19), row(2, 34.50, -117.50), row(3, 34.70, -117.70));
+		put(quarter, row(1, 34.06, -117.19), row(4, 34.07, -117.19));
+		List<GeoNamesRow> rows = lookup.lookup(QUERY);
+		assertEquals(2, rows.size());
+		assertEquals(1, lookup.getTileSplitCount());
+		assertEquals(1, lookup.getTileHitCount());
+		// the tile now stands for its quarters
+		assertTrue(GeoNamesTile.of(cache.getStale(tile.getCellKey(PRECISION))).isSplit());
+		assertEquals(quarter.getCellKey(PRECISION), lookup.getCacheKey(QUERY));
+
+		// the next lookup in the tile goes straight to its quarter
+		lookup.lookup(QUERY);
+		assertEquals(1, lookup.getTileSplitCount());
+		assertEquals(2, lookup.getTileHitCount());
+	}
+
+	@Test
+	public void looksUpTheCellBelowTheLastLevel() throws Exception
+	{
+		put(QUERY.getTile(1.0, 3), row(1, 34.06, -117.19), row(2, 34.07, -117.19), row(3, 34.08, -117.19));
+		put(QUERY.getTile(0.5, 3), row(1, 34.06, -117.19), row(2, 34.07, -117.19), row(3, 34.08, -117.19));
+		put(QUERY.getTile(0.25, 3), row(1, 34.06, -117.19), row(2, 34.07, -117.19), row(3, 34.08, -117.19));
+		cache.put(QUERY.getCellKey(PRECISION), Arrays.asList(row(5, 34.05, -117.19)));
+		List<GeoNamesRow> rows = lookup.lookup(QUERY);
+		assertEquals(1, rows.size());
+		assertEquals(5L, rows.get(0).identity());
+		assertEquals(2, lookup.getTileSplitCount());
+		assertEquals(1, lookup.getTileSaturatedCount());
+		assertEquals(QUERY.getTile(0.25, 3).getCellKey(PRECISION), lookup.getCacheKey(QUERY));
+	}
+
+	@Test
+	public void sendsANearbyLookupBelowTheLastLevel() throws Exception
+	{
+		GeoNamesTestServer server = new GeoNamesTestServer();
+		try
+		{
+			server.respondAt(GeoNamesService.WIKIPEDIA.getEndpoint(), "{\"geonames\":[{\"geoNameId\":6,\"lat\":34.05,\"lng\":-117.19}]}");
+			server.respondAt(GeoNamesService.WIKIPEDIA.getBoundingBoxEndpoint(), "{\"geonames\":[]}");
+			lookup.setAccounts(GeoNamesAccountPool.of("test", server.getBaseUrl()));
+			put(QUERY.getTile(1.0, 3), row(1, 34.06, -117.19), row(2, 34.07, -117.19), row(3, 34.08, -117.19));
+			put(QUERY.getTile(0.5, 3), row(1, 34.06, -117.19), row(2, 34.07, -117.19), row(3, 34.08, -117.19));
+			put(QUERY.getTile(0.25, 3), row(1, 34.06, -117.19), row(2, 34.07, -117.19), row(3, 34.08, -117.19));
+			List<GeoNamesRow> rows = lookup.lookup(QUERY);
+			assertEquals(1, rows.size());
+			assertEquals(6L, rows.get(0).identity());
+			assertEquals(1, server.getRequestCount());
+			assertEquals(1, lookup.getTileSaturatedCount());
+
+			// the rows of the cell are cached like those of any nearby lookup
+			lookup.lookup(QUERY);
+			assertEquals(1, server.getRequestCount());
+			assertEquals(2, lookup.getTileSplitCount());
+		}
+		finally
+		{
+			server.stop();
+		}
+	}
+
+	@Test
+	public void takesInEveryLongitudeInATileReachingAPole() throws Exception
+	{
+		double dLat = Math.toDegrees(5 / GeoHash.EARTH_RADIUS_KM);
+		GeoNamesQuery north = new GeoNamesQuery(GeoNamesService.WIKIPEDIA, 89.9, 10, 5, 10, "en").getTile(1.0, 3);
+		assertEquals(90, box(north, "north"), 1e-9);
+		assertEquals(89 - dLat, box(north, "south"), 1e-9);
+		assertEquals(180, box(north, "east"), 1e-9);
+		assertEquals(-180, box(north, "west"), 1e-9);
+
+		GeoNamesQuery south = new GeoNamesQuery(GeoNamesService.WIKIPEDIA, -89.9, 10, 5, 10, "en").getTile(1.0, 3);
+		assertEquals(-89 + dLat, box(south, "north"), 1e-9);
+		assertEquals(-90, box(south, "south"), 1e-9);
+		assertEquals(180, box(south, "east"), 1e-9);
+		assertEquals(-180, box(south, "west"), 1e-9);
+	}
+
+	@Test
+	public void widensTheBoxOfATileNearAPoleByTheSearchRadius() throws Exception
+	{
+		// the tile covers 89.5 to 89.75 and 10 to 10.25, where a degree of longitude is under 500m
+		GeoNamesQuery tile = new GeoNamesQuery(GeoNamesService.WIKIPEDIA, 89.6, 10.1, 5, 10, "en").getTile(0.25, 3);
+		assertTrue(box(tile, "east") < 180);
+		assertTrue(GeoHash.distanceKm(89.75, 10.25, 89.75, box(tile, "east")) >= 5);
+		assertTrue(GeoHash.distanceKm(89.75, 10.0, 89.75, box(tile, "west")) >= 5);
+	}
+
+	@Test
+	public void clipsTheBoxAtTheAntimeridian() throws Exception
+	{
+		double dLat = Math.toDegrees(5 / GeoHash.EARTH_RADIUS_KM);
+		GeoNamesQuery east = new GeoNamesQuery(GeoNamesService.WIKIPEDIA, 0.5, 179.9, 5, 10, "en").getTile(1.0, 3);
+		assertEquals(180, box(east, "east"), 1e-9);
+		// a degree of longitude at 1 degree north is within a few meters of one of latitude
+		assertEquals(179 - dLat, box(east, "west"), 1e-4);
+
+		GeoNamesQuery west = new GeoNamesQuery(GeoNamesService.WIKIPEDIA, 0.5, -179.9, 5, 10, "en").getTile(1.0, 3);
+		assertEquals(-179 + dLat, box(west, "east"), 1e-4);
+		assertEquals(-180, box(west, "west"), 1e-9);
+	}
+
+	@Test
+	public void putsTheAntimeridianAndThePolesInTheLastTile() throws Exception
+	{
+		GeoNamesQuery antimeridian = new GeoNamesQuery(GeoNamesService.WIKIPEDIA, 0.5, 180, 5, 10, "en").getTile(1.0, 3);
+		GeoNamesQuery beside = new GeoNamesQuery(GeoNamesService.WIKIPEDIA, 0.5, 179.5, 5, 10, "en").getTile(1.0, 3);
+		assertEquals(beside.getCellKey(PRECISION), antimeridian.getCellKey(PRECISION));
+		assertEquals(179.5, antimeridian.getLon(), 1e-9);
+
+		GeoNamesQuery pole = new GeoNamesQuery(GeoNamesService.WIKIPEDIA, 90, 0.5, 5, 10, "en").getTile(1.0, 3);
+		GeoNamesQuery below = new GeoNamesQuery(GeoNamesService.WIKIPEDIA, 89.5, 0.5, 5, 10, "en").getTile(1.0, 3);
+		assertEquals(below.getCellKey(PRECISION), pole.getCellKey(PRECISION));
+		assertEquals(89.5, pole.getLat(), 1e-9);
+	}
+
+	@Test
+	public void alignsTheQuartersWithTheirTile()
+	{
+		GeoNamesQuery tile = QUERY.getTile(1.0, 3);
+		GeoNamesQuery quarter = QUERY.getTile(0.5, 3);
+		// the tile covers 34 to 35 and -118 to -117, and the query is in its south east quarter
+		assertEquals(34.5, tile.getLat(), 1e-9);
+		assertEquals(-117.5, tile.getLon(), 1e-9);
+		assertEquals(34.25, quarter.getLat(), 1e-9);
+		assertEquals(-117.25, quarter.getLon(), 1e-9);
+		assertTrue(quarter.getRadius() < tile.getRadius());
+		assertFalse(tile.getCellKey(PRECISION).equals(quarter.getCellKey(PRECISION)));
+	}
+
+	private void put(GeoNamesQuery tile, GeoNamesRow... rows)
+	{
+		cache.put(tile.getCellKey(PRECISION), Arrays.asList(rows));
+	}
+
+	/**
+	 * One side of the bounding box a tile query asks for.
+	 */
+	private static double box(GeoNamesQuery tile, String side) throws Exception
+	{
+		for (String parameter : tile.toURL("http://localhost", "test").getQuery().split("&"))
+		{
+			if (parameter.startsWith(side + "="))
+				return Double.parseDouble(parameter.substring(side.length() + 1));
+		}
+		throw new AssertionError(side + " missing from " + tile);
+	}
+
+	private static GeoNamesRow row(long geoNameId, double lat, double lng)
+	{
+		return new GeoNamesRow(new String[] { "geoNameId", "lat", "lng" }, new Object[] { geoNameId, lat, lng });
+	}
+}
@@ -0,0 +1,130 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class GeoNamesTrackFilterTest
+{
+	// 0.0001 degrees of latitude is about 11 meters
+	private static final double	STEP	= 0.0001;
+
+	@Test
+	public void looksUpAnUnknownTrack()
+	{
+		GeoNamesTrackFilter filter = new GeoNamesTrackFilter(GeoNamesTrackFilter.Mode.SKIP, 50, 300, 100);
+		assertNull(filter.suppress("track", 34.0, -117.0));
+		assertEquals(1, filter.getPassedCount());
+	}
+
+	@Test
+	public void suppressesATrackThatHasNotMovedFarEnough()
+	{
+		GeoNamesTrackFilter filter = new GeoNamesTrackFilter(GeoNamesTrackFilter.Mode.SKIP, 50, 300, 100);
+		filter.update("track", 34.0, -117.0, null);
+		assertNotNull(filter.suppress("track", 34.0, -117.0));
+		assertNotNull(filter.suppress("track", 34.0 + 4 * STEP, -117.0));
+		assertNull(filter.suppress("track", 34.0 + 5 * STEP, -117.0));
+		assertEquals(2, filter.getSuppressedCount());
+		assertEquals(1, filter.getPassedCount());
+		// other tracks are looked up wherever they are
+		assertNull(filter.suppress("other", 34.0, -117.0));
+	}
+
+	@Test
+	public void measuresTheDistanceFromTheLastLookup()
+	{
+		GeoNamesTrackFilter filter = new GeoNamesTrackFilter(GeoNamesTrackFilter.Mode.SKIP, 50, 300, 100);
+		filter.update("track", 34.0, -117.0, null);
+		// a track creeping along is looked up again once it is far enough from where it was last looked up
+		double lat = 34.0;
+		int lookups = 0;
+		for (int i = 0; i < 20; i++)
+		{
+			lat += STEP;
+			if (filter.suppress("track", lat, -117.0) == null)
+			{
+				filter.update("track", lat, -117.0, null);
+				lookups++;
+			}
+		}
+		assertEquals(4, lookups);
+	}
+
+	@Test
+	public void looksUpAStationaryTrackAgainOnceTheLookupIsOld() throws InterruptedException
+	{
+		GeoNamesTrackFilter filter = new GeoNamesTrackFilter(GeoNamesTrackFilter.Mode.SKIP, 50, 1, 100);
+		filter.update("track", 34.0, -117.0, null);
+		assertNotNull(filter.suppress("track", 34.0, -117.0));
+		Thread.sleep(1100);
+		assertNull(filter.suppress("track", 34.0, -117.0));
+	}
+
+	@Test
+	public void neverLooksUpAStationaryTrackAgainWithoutAMaxAge()
+	{
+		GeoNamesTrackFilter filter = new GeoNamesTrackFilter(GeoNamesTrackFilter.Mode.SKIP, 50, 0, 100);
+		filter.update("track", 34.0, -117.0, null);
+		assertNotNull(filter.suppress("track", 34.0, -117.0));
+	}
+
+	@Test
+	public void keepsTheRowsToReuse()
+	{
+		GeoNamesTrackFilter filter = new GeoNamesTrackFilter(GeoNamesTrackFilter.Mode.REUSE, 50, 300, 100);
+		assertTrue(filter.isReusingResults());
+		List<GeoNamesRow> rows = Collections.singletonList(new GeoNamesRow(new String[] { "title" }, new Object[] { "a" }));
+		filter.update("track", 34.0, -117.0, rows);
+		assertSame(rows, filter.suppress("track", 34.0, -117.0).getRows());
+	}
+
+	@Test
+	public void forgetsTracksBeyondTheCapacity()
+	{
+		GeoNamesTrackFilter filter = new GeoNamesTrackFilter(GeoNamesTrackFilter.Mode.SKIP, 50, 300, 16);
+		for (int i = 0; i < 1000; i++)
+			filter.update("track" + i, 34.0, -117.0, null);
+		assertTrue(filter.size() <= 16);
+		assertEquals(1000 - filter.size(), filter.getEvictionCount());
+	}
+
+	@Test
+	public void parsesModeLabels()
+	{
+		assertEquals(GeoNamesTrackFilter.Mode.SKIP, GeoNamesTrackFilter.Mode.fromLabel("Skip Lookup"));
+		assertEquals(GeoNamesTrackFilter.Mode.REUSE, GeoNamesTrackFilter.Mode.fromLabel("reuse"));
+		assertEquals(GeoNamesTrackFilter.Mode.OFF, GeoNamesTrackFilter.Mode.fromLabel("unknown"));
+	}
+}
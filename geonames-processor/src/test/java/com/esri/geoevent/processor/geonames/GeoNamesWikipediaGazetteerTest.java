@@ -0,0 +1,194 @@
+/*
+  Copyright 1995-2015 Esri
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+
+  For additional information, contact:
+  Environmental Systems Research Institute, Inc.
+  Attn: Contracts Dept
+  380 New York Street
+  Redlands, California, USA 92373
+
+  email: contracts@esri.com
+*/
+
+package com.esri.geoevent.processor.geonames;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.json.JSONException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class GeoNamesWikipediaGazetteerTest
+{
+	@Rule
+	public final TemporaryFolder	folder	= new TemporaryFolder();
+
+	@Test
+	public void findsTheSameArticlesAsABruteForceSearch() throws JSONException
+	{
+		Random random = new Random(7);
+		List<GeoNamesRow> articles = new ArrayList<GeoNamesRow>();
+		for (int i = 0; i < 5000; i++)
+			articles.add(article("article " + i, 30 + random.nextDouble() * 10, -120 + random.nextDouble() * 10, (i % 4 == 0) ? "de" : "en"));
+		GeoNamesWikipediaGazetteer gazetteer = new GeoNamesWikipediaGazetteer("test", 0, articles);
+		assertEquals(5000, gazetteer.size());
+		for (int i = 0; i < 200; i++)
+		{
+			GeoNamesQuery query = new GeoNamesQuery(GeoNamesService.WIKIPEDIA, 30 + random.nextDouble() * 10, -120 + random.nextDouble() * 10, 1 + random.nextInt(50), 1 + random.nextInt(20), "en");
+			assertRows(bruteForce(articles, query), gazetteer.find(query));
+		}
+	}
+
+	@Test
+	public void answersTheNearestArticlesFirstUpToTheMaximumRows() throws JSONException
+	{
+		GeoNamesWikipediaGazetteer gazetteer = new GeoNamesWikipediaGazetteer("test", 0, Arrays.asList(article("far", 34.10, -117.19, "en"), article("near", 34.051, -117.19, "en"), article("middle", 34.06, -117.19, "en")));
+		List<GeoNamesRow> found = gazetteer.find(new GeoNamesQuery(GeoNamesService.WIKIPEDIA, 34.05, -117.19, 10, 2, "en"));
+		assertEquals(2, found.size());
+		assertEquals("near", found.get(0).getString("title"));
+		assertEquals("middle", found.get(1).getString("title"));
+		assertEquals(GeoHash.distanceKm(34.05, -117.19, 34.06, -117.19), found.get(1).getDouble("distance"), 1e-9);
+	}
+
+	@Test
+	public void leavesOutArticlesBeyondTheRadius() throws JSONException
+	{
+		// 0.1 degrees of latitude is about 11.1 km
+		GeoNamesWikipediaGazetteer gazetteer = new GeoNamesWikipediaGazetteer("test", 0, Arrays.asList(article("inside", 34.15, -117.19, "en"), article("outside", 34.20, -117.19, "en"), article("other language", 34.06, -117.19, "de")));
+		List<GeoNamesRow> found = gazetteer.find(new GeoNamesQuery(GeoNamesService.WIKIPEDIA, 34.10, -117.19, 10, 10, "en"));
+		assertEquals(1, found.size());
+		assertEquals("inside", found.get(0).getString("title"));
+		assertTrue(found.get(0).getDouble("distance") <= 10);
+	}
+
+	@Test
+	public void searchesAcrossTheAntimeridian() throws JSONException
+	{
+		GeoNamesWikipediaGazetteer gazetteer = new GeoNamesWikipediaGazetteer("test", 0, Arrays.asList(article("west", 0, 179.5, "en"), article("east", 0, -179.9, "en"), article("too far east", 0, -179.0, "en")));
+		assertTitles(gazetteer.find(new GeoNamesQuery(GeoNamesService.WIKIPEDIA, 0, 179.9, 50, 10, "en")), "east", "west");
+		assertTitles(gazetteer.find(new GeoNamesQuery(GeoNamesService.WIKIPEDIA, 0, -179.9, 70, 10, "en")), "east", "west");
+	}
+
+	@Test
+	public void searchesAroundThePoles() throws JSONException
+	{
+		GeoNamesWikipediaGazetteer gazetteer = new GeoNamesWikipediaGazetteer("test", 0, Arrays.asList(article("across", 89.9, 180, "en"), article("pole", 90, 0, "en"), article("south", 89.0, 0, "en")));
+		assertTitles(gazetteer.find(new GeoNamesQuery(GeoNamesService.WIKIPEDIA, 89.9, 0, 50, 10, "en")), "pole", "across");
+		// a box reaching the pole is searched at every longitude, but only once
+		assertTitles(gazetteer.find(new GeoNamesQuery(GeoNamesService.WIKIPEDIA, 89.9, 10, 150, 10, "en")), "pole", "across", "south");
+	}
+
+	@Test
+	public void loadsTheJsonFormat() throws IOException, JSONException
+	{
+		File file = write("wikipedia.json", " {\"geonames\":[{\"title\":\"Redlands\",\"lat\":34.05,\"lng\":-117.19,\"lang\":\"en\",\"rank\":90},{\"title\":\"Nowhere\",\"lng\":-117.19,\"lang\":\"en\"}]}");
+		GeoNamesWikipediaGazetteer gazetteer = GeoNamesWikipediaGazetteer.forFile(file.getPath());
+		// an article without a location cannot be found
+		assertEquals(1, gazetteer.size());
+		List<GeoNamesRow> found = gazetteer.find(new GeoNamesQuery(GeoNamesService.WIKIPEDIA, 34.05, -117.19, 1, 10, "en"));
+		assertEquals(1, found.size());
+		assertEquals("Redlands", found.get(0).getString("title"));
+		assertEquals(90, found.get(0).getDouble("rank"), 0);
+		assertSame(gazetteer, GeoNamesWikipediaGazetteer.forFile(file.getPath()));
+	}
+
+	@Test
+	public void loadsTheTabSeparatedFormat() throws IOException, JSONException
+	{
+		File file = write("wikipedia.txt", "summary\ttitle\twikipediaUrl\tlat\tlng\tlang\n" + "A city\tRedlands\ten.wikipedia.org/wiki/Redlands\t34.05\t-117.19\ten\n" + "\n" + "\tLoma Linda\t\t34.048\t-117.25\ten\n" + "No location\tNowhere\t\t\t\ten\n");
+		GeoNamesWikipediaGazetteer gazetteer = GeoNamesWikipediaGazetteer.forFile(file.getPath());
+		assertEquals(2, gazetteer.size());
+		List<GeoNamesRow> found = gazetteer.find(new GeoNamesQuery(GeoNamesService.WIKIPEDIA, 34.05, -117.19, 10, 10, "en"));
+		assertTitles(found, "Redlands", "Loma Linda");
+		assertEquals("A city", found.get(0).getString("summary"));
+		assertEquals("en.wikipedia.org/wiki/Redlands", found.get(0).getString("wikipediaUrl"));
+		// empty columns are left out of the row
+		assertEquals(null, found.get(1).opt("summary"));
+		assertEquals(34.048, found.get(1).getDouble("lat"), 0);
+	}
+
+	private File write(String name, String content) throws IOException
+	{
+		File file = folder.newFile(name);
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try
+		{
+			writer.write(content);
+		}
+		finally
+		{
+			writer.close();
+		}
+		return file;
+	}
+
+	private static GeoNamesRow article(String title, double lat, double lng, String lang)
+	{
+		return new GeoNamesRow(new String[] { "title", "lat", "lng", "lang" }, new Object[] { title, lat, lng, lang });
+	}
+
+	private static List<GeoNamesRow> bruteForce(List<GeoNamesRow> articles, final GeoNamesQuery query)
+	{
+		List<GeoNamesRow> found = new ArrayList<GeoNamesRow>();
+		for (GeoNamesRow article : articles)
+		{
+			if (query.getLang().equals(article.opt("lang")) && distance(query, article) <= query.getRadius())
+				found.add(article);
+		}
+		Collections.sort(found, new Comparator<GeoNamesRow>()
+			{
+				@Override
+				public int compare(GeoNamesRow a, GeoNamesRow b)
+				{
+					return Double.compare(distance(query, a), distance(query, b));
+				}
+			});
+		return found.subList(0, Math.min(found.size(), query.getMaxRows()));
+	}
+
+	private static double distance(GeoNamesQuery query, GeoNamesRow article)
+	{
+		return GeoHash.distanceKm(query.getLat(), query.getLon(), article.optDouble("lat"), article.optDouble("lng"));
+	}
+
+	private static void assertRows(List<GeoNamesRow> expected, List<GeoNamesRow> actual) throws JSONException
+	{
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++)
+			assertEquals(expected.get(i).getString("title"), actual.get(i).getString("title"));
+	}
+
+	private static void assertTitles(List<GeoNamesRow> rows, String... titles) throws JSONException
+	{
+		assertEquals(titles.length, rows.size());
+		for (int i = 0; i < titles.length; i++)
+			assertEquals(titles[i], rows.get(i).getString("title"));
+	}
+}